@@ -75,6 +75,21 @@ public class PlatformFlowManager extends FlowManagerBase implements ReplayStrate
         return replayFlow(PlatformPacket.deserialize(packet)).serialize();
     }
 
+    @Override
+    protected Object deserializePacket(byte[] packet) throws Exception {
+        return PlatformPacket.deserialize(packet);
+    }
+
+    @Override
+    protected Object replayPacket(Object packet) throws Exception {
+        return replayFlow((PlatformPacket)packet);
+    }
+
+    @Override
+    protected byte[] serializePacket(Object packet) throws Exception {
+        return ((PlatformPacket)packet).serialize();
+    }
+
     /**
      * Delegates replay of the <code>packet</code> to
      * {@link ReplayStrategy#replay(PlatformPacket)}.
@@ -16,9 +16,9 @@
 package org.openehealth.ipf.platform.camel.flow;
 
 import org.apache.camel.Exchange;
+import org.openehealth.ipf.commons.flow.packet.PacketCodec;
 import org.openehealth.ipf.platform.camel.flow.util.IOUtils;
 
-import java.io.IOException;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
@@ -124,7 +124,9 @@ public class PlatformPacket implements Serializable {
     }
 
     /**
-     * Deserializes a {@link PlatformPacket} from a byte array.
+     * Deserializes a {@link PlatformPacket} from a byte array. The byte array
+     * may be compressed with {@link PacketCodec}. Packets written with Java
+     * object serialization by earlier versions are still supported.
      * 
      * @param packet
      *            byte array representation of a {@link PlatformPacket}.
@@ -132,20 +134,27 @@ public class PlatformPacket implements Serializable {
      */
     public static PlatformPacket deserialize(byte[] packet) {
         try {
-            return (PlatformPacket) IOUtils.deserialize(packet);
+            byte[] bytes = PacketCodec.decode(packet);
+            if (PlatformPacketCodec.isEncoded(bytes)) {
+                return PlatformPacketCodec.decode(bytes);
+            }
+            return (PlatformPacket) IOUtils.deserialize(bytes);
         } catch (Exception e) {
             throw new PlatformPacketException("cannot deserialize packet", e);
         }
     }
     
     /**
-     * Serializes this packet into a byte array.
+     * Serializes this packet into a byte array using a compact binary
+     * encoding. Property values of types other than strings, numbers,
+     * booleans, dates and byte arrays are written with Java object
+     * serialization.
      * 
      * @return the serialized packet.
      */
     public byte[] serialize() {
         try {
-            return IOUtils.serialize(this);
+            return PlatformPacketCodec.encode(this);
         } catch (Exception e) {
             throw new PlatformPacketException("cannot serialize packet", e);
         }
@@ -153,13 +162,16 @@ public class PlatformPacket implements Serializable {
  
     /**
      * Creates a copy of <code>map</code> omitting entries with values that
-     * are not {@link Serializable}.
+     * are not {@link Serializable}. The check is made on the values' classes
+     * (and cached per class). Entries with values that fail to serialize
+     * nevertheless (e.g. collections with non-serializable elements) are
+     * omitted by {@link #serialize()}.
      * 
      * @param map map to copy.
      * @return serializable copy.
      */
     public static Map<String, Object> serializableCopy(Map<String, Object> map) {
-        HashMap<String, Object> result = new HashMap<>();
+        HashMap<String, Object> result = new HashMap<>(Math.max(16, map.size() * 4 / 3 + 1));
         for (Map.Entry<String, Object> entry : map.entrySet()) {
             if (Exchange.AGGREGATION_STRATEGY.equals(entry.getKey())){
                 // The aggregation strategies are hold in a Map, which is serializable 
@@ -168,14 +180,9 @@ public class PlatformPacket implements Serializable {
                 // See GroovyFlowTest for test case
                 continue;
             }
-            if (entry.getValue() instanceof Serializable) {
-                try {
-                    // only way to proof if the object really is serializable.
-                    IOUtils.serialize(entry.getValue());
-                } catch (IOException ioe){
-                    continue;
-                }
-                result.put(entry.getKey(), entry.getValue());
+            Object value = entry.getValue();
+            if (value != null && PlatformPacketCodec.isSerializable(value)) {
+                result.put(entry.getKey(), value);
             }
         }
         return result;
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.platform.camel.flow;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openehealth.ipf.platform.camel.flow.util.IOUtils;
+
+/**
+ * Binary encoding of {@link PlatformPacket} instances. An encoded packet
+ * starts with the {@link #MAGIC} bytes followed by a version byte. Body and
+ * strings are length-prefixed, property values of common types
+ * ({@link String}, {@link Integer}, {@link Long}, {@link Short},
+ * {@link Byte}, {@link Double}, {@link Float}, {@link Boolean},
+ * {@link Date} and <code>byte[]</code>) are written with a type tag. Other
+ * values fall back to Java serialization. Entries with values that cannot
+ * be serialized are omitted.
+ * <p>
+ * Packets written with Java serialization by earlier versions start with
+ * <code>0xACED</code> and are not recognized by {@link #isEncoded(byte[])}.
+ */
+class PlatformPacketCodec {
+
+    static final byte[] MAGIC = { 'I', 'P', 'P' };
+
+    static final byte VERSION = 1;
+
+    private static final int NULL_LENGTH = -1;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_INTEGER = 2;
+    private static final byte TAG_LONG = 3;
+    private static final byte TAG_SHORT = 4;
+    private static final byte TAG_BYTE = 5;
+    private static final byte TAG_DOUBLE = 6;
+    private static final byte TAG_FLOAT = 7;
+    private static final byte TAG_BOOLEAN = 8;
+    private static final byte TAG_DATE = 9;
+    private static final byte TAG_BYTES = 10;
+    private static final byte TAG_SERIALIZED = 127;
+    private static final byte TAG_NOT_SERIALIZABLE = -1;
+
+    // ClassValue doesn't prevent class unloading (e.g. of OSGi bundle classes)
+    private static final ClassValue<Byte> TAGS = new ClassValue<Byte>() {
+        @Override
+        protected Byte computeValue(Class<?> type) {
+            return tag(type);
+        }
+    };
+
+    private PlatformPacketCodec() {
+    }
+
+    static boolean isEncoded(byte[] bytes) {
+        if (bytes == null || bytes.length < MAGIC.length + 1) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns <code>false</code> if <code>value</code> is known to be not
+     * serializable. The result is determined by the value's class only.
+     * Serializable values with non-serializable content are detected (and
+     * omitted) by {@link #encode(PlatformPacket)}.
+     * 
+     * @param value
+     *            a property value.
+     * @return whether the value may be serializable.
+     */
+    static boolean isSerializable(Object value) {
+        return value == null || TAGS.get(value.getClass()) != TAG_NOT_SERIALIZABLE;
+    }
+
+    static byte[] encode(PlatformPacket packet) throws IOException {
+        byte[] body = packet.getMessageBody();
+        PacketOutputStream bos = new PacketOutputStream(
+                (body == null ? 0 : body.length) + 512);
+        DataOutputStream out = new DataOutputStream(bos);
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        writeString(out, packet.getReplayStrategyId());
+        writeBytes(out, body);
+        writeMap(out, bos, packet.getExchangeProperties());
+        writeMap(out, bos, packet.getMessageProperties());
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    static PlatformPacket decode(byte[] bytes) throws IOException, ClassNotFoundException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        in.skipBytes(MAGIC.length);
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new PlatformPacketException("unsupported packet version " + version);
+        }
+        PlatformPacket packet = new PlatformPacket();
+        packet.setReplayStrategyId(readString(in));
+        packet.setMessageBody(readBytes(in));
+        packet.setExchangeProperties(readMap(in));
+        packet.setMessageProperties(readMap(in));
+        return packet;
+    }
+
+    private static void writeMap(DataOutputStream out, PacketOutputStream bos, Map<String, Object> map) throws IOException {
+        if (map == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        int sizePosition = bos.size();
+        int size = 0;
+        out.writeInt(size);
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            int entryPosition = bos.size();
+            writeString(out, entry.getKey());
+            if (writeValue(out, entry.getValue())) {
+                size++;
+            } else {
+                bos.reset(entryPosition);
+            }
+        }
+        bos.writeInt(sizePosition, size);
+    }
+
+    private static Map<String, Object> readMap(DataInputStream in) throws IOException, ClassNotFoundException {
+        int size = in.readInt();
+        if (size == NULL_LENGTH) {
+            return null;
+        }
+        Map<String, Object> map = new HashMap<>(Math.max(16, size * 4 / 3 + 1));
+        for (int i = 0; i < size; i++) {
+            map.put(readString(in), readValue(in));
+        }
+        return map;
+    }
+
+    private static boolean writeValue(DataOutputStream out, Object value) throws IOException {
+        byte tag = value == null ? TAG_NULL : TAGS.get(value.getClass());
+        switch (tag) {
+        case TAG_NULL:
+            out.writeByte(tag);
+            break;
+        case TAG_STRING:
+            out.writeByte(tag);
+            writeString(out, (String)value);
+            break;
+        case TAG_INTEGER:
+            out.writeByte(tag);
+            out.writeInt((Integer)value);
+            break;
+        case TAG_LONG:
+            out.writeByte(tag);
+            out.writeLong((Long)value);
+            break;
+        case TAG_SHORT:
+            out.writeByte(tag);
+            out.writeShort((Short)value);
+            break;
+        case TAG_BYTE:
+            out.writeByte(tag);
+            out.writeByte((Byte)value);
+            break;
+        case TAG_DOUBLE:
+            out.writeByte(tag);
+            out.writeDouble((Double)value);
+            break;
+        case TAG_FLOAT:
+            out.writeByte(tag);
+            out.writeFloat((Float)value);
+            break;
+        case TAG_BOOLEAN:
+            out.writeByte(tag);
+            out.writeBoolean((Boolean)value);
+            break;
+        case TAG_DATE:
+            out.writeByte(tag);
+            out.writeLong(((Date)value).getTime());
+            break;
+        case TAG_BYTES:
+            out.writeByte(tag);
+            writeBytes(out, (byte[])value);
+            break;
+        case TAG_SERIALIZED:
+            byte[] bytes;
+            try {
+                bytes = IOUtils.serialize(value);
+            } catch (IOException e) {
+                // serializable type with non-serializable content
+                return false;
+            }
+            out.writeByte(tag);
+            writeBytes(out, bytes);
+            break;
+        default:
+            return false;
+        }
+        return true;
+    }
+
+    private static byte tag(Class<?> type) {
+        // exact class checks preserve the type of subclasses (e.g. java.sql.Timestamp)
+        if (type == String.class) {
+            return TAG_STRING;
+        } else if (type == Integer.class) {
+            return TAG_INTEGER;
+        } else if (type == Long.class) {
+            return TAG_LONG;
+        } else if (type == Short.class) {
+            return TAG_SHORT;
+        } else if (type == Byte.class) {
+            return TAG_BYTE;
+        } else if (type == Double.class) {
+            return TAG_DOUBLE;
+        } else if (type == Float.class) {
+            return TAG_FLOAT;
+        } else if (type == Boolean.class) {
+            return TAG_BOOLEAN;
+        } else if (type == Date.class) {
+            return TAG_DATE;
+        } else if (type == byte[].class) {
+            return TAG_BYTES;
+        } else if (Serializable.class.isAssignableFrom(type)) {
+            return TAG_SERIALIZED;
+        }
+        return TAG_NOT_SERIALIZABLE;
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException, ClassNotFoundException {
+        byte tag = in.readByte();
+        switch (tag) {
+        case TAG_NULL:
+            return null;
+        case TAG_STRING:
+            return readString(in);
+        case TAG_INTEGER:
+            return in.readInt();
+        case TAG_LONG:
+            return in.readLong();
+        case TAG_SHORT:
+            return in.readShort();
+        case TAG_BYTE:
+            return in.readByte();
+        case TAG_DOUBLE:
+            return in.readDouble();
+        case TAG_FLOAT:
+            return in.readFloat();
+        case TAG_BOOLEAN:
+            return in.readBoolean();
+        case TAG_DATE:
+            return new Date(in.readLong());
+        case TAG_BYTES:
+            return readBytes(in);
+        case TAG_SERIALIZED:
+            return IOUtils.deserialize(readBytes(in));
+        default:
+            throw new PlatformPacketException("unknown value tag " + tag);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(NULL_LENGTH);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        if (length < 0 || length > in.available()) {
+            throw new PlatformPacketException("invalid length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static class PacketOutputStream extends ByteArrayOutputStream {
+
+        PacketOutputStream(int size) {
+            super(size);
+        }
+
+        void reset(int position) {
+            count = position;
+        }
+
+        void writeInt(int position, int value) {
+            buf[position] = (byte)(value >>> 24);
+            buf[position + 1] = (byte)(value >>> 16);
+            buf[position + 2] = (byte)(value >>> 8);
+            buf[position + 3] = (byte)value;
+        }
+
+    }
+
+}
@@ -22,13 +22,16 @@ import org.slf4j.LoggerFactory;
 import org.openehealth.ipf.commons.flow.FlowException;
 import org.openehealth.ipf.commons.flow.FlowManager;
 import org.openehealth.ipf.commons.flow.ManagedMessage;
+import org.openehealth.ipf.commons.flow.dedupe.DedupeCache;
 import org.openehealth.ipf.platform.camel.flow.PlatformMessage;
 import org.springframework.beans.factory.annotation.Autowired;
 
 
 /**
  * A duplicate filter predicate that delegates predicate evaluation to 
- * {@link FlowManager#filterFlow(ManagedMessage)}.
+ * {@link FlowManager#filterFlow(ManagedMessage)}. If a {@link DedupeCache}
+ * is configured, known duplicates are filtered without calling the flow
+ * manager.
  * 
  * @author Martin Krasser
  */
@@ -39,6 +42,9 @@ public class Dedupe implements Predicate {
     @Autowired
     private FlowManager flowManager;
     
+    @Autowired(required=false)
+    private DedupeCache dedupeCache;
+    
     /**
      * Sets the {@link FlowManager} used by this predicate. This property is
      * {@link Autowired} when used within a Spring 2.5 (or higher) container.
@@ -50,6 +56,18 @@ public class Dedupe implements Predicate {
         this.flowManager = flowManager;
     }
 
+    /**
+     * Sets the {@link DedupeCache} consulted before the {@link FlowManager}.
+     * This property is {@link Autowired} (if available) when used within a
+     * Spring 2.5 (or higher) container.
+     * 
+     * @param dedupeCache
+     *            a dedupe cache or <code>null</code>.
+     */
+    public void setDedupeCache(DedupeCache dedupeCache) {
+        this.dedupeCache = dedupeCache;
+    }
+
     /**
      * Negates
      * {@link FlowManager#filterFlow(ManagedMessage)}.
@@ -60,7 +78,12 @@ public class Dedupe implements Predicate {
     @Override
     public boolean matches(Exchange exchange) {
         try {
-            return !flowManager.filterFlow(new PlatformMessage(exchange));
+            PlatformMessage message = new PlatformMessage(exchange);
+            if (dedupeCache != null && dedupeCache.filter(message.getFlowId(),
+                    message.getSplitHistory().indexPathString())) {
+                return false;
+            }
+            return !flowManager.filterFlow(message);
         } catch (FlowException e) {
             // thrown if flow id is unknown to flow manager
             LOG.warn("filter flow operation failed", e);
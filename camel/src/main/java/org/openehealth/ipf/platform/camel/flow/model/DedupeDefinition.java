@@ -23,6 +23,7 @@ import org.apache.camel.processor.FilterProcessor;
 import org.apache.camel.spi.Metadata;
 import org.apache.camel.spi.RouteContext;
 import org.openehealth.ipf.commons.flow.FlowManager;
+import org.openehealth.ipf.commons.flow.dedupe.DedupeCache;
 import org.openehealth.ipf.platform.camel.flow.dedupe.Dedupe;
 import org.openehealth.ipf.platform.camel.flow.util.ContextUtils;
 
@@ -62,6 +63,7 @@ public class DedupeDefinition extends FilterDefinition {
         
         dedupe = new Dedupe();
         dedupe.setFlowManager(ContextUtils.bean(FlowManager.class, camelContext));
+        dedupe.setDedupeCache(beanOrNull(DedupeCache.class, camelContext));
         return dedupe;
     }
     
@@ -19,6 +19,8 @@ import org.apache.camel.CamelContext;
 import org.apache.camel.spi.Metadata;
 import org.apache.camel.spi.RouteContext;
 import org.openehealth.ipf.commons.flow.FlowManager;
+import org.openehealth.ipf.commons.flow.core.Duration;
+import org.openehealth.ipf.commons.flow.replay.ReplayThrottle;
 import org.openehealth.ipf.commons.flow.transfer.FlowInfo;
 import org.openehealth.ipf.platform.camel.flow.ReplayStrategyRegistry;
 import org.openehealth.ipf.platform.camel.flow.process.FlowBeginProcessor;
@@ -46,6 +48,14 @@ public class FlowBeginProcessorDefinition extends FlowProcessorDefinition {
     private String replayErrorUri;
     @XmlAttribute
     private int expectedAckCount = FlowInfo.ACK_COUNT_EXPECTED_UNDEFINED;
+    @XmlAttribute
+    private boolean async;
+    @XmlAttribute
+    private String idempotentRetention;
+    @XmlAttribute
+    private String fingerprintHeaders;
+    @XmlAttribute
+    private boolean linkDuplicates;
     
     public FlowBeginProcessorDefinition() {
         this("flow");
@@ -85,6 +95,39 @@ public class FlowBeginProcessorDefinition extends FlowProcessorDefinition {
         return this;
     }
     
+    /**
+     * Writes created flows to the database in the background. Requires a
+     * flow writer in the application context.
+     */
+    public FlowBeginProcessorDefinition async() {
+        this.async = true;
+        return this;
+    }
+    
+    /**
+     * Drops messages with the same content as a flow started within the
+     * retention window (idempotent receiver). The content fingerprint is
+     * computed from the message body and the given headers.
+     * @param retention
+     *          the retention window (e.g. <code>10m</code>, see {@link Duration#parse(String)})
+     * @param headers
+     *          names of headers included in the fingerprint
+     */
+    public FlowBeginProcessorDefinition idempotent(String retention, String... headers) {
+        this.idempotentRetention = retention;
+        this.fingerprintHeaders = String.join(",", headers);
+        return this;
+    }
+    
+    /**
+     * Processes duplicates detected by {@link #idempotent(String, String...)}
+     * in new flows linked to the original flow instead of dropping them.
+     */
+    public FlowBeginProcessorDefinition linkDuplicates() {
+        this.linkDuplicates = true;
+        return this;
+    }
+    
     @Override
     public String toString() {
         return "FlowBeginProcessor[" + identifier + " -> " + getOutputs() + "]";
@@ -102,6 +145,11 @@ public class FlowBeginProcessorDefinition extends FlowProcessorDefinition {
             .identifier(identifier)
             .application(application)
             .expectedAckCount(expectedAckCount)
+            .async(async)
+            .idempotent(idempotentRetention == null ? 0L : Duration.parse(idempotentRetention).getValue())
+            .fingerprintHeaders(fingerprintHeaders == null || fingerprintHeaders.isEmpty()
+                    ? new String[0] : fingerprintHeaders.split(","))
+            .linkDuplicates(linkDuplicates)
             .replayErrorHandler(replayErrorUri)
             .register();
         return processor;
@@ -120,10 +168,12 @@ public class FlowBeginProcessorDefinition extends FlowProcessorDefinition {
         // No FlowBeginProcessor bean found so let's create one. We need a
         // - reference to a ReplayStrategyRegistry
         // - reference to a FlowManager
+        // - reference to a ReplayThrottle (optional)
         processor = new FlowBeginProcessor();
         processor.setCamelContext(camelContext);
         processor.setFlowManager(ContextUtils.bean(FlowManager.class, camelContext));
         processor.setRegistry(ContextUtils.bean(ReplayStrategyRegistry.class, camelContext));
+        processor.setReplayThrottle(ContextUtils.beanOrNull(ReplayThrottle.class, camelContext));
         return processor;
     }
     
@@ -19,12 +19,14 @@ import org.apache.camel.CamelContext;
 import org.apache.camel.spi.Metadata;
 import org.apache.camel.spi.RouteContext;
 import org.openehealth.ipf.commons.flow.FlowManager;
+import org.openehealth.ipf.commons.flow.compact.FlowCompactor;
 import org.openehealth.ipf.platform.camel.flow.process.FlowEndProcessor;
 import org.openehealth.ipf.platform.camel.flow.process.FlowProcessor;
 import org.openehealth.ipf.platform.camel.flow.util.ContextUtils;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlRootElement;
 
 import static org.openehealth.ipf.platform.camel.flow.util.ContextUtils.*;
@@ -37,6 +39,22 @@ import static org.openehealth.ipf.platform.camel.flow.util.ContextUtils.*;
 @XmlAccessorType(XmlAccessType.FIELD)
 public class FlowEndProcessorDefinition extends FlowProcessorDefinition {
 
+    @XmlAttribute
+    private boolean deferred;
+    
+    /**
+     * Acknowledges flows without locking them. Use this for the branches
+     * of splits with many parts. Acknowledgements are folded into the flow
+     * by the next locking flow operation or a flow compactor. Requires a
+     * {@link FlowCompactor} with background compaction in the application
+     * context, otherwise flows acknowledged last by a deferred
+     * acknowledgement would never be completed.
+     */
+    public FlowEndProcessorDefinition deferred() {
+        this.deferred = true;
+        return this;
+    }
+    
     @Override
     public String toString() {
         return "FlowEndProcessor[" + getOutputs() + "]";
@@ -49,7 +67,14 @@ public class FlowEndProcessorDefinition extends FlowProcessorDefinition {
 
     @Override
     public FlowProcessor doCreateProcessor(RouteContext routeContext) throws Exception {
-        return createFlowEndProcessor(routeContext);
+        if (deferred) {
+            FlowCompactor compactor = beanOrNull(FlowCompactor.class, routeContext.getCamelContext());
+            if (compactor == null || compactor.getInterval() == 0L) {
+                throw new IllegalStateException(
+                        "Deferred acknowledgements require a flow compactor with background compaction");
+            }
+        }
+        return createFlowEndProcessor(routeContext).deferred(deferred);
     }
 
     private static FlowEndProcessor createFlowEndProcessor(RouteContext routeContext) {
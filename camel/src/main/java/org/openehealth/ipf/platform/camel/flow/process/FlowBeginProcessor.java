@@ -17,15 +17,25 @@ package org.openehealth.ipf.platform.camel.flow.process;
 
 import org.apache.camel.Endpoint;
 import org.apache.camel.Exchange;
+import org.apache.camel.Message;
 import org.apache.camel.Processor;
 import org.openehealth.ipf.commons.flow.FlowManager;
 import org.openehealth.ipf.commons.flow.ManagedMessage;
+import org.openehealth.ipf.commons.flow.replay.ReplayThrottle;
 import org.openehealth.ipf.commons.flow.transfer.FlowInfo;
 import org.openehealth.ipf.platform.camel.flow.*;
+import org.openehealth.ipf.platform.camel.flow.util.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 /**
  * A processor that triggers a
  * {@link FlowManager#beginFlow(ManagedMessage, String, int)} operation.
@@ -39,6 +49,9 @@ public class FlowBeginProcessor extends FlowProcessor implements ReplayStrategy
     @Autowired
     private ReplayStrategyRegistry registry;
     
+    @Autowired(required=false)
+    private ReplayThrottle replayThrottle;
+    
     private ReplayStrategyRegistration registration;
     
     private Processor replayErrorProcessor;
@@ -48,6 +61,14 @@ public class FlowBeginProcessor extends FlowProcessor implements ReplayStrategy
     private String application;
     
     private int expectedAckCount = FlowInfo.ACK_COUNT_EXPECTED_UNDEFINED;
+    
+    private boolean async;
+
+    private long idempotentRetention;
+
+    private String[] fingerprintHeaders = new String[0];
+
+    private boolean linkDuplicates;
 
     /**
      * Creates a new {@link FlowBeginProcessor}.
@@ -72,6 +93,18 @@ public class FlowBeginProcessor extends FlowProcessor implements ReplayStrategy
         this.registry = registry;
     }
     
+    /**
+     * Sets the {@link ReplayThrottle} that is informed about the outcome and
+     * latency of replayed messages. This property is {@link Autowired} (if
+     * available) when used within a Spring 2.5 (or higher) container.
+     * 
+     * @param replayThrottle
+     *            a replay throttle or <code>null</code>.
+     */
+    public void setReplayThrottle(ReplayThrottle replayThrottle) {
+        this.replayThrottle = replayThrottle;
+    }
+    
     @Override
     public String toString() {
         return "FlowBeginProcessor[" + identifier + " -> " + getProcessor() + "]";
@@ -136,6 +169,73 @@ public class FlowBeginProcessor extends FlowProcessor implements ReplayStrategy
         return this;
     }
     
+    /**
+     * Set to <code>true</code> to write new flows to the database in the
+     * background (see
+     * {@link FlowManager#beginFlowAsync(ManagedMessage, String, int)}).
+     * 
+     * @param async
+     *            whether flows are written asynchronously.
+     * @return this processor.
+     */
+    public FlowBeginProcessor async(boolean async) {
+        this.async = async;
+        return this;
+    }
+    
+    /**
+     * Enables the idempotent receiver mode. A content fingerprint (a SHA-256
+     * hash of the packet body and the
+     * {@link #fingerprintHeaders(String...) fingerprint headers}) is stored
+     * with each new flow. A message is a duplicate if a flow with the same
+     * fingerprint has been started for the same application within the last
+     * <code>retention</code> milliseconds. Duplicates are dropped, i.e. the
+     * flow id header is set to the original flow and the rest of the route
+     * is skipped, unless {@link #linkDuplicates(boolean)} is set. Flows of
+     * idempotent processors are always written synchronously. Serializable
+     * bodies that cannot be converted to a byte array are fingerprinted in
+     * serialized form, other such bodies cause an exception.
+     * 
+     * @param retention
+     *            retention window in milliseconds or <code>0</code> to
+     *            disable duplicate detection.
+     * @return this processor.
+     */
+    public FlowBeginProcessor idempotent(long retention) {
+        if (retention < 0L) {
+            throw new IllegalArgumentException("retention must not be negative");
+        }
+        this.idempotentRetention = retention;
+        return this;
+    }
+
+    /**
+     * Sets the names of the headers that are included in the content
+     * fingerprint of idempotent processors.
+     * 
+     * @param headers
+     *            header names.
+     * @return this processor.
+     */
+    public FlowBeginProcessor fingerprintHeaders(String... headers) {
+        this.fingerprintHeaders = headers == null ? new String[0] : headers.clone();
+        return this;
+    }
+
+    /**
+     * Set to <code>true</code> to process duplicates detected by an
+     * idempotent processor in a new flow that is linked to the original
+     * flow instead of dropping them.
+     * 
+     * @param linkDuplicates
+     *            whether duplicates are processed in linked flows.
+     * @return this processor.
+     */
+    public FlowBeginProcessor linkDuplicates(boolean linkDuplicates) {
+        this.linkDuplicates = linkDuplicates;
+        return this;
+    }
+
     /* (non-Javadoc)
      * @see org.openehealth.ipf.platform.camel.flow.ReplayStrategy#register()
      */
@@ -172,7 +272,8 @@ public class FlowBeginProcessor extends FlowProcessor implements ReplayStrategy
     /**
      * Replays the exchange represented by <code>packet</code>. If the
      * replayed exchange has failed it is forwarded to the error endpoint
-     * configured via {@link #replayErrorProcessor}.
+     * configured via {@link #replayErrorProcessor}. The outcome is reported
+     * to the {@link ReplayThrottle} (if any).
      * 
      * @throws Exception
      *             if replay fails.
@@ -181,11 +282,15 @@ public class FlowBeginProcessor extends FlowProcessor implements ReplayStrategy
     @Override
     public PlatformPacket replay(PlatformPacket packet) throws Exception {
         Exchange exchange = createExchange(packet);
+        long start = System.currentTimeMillis();
         try {
 			getProcessor().process(exchange);
 		} catch (Exception e) {
             // ok
 		}
+        if (replayThrottle != null) {
+            replayThrottle.replayed(application, System.currentTimeMillis() - start, exchange.isFailed());
+        }
         if (exchange.isFailed()) {
             setFailureHandled(exchange);
             replayErrorProcessor.process(exchange);
@@ -195,6 +300,9 @@ public class FlowBeginProcessor extends FlowProcessor implements ReplayStrategy
 
     /**
      * Delegates to {@link FlowManager#beginFlow(ManagedMessage, String, int)}
+     * or {@link FlowManager#beginFlowAsync(ManagedMessage, String, int)}.
+     * Idempotent processors check for a duplicate flow first (except on
+     * replay).
      * 
      * @param message
      *            managed message.
@@ -202,7 +310,13 @@ public class FlowBeginProcessor extends FlowProcessor implements ReplayStrategy
     @Override
     protected void processMessage(PlatformMessage message) {
         try {
-            flowManager.beginFlow(message, application, expectedAckCount);
+            if (idempotentRetention > 0L && message.getFlowId() == null) {
+                beginFlowIdempotent(message);
+            } else if (async) {
+                flowManager.beginFlowAsync(message, application, expectedAckCount);
+            } else {
+                flowManager.beginFlow(message, application, expectedAckCount);
+            }
         } catch (Exception e) {
             // apply conversions defined in route 
             message.createPacket();
@@ -212,6 +326,76 @@ public class FlowBeginProcessor extends FlowProcessor implements ReplayStrategy
         
     }
 
+    private void beginFlowIdempotent(PlatformMessage message) {
+        String fingerprint = fingerprint(message.getExchange());
+        Long originalFlowId = flowManager.findDuplicateFlowId(application, fingerprint, idempotentRetention);
+        if (originalFlowId != null && !linkDuplicates) {
+            LOG.debug("dropping duplicate of flow {}", originalFlowId);
+            message.setFlowId(originalFlowId);
+            message.getExchange().setProperty(Exchange.ROUTE_STOP, Boolean.TRUE);
+            return;
+        }
+        flowManager.beginFlow(message, application, expectedAckCount, fingerprint, originalFlowId);
+    }
+
+    private String fingerprint(Exchange exchange) {
+        Message in = exchange.getIn();
+        MessageDigest digest = sha256();
+        update(digest, fingerprintBody(exchange));
+        for (String header : fingerprintHeaders) {
+            update(digest, header.getBytes(StandardCharsets.UTF_8));
+            String value = in.getHeader(header, String.class);
+            update(digest, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private byte[] fingerprintBody(Exchange exchange) {
+        Message in = exchange.getIn();
+        Object body = in.getBody();
+        if (body instanceof InputStream) {
+            // keep the body readable for creating the packet
+            body = in.getBody(byte[].class);
+            in.setBody(body);
+        }
+        // packet body (same conversions as the packet of the flow)
+        byte[] bytes = createPacket(exchange).getMessageBody();
+        if (bytes != null || body == null) {
+            return bytes;
+        }
+        // body without byte[] conversion (bodies must not hash like an empty body)
+        if (body instanceof Serializable) {
+            try {
+                return IOUtils.serialize(body);
+            } catch (IOException e) {
+                throw new PlatformPacketException("cannot fingerprint body of type " + body.getClass().getName(), e);
+            }
+        }
+        throw new PlatformPacketException("cannot fingerprint body of type " + body.getClass().getName());
+    }
+
+    private static void update(MessageDigest digest, byte[] bytes) {
+        // length prefix (-1 for null) keeps field boundaries unambiguous
+        int length = bytes == null ? -1 : bytes.length;
+        digest.update(new byte[] {
+                (byte)(length >>> 24), (byte)(length >>> 16), (byte)(length >>> 8), (byte)length });
+        if (bytes != null) {
+            digest.update(bytes);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     @Override
     protected void doStop() throws Exception {
         unregister();
@@ -33,13 +33,29 @@ public class FlowEndProcessor extends FlowProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(FlowEndProcessor.class);
     
+    private boolean deferred;
+    
+    /**
+     * Acknowledges flows without locking them (see
+     * {@link FlowManager#acknowledgeFlowDeferred(ManagedMessage)}).
+     * 
+     * @param deferred
+     *            whether acknowledgements are deferred.
+     * @return this processor.
+     */
+    public FlowEndProcessor deferred(boolean deferred) {
+        this.deferred = deferred;
+        return this;
+    }
+    
     @Override
     public String toString() {
         return "FlowEndProcessor[" + getProcessor() + "]";
     }
 
     /**
-     * Delegates to {@link FlowManager#acknowledgeFlow(ManagedMessage)}
+     * Delegates to {@link FlowManager#acknowledgeFlow(ManagedMessage)} or
+     * {@link FlowManager#acknowledgeFlowDeferred(ManagedMessage)}.
      * 
      * @param message
      *            managed message.
@@ -50,7 +66,11 @@ public class FlowEndProcessor extends FlowProcessor {
             return;
         }
         try {
-            flowManager.acknowledgeFlow(message);
+            if (deferred) {
+                flowManager.acknowledgeFlowDeferred(message);
+            } else {
+                flowManager.acknowledgeFlow(message);
+            }
         } catch (FlowException e) {
             // thrown if flow id is unknown to flow manager
             LOG.warn("acknowledge flow operation failed", e);
@@ -284,6 +284,8 @@ public abstract class FlowProcessor extends DelegateProcessor implements Platfor
 
     /**
      * Processes <code>exchange</code> by delegating to{@link #processMessage}.
+     * The next processor is skipped if {@link #processMessage} stopped the
+     * route (see {@link Exchange#ROUTE_STOP}).
      * 
      * @param exchange
      *            exchange to process.
@@ -291,6 +293,9 @@ public abstract class FlowProcessor extends DelegateProcessor implements Platfor
     @Override
     public void processNext(Exchange exchange) throws Exception {
         processMessage(createMessage(exchange));
+        if (exchange.getProperty(Exchange.ROUTE_STOP, false, Boolean.class)) {
+            return;
+        }
         super.processNext(exchange);
     }
     
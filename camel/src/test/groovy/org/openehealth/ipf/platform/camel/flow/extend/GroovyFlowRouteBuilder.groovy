@@ -143,6 +143,23 @@ class GroovyFlowRouteBuilder extends RouteBuilder {
             .to('mock:mock')
             .ackFlow()
 
+        from('direct:flow-test-10')
+            .initFlow('test-10')
+                .application('test')
+                .idempotent('1m', 'sender')
+                .outType(String.class)
+            .to('mock:mock')
+            .ackFlow()
+
+        from('direct:flow-test-11')
+            .initFlow('test-11')
+                .application('test')
+                .idempotent('1m')
+                .linkDuplicates()
+                .outType(String.class)
+            .to('mock:mock')
+            .ackFlow()
+
         // --------------------------------------------------------------
         //  Split Flows (original Camel splitter)
         // --------------------------------------------------------------
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.platform.camel.flow;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.openehealth.ipf.platform.camel.flow.util.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the binary {@link PlatformPacket} encoding with Java object
+ * serialization used by earlier versions.
+ */
+public class PlatformPacketLoadTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PlatformPacketLoadTest.class);
+
+    private static final int ITERATIONS = 50000;
+
+    @Test
+    public void testSerialization() throws Exception {
+        PlatformPacket packet = PlatformPacketTest.createPacket();
+        Map<String, Object> headers = packet.getMessageProperties();
+        for (int i = 0; i < 10; i++) {
+            headers.put("header" + i, "value" + i);
+        }
+        headers.keySet().removeIf(key -> key.equals("timestamp") || key.equals("decimal"));
+        byte[] legacy = IOUtils.serialize(packet);
+        byte[] binary = packet.serialize();
+        for (int i = 0; i < 2; i++) {
+            // first round is warm up
+            long legacyWrite = time(() -> IOUtils.serialize(packet));
+            long binaryWrite = time(packet::serialize);
+            long legacyRead = time(() -> IOUtils.deserialize(legacy));
+            long binaryRead = time(() -> PlatformPacket.deserialize(binary));
+            LOG.info("java serialization: {} bytes, {} us/write, {} us/read", legacy.length,
+                    micros(legacyWrite), micros(legacyRead));
+            LOG.info("binary codec: {} bytes, {} us/write, {} us/read", binary.length,
+                    micros(binaryWrite), micros(binaryRead));
+        }
+    }
+
+    @Test
+    public void testSerializableCopy() throws Exception {
+        Map<String, Object> headers = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            headers.put("CamelHeader" + i, "value" + i);
+        }
+        headers.put("CamelFileLength", 4711L);
+        headers.put("CamelFileLastModified", new Date());
+        headers.put("CamelRedelivered", Boolean.FALSE);
+        headers.put("CamelRedeliveryCounter", 0);
+        headers.put("breadcrumbs", new ArrayList<>(Arrays.asList("a", "b", "c")));
+        headers.put("processor", new Object());
+        PlatformPacket packet = PlatformPacketTest.createPacket();
+        for (int i = 0; i < 2; i++) {
+            // first round is warm up
+            long probe = time(() -> {
+                packet.setMessageProperties(probingCopy(headers));
+                return packet.serialize();
+            });
+            long classified = time(() -> {
+                packet.setMessageProperties(PlatformPacket.serializableCopy(headers));
+                return packet.serialize();
+            });
+            LOG.info("{} headers: {} us/packet (probing copy), {} us/packet (classifying copy)",
+                    headers.size(), micros(probe), micros(classified));
+        }
+    }
+
+    private static long time(Operation operation) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            operation.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%.2f", nanos / 1000.0 / ITERATIONS);
+    }
+
+    /**
+     * Copy algorithm of earlier versions that serializes each value.
+     */
+    private static Map<String, Object> probingCopy(Map<String, Object> map) {
+        HashMap<String, Object> result = new HashMap<>();
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            if (entry.getValue() instanceof Serializable) {
+                try {
+                    IOUtils.serialize(entry.getValue());
+                } catch (IOException ioe) {
+                    continue;
+                }
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    private interface Operation {
+        Object run() throws Exception;
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.platform.camel.flow;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.openehealth.ipf.commons.flow.packet.PacketCodec;
+import org.openehealth.ipf.commons.flow.packet.PacketCompression;
+import org.openehealth.ipf.platform.camel.flow.util.IOUtils;
+
+/**
+ * Tests for {@link PlatformPacket} serialization.
+ */
+public class PlatformPacketTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        PlatformPacket packet = createPacket();
+        byte[] bytes = packet.serialize();
+        assertTrue(PlatformPacketCodec.isEncoded(bytes));
+        assertPacketEquals(packet, PlatformPacket.deserialize(bytes));
+    }
+
+    @Test
+    public void testNullValues() throws Exception {
+        PlatformPacket packet = new PlatformPacket();
+        PlatformPacket result = PlatformPacket.deserialize(packet.serialize());
+        assertNull(result.getReplayStrategyId());
+        assertNull(result.getMessageBody());
+        assertNull(result.getExchangeProperties());
+        assertNull(result.getMessageProperties());
+    }
+
+    @Test
+    public void testLegacyPacket() throws Exception {
+        PlatformPacket packet = createPacket();
+        byte[] legacy = IOUtils.serialize(packet);
+        assertPacketEquals(packet, PlatformPacket.deserialize(legacy));
+        assertTrue(packet.serialize().length < legacy.length);
+    }
+
+    @Test
+    public void testCompressedPacket() throws Exception {
+        PlatformPacket packet = createPacket();
+        byte[] compressed = PacketCodec.encode(packet.serialize(), PacketCompression.DEFLATE, 0);
+        assertPacketEquals(packet, PlatformPacket.deserialize(compressed));
+    }
+
+    @Test
+    public void testSerializableCopy() throws Exception {
+        List<Object> nonSerializableContent = new ArrayList<>();
+        nonSerializableContent.add(new Object());
+        Map<String, Object> headers = new HashMap<>();
+        headers.put("string", "value");
+        headers.put("null", null);
+        headers.put("object", new Object());
+        headers.put("list", nonSerializableContent);
+        Map<String, Object> copy = PlatformPacket.serializableCopy(headers);
+        assertEquals(2, copy.size());
+        assertEquals("value", copy.get("string"));
+        PlatformPacket packet = new PlatformPacket();
+        packet.setMessageProperties(copy);
+        Map<String, Object> result = PlatformPacket.deserialize(packet.serialize()).getMessageProperties();
+        assertEquals(1, result.size());
+        assertEquals("value", result.get("string"));
+        assertFalse(result.containsKey("list"));
+    }
+
+    @Test(expected = PlatformPacketException.class)
+    public void testCorruptPacket() throws Exception {
+        byte[] bytes = createPacket().serialize();
+        bytes[PlatformPacketCodec.MAGIC.length] = 99;
+        PlatformPacket.deserialize(bytes);
+    }
+
+    static PlatformPacket createPacket() {
+        Map<String, Object> exchangeProperties = new HashMap<>();
+        exchangeProperties.put("string", "value");
+        exchangeProperties.put("int", 1);
+        exchangeProperties.put("long", 2L);
+        exchangeProperties.put("short", (short)3);
+        exchangeProperties.put("byte", (byte)4);
+        exchangeProperties.put("double", 5.5);
+        exchangeProperties.put("float", 6.5f);
+        exchangeProperties.put("boolean", true);
+        exchangeProperties.put("null", null);
+        Map<String, Object> messageProperties = new HashMap<>();
+        messageProperties.put("date", new Date(1000L));
+        messageProperties.put("bytes", new byte[] {1, 2, 3});
+        messageProperties.put("timestamp", new Timestamp(2000L));
+        messageProperties.put("decimal", new BigDecimal("1.25"));
+        PlatformPacket packet = new PlatformPacket();
+        packet.setReplayStrategyId("strategy");
+        packet.setMessageBody("MSH|^~\\&|SAP-ISH|HZL|||20040805152637||ADT^A01|123456|P|2.2".getBytes());
+        packet.setExchangeProperties(exchangeProperties);
+        packet.setMessageProperties(messageProperties);
+        return packet;
+    }
+
+    private static void assertPacketEquals(PlatformPacket expected, PlatformPacket actual) {
+        assertEquals(expected.getReplayStrategyId(), actual.getReplayStrategyId());
+        assertArrayEquals(expected.getMessageBody(), actual.getMessageBody());
+        assertEquals(expected.getExchangeProperties(), actual.getExchangeProperties());
+        Map<String, Object> messageProperties = new HashMap<>(actual.getMessageProperties());
+        assertArrayEquals((byte[])expected.getMessageProperties().get("bytes"), (byte[])messageProperties.remove("bytes"));
+        assertEquals(Timestamp.class, messageProperties.get("timestamp").getClass());
+        Map<String, Object> expectedProperties = new HashMap<>(expected.getMessageProperties());
+        expectedProperties.remove("bytes");
+        assertEquals(expectedProperties, messageProperties);
+    }
+
+}
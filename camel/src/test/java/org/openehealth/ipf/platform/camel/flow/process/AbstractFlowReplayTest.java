@@ -32,6 +32,7 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
 
 import java.io.InputStream;
+import java.io.Serializable;
 
 import static org.junit.Assert.*;
 import static org.openehealth.ipf.platform.camel.flow.PlatformMessage.FLOW_ID_KEY;
@@ -207,6 +208,61 @@ public abstract class AbstractFlowReplayTest {
         mock.assertIsSatisfied();
     }
 
+    @Test
+    public void testIdempotentDrop() throws InterruptedException {
+        String body = "idempotent-" + System.nanoTime();
+        mock.expectedMessageCount(1);
+        producerTemplate.sendBodyAndHeader("direct:flow-test-10", body, "sender", "a");
+        mock.assertIsSatisfied();
+        Long flowId = firstFlowId();
+        mock.reset();
+        mock.expectedMessageCount(0);
+        Exchange duplicate = createExchange(body);
+        duplicate.getIn().setHeader("sender", "a");
+        Exchange result = producerTemplate.send("direct:flow-test-10", duplicate);
+        mock.assertIsSatisfied();
+        assertEquals(flowId, flowId(result));
+        // different fingerprint header
+        mock.reset();
+        mock.expectedMessageCount(1);
+        producerTemplate.sendBodyAndHeader("direct:flow-test-10", body, "sender", "b");
+        mock.assertIsSatisfied();
+        assertNotEquals(flowId, firstFlowId());
+        // replays are not dropped
+        mock.reset();
+        mock.expectedBodiesReceived(body);
+        flowManager.replayFlow(flowId);
+        mock.assertIsSatisfied();
+    }
+
+    @Test
+    public void testIdempotentLink() throws InterruptedException {
+        String body = "idempotent-" + System.nanoTime();
+        mock.expectedMessageCount(2);
+        producerTemplate.sendBody("direct:flow-test-11", body);
+        producerTemplate.sendBody("direct:flow-test-11", body);
+        mock.assertIsSatisfied();
+        Long flowId1 = flowId(mock.getExchanges().get(0));
+        Long flowId2 = flowId(mock.getExchanges().get(1));
+        assertNotEquals(flowId1, flowId2);
+        assertNull(flowManager.findFlow(flowId1).getOriginalFlowId());
+        assertEquals(flowId1, flowManager.findFlow(flowId2).getOriginalFlowId());
+    }
+
+    @Test
+    public void testIdempotentSerializableBody() throws InterruptedException {
+        String sender = "pojo-" + System.nanoTime();
+        mock.expectedMessageCount(2);
+        producerTemplate.sendBodyAndHeader("direct:flow-test-10", new TestBody("a"), "sender", sender);
+        producerTemplate.sendBodyAndHeader("direct:flow-test-10", new TestBody("b"), "sender", sender);
+        mock.assertIsSatisfied();
+        assertNotEquals(flowId(mock.getExchanges().get(0)), flowId(mock.getExchanges().get(1)));
+        mock.reset();
+        mock.expectedMessageCount(0);
+        producerTemplate.sendBodyAndHeader("direct:flow-test-10", new TestBody("a"), "sender", sender);
+        mock.assertIsSatisfied();
+    }
+
     private Exchange createExchange(String body) {
         Exchange exchange = new DefaultExchange(camelContext);
         exchange.getIn().setBody(body);
@@ -231,4 +287,16 @@ public abstract class AbstractFlowReplayTest {
         return mock.getExchanges().get(0).getIn().getHeader(name);
     }
 
+    private static class TestBody implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String value;
+
+        TestBody(String value) {
+            this.value = value;
+        }
+
+    }
+
 }
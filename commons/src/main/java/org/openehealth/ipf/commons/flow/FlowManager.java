@@ -15,12 +15,15 @@
  */
 package org.openehealth.ipf.commons.flow;
 
+import java.util.Date;
 import java.util.List;
 
 import org.openehealth.ipf.commons.flow.config.ApplicationConfig;
+import org.openehealth.ipf.commons.flow.repository.FlowPurgeBacklog;
 import org.openehealth.ipf.commons.flow.repository.FlowPurgeCriteria;
 import org.openehealth.ipf.commons.flow.transfer.FlowInfo;
 import org.openehealth.ipf.commons.flow.transfer.FlowInfoFinderCriteria;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 /**
@@ -64,6 +67,22 @@ public interface FlowManager {
     @Transactional
     int purgeFlows(FlowPurgeCriteria purgeCriteria);
     
+    @Transactional(readOnly=true)
+    FlowPurgeBacklog findPurgeBacklog(FlowPurgeCriteria purgeCriteria);
+    
+    /**
+     * Drops the time buckets of all applications that only contain flows
+     * older than <code>olderThan</code>. Requires flow partitioning to be
+     * configured on the flow repository. Each bucket is dropped in a
+     * separate transaction.
+     * 
+     * @param olderThan
+     *            retention limit.
+     * @return number of dropped flows.
+     */
+    @Transactional(propagation=Propagation.SUPPORTS)
+    int dropFlowBuckets(Date olderThan);
+    
     @Transactional
     int replayFlows(FlowInfoFinderCriteria finderCriteria);
     
@@ -76,15 +95,105 @@ public interface FlowManager {
     @Transactional
     void replayFlow(Long flowId);
     
+    /**
+     * Replays the given flows one after another within a single
+     * transaction. Flows that cannot be replayed are skipped. Unlike
+     * {@link #replayFlows(FlowInfoFinderCriteria)} this operation never
+     * splits the replay into separate transactions, so that callers can
+     * record their progress in the same transaction.
+     * 
+     * @param flowIds
+     *            identifiers of the flows to replay.
+     * @return the number of replayed flows.
+     */
+    @Transactional
+    int replayFlows(List<Long> flowIds);
+    
     @Transactional
     Long beginFlow(ManagedMessage managedMessage, String application);
 
     @Transactional
     Long beginFlow(ManagedMessage managedMessage, String application, int ackCountExpected);
 
+    /**
+     * Creates a new flow like {@link #beginFlow(ManagedMessage, String, int)}
+     * and stores the given content <code>fingerprint</code> with the flow.
+     * If <code>originalFlowId</code> is not <code>null</code> the new flow
+     * is linked to the flow it duplicates.
+     * 
+     * @param managedMessage
+     *            the message that starts the flow.
+     * @param application
+     *            application name.
+     * @param ackCountExpected
+     *            expected number of acknowledgements.
+     * @param fingerprint
+     *            content fingerprint of the message or <code>null</code>.
+     * @param originalFlowId
+     *            identifier of the duplicated flow or <code>null</code>.
+     * @return the identifier of the new flow.
+     * @see #findDuplicateFlowId(String, String, long)
+     */
+    @Transactional
+    Long beginFlow(ManagedMessage managedMessage, String application, int ackCountExpected,
+            String fingerprint, Long originalFlowId);
+
+    /**
+     * Returns the identifier of the oldest flow of <code>application</code>
+     * with the given content <code>fingerprint</code> that has been created
+     * within the last <code>retention</code> milliseconds.
+     * 
+     * @param application
+     *            application name.
+     * @param fingerprint
+     *            content fingerprint.
+     * @param retention
+     *            retention window in milliseconds.
+     * @return flow identifier or <code>null</code> if there's no such flow.
+     */
+    @Transactional(readOnly=true)
+    Long findDuplicateFlowId(String application, String fingerprint, long retention);
+
+    /**
+     * Creates a new flow like {@link #beginFlow(ManagedMessage, String, int)}
+     * but returns before the flow is written to the database. The flow is
+     * written in the background by a
+     * {@link org.openehealth.ipf.commons.flow.journal.FlowWriter}. Other
+     * operations on the flow wait until the flow has been written. The flow
+     * packet is compressed according to the application's packet compression
+     * settings before it is queued (reading the settings is the only database
+     * access of this method).
+     * 
+     * @param managedMessage
+     *            the message that starts the flow.
+     * @param application
+     *            application name.
+     * @param ackCountExpected
+     *            expected number of acknowledgements.
+     * @return the identifier of the new flow.
+     */
+    @Transactional(propagation=Propagation.SUPPORTS, readOnly=true)
+    Long beginFlowAsync(ManagedMessage managedMessage, String application, int ackCountExpected);
+
     @Transactional
     void acknowledgeFlow(ManagedMessage managedMessage);
 
+    /**
+     * Acknowledges a flow without locking it. The acknowledgement is stored
+     * as separate flow part so that concurrent acknowledgements of the same
+     * flow (e.g. from the branches of a split) don't wait for each other.
+     * It is folded into the flow's status and acknowledgement count by the
+     * next {@link #acknowledgeFlow(ManagedMessage) acknowledgeFlow} or
+     * {@link #invalidateFlow(ManagedMessage) invalidateFlow} operation on
+     * that flow or by a
+     * {@link org.openehealth.ipf.commons.flow.compact.FlowCompactor}.
+     * 
+     * @param managedMessage
+     *            the acknowledged message.
+     */
+    @Transactional
+    void acknowledgeFlowDeferred(ManagedMessage managedMessage);
+
     @Transactional
     void invalidateFlow(ManagedMessage managedMessage);
     
@@ -15,17 +15,32 @@
  */
 package org.openehealth.ipf.commons.flow;
 
+import org.openehealth.ipf.commons.flow.archive.FlowArchive;
 import org.openehealth.ipf.commons.flow.config.ApplicationConfig;
+import org.openehealth.ipf.commons.flow.dedupe.DedupeCache;
+import org.openehealth.ipf.commons.flow.dedupe.FingerprintFilter;
 import org.openehealth.ipf.commons.flow.domain.Flow;
 import org.openehealth.ipf.commons.flow.domain.FlowPart;
+import org.openehealth.ipf.commons.flow.journal.FlowWriter;
+import org.openehealth.ipf.commons.flow.packet.PacketCodec;
+import org.openehealth.ipf.commons.flow.purge.FlowPurgeController;
+import org.openehealth.ipf.commons.flow.replay.FlowReplayer;
+import org.openehealth.ipf.commons.flow.replay.PacketReplay;
+import org.openehealth.ipf.commons.flow.replay.PipelinedReplayer;
+import org.openehealth.ipf.commons.flow.replay.ReplayThrottle;
 import org.openehealth.ipf.commons.flow.repository.ConfigRepository;
 import org.openehealth.ipf.commons.flow.repository.FlowFinderCriteria;
+import org.openehealth.ipf.commons.flow.repository.FlowPurgeBacklog;
 import org.openehealth.ipf.commons.flow.repository.FlowPurgeCriteria;
 import org.openehealth.ipf.commons.flow.repository.FlowRepository;
 import org.openehealth.ipf.commons.flow.transfer.FlowInfo;
 import org.openehealth.ipf.commons.flow.transfer.FlowInfoFinderCriteria;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 
 import static org.openehealth.ipf.commons.flow.transfer.FlowInfoUtils.textString;
@@ -42,6 +57,125 @@ public class FlowManagerBase implements FlowManager {
     @Autowired
     private ConfigRepository configRepository;
     
+    @Autowired(required=false)
+    private FlowWriter flowWriter;
+    
+    @Autowired(required=false)
+    private DedupeCache dedupeCache;
+    
+    @Autowired(required=false)
+    private FingerprintFilter fingerprintFilter;
+    
+    @Autowired(required=false)
+    private FlowReplayer flowReplayer;
+    
+    @Autowired(required=false)
+    private ReplayThrottle replayThrottle;
+    
+    @Autowired(required=false)
+    private PipelinedReplayer pipelinedReplayer;
+    
+    @Autowired(required=false)
+    private FlowPurgeController purgeController;
+    
+    @Autowired(required=false)
+    private FlowArchive flowArchive;
+    
+    private final PacketReplay packetReplay = new FlowPacketReplay();
+    
+    /**
+     * Sets the writer used by
+     * {@link #beginFlowAsync(ManagedMessage, String, int)}.
+     * 
+     * @param flowWriter
+     *            a flow writer or <code>null</code>.
+     */
+    public void setFlowWriter(FlowWriter flowWriter) {
+        this.flowWriter = flowWriter;
+    }
+    
+    /**
+     * Sets the cache updated with acknowledged flow paths for duplicate
+     * filtering.
+     * 
+     * @param dedupeCache
+     *            a dedupe cache or <code>null</code>.
+     */
+    public void setDedupeCache(DedupeCache dedupeCache) {
+        this.dedupeCache = dedupeCache;
+    }
+    
+    /**
+     * Sets the Bloom filter consulted before duplicate flows are looked up
+     * by fingerprint.
+     * 
+     * @param fingerprintFilter
+     *            a fingerprint filter or <code>null</code>.
+     */
+    public void setFingerprintFilter(FingerprintFilter fingerprintFilter) {
+        this.fingerprintFilter = fingerprintFilter;
+    }
+    
+    /**
+     * Sets the replayer used for replaying lists of flows in chunked
+     * transactions. If not set, lists of flows are replayed one after
+     * another in the caller's transaction.
+     * 
+     * @param flowReplayer
+     *            a flow replayer or <code>null</code>.
+     */
+    public void setFlowReplayer(FlowReplayer flowReplayer) {
+        this.flowReplayer = flowReplayer;
+    }
+    
+    /**
+     * Sets the throttle that limits the replay rate of bulk replay
+     * operations.
+     * 
+     * @param replayThrottle
+     *            a replay throttle or <code>null</code>.
+     */
+    public void setReplayThrottle(ReplayThrottle replayThrottle) {
+        this.replayThrottle = replayThrottle;
+    }
+    
+    /**
+     * Sets the replayer used for replaying lists of flows in a pipeline that
+     * overlaps packet reads and writes with replays. Takes precedence over
+     * a {@link #setFlowReplayer(FlowReplayer) flow replayer}.
+     * 
+     * @param pipelinedReplayer
+     *            a pipelined replayer or <code>null</code>.
+     */
+    public void setPipelinedReplayer(PipelinedReplayer pipelinedReplayer) {
+        this.pipelinedReplayer = pipelinedReplayer;
+    }
+    
+    /**
+     * Sets the controller that adapts purge batch sizes to the latency of
+     * live {@link #beginFlow(ManagedMessage, String) beginFlow},
+     * {@link #acknowledgeFlow(ManagedMessage) acknowledgeFlow} and
+     * {@link #acknowledgeFlowDeferred(ManagedMessage) acknowledgeFlowDeferred}
+     * operations. Latencies are measured until their transaction completes.
+     * 
+     * @param purgeController
+     *            a purge controller or <code>null</code>.
+     */
+    public void setPurgeController(FlowPurgeController purgeController) {
+        this.purgeController = purgeController;
+    }
+    
+    /**
+     * Sets the archive of purged flows. Archived flows are restored into the
+     * flow repository when they are replayed.
+     * 
+     * @param flowArchive
+     *            a flow archive or <code>null</code>.
+     */
+    public void setFlowArchive(FlowArchive flowArchive) {
+        this.flowArchive = flowArchive;
+    }
+    
     @Override
     public List<Long> findFlowIds(FlowInfoFinderCriteria finderCriteria) {
         return flowRepository.findFlowIds(repositoryFinderCriteria(finderCriteria));
@@ -78,17 +212,20 @@ public class FlowManagerBase implements FlowManager {
 
     @Override
     public List<FlowInfo> findFlows(FlowInfoFinderCriteria finderCriteria) {
-        return Flow.getInfos(flowRepository.findFlows(repositoryFinderCriteria(finderCriteria)));
+        return Flow.getInfos(flowRepository.findFlows(repositoryFinderCriteria(finderCriteria)),
+                finderCriteria.isIncludeParts());
     }
 
     @Override
     public List<FlowInfo> findErrorFlows(FlowInfoFinderCriteria finderCriteria) {
-        return Flow.getInfos(flowRepository.findErrorFlows(repositoryFinderCriteria(finderCriteria)));
+        return Flow.getInfos(flowRepository.findErrorFlows(repositoryFinderCriteria(finderCriteria)),
+                finderCriteria.isIncludeParts());
     }
 
     @Override
     public List<FlowInfo> findUnackFlows(FlowInfoFinderCriteria finderCriteria) {
-        return Flow.getInfos(flowRepository.findUnackFlows(repositoryFinderCriteria(finderCriteria)));
+        return Flow.getInfos(flowRepository.findUnackFlows(repositoryFinderCriteria(finderCriteria)),
+                finderCriteria.isIncludeParts());
     }
     
     @Override
@@ -112,28 +249,57 @@ public class FlowManagerBase implements FlowManager {
         return flowRepository.purgeFlows(purgeCriteria);
     }
 
+    @Override
+    public FlowPurgeBacklog findPurgeBacklog(FlowPurgeCriteria purgeCriteria) {
+        return flowRepository.findPurgeBacklog(purgeCriteria);
+    }
+
+    @Override
+    public int dropFlowBuckets(Date olderThan) {
+        return flowRepository.dropBuckets(olderThan);
+    }
+
     @Override
     public int replayFlows(FlowInfoFinderCriteria finderCriteria) {
-        return replayFlows(findFlowIds(finderCriteria));
+        return replay(findFlowIds(finderCriteria));
     }
 
     @Override
     public int replayErrorFlows(FlowInfoFinderCriteria finderCriteria) {
-        return replayFlows(findErrorFlowIds(finderCriteria));
+        return replay(findErrorFlowIds(finderCriteria));
     }
 
     @Override
     public int replayUnackFlows(FlowInfoFinderCriteria finderCriteria) {
-        return replayFlows(findUnackFlowIds(finderCriteria));
+        return replay(findUnackFlowIds(finderCriteria));
     }
     
     @Override
     public void acknowledgeFlow(final ManagedMessage managedMessage) {
+        liveOperation();
         Flow flow = lockFlow(managedMessage);
         boolean cleanup = isFlowCleanupEnabled(flow.getApplication());
         String path = managedMessage.getSplitHistory().indexPathString();
         flow.acknowledge(path, cleanup, managedMessage.render());
-        
+        flowRepository.removeReleasedPacket(flow);
+        if (dedupeCache != null) {
+            dedupeCache.acknowledged(flow.getIdentifier(), path, flow.getApplication());
+        }
+    }
+
+    @Override
+    public void acknowledgeFlowDeferred(final ManagedMessage managedMessage) {
+        liveOperation();
+        Long flowId = managedMessage.getFlowId();
+        awaitFlow(flowId);
+        // checked without loading or locking the flow (instead of a foreign key violation on commit)
+        if (flowId == null || flowRepository.findFlowApplications(Collections.singleton(flowId)).isEmpty()) {
+            throw new FlowException("no flow with id " + flowId);
+        }
+        String path = managedMessage.getSplitHistory().indexPathString();
+        FlowPart part = new FlowPart(managedMessage.getFlowId(), path);
+        part.setFlowPartMessageText(managedMessage.render());
+        flowRepository.persist(part);
     }
 
     @Override
@@ -149,7 +315,12 @@ public class FlowManagerBase implements FlowManager {
         if (!isFlowFilterEnabled(flow.getApplication())) {
             return false;
         }
-        return flow.filter(managedMessage.getSplitHistory().indexPathString());
+        String path = managedMessage.getSplitHistory().indexPathString();
+        boolean result = flow.filter(path);
+        if (result && dedupeCache != null) {
+            dedupeCache.acknowledged(flow.getIdentifier(), path, flow.getApplication());
+        }
+        return result;
     }
 
     @Override
@@ -159,39 +330,101 @@ public class FlowManagerBase implements FlowManager {
     
     @Override
     public Long beginFlow(ManagedMessage managedMessage, String application, int ackCountExpected) {
+        return beginFlow(managedMessage, application, ackCountExpected, null, null);
+    }
+
+    @Override
+    public Long beginFlow(ManagedMessage managedMessage, String application, int ackCountExpected,
+            String fingerprint, Long originalFlowId) {
         Long flowId = managedMessage.getFlowId();
         if (flowId != null) {
             return flowId; // replay is running
         } 
-        Flow flow = new Flow(application);
-        flow.setAckCountExpected(ackCountExpected);
+        liveOperation();
+        Flow flow = createFlow(managedMessage, application, ackCountExpected);
+        flow.setPacket(encodePacket(application, flow.getPacket()));
+        flow.setFingerprint(fingerprint);
+        flow.setOriginalId(originalFlowId);
         flowRepository.persist(flow);
-        // update message with generated flow id
-        managedMessage.setFlowId(flow.getIdentifier());
-        // update created flow with packet
-        flow.setPacket(managedMessage.createPacket());
-        //set the message text
-        flow.setFlowMessageText(managedMessage.render());
+        if (fingerprint != null && fingerprintFilter != null) {
+            // a rollback only causes a false positive
+            fingerprintFilter.add(fingerprint);
+        }
         // return the newly created flow identifier
         return flow.getIdentifier();
     }
 
+    @Override
+    public Long findDuplicateFlowId(String application, String fingerprint, long retention) {
+        if (fingerprintFilter != null && !fingerprintFilter.mightContain(fingerprint)) {
+            return null;
+        }
+        Long flowId = flowRepository.findFlowIdByFingerprint(application, fingerprint,
+                new Date(System.currentTimeMillis() - retention));
+        if (flowId == null && fingerprintFilter != null) {
+            fingerprintFilter.recordMiss();
+        }
+        return flowId;
+    }
+
+    @Override
+    public Long beginFlowAsync(ManagedMessage managedMessage, String application, int ackCountExpected) {
+        Long flowId = managedMessage.getFlowId();
+        if (flowId != null) {
+            return flowId; // replay is running
+        }
+        if (flowWriter == null) {
+            throw new FlowException("no flow writer configured");
+        }
+        Flow flow = createFlow(managedMessage, application, ackCountExpected);
+        flow.setPacket(encodePacket(application, flow.getPacket()));
+        flowWriter.write(flow);
+        return flow.getIdentifier();
+    }
+
     @Override
     public void replayFlow(Long flowId) {
-        Flow flow = loadFlow(flowId);
+        replayFlow(flowId, false);
+    }
+
+    @Override
+    public int replayFlows(List<Long> flowIds) {
+        int counter = 0;
+        for (Long id : flowIds) {
+            if (tryReplayFlow(id)) {
+                counter++;
+            }
+        }
+        return counter;
+    }
+
+    private void replayFlow(Long flowId, boolean bulk) {
+        Flow flow = loadReplayFlow(flowId);
         if (!flow.isReplayable()) {
             throw new FlowReplayException("flow not replayable");
         }
         
+        boolean throttled = bulk && replayThrottle != null;
+        if (throttled) {
+            // wait before this flow is updated (flows replayed before
+            // in the same transaction remain locked while waiting)
+            replayThrottle.acquire(flow.getApplication());
+        }
+        
         // prepare flow for replay and obtain package
-        byte[] packet = flow.prepareReplay();
+        byte[] packet = PacketCodec.decode(flow.prepareReplay());
         
+        long start = System.currentTimeMillis();
         try {
             // delegate to replay template method
             packet = replayFlow(packet);
             // update flow with potentially changed packet
-            flow.setPacket(packet);
+            flow.setPacket(encodePacket(flow.getApplication(), packet));
         } catch (Exception e) {
+            if (throttled) {
+                // successful replays are recorded by the replay strategy
+                replayThrottle.replayed(flow.getApplication(), System.currentTimeMillis() - start, true);
+            }
             throw new FlowReplayException("flow replay failed", e);
         }
     }
@@ -214,6 +447,8 @@ public class FlowManagerBase implements FlowManager {
                     ApplicationConfig.FLOW_CLEANUP_ENABLED_DEFAULT);
         } else {
             config.setFlowFilterEnabled(flowFilterEnabled);
+            // explicit merge for caching config repositories
+            configRepository.merge(config);
         }
     }
 
@@ -235,6 +470,8 @@ public class FlowManagerBase implements FlowManager {
                     flowCleanupEnabled);
         } else {
             config.setFlowCleanupEnabled(flowCleanupEnabled);
+            // explicit merge for caching config repositories
+            configRepository.merge(config);
         }
     }
     
@@ -271,27 +508,177 @@ public class FlowManagerBase implements FlowManager {
         return packet;
     }
     
-    private int replayFlows(List<Long> ids) {
-        int counter = 0;
-        for (Long id : ids) {
-            try {
-                replayFlow(id);
-                counter++;
-            } catch (FlowReplayException e) {
-                // ignore
-            }
+    /**
+     * Deserializes a packet for pipelined replay. Together with
+     * {@link #replayPacket(Object)} and {@link #serializePacket(Object)}
+     * equivalent to {@link #replayFlow(byte[])}.
+     * 
+     * @param packet
+     *            serialized packet.
+     * @return the deserialized packet.
+     * @throws Exception
+     *             if deserialization fails.
+     */
+    protected Object deserializePacket(byte[] packet) throws Exception {
+        return packet;
+    }
+    
+    /**
+     * Replays a packet deserialized by {@link #deserializePacket(byte[])}.
+     * 
+     * @param packet
+     *            deserialized packet.
+     * @return an optionally updated packet.
+     * @throws Exception
+     *             if replay fails.
+     */
+    protected Object replayPacket(Object packet) throws Exception {
+        return replayFlow((byte[])packet);
+    }
+    
+    /**
+     * Serializes a packet returned by {@link #replayPacket(Object)}.
+     * 
+     * @param packet
+     *            deserialized packet.
+     * @return the serialized packet.
+     * @throws Exception
+     *             if serialization fails.
+     */
+    protected byte[] serializePacket(Object packet) throws Exception {
+        return (byte[])packet;
+    }
+    
+    private int replay(List<Long> ids) {
+        if (pipelinedReplayer != null) {
+            return pipelinedReplayer.replay(ids, packetReplay);
         }
-        return counter;
+        if (flowReplayer != null) {
+            return flowReplayer.replay(ids, this::tryReplayFlow);
+        }
+        return replayFlows(ids);
+    }
+    
+    private boolean tryReplayFlow(Long id) {
+        try {
+            replayFlow(id, true);
+            return true;
+        } catch (FlowReplayException e) {
+            // ignore
+            return false;
+        }
+    }
+    
+    private Flow createFlow(ManagedMessage managedMessage, String application, int ackCountExpected) {
+        Flow flow = new Flow(application);
+        flow.setAckCountExpected(ackCountExpected);
+        flowRepository.assignIdentifier(flow);
+        // update message with generated flow id
+        managedMessage.setFlowId(flow.getIdentifier());
+        // set packet and message text before persisting so 
+        // that the flow is written with a single insert
+        flow.setPacket(managedMessage.createPacket());
+        flow.setFlowMessageText(managedMessage.render());
+        return flow;
+    }
+    
+    private byte[] encodePacket(String application, byte[] packet) {
+        ApplicationConfig config = configRepository.find(application);
+        if (config == null) {
+            return packet;
+        }
+        return PacketCodec.encode(packet, 
+                config.getPacketCompression(), 
+                config.getPacketCompressionThreshold());
     }
     
     private Flow loadFlow(Long flowId) {
+        awaitFlow(flowId);
         return flowRepository.find(flowId);
     }
     
+    private Flow loadReplayFlow(Long flowId) {
+        try {
+            return loadFlow(flowId);
+        } catch (FlowException e) {
+            Flow flow = flowArchive == null ? null : flowArchive.find(flowId);
+            if (flow == null) {
+                throw e;
+            }
+            // restore purged flow (with its original identifier)
+            flowRepository.persist(flow);
+            return flow;
+        }
+    }
+    
+    private void liveOperation() {
+        FlowPurgeController controller = purgeController;
+        if (controller == null || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        long start = System.nanoTime();
+        // measured until completion (including flush and commit, e.g. of a group commit)
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                controller.liveOperation(System.nanoTime() - start);
+            }
+        });
+    }
+    
     private Flow lockFlow(ManagedMessage managedMessage) {
+        awaitFlow(managedMessage.getFlowId());
         return flowRepository.lock(managedMessage.getFlowId());
     }
     
+    private void awaitFlow(Long flowId) {
+        // flow may still be queued if started with beginFlowAsync
+        if (flowWriter != null && flowId != null) {
+            flowWriter.await(flowId);
+        }
+    }
+    
+    private class FlowPacketReplay implements PacketReplay {
+        
+        @Override
+        public Object deserialize(byte[] packet) throws Exception {
+            return deserializePacket(packet);
+        }
+        
+        @Override
+        public Object replay(Long flowId, Object packet) {
+            Flow flow = loadFlow(flowId);
+            if (!flow.isReplayable()) {
+                throw new FlowReplayException("flow not replayable");
+            }
+            if (replayThrottle != null) {
+                replayThrottle.acquire(flow.getApplication());
+            }
+            // packet has been prefetched
+            flow.startReplay();
+            long start = System.currentTimeMillis();
+            try {
+                return replayPacket(packet);
+            } catch (Exception e) {
+                if (replayThrottle != null) {
+                    replayThrottle.replayed(flow.getApplication(), System.currentTimeMillis() - start, true);
+                }
+                throw new FlowReplayException("flow replay failed", e);
+            }
+        }
+        
+        @Override
+        public byte[] serialize(Object packet) throws Exception {
+            return serializePacket(packet);
+        }
+        
+        @Override
+        public void update(Long flowId, String application, byte[] packet) {
+            flowRepository.updatePacket(flowId, encodePacket(application, packet));
+        }
+        
+    }
+    
     private static FlowFinderCriteria repositoryFinderCriteria(FlowInfoFinderCriteria flowInfoFinderCriteria) {
         return new FlowFinderCriteria(
                 flowInfoFinderCriteria.getFrom(),
@@ -15,9 +15,11 @@
  */
 package org.openehealth.ipf.commons.flow;
 
+import java.util.Date;
 import java.util.List;
 
 import org.openehealth.ipf.commons.flow.config.ApplicationConfig;
+import org.openehealth.ipf.commons.flow.repository.FlowPurgeBacklog;
 import org.openehealth.ipf.commons.flow.repository.FlowPurgeCriteria;
 import org.openehealth.ipf.commons.flow.transfer.FlowInfo;
 import org.openehealth.ipf.commons.flow.transfer.FlowInfoFinderCriteria;
@@ -87,6 +89,16 @@ public class FlowManagerMock implements FlowManager {
         throw new UnsupportedOperationException("not implemented");
     }
 
+    @Override
+    public FlowPurgeBacklog findPurgeBacklog(FlowPurgeCriteria purgeCriteria) {
+        throw new UnsupportedOperationException("not implemented");
+    }
+
+    @Override
+    public int dropFlowBuckets(Date olderThan) {
+        throw new UnsupportedOperationException("not implemented");
+    }
+
     @Override
     public int replayFlows(FlowInfoFinderCriteria finderCriteria) {
         throw new UnsupportedOperationException("not implemented");
@@ -107,6 +119,11 @@ public class FlowManagerMock implements FlowManager {
         throw new UnsupportedOperationException("not implemented");
     }
 
+    @Override
+    public void acknowledgeFlowDeferred(ManagedMessage managedMessage) {
+        throw new UnsupportedOperationException("not implemented");
+    }
+
     @Override
     public void invalidateFlow(ManagedMessage managedMessage) {
         throw new UnsupportedOperationException("not implemented");
@@ -127,11 +144,32 @@ public class FlowManagerMock implements FlowManager {
         throw new UnsupportedOperationException("not implemented");
     }
 
+    @Override
+    public Long beginFlow(ManagedMessage managedMessage, String application, int ackCountExpected,
+            String fingerprint, Long originalFlowId) {
+        throw new UnsupportedOperationException("not implemented");
+    }
+
+    @Override
+    public Long findDuplicateFlowId(String application, String fingerprint, long retention) {
+        throw new UnsupportedOperationException("not implemented");
+    }
+
+    @Override
+    public Long beginFlowAsync(ManagedMessage managedMessage, String application, int ackCountExpected) {
+        throw new UnsupportedOperationException("not implemented");
+    }
+
     @Override
     public void replayFlow(Long flowId) {
         throw new UnsupportedOperationException("not implemented");
     }
 
+    @Override
+    public int replayFlows(List<Long> flowIds) {
+        throw new UnsupportedOperationException("not implemented");
+    }
+
     @Override
     public boolean isFlowFilterEnabled(String application) {
         throw new UnsupportedOperationException("not implemented");
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.openehealth.ipf.commons.flow.config.ApplicationConfig;
+import org.openehealth.ipf.commons.flow.repository.FlowPurgeBacklog;
+import org.openehealth.ipf.commons.flow.repository.FlowPurgeCriteria;
+import org.openehealth.ipf.commons.flow.transfer.FlowInfo;
+import org.openehealth.ipf.commons.flow.transfer.FlowInfoFinderCriteria;
+import org.openehealth.ipf.commons.flow.tx.GroupCommitExecutor;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * A {@link FlowManager} that executes the write operations
+ * {@link #beginFlow(ManagedMessage, String, int) beginFlow} (with or
+ * without fingerprint),
+ * {@link #acknowledgeFlow(ManagedMessage) acknowledgeFlow},
+ * {@link #acknowledgeFlowDeferred(ManagedMessage) acknowledgeFlowDeferred},
+ * {@link #invalidateFlow(ManagedMessage) invalidateFlow} and
+ * {@link #filterFlow(ManagedMessage) filterFlow} of concurrent callers in
+ * shared transactions using a {@link GroupCommitExecutor}. This reduces the
+ * number of commits (and log flushes) under load. All other operations are
+ * passed to the delegate flow manager unchanged.
+ * <p>
+ * Write operations called within an existing transaction are not grouped
+ * but passed to the delegate directly. Define this bean as primary bean if
+ * the delegate flow manager is defined in the same application context.
+ */
+@Transactional(propagation=Propagation.SUPPORTS)
+public class GroupCommitFlowManager implements FlowManager {
+
+    private final FlowManager delegate;
+
+    private final GroupCommitExecutor executor;
+
+    /**
+     * Creates a new {@link GroupCommitFlowManager}.
+     *
+     * @param delegate
+     *            the (transactional) flow manager executing the operations.
+     * @param executor
+     *            the executor for grouping write operations.
+     */
+    public GroupCommitFlowManager(FlowManager delegate, GroupCommitExecutor executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+
+    @Override
+    public Long beginFlow(ManagedMessage managedMessage, String application) {
+        return beginFlow(managedMessage, application, FlowInfo.ACK_COUNT_EXPECTED_UNDEFINED);
+    }
+
+    @Override
+    public Long beginFlow(ManagedMessage managedMessage, String application, int ackCountExpected) {
+        Long flowId = managedMessage.getFlowId();
+        return execute(() -> {
+            // reset flow id if the operation is repeated after rollback
+            managedMessage.setFlowId(flowId);
+            return delegate.beginFlow(managedMessage, application, ackCountExpected);
+        });
+    }
+
+    @Override
+    public Long beginFlow(ManagedMessage managedMessage, String application, int ackCountExpected,
+            String fingerprint, Long originalFlowId) {
+        Long flowId = managedMessage.getFlowId();
+        return execute(() -> {
+            // reset flow id if the operation is repeated after rollback
+            managedMessage.setFlowId(flowId);
+            return delegate.beginFlow(managedMessage, application, ackCountExpected, fingerprint, originalFlowId);
+        });
+    }
+
+    @Override
+    public void acknowledgeFlow(ManagedMessage managedMessage) {
+        execute(() -> {
+            delegate.acknowledgeFlow(managedMessage);
+            return null;
+        });
+    }
+
+    @Override
+    public void acknowledgeFlowDeferred(ManagedMessage managedMessage) {
+        execute(() -> {
+            delegate.acknowledgeFlowDeferred(managedMessage);
+            return null;
+        });
+    }
+
+    @Override
+    public void invalidateFlow(ManagedMessage managedMessage) {
+        execute(() -> {
+            delegate.invalidateFlow(managedMessage);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean filterFlow(ManagedMessage managedMessage) {
+        return execute(() -> delegate.filterFlow(managedMessage));
+    }
+
+    @Override
+    public Long beginFlowAsync(ManagedMessage managedMessage, String application, int ackCountExpected) {
+        return delegate.beginFlowAsync(managedMessage, application, ackCountExpected);
+    }
+
+    @Override
+    public Long findDuplicateFlowId(String application, String fingerprint, long retention) {
+        return delegate.findDuplicateFlowId(application, fingerprint, retention);
+    }
+
+    @Override
+    public List<Long> findFlowIds(FlowInfoFinderCriteria finderCriteria) {
+        return delegate.findFlowIds(finderCriteria);
+    }
+
+    @Override
+    public List<Long> findErrorFlowIds(FlowInfoFinderCriteria finderCriteria) {
+        return delegate.findErrorFlowIds(finderCriteria);
+    }
+
+    @Override
+    public List<Long> findUnackFlowIds(FlowInfoFinderCriteria finderCriteria) {
+        return delegate.findUnackFlowIds(finderCriteria);
+    }
+
+    @Override
+    public FlowInfo findFlow(Long flowId) {
+        return delegate.findFlow(flowId);
+    }
+
+    @Override
+    public FlowInfo findFlow(Long flowId, boolean includeText) {
+        return delegate.findFlow(flowId, includeText);
+    }
+
+    @Override
+    public boolean flowCompleted(Long flowId) {
+        return delegate.flowCompleted(flowId);
+    }
+
+    @Override
+    public List<FlowInfo> findFlows(FlowInfoFinderCriteria finderCriteria) {
+        return delegate.findFlows(finderCriteria);
+    }
+
+    @Override
+    public List<FlowInfo> findErrorFlows(FlowInfoFinderCriteria finderCriteria) {
+        return delegate.findErrorFlows(finderCriteria);
+    }
+
+    @Override
+    public List<FlowInfo> findUnackFlows(FlowInfoFinderCriteria finderCriteria) {
+        return delegate.findUnackFlows(finderCriteria);
+    }
+
+    @Override
+    public String findFlowMessageText(Long flowId) {
+        return delegate.findFlowMessageText(flowId);
+    }
+
+    @Override
+    public String findFlowPartMessageText(Long flowId, String flowPath) {
+        return delegate.findFlowPartMessageText(flowId, flowPath);
+    }
+
+    @Override
+    public int purgeFlows(FlowPurgeCriteria purgeCriteria) {
+        return delegate.purgeFlows(purgeCriteria);
+    }
+
+    @Override
+    public FlowPurgeBacklog findPurgeBacklog(FlowPurgeCriteria purgeCriteria) {
+        return delegate.findPurgeBacklog(purgeCriteria);
+    }
+
+    @Override
+    public int dropFlowBuckets(Date olderThan) {
+        return delegate.dropFlowBuckets(olderThan);
+    }
+
+    @Override
+    public int replayFlows(FlowInfoFinderCriteria finderCriteria) {
+        return delegate.replayFlows(finderCriteria);
+    }
+
+    @Override
+    public int replayErrorFlows(FlowInfoFinderCriteria finderCriteria) {
+        return delegate.replayErrorFlows(finderCriteria);
+    }
+
+    @Override
+    public int replayUnackFlows(FlowInfoFinderCriteria finderCriteria) {
+        return delegate.replayUnackFlows(finderCriteria);
+    }
+
+    @Override
+    public void replayFlow(Long flowId) {
+        delegate.replayFlow(flowId);
+    }
+
+    @Override
+    public int replayFlows(List<Long> flowIds) {
+        return delegate.replayFlows(flowIds);
+    }
+
+    @Override
+    public void setFlowFilterEnabled(String application, boolean flowFilterEnabled) {
+        delegate.setFlowFilterEnabled(application, flowFilterEnabled);
+    }
+
+    @Override
+    public boolean isFlowFilterEnabled(String application) {
+        return delegate.isFlowFilterEnabled(application);
+    }
+
+    @Override
+    public void setFlowCleanupEnabled(String application, boolean flowCleanupEnabled) {
+        delegate.setFlowCleanupEnabled(application, flowCleanupEnabled);
+    }
+
+    @Override
+    public boolean isFlowCleanupEnabled(String application) {
+        return delegate.isFlowCleanupEnabled(application);
+    }
+
+    @Override
+    public List<ApplicationConfig> findApplicationConfigs() {
+        return delegate.findApplicationConfigs();
+    }
+
+    @Override
+    public ApplicationConfig getApplicationConfig(String application) {
+        return delegate.getApplicationConfig(application);
+    }
+
+    @Override
+    public void mergeApplicationConfig(ApplicationConfig applicationConfig) {
+        delegate.mergeApplicationConfig(applicationConfig);
+    }
+
+    private <T> T execute(Callable<T> operation) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            // caller controls the transaction
+            try {
+                return operation.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new FlowException(e);
+            }
+        }
+        return executor.execute(operation);
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.archive;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.openehealth.ipf.commons.flow.FlowException;
+import org.openehealth.ipf.commons.flow.domain.Flow;
+import org.openehealth.ipf.commons.flow.domain.FlowPart;
+import org.openehealth.ipf.commons.flow.domain.FlowStatus;
+import org.openehealth.ipf.commons.flow.repository.FlowFinderCriteria;
+import org.openehealth.ipf.commons.flow.repository.FlowPurgeBacklog;
+import org.openehealth.ipf.commons.flow.repository.FlowPurgeCriteria;
+import org.openehealth.ipf.commons.flow.repository.FlowRepository;
+
+/**
+ * Read-only {@link FlowRepository} view of a {@link FlowArchive}. Supports
+ * lookups of archived flows by identifier and creation time range (message
+ * queries are not supported). All modifying operations throw an
+ * {@link UnsupportedOperationException}.
+ */
+public class ArchiveFlowRepository implements FlowRepository {
+
+    private FlowArchive archive;
+
+    public ArchiveFlowRepository() {
+    }
+
+    public ArchiveFlowRepository(FlowArchive archive) {
+        this.archive = archive;
+    }
+
+    public void setArchive(FlowArchive archive) {
+        this.archive = archive;
+    }
+
+    @Override
+    public Flow find(Long id) {
+        Flow flow = archive.find(id);
+        if (flow == null) {
+            throw new FlowException("no flow with id " + id);
+        }
+        return flow;
+    }
+
+    @Override
+    public Flow lock(Long id) {
+        return find(id);
+    }
+
+    @Override
+    public List<Flow> findFlows(FlowFinderCriteria finderCriteria) {
+        return find(finderCriteria, flow -> true);
+    }
+
+    @Override
+    public List<Flow> findErrorFlows(FlowFinderCriteria finderCriteria) {
+        return find(finderCriteria, ArchiveFlowRepository::hasErrorPart);
+    }
+
+    @Override
+    public List<Flow> findUnackFlows(FlowFinderCriteria finderCriteria) {
+        return find(finderCriteria, flow -> flow.getParts().isEmpty());
+    }
+
+    @Override
+    public List<Long> findFlowIds(FlowFinderCriteria finderCriteria) {
+        return ids(find(finderCriteria, flow -> true));
+    }
+
+    @Override
+    public List<Long> findErrorFlowIds(FlowFinderCriteria finderCriteria) {
+        return ids(find(finderCriteria, ArchiveFlowRepository::hasErrorPart));
+    }
+
+    @Override
+    public List<Long> findUnackFlowIds(FlowFinderCriteria finderCriteria) {
+        return ids(find(finderCriteria, flow -> flow.getParts().isEmpty()));
+    }
+
+    @Override
+    public List<Long> findFlowIds(FlowFinderCriteria finderCriteria, Long after) {
+        return ids(findAfter(finderCriteria, after, flow -> true));
+    }
+
+    @Override
+    public List<Long> findErrorFlowIds(FlowFinderCriteria finderCriteria, Long after) {
+        return ids(findAfter(finderCriteria, after, ArchiveFlowRepository::hasErrorPart));
+    }
+
+    @Override
+    public List<Long> findUnackFlowIds(FlowFinderCriteria finderCriteria, Long after) {
+        return ids(findAfter(finderCriteria, after, flow -> flow.getParts().isEmpty()));
+    }
+
+    @Override
+    public List<Long> findDeferredFlowIds(int maxResults) {
+        // archived flows are compacted
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Long findFlowIdByFingerprint(String application, String fingerprint, Date since) {
+        return null;
+    }
+
+    @Override
+    public List<String> findFingerprints(Date since) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Map<Long, String> findFlowApplications(Collection<Long> ids) {
+        Map<Long, String> applications = new HashMap<>();
+        for (Long id : ids) {
+            Flow flow = archive.find(id);
+            if (flow != null) {
+                applications.put(id, flow.getApplication());
+            }
+        }
+        return applications;
+    }
+
+    @Override
+    public List<Flow> findFlowsWithPackets(Collection<Long> ids) {
+        return ids.stream().map(archive::find).filter(flow -> flow != null).collect(Collectors.toList());
+    }
+
+    @Override
+    public void assignIdentifier(Flow flow) {
+        throw readOnly();
+    }
+
+    @Override
+    public void persist(Flow flow) {
+        throw readOnly();
+    }
+
+    @Override
+    public void persist(FlowPart part) {
+        throw readOnly();
+    }
+
+    @Override
+    public void merge(Flow flow) {
+        throw readOnly();
+    }
+
+    @Override
+    public void remove(Flow flow) {
+        throw readOnly();
+    }
+
+    @Override
+    public void removeReleasedPacket(Flow flow) {
+        throw readOnly();
+    }
+
+    @Override
+    public void updatePacket(Long id, byte[] packet) {
+        throw readOnly();
+    }
+
+    @Override
+    public int purgeFlows(FlowPurgeCriteria purgeCriteria) {
+        throw readOnly();
+    }
+
+    @Override
+    public FlowPurgeBacklog findPurgeBacklog(FlowPurgeCriteria purgeCriteria) {
+        throw readOnly();
+    }
+
+    @Override
+    public int dropBuckets(Date olderThan) {
+        throw readOnly();
+    }
+
+    private List<Flow> find(FlowFinderCriteria finderCriteria, Predicate<Flow> filter) {
+        return archive.find(finderCriteria.getFrom(), finderCriteria.getTo(), filter(finderCriteria, filter),
+                finderCriteria.getMaxResults());
+    }
+
+    private List<Flow> findAfter(FlowFinderCriteria finderCriteria, Long after, Predicate<Flow> filter) {
+        // ascending flow ids after the given one (if any)
+        return archive.findAfter(after, finderCriteria.getFrom(), finderCriteria.getTo(),
+                filter(finderCriteria, filter), finderCriteria.getMaxResults());
+    }
+
+    private static Predicate<Flow> filter(FlowFinderCriteria finderCriteria, Predicate<Flow> filter) {
+        if (finderCriteria.hasMessageQuery()) {
+            throw new IllegalArgumentException("message queries not supported for archived flows");
+        }
+        String application = finderCriteria.getApplication();
+        return flow -> (application == null || application.equals(flow.getApplication())) && filter.test(flow);
+    }
+
+    private static List<Long> ids(List<Flow> flows) {
+        return flows.stream().map(Flow::getIdentifier).collect(Collectors.toList());
+    }
+
+    private static boolean hasErrorPart(Flow flow) {
+        return flow.getParts().stream().anyMatch(part -> part.getStatus() == FlowStatus.ERROR);
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("archive is read-only");
+    }
+
+}
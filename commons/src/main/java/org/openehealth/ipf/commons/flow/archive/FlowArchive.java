@@ -0,0 +1,774 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.openehealth.ipf.commons.flow.domain.Flow;
+import org.openehealth.ipf.commons.flow.domain.FlowPart;
+import org.openehealth.ipf.commons.flow.domain.FlowStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Append-only archive of purged flows. Flows are appended to compressed
+ * segment files in an archive {@link #setDirectory(File) directory}. Each
+ * record contains a flow with its packet, message text and parts (including
+ * their message texts) and is prefixed with its length and a CRC32 checksum.
+ * <p>
+ * When a segment is completed an index file with the identifier, creation
+ * time and offset of each record is written next to it. The index header
+ * holds the segment's identifier and creation time ranges, so lookups only
+ * read the segments that may contain the requested flows. The indexes of
+ * recently read segments are {@link #setIndexCacheSize(int) cached}. A
+ * missing index (e.g. after a crash) is rebuilt from its segment on
+ * {@link #open()}.
+ * <p>
+ * If a flow is archived more than once (e.g. after a restore and a second
+ * purge) lookups return its latest version.
+ */
+public class FlowArchive implements InitializingBean, DisposableBean {
+
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024L * 1024L;
+
+    public static final int DEFAULT_INDEX_CACHE_SIZE = 16;
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowArchive.class);
+
+    private static final String SEGMENT_PREFIX = "flow-archive-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final long NO_TIME = -1L;
+
+    private final TreeMap<Long, Segment> segments;
+
+    // indexes of sealed segments by sequence (least recently used first)
+    private final LinkedHashMap<Long, TreeMap<Long, Entry>> indexes;
+
+    private File directory;
+
+    private long maxSegmentSize;
+
+    private boolean sync;
+
+    private int indexCacheSize;
+
+    private Segment current;
+
+    private FileChannel channel;
+
+    private long nextSequence;
+
+    private boolean opened;
+
+    public FlowArchive() {
+        segments = new TreeMap<>();
+        indexes = new LinkedHashMap<Long, TreeMap<Long, Entry>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, TreeMap<Long, Entry>> eldest) {
+                return size() > indexCacheSize;
+            }
+        };
+        maxSegmentSize = DEFAULT_MAX_SEGMENT_SIZE;
+        indexCacheSize = DEFAULT_INDEX_CACHE_SIZE;
+        sync = true;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Sets the directory where segment and index files are stored.
+     *
+     * @param directory
+     *            archive directory.
+     */
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    public long getMaxSegmentSize() {
+        return maxSegmentSize;
+    }
+
+    /**
+     * Sets the size in bytes after which a new segment file is started.
+     * Default is {@link #DEFAULT_MAX_SEGMENT_SIZE}.
+     *
+     * @param maxSegmentSize
+     *            maximum segment size in bytes.
+     */
+    public void setMaxSegmentSize(long maxSegmentSize) {
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    public boolean isSync() {
+        return sync;
+    }
+
+    /**
+     * Set to <code>false</code> to skip forcing archived flows to disk before
+     * {@link #append(Collection)} returns (and before the purged flows are
+     * deleted). Default is <code>true</code>.
+     *
+     * @param sync
+     *            whether to force records to disk.
+     */
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    public synchronized int getIndexCacheSize() {
+        return indexCacheSize;
+    }
+
+    /**
+     * Sets the number of segment indexes kept in memory after a lookup.
+     * Default is {@link #DEFAULT_INDEX_CACHE_SIZE}.
+     *
+     * @param indexCacheSize
+     *            maximum number of cached segment indexes.
+     */
+    public synchronized void setIndexCacheSize(int indexCacheSize) {
+        this.indexCacheSize = indexCacheSize;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        open();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        close();
+    }
+
+    /**
+     * Opens the archive and reads the index headers of existing segments.
+     * Appended flows are written to a new segment.
+     */
+    public synchronized void open() {
+        if (directory == null) {
+            throw new FlowArchiveException("archive directory not set");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new FlowArchiveException("cannot create archive directory " + directory);
+        }
+        segments.clear();
+        indexes.clear();
+        File[] list = directory.listFiles((dir, name) ->
+                name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        for (File file : list) {
+            long sequence = sequence(file);
+            Segment segment = new Segment(sequence, file);
+            File index = segment.indexFile();
+            if (index.exists()) {
+                readIndexHeader(segment);
+            } else {
+                LOG.info("rebuilding index of archive segment {}", file);
+                TreeMap<Long, Entry> entries = scan(file);
+                entries.values().forEach(segment::add);
+                writeIndex(segment, entries);
+            }
+            segments.put(sequence, segment);
+        }
+        nextSequence = segments.isEmpty() ? 0L : segments.lastKey() + 1L;
+        opened = true;
+    }
+
+    /**
+     * Completes the current segment by writing its index.
+     */
+    public synchronized void close() {
+        if (current != null) {
+            seal();
+        }
+        opened = false;
+    }
+
+    /**
+     * Appends the given flows (with packets, message texts and parts) to the
+     * current segment.
+     *
+     * @param flows
+     *            flows to archive.
+     */
+    public synchronized void append(Collection<Flow> flows) {
+        checkOpen();
+        try {
+            for (Flow flow : flows) {
+                ByteBuffer record = encode(flow);
+                if (current == null || current.size > 0L && current.size + record.remaining() > maxSegmentSize) {
+                    rotate();
+                }
+                long offset = current.size;
+                while (record.hasRemaining()) {
+                    current.size += channel.write(record);
+                }
+                current.add(new Entry(flow.getIdentifier(), flow.getCreationTime().getTime(), offset));
+            }
+            if (sync && channel != null) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            throw new FlowArchiveException("cannot append flows to archive", e);
+        }
+    }
+
+    /**
+     * Returns the latest archived version of the flow with the given
+     * identifier.
+     *
+     * @param id
+     *            flow identifier.
+     * @return archived flow or <code>null</code> if the flow is not archived.
+     */
+    public synchronized Flow find(Long id) {
+        checkOpen();
+        for (Segment segment : segments.descendingMap().values()) {
+            if (segment.count == 0 || id < segment.minId || id > segment.maxId) {
+                continue;
+            }
+            Entry entry = entries(segment).get(id);
+            if (entry != null) {
+                return read(segment, entry);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns archived flows created within the given time range that match
+     * the given filter, ordered by descending identifier.
+     *
+     * @param from
+     *            lower creation time limit (inclusive).
+     * @param to
+     *            upper creation time limit (inclusive) or <code>null</code>.
+     * @param filter
+     *            flow filter.
+     * @return matching flows.
+     */
+    public synchronized List<Flow> find(Date from, Date to, Predicate<Flow> filter) {
+        return find(from, to, null, filter, -1);
+    }
+
+    /**
+     * Returns at most <code>maxResults</code> archived flows created within
+     * the given time range that match the given filter, ordered by
+     * descending identifier. Only the records up to the last returned flow
+     * are read.
+     *
+     * @param from
+     *            lower creation time limit (inclusive).
+     * @param to
+     *            upper creation time limit (inclusive) or <code>null</code>.
+     * @param filter
+     *            flow filter.
+     * @param maxResults
+     *            maximum number of flows or a negative value for no limit.
+     * @return matching flows.
+     */
+    public synchronized List<Flow> find(Date from, Date to, Predicate<Flow> filter, int maxResults) {
+        return find(from, to, null, filter, maxResults);
+    }
+
+    /**
+     * Returns at most <code>maxResults</code> archived flows with an
+     * identifier greater than <code>after</code> created within the given
+     * time range that match the given filter, ordered by ascending
+     * identifier.
+     *
+     * @param after
+     *            identifier after which flows are returned or
+     *            <code>null</code> to start with the first flow.
+     * @param from
+     *            lower creation time limit (inclusive).
+     * @param to
+     *            upper creation time limit (inclusive) or <code>null</code>.
+     * @param filter
+     *            flow filter.
+     * @param maxResults
+     *            maximum number of flows or a negative value for no limit.
+     * @return matching flows.
+     */
+    public synchronized List<Flow> findAfter(Long after, Date from, Date to, Predicate<Flow> filter, int maxResults) {
+        return find(from, to, after == null ? Long.valueOf(Long.MIN_VALUE) : after, filter, maxResults);
+    }
+
+    /**
+     * Returns the number of segment files.
+     *
+     * @return number of segments.
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    // descending order if after is null
+    private List<Flow> find(Date from, Date to, Long after, Predicate<Flow> filter, int maxResults) {
+        checkOpen();
+        long min = from.getTime();
+        long max = to == null ? Long.MAX_VALUE : to.getTime();
+        // index entries of the latest versions (newest segments are read first)
+        TreeMap<Long, Candidate> candidates = new TreeMap<>();
+        for (Segment segment : segments.descendingMap().values()) {
+            if (segment.count == 0 || segment.maxTime < min || segment.minTime > max
+                    || after != null && segment.maxId <= after) {
+                continue;
+            }
+            NavigableMap<Long, Entry> entries = entries(segment);
+            if (after != null) {
+                entries = entries.tailMap(after, false);
+            }
+            for (Entry entry : entries.values()) {
+                if (entry.time >= min && entry.time <= max) {
+                    candidates.putIfAbsent(entry.id, new Candidate(segment, entry));
+                }
+            }
+        }
+        // records are only read up to the last result
+        List<Flow> flows = new ArrayList<>();
+        Map<Segment, FileChannel> channels = new HashMap<>();
+        try {
+            for (Candidate candidate : after == null ? candidates.descendingMap().values() : candidates.values()) {
+                if (maxResults >= 0 && flows.size() >= maxResults) {
+                    break;
+                }
+                FileChannel in = channels.get(candidate.segment);
+                if (in == null) {
+                    in = open(candidate.segment);
+                    channels.put(candidate.segment, in);
+                }
+                Flow flow = read(candidate.segment, in, candidate.entry);
+                if (filter.test(flow)) {
+                    flows.add(flow);
+                }
+            }
+        } finally {
+            for (Map.Entry<Segment, FileChannel> channel : channels.entrySet()) {
+                close(channel.getKey(), channel.getValue());
+            }
+        }
+        return flows;
+    }
+
+    private void checkOpen() {
+        if (!opened) {
+            throw new FlowArchiveException("archive not open");
+        }
+    }
+
+    private void rotate() throws IOException {
+        if (current != null) {
+            seal();
+        }
+        File file = new File(directory, SEGMENT_PREFIX + nextSequence + SEGMENT_SUFFIX);
+        current = new Segment(nextSequence++, file);
+        current.entries = new TreeMap<>();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        segments.put(current.sequence, current);
+    }
+
+    private void seal() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.warn("cannot close archive segment {}", current.file, e);
+        }
+        writeIndex(current, current.entries);
+        current.entries = null;
+        current = null;
+        channel = null;
+    }
+
+    private TreeMap<Long, Entry> entries(Segment segment) {
+        if (segment.entries != null) {
+            return segment.entries;
+        }
+        TreeMap<Long, Entry> entries = indexes.get(segment.sequence);
+        if (entries != null) {
+            return entries;
+        }
+        entries = new TreeMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(segment.indexFile())))) {
+            int count = readHeader(in, segment);
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readLong(), in.readLong(), in.readLong());
+                entries.put(entry.id, entry);
+            }
+        } catch (IOException e) {
+            throw new FlowArchiveException("cannot read archive index " + segment.indexFile(), e);
+        }
+        indexes.put(segment.sequence, entries);
+        return entries;
+    }
+
+    private static void readIndexHeader(Segment segment) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(segment.indexFile()))) {
+            readHeader(in, segment);
+        } catch (IOException e) {
+            throw new FlowArchiveException("cannot read archive index " + segment.indexFile(), e);
+        }
+    }
+
+    private static int readHeader(DataInputStream in, Segment segment) throws IOException {
+        segment.count = in.readInt();
+        segment.minId = in.readLong();
+        segment.maxId = in.readLong();
+        segment.minTime = in.readLong();
+        segment.maxTime = in.readLong();
+        return segment.count;
+    }
+
+    private static void writeIndex(Segment segment, TreeMap<Long, Entry> entries) {
+        File index = segment.indexFile();
+        File temp = new File(index.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(entries.size());
+            out.writeLong(segment.minId);
+            out.writeLong(segment.maxId);
+            out.writeLong(segment.minTime);
+            out.writeLong(segment.maxTime);
+            for (Entry entry : entries.values()) {
+                out.writeLong(entry.id);
+                out.writeLong(entry.time);
+                out.writeLong(entry.offset);
+            }
+        } catch (IOException e) {
+            throw new FlowArchiveException("cannot write archive index " + index, e);
+        }
+        try {
+            Files.move(temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new FlowArchiveException("cannot write archive index " + index, e);
+        }
+    }
+
+    private static TreeMap<Long, Entry> scan(File file) {
+        TreeMap<Long, Entry> entries = new TreeMap<>();
+        long offset = 0L;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int checksum = in.readInt();
+                if (length < 0 || length > file.length()) {
+                    LOG.warn("corrupt record in archive segment {}, ignoring remaining records", file);
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (checksum(payload) != checksum) {
+                    LOG.warn("corrupt record in archive segment {}, ignoring remaining records", file);
+                    break;
+                }
+                Flow flow = decode(payload);
+                entries.put(flow.getIdentifier(), new Entry(flow.getIdentifier(),
+                        flow.getCreationTime().getTime(), offset));
+                offset += HEADER_SIZE + length;
+            }
+        } catch (EOFException e) {
+            LOG.warn("incomplete record at end of archive segment {} ignored", file);
+        } catch (IOException e) {
+            throw new FlowArchiveException("cannot read archive segment " + file, e);
+        }
+        return entries;
+    }
+
+    private static Flow read(Segment segment, Entry entry) {
+        FileChannel in = open(segment);
+        try {
+            return read(segment, in, entry);
+        } finally {
+            close(segment, in);
+        }
+    }
+
+    private static FileChannel open(Segment segment) {
+        try {
+            return FileChannel.open(segment.file.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new FlowArchiveException("cannot open archive segment " + segment.file, e);
+        }
+    }
+
+    private static void close(Segment segment, FileChannel in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            LOG.warn("cannot close archive segment {}", segment.file, e);
+        }
+    }
+
+    private static Flow read(Segment segment, FileChannel in, Entry entry) {
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(in, header, entry.offset);
+            ByteBuffer payload = ByteBuffer.allocate(header.getInt(0));
+            readFully(in, payload, entry.offset + HEADER_SIZE);
+            if (checksum(payload.array()) != header.getInt(4)) {
+                throw new FlowArchiveException("checksum mismatch of flow " + entry.id
+                        + " in archive segment " + segment.file);
+            }
+            return decode(payload.array());
+        } catch (IOException e) {
+            throw new FlowArchiveException("cannot read flow " + entry.id + " from archive segment "
+                    + segment.file, e);
+        }
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static ByteBuffer encode(Flow flow) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            out.writeLong(flow.getIdentifier());
+            writeString(out, flow.getApplication());
+            out.writeLong(flow.getCreationTime().getTime());
+            writeTime(out, flow.getReplayTime());
+            out.writeInt(flow.getReplayCount());
+            out.writeInt(flow.getAckCountExpected());
+            writeString(out, flow.getDerivedStatus() == null ? null : flow.getDerivedStatus().name());
+            writeString(out, flow.getFingerprint());
+            out.writeLong(flow.getOriginalId() == null ? -1L : flow.getOriginalId());
+            writeBytes(out, flow.getPacket());
+            writeString(out, flow.getFlowMessageText());
+            out.writeInt(flow.getParts().size());
+            for (FlowPart part : flow.getParts()) {
+                out.writeUTF(part.getPath());
+                out.writeUTF(part.getStatus().name());
+                writeTime(out, part.getContributionTime());
+                out.writeInt(part.getContributionCount());
+                writeTime(out, part.getFilterTime());
+                out.writeInt(part.getFilterCount());
+                writeString(out, part.getFlowPartMessageText());
+            }
+        } catch (IOException e) {
+            throw new FlowArchiveException(e);
+        }
+        byte[] payload = bytes.toByteArray();
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(payload.length);
+        record.putInt(checksum(payload));
+        record.put(payload);
+        record.flip();
+        return record;
+    }
+
+    private static Flow decode(byte[] payload) throws IOException {
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(payload)))) {
+            Flow flow = new Flow();
+            flow.setIdentifier(in.readLong());
+            flow.setApplication(readString(in));
+            flow.setCreationTime(new Date(in.readLong()));
+            flow.setReplayTime(readTime(in));
+            flow.setReplayCount(in.readInt());
+            flow.setAckCountExpected(in.readInt());
+            String derivedStatus = readString(in);
+            flow.setDerivedStatus(derivedStatus == null ? null : FlowStatus.valueOf(derivedStatus));
+            flow.setFingerprint(readString(in));
+            long originalId = in.readLong();
+            flow.setOriginalId(originalId < 0L ? null : originalId);
+            flow.setPacket(readBytes(in));
+            flow.setFlowMessageText(readString(in));
+            int parts = in.readInt();
+            for (int i = 0; i < parts; i++) {
+                FlowPart part = new FlowPart();
+                part.setPath(in.readUTF());
+                part.setStatus(FlowStatus.valueOf(in.readUTF()));
+                part.setContributionTime(readTime(in));
+                part.setContributionCount(in.readInt());
+                part.setFilterTime(readTime(in));
+                part.setFilterCount(in.readInt());
+                part.setFlowPartMessageText(readString(in));
+                flow.getParts().add(part);
+            }
+            return flow;
+        }
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int)crc.getValue();
+    }
+
+    private static void writeTime(DataOutputStream out, Date time) throws IOException {
+        out.writeLong(time == null ? NO_TIME : time.getTime());
+    }
+
+    private static Date readTime(DataInputStream in) throws IOException {
+        long time = in.readLong();
+        return time == NO_TIME ? null : new Date(time);
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        writeBytes(out, string == null ? null : string.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static long sequence(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static class Segment {
+
+        final long sequence;
+
+        final File file;
+
+        long size;
+
+        int count;
+
+        long minId = Long.MAX_VALUE;
+
+        long maxId = Long.MIN_VALUE;
+
+        long minTime = Long.MAX_VALUE;
+
+        long maxTime = Long.MIN_VALUE;
+
+        // entries of the current segment (others are read from the index)
+        TreeMap<Long, Entry> entries;
+
+        Segment(long sequence, File file) {
+            this.sequence = sequence;
+            this.file = file;
+        }
+
+        File indexFile() {
+            String name = file.getName();
+            return new File(file.getParentFile(),
+                    name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+        }
+
+        void add(Entry entry) {
+            if (entries != null) {
+                entries.put(entry.id, entry);
+            }
+            count++;
+            minId = Math.min(minId, entry.id);
+            maxId = Math.max(maxId, entry.id);
+            minTime = Math.min(minTime, entry.time);
+            maxTime = Math.max(maxTime, entry.time);
+        }
+
+    }
+
+    private static class Candidate {
+
+        final Segment segment;
+
+        final Entry entry;
+
+        Candidate(Segment segment, Entry entry) {
+            this.segment = segment;
+            this.entry = entry;
+        }
+
+    }
+
+    private static class Entry {
+
+        final long id;
+
+        final long time;
+
+        final long offset;
+
+        Entry(long id, long time, long offset) {
+            this.id = id;
+            this.time = time;
+            this.offset = offset;
+        }
+
+    }
+
+}
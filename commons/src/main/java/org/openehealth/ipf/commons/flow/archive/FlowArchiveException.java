@@ -0,0 +1,40 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.archive;
+
+/**
+ * Thrown if the {@link FlowArchive} cannot be read or written.
+ */
+@SuppressWarnings("serial")
+public class FlowArchiveException extends RuntimeException {
+
+    public FlowArchiveException() {
+        super();
+    }
+
+    public FlowArchiveException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public FlowArchiveException(String message) {
+        super(message);
+    }
+
+    public FlowArchiveException(Throwable cause) {
+        super(cause);
+    }
+
+}
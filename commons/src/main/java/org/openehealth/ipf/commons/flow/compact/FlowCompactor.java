@@ -0,0 +1,223 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.compact;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openehealth.ipf.commons.flow.FlowException;
+import org.openehealth.ipf.commons.flow.config.ApplicationConfig;
+import org.openehealth.ipf.commons.flow.domain.Flow;
+import org.openehealth.ipf.commons.flow.repository.ConfigRepository;
+import org.openehealth.ipf.commons.flow.repository.FlowRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Periodically folds deferred acknowledgements written by
+ * {@link org.openehealth.ipf.commons.flow.FlowManager#acknowledgeFlowDeferred(org.openehealth.ipf.commons.flow.ManagedMessage)
+ * acknowledgeFlowDeferred} into their flows (see {@link Flow#compact(boolean)}).
+ * Each flow is locked once per compaction run instead of once per
+ * acknowledgement. Up to {@link #getBatchSize() batchSize} flows are
+ * compacted in a single transaction.
+ */
+public class FlowCompactor implements InitializingBean, DisposableBean {
+
+    public static final long DEFAULT_INTERVAL = 1000L;
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowCompactor.class);
+
+    @Autowired
+    private FlowRepository flowRepository;
+
+    @Autowired
+    private ConfigRepository configRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private volatile long interval;
+
+    private volatile int batchSize;
+
+    private final AtomicLong compactedFlowCount;
+
+    private final AtomicLong compactedPartCount;
+
+    private TransactionTemplate transactionTemplate;
+
+    private Thread compactorThread;
+
+    private volatile boolean running;
+
+    public FlowCompactor() {
+        interval = DEFAULT_INTERVAL;
+        batchSize = DEFAULT_BATCH_SIZE;
+        compactedFlowCount = new AtomicLong();
+        compactedPartCount = new AtomicLong();
+    }
+
+    public void setFlowRepository(FlowRepository flowRepository) {
+        this.flowRepository = flowRepository;
+    }
+
+    public void setConfigRepository(ConfigRepository configRepository) {
+        this.configRepository = configRepository;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Sets the time in milliseconds between compaction runs. A value of
+     * <code>0</code> disables background compaction; {@link #compact()} must
+     * then be called explicitly. Default is {@link #DEFAULT_INTERVAL}.
+     *
+     * @param interval
+     *            compaction interval in milliseconds.
+     */
+    public void setInterval(long interval) {
+        if (interval < 0L) {
+            throw new IllegalArgumentException("interval must not be negative");
+        }
+        this.interval = interval;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the maximum number of flows compacted in a single transaction.
+     * Default is {@link #DEFAULT_BATCH_SIZE}.
+     *
+     * @param batchSize
+     *            batch size.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public long getCompactedFlowCount() {
+        return compactedFlowCount.get();
+    }
+
+    /**
+     * Returns the number of deferred acknowledgements folded into their flows.
+     *
+     * @return number of compacted flow parts.
+     */
+    public long getCompactedPartCount() {
+        return compactedPartCount.get();
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (flowRepository == null || configRepository == null || transactionManager == null) {
+            throw new IllegalArgumentException("flow repository, config repository and transaction manager required");
+        }
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        if (interval > 0L) {
+            running = true;
+            compactorThread = new Thread(this::run, "FlowCompactor");
+            compactorThread.setDaemon(true);
+            compactorThread.start();
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        running = false;
+        if (compactorThread != null) {
+            compactorThread.interrupt();
+            compactorThread.join();
+        }
+    }
+
+    /**
+     * Folds all deferred acknowledgements into their flows.
+     *
+     * @return the number of compacted flows.
+     */
+    public int compact() {
+        int result = 0;
+        int compacted;
+        do {
+            compacted = transactionTemplate.execute(status -> compactBatch());
+            result += compacted;
+        } while (compacted == batchSize);
+        return result;
+    }
+
+    private int compactBatch() {
+        List<Long> flowIds = flowRepository.findDeferredFlowIds(batchSize);
+        int result = 0;
+        for (Long flowId : flowIds) {
+            Flow flow;
+            try {
+                flow = flowRepository.lock(flowId);
+            } catch (FlowException e) {
+                LOG.warn("flow {} not found for compaction", flowId);
+                continue;
+            }
+            compactedPartCount.addAndGet(flow.compact(isFlowCleanupEnabled(flow.getApplication())));
+            flowRepository.removeReleasedPacket(flow);
+            compactedFlowCount.incrementAndGet();
+            result++;
+        }
+        return result;
+    }
+
+    private boolean isFlowCleanupEnabled(String application) {
+        ApplicationConfig config = configRepository.find(application);
+        if (config == null) {
+            return ApplicationConfig.FLOW_CLEANUP_ENABLED_DEFAULT;
+        }
+        return config.isFlowCleanupEnabled();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(interval);
+                compact();
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (RuntimeException e) {
+                LOG.error("flow compaction error", e);
+            }
+        }
+    }
+
+}
@@ -17,10 +17,13 @@ package org.openehealth.ipf.commons.flow.config;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.Id;
 import javax.persistence.Table;
 
 import org.openehealth.ipf.commons.flow.core.Duration;
+import org.openehealth.ipf.commons.flow.packet.PacketCompression;
 import org.quartz.spi.OperableTrigger;
 
 import static org.quartz.TriggerBuilder.newTrigger;
@@ -40,6 +43,8 @@ public class ApplicationConfig {
     public static final boolean DO_NOT_PURGE_ERROR_FLOWS_DEFAULT = false;
     public static final String PURGE_FLOWS_OLDER_THAN_DEFAULT = "30d";
     public static final String FLOW_PURGE_SCHEDULE_DEFAULT = "0 0 1 * * ?"; // 1:00 am every day 
+    public static final PacketCompression PACKET_COMPRESSION_DEFAULT = PacketCompression.NONE;
+    public static final int PACKET_COMPRESSION_THRESHOLD_DEFAULT = 1024;
     
     @Id
     @Column(name="C_APPLICATION")
@@ -63,12 +68,19 @@ public class ApplicationConfig {
     @Column(name="C_PURGE_FLOW_OLDER_THAN")
     private String purgeFlowsOlderThan;
 
+    @Enumerated(EnumType.STRING)
+    @Column(name="C_PACKET_COMPRESSION")
+    private PacketCompression packetCompression;
+
+    @Column(name="C_PACKET_COMPRESSION_THRESHOLD")
+    private Integer packetCompressionThreshold;
+
     /**
      * Creation a new {@link ApplicationConfig} with default settings and
      * application name set to <code>null</code>.
      */
     public ApplicationConfig() {
-        this(null);
+        this((String)null);
     }
 
     /**
@@ -85,6 +97,25 @@ public class ApplicationConfig {
         doNotPurgeErrorFlows = DO_NOT_PURGE_ERROR_FLOWS_DEFAULT;
         flowPurgeSchedule = FLOW_PURGE_SCHEDULE_DEFAULT;
         purgeFlowsOlderThan = PURGE_FLOWS_OLDER_THAN_DEFAULT;
+        packetCompression = PACKET_COMPRESSION_DEFAULT;
+        packetCompressionThreshold = PACKET_COMPRESSION_THRESHOLD_DEFAULT;
+    }
+
+    /**
+     * Creates a (detached) copy of the given {@link ApplicationConfig}.
+     * 
+     * @param applicationConfig configuration to copy.
+     */
+    public ApplicationConfig(ApplicationConfig applicationConfig) {
+        application = applicationConfig.application;
+        flowFilterEnabled = applicationConfig.flowFilterEnabled;
+        flowCleanupEnabled = applicationConfig.flowCleanupEnabled;
+        flowPurgeScheduled = applicationConfig.flowPurgeScheduled;
+        doNotPurgeErrorFlows = applicationConfig.doNotPurgeErrorFlows;
+        flowPurgeSchedule = applicationConfig.flowPurgeSchedule;
+        purgeFlowsOlderThan = applicationConfig.purgeFlowsOlderThan;
+        packetCompression = applicationConfig.packetCompression;
+        packetCompressionThreshold = applicationConfig.packetCompressionThreshold;
     }
     
     public String getApplication() {
@@ -210,6 +241,50 @@ public class ApplicationConfig {
         this.purgeFlowsOlderThan = purgeFlowsOlderThan;
     }
 
+    public PacketCompression getPacketCompression() {
+        // Support DB schema upgrade
+        if (packetCompression == null) {
+            return PACKET_COMPRESSION_DEFAULT;
+        }
+        return packetCompression;
+    }
+
+    /**
+     * Sets the codec used to compress the packets of new flows. Existing
+     * flows are not affected. Default is {@link PacketCompression#NONE}.
+     * 
+     * @param packetCompression packet compression codec
+     * @see #PACKET_COMPRESSION_DEFAULT
+     */
+    public void setPacketCompression(PacketCompression packetCompression) {
+        if (packetCompression == null) {
+            throw new ApplicationConfigException("packet compression must not be null");
+        }
+        this.packetCompression = packetCompression;
+    }
+
+    public int getPacketCompressionThreshold() {
+        // Support DB schema upgrade
+        if (packetCompressionThreshold == null) {
+            return PACKET_COMPRESSION_THRESHOLD_DEFAULT;
+        }
+        return packetCompressionThreshold;
+    }
+
+    /**
+     * Sets the minimum packet size in bytes for compression. Smaller packets
+     * are stored uncompressed. Default is <code>1024</code>.
+     * 
+     * @param packetCompressionThreshold minimum size of compressed packets
+     * @see #PACKET_COMPRESSION_THRESHOLD_DEFAULT
+     */
+    public void setPacketCompressionThreshold(int packetCompressionThreshold) {
+        if (packetCompressionThreshold < 0) {
+            throw new ApplicationConfigException("packet compression threshold must not be negative");
+        }
+        this.packetCompressionThreshold = packetCompressionThreshold;
+    }
+
     private static void validateFlowPurgeSchedule(String flowPurgeSchedule) {
         String name = "default";
         try {
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.dedupe;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe Bloom filter of strings. Bits are set with atomic
+ * operations so that concurrent {@link #add(String)} and
+ * {@link #mightContain(String)} calls need no locking.
+ */
+class BloomFilter {
+
+    private final AtomicLongArray bits;
+
+    private final long numBits;
+
+    private final int numHashes;
+
+    /**
+     * Creates a Bloom filter sized for the given number of elements and
+     * false positive probability.
+     *
+     * @param expectedInsertions
+     *            expected number of elements.
+     * @param falsePositiveProbability
+     *            false positive probability at the expected number of
+     *            elements.
+     */
+    BloomFilter(int expectedInsertions, double falsePositiveProbability) {
+        long m = (long)Math.ceil(-expectedInsertions * Math.log(falsePositiveProbability)
+                / (Math.log(2.0) * Math.log(2.0)));
+        int words = (int)Math.max(1L, (m + 63L) / 64L);
+        bits = new AtomicLongArray(words);
+        numBits = words * 64L;
+        numHashes = Math.max(1, (int)Math.round((double)numBits / expectedInsertions * Math.log(2.0)));
+    }
+
+    void add(String value) {
+        long hash = hash(value);
+        int h1 = (int)hash;
+        int h2 = (int)(hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long index = index(h1 + i * h2);
+            int word = (int)(index >>> 6);
+            long mask = 1L << index;
+            long current;
+            do {
+                current = bits.get(word);
+            } while ((current & mask) == 0L && !bits.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    boolean mightContain(String value) {
+        long hash = hash(value);
+        int h1 = (int)hash;
+        int h2 = (int)(hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long index = index(h1 + i * h2);
+            if ((bits.get((int)(index >>> 6)) & (1L << index)) == 0L) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long getNumBits() {
+        return numBits;
+    }
+
+    int getNumHashes() {
+        return numHashes;
+    }
+
+    private long index(int combined) {
+        // make positive
+        return (combined & Integer.MAX_VALUE) % numBits;
+    }
+
+    private static long hash(String value) {
+        // FNV-1a followed by the MurmurHash3 finalizer
+        long h = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
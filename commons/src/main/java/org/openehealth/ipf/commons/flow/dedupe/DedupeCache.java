@@ -0,0 +1,479 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.dedupe;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openehealth.ipf.commons.flow.FlowException;
+import org.openehealth.ipf.commons.flow.FlowManager;
+import org.openehealth.ipf.commons.flow.ManagedMessage;
+import org.openehealth.ipf.commons.flow.config.ApplicationConfig;
+import org.openehealth.ipf.commons.flow.domain.Flow;
+import org.openehealth.ipf.commons.flow.domain.FlowPart;
+import org.openehealth.ipf.commons.flow.domain.FlowStatus;
+import org.openehealth.ipf.commons.flow.repository.ConfigRepository;
+import org.openehealth.ipf.commons.flow.repository.FlowRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * In-memory index of recently acknowledged (flow id, path) pairs. It is
+ * consulted by duplicate filters before
+ * {@link FlowManager#filterFlow(ManagedMessage)} so that the flow needn't be
+ * locked and read for known duplicates. Entries are added by the flow
+ * manager after the acknowledgement has been committed and expire after
+ * {@link #getExpiry() expiry} milliseconds. The oldest entries are evicted
+ * if the index exceeds {@link #getMaxSize() maxSize}.
+ * <p>
+ * Filter counts and times of duplicates detected by this cache are written
+ * to the flow parts every {@link #getFlushInterval() flushInterval}
+ * milliseconds. Filtering honors the flow filter setting of the
+ * application; use a caching {@link ConfigRepository} to avoid database
+ * reads for that check.
+ */
+public class DedupeCache implements InitializingBean, DisposableBean {
+
+    public static final int DEFAULT_MAX_SIZE = 100000;
+
+    public static final long DEFAULT_EXPIRY = 600000L;
+
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(DedupeCache.class);
+
+    @Autowired
+    private FlowRepository flowRepository;
+
+    @Autowired
+    private ConfigRepository configRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private volatile int maxSize;
+
+    private volatile long expiry;
+
+    private volatile long flushInterval;
+
+    private final ConcurrentMap<Key, Entry> entries;
+
+    // entries in insertion order (for eviction)
+    private final Queue<Entry> order;
+
+    // filter counts not yet written to the database
+    private final ConcurrentMap<Key, PendingFilter> pending;
+
+    private final AtomicLong hitCount;
+
+    private final AtomicLong missCount;
+
+    private final AtomicLong evictionCount;
+
+    private final AtomicLong flushedCount;
+
+    private TransactionTemplate transactionTemplate;
+
+    private Thread flushThread;
+
+    private volatile boolean running;
+
+    public DedupeCache() {
+        maxSize = DEFAULT_MAX_SIZE;
+        expiry = DEFAULT_EXPIRY;
+        flushInterval = DEFAULT_FLUSH_INTERVAL;
+        entries = new ConcurrentHashMap<>();
+        order = new ConcurrentLinkedQueue<>();
+        pending = new ConcurrentHashMap<>();
+        hitCount = new AtomicLong();
+        missCount = new AtomicLong();
+        evictionCount = new AtomicLong();
+        flushedCount = new AtomicLong();
+    }
+
+    public void setFlowRepository(FlowRepository flowRepository) {
+        this.flowRepository = flowRepository;
+    }
+
+    public void setConfigRepository(ConfigRepository configRepository) {
+        this.configRepository = configRepository;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of (flow id, path) pairs held in memory.
+     * Default is {@link #DEFAULT_MAX_SIZE}.
+     *
+     * @param maxSize
+     *            maximum number of entries.
+     */
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("max size must be positive");
+        }
+        this.maxSize = maxSize;
+    }
+
+    public long getExpiry() {
+        return expiry;
+    }
+
+    /**
+     * Sets the time in milliseconds after which an entry is removed.
+     * Default is {@link #DEFAULT_EXPIRY}.
+     *
+     * @param expiry
+     *            entry lifetime in milliseconds.
+     */
+    public void setExpiry(long expiry) {
+        if (expiry < 1L) {
+            throw new IllegalArgumentException("expiry must be positive");
+        }
+        this.expiry = expiry;
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * Sets the time in milliseconds between writes of filter counts. A value
+     * of <code>0</code> disables background writes; {@link #flush()} must
+     * then be called explicitly. Default is {@link #DEFAULT_FLUSH_INTERVAL}.
+     *
+     * @param flushInterval
+     *            flush interval in milliseconds.
+     */
+    public void setFlushInterval(long flushInterval) {
+        if (flushInterval < 0L) {
+            throw new IllegalArgumentException("flush interval must not be negative");
+        }
+        this.flushInterval = flushInterval;
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0.0 : (double)hits / total;
+    }
+
+    /**
+     * Returns the number of entries removed because they expired or the
+     * index exceeded its maximum size.
+     *
+     * @return number of evicted entries.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Returns the number of flow parts with filter counts not yet written to
+     * the database.
+     *
+     * @return number of pending flow parts.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the number of filter events written to the database.
+     *
+     * @return number of flushed filter events.
+     */
+    public long getFlushedCount() {
+        return flushedCount.get();
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (flowRepository == null || configRepository == null || transactionManager == null) {
+            throw new IllegalArgumentException("flow repository, config repository and transaction manager required");
+        }
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        if (flushInterval > 0L) {
+            running = true;
+            flushThread = new Thread(this::run, "DedupeCache");
+            flushThread.setDaemon(true);
+            flushThread.start();
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        running = false;
+        if (flushThread != null) {
+            flushThread.interrupt();
+            flushThread.join();
+        }
+        flush();
+    }
+
+    /**
+     * Adds the given (flow id, path) pair to this cache. If called within a
+     * transaction, the pair is added after commit.
+     *
+     * @param flowId
+     *            flow identifier.
+     * @param path
+     *            path of the acknowledged flow part.
+     * @param application
+     *            application of the flow.
+     */
+    public void acknowledged(Long flowId, String path, String application) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    add(flowId, path, application);
+                }
+            });
+        } else {
+            add(flowId, path, application);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the given (flow id, path) pair has been
+     * acknowledged and flow filtering is enabled for the flow's application.
+     * The filter event is recorded and written to the database later.
+     * <code>false</code> means that the flow manager must be asked.
+     *
+     * @param flowId
+     *            flow identifier.
+     * @param path
+     *            path of the flow part.
+     * @return <code>true</code> if the message is a known duplicate.
+     */
+    public boolean filter(Long flowId, String path) {
+        if (flowId == null || path == null) {
+            return false;
+        }
+        Key key = new Key(flowId, path);
+        Entry entry = entries.get(key);
+        long now = System.currentTimeMillis();
+        if (entry == null || entry.isExpired(now, expiry)) {
+            missCount.incrementAndGet();
+            return false;
+        }
+        if (!isFlowFilterEnabled(entry.application)) {
+            return false;
+        }
+        hitCount.incrementAndGet();
+        pending.merge(key, new PendingFilter(1, now), PendingFilter::add);
+        return true;
+    }
+
+    /**
+     * Writes pending filter counts to the database.
+     *
+     * @return number of updated flow parts.
+     */
+    public int flush() {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        Map<Long, Map<String, PendingFilter>> filters = new HashMap<>();
+        for (Key key : new ArrayList<>(pending.keySet())) {
+            PendingFilter filter = pending.remove(key);
+            if (filter != null) {
+                filters.computeIfAbsent(key.flowId, id -> new HashMap<>()).put(key.path, filter);
+            }
+        }
+        try {
+            return transactionTemplate.execute(status -> flush(filters));
+        } catch (RuntimeException e) {
+            // keep counts for the next attempt
+            filters.forEach((flowId, paths) -> paths.forEach((path, filter) ->
+                    pending.merge(new Key(flowId, path), filter, PendingFilter::add)));
+            throw e;
+        }
+    }
+
+    private int flush(Map<Long, Map<String, PendingFilter>> filters) {
+        int result = 0;
+        for (Map.Entry<Long, Map<String, PendingFilter>> flowFilters : filters.entrySet()) {
+            Flow flow;
+            try {
+                flow = flowRepository.lock(flowFilters.getKey());
+            } catch (FlowException e) {
+                LOG.debug("flow {} not found for filter count update", flowFilters.getKey());
+                continue;
+            }
+            for (Map.Entry<String, PendingFilter> pathFilter : flowFilters.getValue().entrySet()) {
+                FlowPart part = flow.getPart(pathFilter.getKey(), FlowStatus.CLEAN);
+                if (part == null) {
+                    continue;
+                }
+                PendingFilter filter = pathFilter.getValue();
+                part.setFilterCount(part.getFilterCount() + filter.count);
+                if (part.getFilterTime() == null || part.getFilterTime().getTime() < filter.time) {
+                    part.setFilterTime(new Date(filter.time));
+                }
+                flushedCount.addAndGet(filter.count);
+                result++;
+            }
+        }
+        return result;
+    }
+
+    private void add(Long flowId, String path, String application) {
+        Entry entry = new Entry(new Key(flowId, path), application, System.currentTimeMillis());
+        if (entries.putIfAbsent(entry.key, entry) == null) {
+            order.add(entry);
+            evict(entry.time);
+        }
+    }
+
+    private void evict(long now) {
+        Entry eldest;
+        while ((eldest = order.peek()) != null
+                && (entries.size() > maxSize || eldest.isExpired(now, expiry))) {
+            if (order.remove(eldest) && entries.remove(eldest.key, eldest)) {
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    private boolean isFlowFilterEnabled(String application) {
+        ApplicationConfig config = configRepository.find(application);
+        if (config == null) {
+            return ApplicationConfig.FLOW_FILTER_ENABLED_DEFAULT;
+        }
+        return config.isFlowFilterEnabled();
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(flushInterval);
+                evict(System.currentTimeMillis());
+                flush();
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (RuntimeException e) {
+                LOG.error("filter count update error", e);
+            }
+        }
+    }
+
+    private static final class Key {
+
+        final Long flowId;
+
+        final String path;
+
+        Key(Long flowId, String path) {
+            this.flowId = flowId;
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key k = (Key)obj;
+            return flowId.equals(k.flowId) && path.equals(k.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(flowId, path);
+        }
+
+    }
+
+    private static final class Entry {
+
+        final Key key;
+
+        final String application;
+
+        final long time;
+
+        Entry(Key key, String application, long time) {
+            this.key = key;
+            this.application = application;
+            this.time = time;
+        }
+
+        boolean isExpired(long now, long expiry) {
+            return now - time >= expiry;
+        }
+
+    }
+
+    private static final class PendingFilter {
+
+        final int count;
+
+        final long time;
+
+        PendingFilter(int count, long time) {
+            this.count = count;
+            this.time = time;
+        }
+
+        PendingFilter add(PendingFilter other) {
+            return new PendingFilter(count + other.count, Math.max(time, other.time));
+        }
+
+    }
+
+}
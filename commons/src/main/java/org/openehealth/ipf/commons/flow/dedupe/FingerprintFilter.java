@@ -0,0 +1,257 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.dedupe;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openehealth.ipf.commons.flow.FlowManager;
+import org.openehealth.ipf.commons.flow.repository.FlowRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Local Bloom filter of the fingerprints of recently started flows. It is
+ * consulted by the flow manager before a duplicate flow is looked up by
+ * fingerprint (see
+ * {@link FlowManager#findDuplicateFlowId(String, String, long)}) so that
+ * the index lookup is skipped for most new messages.
+ * <p>
+ * The filter is replaced every {@link #getRetention() retention}
+ * milliseconds and the previous filter is kept for another period, so a
+ * fingerprint is known for at least <code>retention</code> milliseconds.
+ * On startup the fingerprints of flows created within the last
+ * <code>retention</code> milliseconds are loaded from the database.
+ * Fingerprints of flows started by other processes sharing the database are
+ * not known to this filter; don't use it in that case.
+ */
+public class FingerprintFilter implements InitializingBean {
+
+    public static final long DEFAULT_RETENTION = 86400000L;
+
+    public static final int DEFAULT_EXPECTED_INSERTIONS = 1000000;
+
+    public static final double DEFAULT_FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    private static final Logger LOG = LoggerFactory.getLogger(FingerprintFilter.class);
+
+    @Autowired
+    private FlowRepository flowRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private volatile long retention;
+
+    private volatile int expectedInsertions;
+
+    private volatile double falsePositiveProbability;
+
+    private volatile Generation current;
+
+    private volatile Generation previous;
+
+    private final AtomicLong lookupCount;
+
+    private final AtomicLong negativeCount;
+
+    private final AtomicLong missCount;
+
+    public FingerprintFilter() {
+        retention = DEFAULT_RETENTION;
+        expectedInsertions = DEFAULT_EXPECTED_INSERTIONS;
+        falsePositiveProbability = DEFAULT_FALSE_POSITIVE_PROBABILITY;
+        lookupCount = new AtomicLong();
+        negativeCount = new AtomicLong();
+        missCount = new AtomicLong();
+    }
+
+    public void setFlowRepository(FlowRepository flowRepository) {
+        this.flowRepository = flowRepository;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    public long getRetention() {
+        return retention;
+    }
+
+    /**
+     * Sets the minimum time in milliseconds a fingerprint is kept. This
+     * should be at least the largest retention window of idempotent flow
+     * begin processors. Default is {@link #DEFAULT_RETENTION}.
+     *
+     * @param retention
+     *            retention time in milliseconds.
+     */
+    public void setRetention(long retention) {
+        if (retention < 1L) {
+            throw new IllegalArgumentException("retention must be positive");
+        }
+        this.retention = retention;
+    }
+
+    public int getExpectedInsertions() {
+        return expectedInsertions;
+    }
+
+    /**
+     * Sets the expected number of flows started within
+     * {@link #getRetention() retention} milliseconds. Default is
+     * {@link #DEFAULT_EXPECTED_INSERTIONS}.
+     *
+     * @param expectedInsertions
+     *            expected number of fingerprints per period.
+     */
+    public void setExpectedInsertions(int expectedInsertions) {
+        if (expectedInsertions < 1) {
+            throw new IllegalArgumentException("expected insertions must be positive");
+        }
+        this.expectedInsertions = expectedInsertions;
+    }
+
+    public double getFalsePositiveProbability() {
+        return falsePositiveProbability;
+    }
+
+    /**
+     * Sets the probability that an unknown fingerprint passes the filter
+     * when it holds the {@link #getExpectedInsertions() expected} number of
+     * fingerprints. Default is {@link #DEFAULT_FALSE_POSITIVE_PROBABILITY}.
+     *
+     * @param falsePositiveProbability
+     *            false positive probability.
+     */
+    public void setFalsePositiveProbability(double falsePositiveProbability) {
+        if (falsePositiveProbability <= 0.0 || falsePositiveProbability >= 1.0) {
+            throw new IllegalArgumentException("false positive probability must be between 0 and 1");
+        }
+        this.falsePositiveProbability = falsePositiveProbability;
+    }
+
+    public long getLookupCount() {
+        return lookupCount.get();
+    }
+
+    /**
+     * Returns the number of fingerprints rejected by this filter, i.e. the
+     * number of index lookups avoided.
+     *
+     * @return number of negative lookups.
+     */
+    public long getNegativeCount() {
+        return negativeCount.get();
+    }
+
+    /**
+     * Returns the number of fingerprints that passed this filter but didn't
+     * match a flow within the retention window of the lookup.
+     *
+     * @return number of unnecessary index lookups.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (flowRepository == null || transactionManager == null) {
+            throw new IllegalArgumentException("flow repository and transaction manager required");
+        }
+        long now = System.currentTimeMillis();
+        current = new Generation(now);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        List<String> fingerprints = transactionTemplate.execute(status ->
+                flowRepository.findFingerprints(new Date(now - retention)));
+        fingerprints.forEach(current.filter::add);
+        LOG.info("loaded {} flow fingerprints", fingerprints.size());
+    }
+
+    /**
+     * Adds the fingerprint of a new flow.
+     *
+     * @param fingerprint
+     *            flow fingerprint.
+     */
+    public void add(String fingerprint) {
+        generation().filter.add(fingerprint);
+    }
+
+    /**
+     * Returns <code>false</code> if no flow with the given fingerprint has
+     * been started within the last {@link #getRetention() retention}
+     * milliseconds. Returns <code>true</code> if such a flow might exist.
+     *
+     * @param fingerprint
+     *            flow fingerprint.
+     * @return whether a flow with the fingerprint might exist.
+     */
+    public boolean mightContain(String fingerprint) {
+        lookupCount.incrementAndGet();
+        Generation generation = generation();
+        Generation older = previous;
+        if (generation.filter.mightContain(fingerprint)
+                || older != null && older.filter.mightContain(fingerprint)) {
+            return true;
+        }
+        negativeCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Records that a fingerprint passed this filter but no flow was found.
+     */
+    public void recordMiss() {
+        missCount.incrementAndGet();
+    }
+
+    private Generation generation() {
+        Generation generation = current;
+        long now = System.currentTimeMillis();
+        if (now - generation.created < retention) {
+            return generation;
+        }
+        synchronized (this) {
+            if (current == generation) {
+                previous = generation;
+                current = new Generation(now);
+            }
+            return current;
+        }
+    }
+
+    private class Generation {
+
+        final BloomFilter filter;
+
+        final long created;
+
+        Generation(long created) {
+            this.filter = new BloomFilter(expectedInsertions, falsePositiveProbability);
+            this.created = created;
+        }
+
+    }
+
+}
@@ -28,10 +28,11 @@ import javax.persistence.FetchType;
 import javax.persistence.Id;
 import javax.persistence.Index;
 import javax.persistence.JoinColumn;
-import javax.persistence.Lob;
 import javax.persistence.OneToMany;
 import javax.persistence.OneToOne;
 import javax.persistence.Table;
+import javax.persistence.Transient;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -49,7 +50,10 @@ import static org.openehealth.ipf.commons.flow.transfer.FlowInfo.ACK_COUNT_EXPEC
  */
 @Indexed(index="messages.idx")
 @Entity
-@Table(name = "T_FLOW", indexes = { @Index(name = "C_APPLICATION_IDX", columnList = "C_APPLICATION") })
+@Table(name = "T_FLOW", indexes = {
+        @Index(name = "C_APPLICATION_IDX", columnList = "C_APPLICATION"),
+        @Index(name = "C_FINGERPRINT_IDX", columnList = "C_FINGERPRINT"),
+        @Index(name = "C_BUCKET_IDX", columnList = "C_BUCKET") })
 public class Flow {
 
     // We currently use our own sequence number generation strategy because
@@ -80,9 +84,21 @@ public class Flow {
     @Column(name="C_APPLICATION")
     private String application;
     
-    @Lob
-    @Column(name="C_PACKET", length=Integer.MAX_VALUE)
-    private byte[] packet;
+    // Separate entity so that locking a flow doesn't read the packet
+    // (formerly stored in column C_PACKET, see FlowPacketMigration)
+    @OneToOne(fetch=FetchType.LAZY)
+    @JoinColumn(name="C_PACKET_ID", nullable=true)
+    @Cascade({CascadeType.ALL})
+    private FlowPacket flowPacket;
+
+    // Orphan removal doesn't work for uninitialized lazy one-to-one
+    // associations. Released packets are deleted by the flow repository.
+    @Transient
+    private FlowPacket releasedPacket;
+
+    // Lookup of parts by status and path (built on demand)
+    @Transient
+    private FlowPartIndex partIndex;
 
     @Column(name="C_CREATION_TIME")
     private Date creationTime;
@@ -103,6 +119,31 @@ public class Flow {
     @Column(name="C_DERIVED_STATUS")
     private FlowStatus derivedStatus;
 
+    // Number of CLEAN and ERROR parts and time of the latest part update,
+    // maintained on update so that status checks don't load the parts
+    // (null for flows written before these columns existed)
+    @Column(name="C_ACK_COUNT")
+    private Integer ackCount;
+
+    @Column(name="C_NAK_COUNT")
+    private Integer nakCount;
+
+    @Column(name="C_UPDATE_TIME")
+    private Date updateTime;
+
+    // Content hash of the inbound message for duplicate detection and
+    // the flow this flow duplicates (both null unless set at flow begin)
+    @Column(name="C_FINGERPRINT", length=64)
+    private String fingerprint;
+
+    @Column(name="C_ORIGINAL_ID")
+    private Long originalId;
+
+    // Time bucket of the creation time, the partition key for time-based
+    // retention (null unless flows are partitioned, see FlowPartitioning)
+    @Column(name="C_BUCKET")
+    private Long bucket;
+
     @OneToMany(fetch=FetchType.LAZY, orphanRemoval=true)
     @JoinColumn(name = "C_FLOW_ID")
     @Cascade({CascadeType.ALL })
@@ -133,6 +174,8 @@ public class Flow {
         creationTime = currentTime();
         derivedStatus = CLEAN;
         replayCount = 0;
+        ackCount = 0;
+        nakCount = 0;
     }
     
     public Long getIdentifier() {
@@ -141,6 +184,9 @@ public class Flow {
 
     public void setIdentifier(Long identifier) {
         this.identifier = identifier;
+        if (flowPacket != null) {
+            flowPacket.setIdentifier(identifier);
+        }
     }
 
     public String getApplication() {
@@ -158,7 +204,10 @@ public class Flow {
      * @return a byte[] or <code>null</code>.
      */
     public byte[] getPacket() {
-        return packet;
+        if (flowPacket == null) {
+            return null;
+        }
+        return flowPacket.getData();
     }
     
     /**
@@ -169,7 +218,21 @@ public class Flow {
      *            a byte array or <code>null</code>.
      */
     public void setPacket(byte[] packet) {
-        this.packet = packet;
+        if (packet == null) {
+            if (flowPacket != null) {
+                releasedPacket = flowPacket;
+            }
+            flowPacket = null;
+        } else if (releasedPacket != null) {
+            // the packet row has the flow identifier and is reused
+            flowPacket = releasedPacket;
+            flowPacket.setData(packet);
+            releasedPacket = null;
+        } else if (flowPacket == null) {
+            flowPacket = new FlowPacket(identifier, packet);
+        } else {
+            flowPacket.setData(packet);
+        }
     }
     
     public Date getCreationTime() {
@@ -223,6 +286,41 @@ public class Flow {
         this.derivedStatus = derivedStatus;
     }
 
+    /**
+     * Returns the time of the latest acknowledgement or invalidation of this
+     * flow.
+     * 
+     * @return the latest part update time or <code>null</code> if the flow
+     *         has not been updated (or has been written by an older version).
+     */
+    public Date getUpdateTime() {
+        return updateTime;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    public Long getOriginalId() {
+        return originalId;
+    }
+
+    public void setOriginalId(Long originalId) {
+        this.originalId = originalId;
+    }
+
+    public Long getBucket() {
+        return bucket;
+    }
+
+    public void setBucket(Long bucket) {
+        this.bucket = bucket;
+    }
+
     public Set<FlowPart> getParts() {
         if (parts == null) {
             parts = new HashSet<>();
@@ -231,21 +329,66 @@ public class Flow {
     }
     
     public FlowPart getPart(String path, FlowStatus status) {
-        for (FlowPart part : getParts()) {
-            if (path.equals(part.getPath()) && (status == part.getStatus())) {
-                return part;
+        return getPart(path, status, true);
+    }
+    
+    private FlowPart getPart(String path, FlowStatus status, boolean includeDeferred) {
+        if (path == null) {
+            return null;
+        }
+        FlowPartIndex index = getPartIndex();
+        FlowPart part = index.get(path, status);
+        if (part == null && index.contains(path, status)) {
+            // indexed part has been changed directly
+            index = rebuildPartIndex();
+            part = index.get(path, status);
+        }
+        if (part == null && includeDeferred) {
+            for (FlowPart deferredPart : index.getDeferredParts()) {
+                if (path.equals(deferredPart.getPath()) && (status == deferredPart.getStatus())) {
+                    return deferredPart;
+                }
             }
         }
-        return null;
+        return part;
     }
     
     public FlowPart getPart(String path) {
-        for (FlowPart part : getParts()) {
-            if (part.getPath().equals(path)) {
-                return part;
-            }
+        FlowPart part = getPart(path, CLEAN);
+        if (part == null) {
+            part = getPart(path, ERROR);
         }
-        return null;
+        return part;
+    }
+
+    private FlowPartIndex getPartIndex() {
+        if (partIndex == null || !partIndex.isValidFor(getParts())) {
+            return rebuildPartIndex();
+        }
+        return partIndex;
+    }
+
+    private FlowPartIndex rebuildPartIndex() {
+        partIndex = new FlowPartIndex(getParts());
+        return partIndex;
+    }
+
+    FlowPacket getFlowPacket() {
+        return flowPacket;
+    }
+
+    /**
+     * Returns the packet released by a previous <code>setPacket(null)</code>
+     * call and resets it. The returned packet must be removed from the
+     * database by the caller.
+     * 
+     * @return the released packet or <code>null</code>.
+     * @see org.openehealth.ipf.commons.flow.repository.FlowRepository#removeReleasedPacket(Flow)
+     */
+    public FlowPacket takeReleasedPacket() {
+        FlowPacket result = releasedPacket;
+        releasedPacket = null;
+        return result;
     }
 
     FlowMessage getFlowMessage() {
@@ -295,34 +438,26 @@ public class Flow {
     }
     
     public int getStatusCount(FlowStatus status) {
-        int result = 0;
-        for (FlowPart part : getParts()) {
-            if (part.getStatus() == status) {
-                result++;
-            }
-        }
-        return result;
+        initCounters();
+        return status == ERROR ? nakCount : ackCount;
     }
     
     public FlowStatus getStatus() {
-        if (parts != null) {
-            for (FlowPart part : parts) {
-                if (part.getStatus() == ERROR) {
-                    return ERROR;
-                }
-            }
-        }
-        return CLEAN;
+        initCounters();
+        return nakCount > 0 ? ERROR : CLEAN;
     }
     
     public void clearErrorStatus() {
+        initCounters();
         setDerivedStatus(CLEAN);
-        for (Iterator<FlowPart> iter = parts.iterator(); iter.hasNext();) {
+        for (Iterator<FlowPart> iter = getParts().iterator(); iter.hasNext();) {
             FlowPart part = iter.next();
             if (part.getStatus() == ERROR) {
                 iter.remove();
             }
         }
+        partIndex = null;
+        nakCount = 0;
     }
     
     public Date getLatestUpdate() {
@@ -389,18 +524,79 @@ public class Flow {
     public void acknowledge(String path, boolean cleanup, String partMessageText) {
         FlowPart part = update(path, CLEAN);
         if (cleanup && isAckCountExpectedReached()) {
-            setPacket(null);
-            // clear the flow message
-            setFlowMessageText(null);
-            // clear the message in the flow parts
-            for (FlowPart p : getParts()) {
-                p.setFlowPartMessageText(null);
-            }
+            cleanup();
         } else {
             part.setFlowPartMessageText(partMessageText);
         }
     }
     
+    /**
+     * Folds deferred acknowledgements (see {@link FlowPart#FlowPart(Long, String)})
+     * into this flow. Each deferred part is merged with an existing part of
+     * the same path and status or becomes a regular part. If
+     * <code>cleanup</code> is set to <code>true</code> and the number of
+     * expected acknowledgements has been reached the initial message is
+     * cleaned up as in {@link #acknowledge(String, boolean, String)}.
+     * 
+     * @param cleanup
+     *            <code>true</code> to enable cleanup of the initial message if
+     *            the expected acknowledgement count has been reached.
+     * @return the number of folded deferred parts.
+     */
+    public int compact(boolean cleanup) {
+        int result = compactDeferredParts();
+        if (result > 0 && cleanup && isAckCountExpectedReached()) {
+            cleanup();
+        }
+        return result;
+    }
+    
+    private int compactDeferredParts() {
+        initCounters();
+        FlowPartIndex index = getPartIndex();
+        if (index.getDeferredParts().isEmpty()) {
+            return 0;
+        }
+        List<FlowPart> deferredParts = new ArrayList<>(index.getDeferredParts());
+        for (FlowPart deferredPart : deferredParts) {
+            FlowPart part = getPart(deferredPart.getPath(), deferredPart.getStatus(), false);
+            index = getPartIndex();
+            deferredPart.setDeferred(false);
+            if (part == null) {
+                index.undeferred(deferredPart);
+                if (deferredPart.getStatus() == ERROR) {
+                    nakCount++;
+                } else {
+                    ackCount++;
+                }
+                part = deferredPart;
+            } else {
+                part.setContributionCount(part.getContributionCount() + deferredPart.getContributionCount());
+                part.setContributionTime(deferredPart.getContributionTime());
+                String text = deferredPart.getFlowPartMessageText();
+                if (text != null) {
+                    part.setFlowPartMessageText(text);
+                }
+                getParts().remove(deferredPart);
+                index.removed(deferredPart);
+            }
+            if (updateTime == null || updateTime.before(part.getContributionTime())) {
+                updateTime = part.getContributionTime();
+            }
+        }
+        return deferredParts.size();
+    }
+    
+    private void cleanup() {
+        setPacket(null);
+        // clear the flow message
+        setFlowMessageText(null);
+        // clear the message in the flow parts
+        for (FlowPart p : getParts()) {
+            p.setFlowPartMessageText(null);
+        }
+    }
+    
     
     /**
      * Invalidates this flow for the given path. The flow part representing this
@@ -446,15 +642,24 @@ public class Flow {
      * @see FlowPart
      */
     protected FlowPart update(String path, FlowStatus status) {
+        compactDeferredParts();
         FlowPart flowPart = getPart(path, status);
         if (flowPart == null) {
             flowPart = new FlowPart();
             flowPart.setPath(path);
             flowPart.setStatus(status);
+            FlowPartIndex index = getPartIndex();
             getParts().add(flowPart);
+            index.added(flowPart);
+            if (status == ERROR) {
+                nakCount++;
+            } else {
+                ackCount++;
+            }
         }
+        updateTime = currentTime();
         flowPart.incrementContributionCount();
-        flowPart.setContributionTime(currentTime());
+        flowPart.setContributionTime(updateTime);
         return flowPart;
     }
     
@@ -486,7 +691,8 @@ public class Flow {
      * @return <code>true</code> if the flow can be replayed.
      */
     public boolean isReplayable() {
-        return packet != null;
+        // doesn't initialize the lazy association
+        return flowPacket != null;
     }
     
     /**
@@ -496,13 +702,22 @@ public class Flow {
      * @return the message data (packet) used for replay.
      */
     public byte[] prepareReplay() {
+        startReplay();
+        return getPacket();
+    }
+    
+    /**
+     * Prepares this flow for a replay like {@link #prepareReplay()} but
+     * doesn't read the packet. Used if the packet has been fetched
+     * separately.
+     */
+    public void startReplay() {
         setReplayTime(currentTime());
         incrementReplayCount();
         clearErrorStatus();
         getParts().stream()
                 .filter(part -> part.getStatus().equals(FlowStatus.ERROR))
                 .forEach(part -> part.setFlowPartMessageText(null));
-        return getPacket();
     }
     
     @Override
@@ -527,6 +742,20 @@ public class Flow {
     }
     
     public FlowInfo getInfo(boolean includeText) {
+        return getInfo(includeText, true);
+    }
+    
+    /**
+     * Creates a {@link FlowInfo} for this flow.
+     * 
+     * @param includeText
+     *            <code>true</code> to include the message texts.
+     * @param includeParts
+     *            <code>true</code> to include the flow part details.
+     *            Otherwise, the flow parts are not loaded from the database.
+     * @return flow info.
+     */
+    public FlowInfo getInfo(boolean includeText, boolean includeParts) {
         FlowInfo info = new FlowInfo();
         info.setIdentifier(identifier);
         info.setApplication(application);
@@ -538,21 +767,46 @@ public class Flow {
         info.setAckCountExpected(getAckCountExpected());
         info.setAckCount(getStatusCount(FlowStatus.CLEAN));
         info.setNakCount(getStatusCount(FlowStatus.ERROR));
+        info.setUpdateTime(updateTime);
+        info.setOriginalFlowId(originalId);
         if (includeText) {
             info.setText(getFlowMessageText());
         }
-        for (FlowPart part : getParts()) {
-            info.getPartInfos().add(part.getInfo(this, includeText));
+        if (includeParts) {
+            for (FlowPart part : getParts()) {
+                info.getPartInfos().add(part.getInfo(this, includeText));
+            }
         }
         return info;
     }
     
     public static List<FlowInfo> getInfos(List<Flow> flows) {
+        return getInfos(flows, true);
+    }
+    
+    public static List<FlowInfo> getInfos(List<Flow> flows, boolean includeParts) {
         return flows.stream()
-                .map(Flow::getInfo)
+                .map(flow -> flow.getInfo(false, includeParts))
                 .collect(Collectors.toList());
     }
     
+    private void initCounters() {
+        // Support DB schema upgrade
+        if (ackCount == null || nakCount == null) {
+            ackCount = 0;
+            nakCount = 0;
+            for (FlowPart part : getParts()) {
+                if (part.isDeferred()) {
+                    continue;
+                } else if (part.getStatus() == ERROR) {
+                    nakCount++;
+                } else {
+                    ackCount++;
+                }
+            }
+        }
+    }
+    
     private static Date currentTime() {
         return new Date();
     }
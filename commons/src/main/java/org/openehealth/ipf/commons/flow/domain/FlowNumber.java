@@ -66,4 +66,9 @@ public class FlowNumber {
         return value; 
     }
     
+    public long addAndGet(long delta) {
+        value += delta;
+        return value;
+    }
+    
 }
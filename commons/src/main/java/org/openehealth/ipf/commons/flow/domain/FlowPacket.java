@@ -0,0 +1,69 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.domain;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+
+/**
+ * The packet (initial message) of a {@link Flow}. Stored in a separate table
+ * so that the packet is only read from the database if needed (e.g. for
+ * replay) and not when a flow is locked for acknowledgement. A packet has
+ * the identifier of its flow.
+ */
+@Entity
+@Table(name = "T_FLOW_PACKET")
+public class FlowPacket {
+
+    // Assigned from the flow identifier (no random identifiers and no
+    // sequence access when a flow is persisted)
+    @Id
+    @Column(name = "C_ID")
+    private Long identifier; // internal
+
+    @Lob
+    @Column(name = "C_DATA", length = Integer.MAX_VALUE)
+    private byte[] data;
+
+    public FlowPacket() {
+        this(null, null);
+    }
+
+    public FlowPacket(Long identifier, byte[] data) {
+        this.identifier = identifier;
+        this.data = data;
+    }
+
+    public Long getIdentifier() {
+        return identifier;
+    }
+
+    void setIdentifier(Long identifier) {
+        this.identifier = identifier;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+}
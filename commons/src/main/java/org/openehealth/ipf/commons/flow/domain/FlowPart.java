@@ -16,14 +16,17 @@
 package org.openehealth.ipf.commons.flow.domain;
 
 import java.util.Date;
-import java.util.UUID;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.OneToOne;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 
 import org.hibernate.annotations.Cascade;
@@ -34,18 +37,36 @@ import org.hibernate.search.annotations.IndexedEmbedded;
 import org.openehealth.ipf.commons.flow.transfer.FlowPartInfo;
 
 /**
+ * A part of a {@link Flow}. Flow parts are compared by identity because the
+ * identifier is only assigned when the part is persisted. Hibernate
+ * guarantees a single instance per part within a session.
+ * 
  * @author Martin Krasser
  * @author Mitko Kolev 
  */
 @Indexed(index="messages.idx")
 @Entity
-@Table(name = "T_FLOW_PART")
+@Table(name = "T_FLOW_PART_V2", indexes = {
+        @Index(name = "C_DEFERRED_IDX", columnList = "C_DEFERRED, C_FLOW_ID") })
 public class FlowPart {
 
+    /**
+     * Number of identifiers reserved per sequence access.
+     */
+    public static final int ID_ALLOCATION_SIZE = 100;
+
+    // Sequential numeric identifiers keep inserts at the end of the
+    // primary key index. Parts written by earlier versions with UUID
+    // identifiers (table T_FLOW_PART) are moved to this table by
+    // FlowPartMigration. Falls back to a sequence table if the database
+    // doesn't support sequences.
     @DocumentId
     @Id
-    @Column(name="C_ID", length=128)
-    private final String identifier; // internal
+    @GeneratedValue(strategy=GenerationType.SEQUENCE, generator="T_FLOW_PART_SEQ")
+    @SequenceGenerator(name="T_FLOW_PART_SEQ", sequenceName="T_FLOW_PART_SEQ",
+            allocationSize=ID_ALLOCATION_SIZE)
+    @Column(name="C_ID")
+    private Long identifier; // internal
     
     @Column(name="C_STATUS")
     private FlowStatus status;
@@ -67,6 +88,12 @@ public class FlowPart {
     
     @Column(name="C_FLOW_ID")
     private Long flowId;
+
+    // Contribution not yet folded into the flow's counters
+    // (written without locking the flow, see Flow.compact),
+    // indexed for the flow compactor's polling query
+    @Column(name="C_DEFERRED")
+    private Boolean deferred;
     
     @IndexedEmbedded(depth = 1)
     @OneToOne(fetch=FetchType.LAZY)
@@ -77,15 +104,43 @@ public class FlowPart {
     
     
     public FlowPart() {
-        identifier = UUID.randomUUID().toString();
         contributionCount = 0;
         filterCount = 0;
     }
 
+    /**
+     * Creates a deferred acknowledgement of the flow with the given
+     * identifier. A deferred part can be inserted without loading or locking
+     * the flow. It is folded into the flow by {@link Flow#compact(boolean)}.
+     * 
+     * @param flowId
+     *            identifier of the acknowledged flow.
+     * @param path
+     *            a flow path.
+     */
+    public FlowPart(Long flowId, String path) {
+        this();
+        this.flowId = flowId;
+        this.path = path;
+        status = FlowStatus.CLEAN;
+        deferred = true;
+        contributionCount = 1;
+        contributionTime = new Date();
+    }
+
     public Long getFlowId() {
         return flowId;
     }
     
+    public boolean isDeferred() {
+        // Support DB schema upgrade
+        return deferred != null && deferred;
+    }
+
+    public void setDeferred(boolean deferred) {
+        this.deferred = deferred;
+    }
+
     public FlowStatus getStatus() {
         return status;
     }
@@ -207,21 +262,4 @@ public class FlowPart {
         return info;
     }
     
-    @Override
-    public boolean equals(Object obj) {
-        if (obj == this) {
-            return true;
-        }
-        if (!(obj instanceof FlowPart)) {
-            return false;
-        }
-        FlowPart p = (FlowPart)obj;
-        return identifier.equals(p.identifier);
-    }
-
-    @Override
-    public int hashCode() {
-        return identifier.hashCode();
-    }
-
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.domain;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the parts of a {@link Flow} by status and path. Deferred parts
+ * are not indexed but kept in a separate list. The index is valid for a
+ * single parts collection instance and must be notified of all changes to
+ * that collection. Changes it is not notified of are detected (and the
+ * index must be rebuilt) if they change the size of the collection.
+ */
+final class FlowPartIndex {
+
+    private final Set<FlowPart> parts;
+
+    private final Map<FlowStatus, Map<String, FlowPart>> index;
+
+    private final List<FlowPart> deferredParts;
+
+    private int size;
+
+    FlowPartIndex(Set<FlowPart> parts) {
+        this.parts = parts;
+        this.index = new EnumMap<>(FlowStatus.class);
+        this.deferredParts = new ArrayList<>();
+        for (FlowStatus status : FlowStatus.values()) {
+            index.put(status, new HashMap<>());
+        }
+        for (FlowPart part : parts) {
+            added(part);
+        }
+    }
+
+    boolean isValidFor(Set<FlowPart> parts) {
+        return this.parts == parts && size == parts.size();
+    }
+
+    /**
+     * Returns the non-deferred part with given path and status.
+     * 
+     * @return the part or <code>null</code> if there's no such part in the
+     *         index or the indexed part has been changed since indexing.
+     */
+    FlowPart get(String path, FlowStatus status) {
+        FlowPart part = index.get(status).get(path);
+        if (part == null || part.isDeferred() || part.getStatus() != status || !path.equals(part.getPath())) {
+            return null;
+        }
+        return part;
+    }
+
+    boolean contains(String path, FlowStatus status) {
+        return index.get(status).containsKey(path);
+    }
+
+    List<FlowPart> getDeferredParts() {
+        return deferredParts;
+    }
+
+    void added(FlowPart part) {
+        size++;
+        if (part.isDeferred()) {
+            deferredParts.add(part);
+        } else {
+            index.get(part.getStatus()).put(part.getPath(), part);
+        }
+    }
+
+    void removed(FlowPart part) {
+        size--;
+        if (!deferredParts.remove(part)) {
+            index.get(part.getStatus()).remove(part.getPath(), part);
+        }
+    }
+
+    void undeferred(FlowPart part) {
+        deferredParts.remove(part);
+        index.get(part.getStatus()).put(part.getPath(), part);
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.jmx;
+
+import org.openehealth.ipf.commons.flow.repository.CachingConfigRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * MBean for monitoring the application configuration cache of a
+ * {@link CachingConfigRepository}.
+ */
+@ManagedResource(
+        objectName="org.openehealth.ipf:type=service,name=ConfigCache",
+        description="Application configuration cache")
+public class ConfigCacheMBean {
+
+    @Autowired
+    private CachingConfigRepository configRepository;
+
+    @ManagedAttribute(description="Number of configuration lookups served from the cache")
+    public long getHitCount() {
+        return configRepository.getHitCount();
+    }
+
+    @ManagedAttribute(description="Number of configuration lookups read from the database")
+    public long getMissCount() {
+        return configRepository.getMissCount();
+    }
+
+    @ManagedAttribute(description="Ratio of cache hits to all lookups")
+    public double getHitRate() {
+        return configRepository.getHitRate();
+    }
+
+    @ManagedAttribute(description="Number of cached application configurations")
+    public int getSize() {
+        return configRepository.getSize();
+    }
+
+    @ManagedAttribute(description="Time in milliseconds after which a cached configuration is read again")
+    public long getRefreshInterval() {
+        return configRepository.getRefreshInterval();
+    }
+
+    @ManagedAttribute(description="Time in milliseconds after which a cached configuration is read again")
+    public void setRefreshInterval(long refreshInterval) {
+        configRepository.setRefreshInterval(refreshInterval);
+    }
+
+    @ManagedOperation(description="Remove all cached configurations")
+    public void clear() {
+        configRepository.clear();
+    }
+
+}
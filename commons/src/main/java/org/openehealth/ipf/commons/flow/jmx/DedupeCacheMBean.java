@@ -0,0 +1,96 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.jmx;
+
+import org.openehealth.ipf.commons.flow.dedupe.DedupeCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * MBean for monitoring the in-memory {@link DedupeCache} used by duplicate
+ * filters.
+ */
+@ManagedResource(
+        objectName="org.openehealth.ipf:type=service,name=DedupeCache",
+        description="Duplicate filter cache")
+public class DedupeCacheMBean {
+
+    @Autowired
+    private DedupeCache dedupeCache;
+
+    @ManagedAttribute(description="Number of cached acknowledged flow paths")
+    public int getSize() {
+        return dedupeCache.getSize();
+    }
+
+    @ManagedAttribute(description="Maximum number of cached acknowledged flow paths")
+    public int getMaxSize() {
+        return dedupeCache.getMaxSize();
+    }
+
+    @ManagedAttribute(description="Maximum number of cached acknowledged flow paths")
+    public void setMaxSize(int maxSize) {
+        dedupeCache.setMaxSize(maxSize);
+    }
+
+    @ManagedAttribute(description="Lifetime of cache entries in milliseconds")
+    public long getExpiry() {
+        return dedupeCache.getExpiry();
+    }
+
+    @ManagedAttribute(description="Lifetime of cache entries in milliseconds")
+    public void setExpiry(long expiry) {
+        dedupeCache.setExpiry(expiry);
+    }
+
+    @ManagedAttribute(description="Number of duplicates filtered without database access")
+    public long getHitCount() {
+        return dedupeCache.getHitCount();
+    }
+
+    @ManagedAttribute(description="Number of filter checks passed to the flow manager")
+    public long getMissCount() {
+        return dedupeCache.getMissCount();
+    }
+
+    @ManagedAttribute(description="Ratio of cache hits to all filter checks")
+    public double getHitRate() {
+        return dedupeCache.getHitRate();
+    }
+
+    @ManagedAttribute(description="Number of expired or evicted cache entries")
+    public long getEvictionCount() {
+        return dedupeCache.getEvictionCount();
+    }
+
+    @ManagedAttribute(description="Number of flow parts with unwritten filter counts")
+    public int getPendingCount() {
+        return dedupeCache.getPendingCount();
+    }
+
+    @ManagedAttribute(description="Number of filter events written to the database")
+    public long getFlushedCount() {
+        return dedupeCache.getFlushedCount();
+    }
+
+    @ManagedOperation(description="Write pending filter counts to the database")
+    public int flush() {
+        return dedupeCache.flush();
+    }
+
+}
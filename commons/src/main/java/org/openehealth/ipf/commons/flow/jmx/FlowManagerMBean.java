@@ -23,7 +23,9 @@ import java.util.Date;
 import java.util.List;
 
 import org.openehealth.ipf.commons.flow.FlowManager;
+import org.openehealth.ipf.commons.flow.config.ApplicationConfig;
 import org.openehealth.ipf.commons.flow.core.Duration;
+import org.openehealth.ipf.commons.flow.packet.PacketCompression;
 import org.openehealth.ipf.commons.flow.repository.FlowFinderCriteria;
 import org.openehealth.ipf.commons.flow.transfer.FlowInfo;
 import org.openehealth.ipf.commons.flow.transfer.FlowInfoFinderCriteria;
@@ -122,6 +124,30 @@ public class FlowManagerMBean {
         flowManager.setFlowCleanupEnabled(application, enableCleanup);
     }
 
+    @ManagedAttribute(description="Packet compression codec for new flows (NONE, DEFLATE or DEFLATE_FAST)")
+    public String getPacketCompression() {
+        return flowManager.getApplicationConfig(application).getPacketCompression().toString();
+    }
+
+    @ManagedAttribute(description="Packet compression codec for new flows (NONE, DEFLATE or DEFLATE_FAST)")
+    public void setPacketCompression(String packetCompression) {
+        ApplicationConfig applicationConfig = flowManager.getApplicationConfig(application);
+        applicationConfig.setPacketCompression(PacketCompression.valueOf(packetCompression.trim().toUpperCase()));
+        flowManager.mergeApplicationConfig(applicationConfig);
+    }
+
+    @ManagedAttribute(description="Minimum packet size in bytes for compression")
+    public int getPacketCompressionThreshold() {
+        return flowManager.getApplicationConfig(application).getPacketCompressionThreshold();
+    }
+
+    @ManagedAttribute(description="Minimum packet size in bytes for compression")
+    public void setPacketCompressionThreshold(int packetCompressionThreshold) {
+        ApplicationConfig applicationConfig = flowManager.getApplicationConfig(application);
+        applicationConfig.setPacketCompressionThreshold(packetCompressionThreshold);
+        flowManager.mergeApplicationConfig(applicationConfig);
+    }
+
     @ManagedOperation(description="Set upper time limit to current time")
     public void setUpperTimeLimitToCurrentTime() {
         upperTimeLimit = new Date();
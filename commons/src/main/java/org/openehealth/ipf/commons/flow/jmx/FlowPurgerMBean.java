@@ -22,7 +22,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.openehealth.ipf.commons.flow.FlowManager;
 import org.openehealth.ipf.commons.flow.config.ApplicationConfig;
+import org.openehealth.ipf.commons.flow.core.Duration;
+import org.openehealth.ipf.commons.flow.purge.FlowPurgeController;
+import org.openehealth.ipf.commons.flow.purge.FlowPurgeExecutor;
 import org.openehealth.ipf.commons.flow.purge.FlowPurgeJob;
+import org.openehealth.ipf.commons.flow.purge.FlowPurgeProgress;
 import org.quartz.Scheduler;
 import org.quartz.SchedulerException;
 import org.quartz.impl.StdSchedulerFactory;
@@ -53,6 +57,11 @@ public class FlowPurgerMBean implements InitializingBean, DisposableBean {
     private String application; 
 
     private Scheduler scheduler;
+
+    private FlowPurgeExecutor purgeExecutor;
+
+    @Autowired(required=false)
+    private FlowPurgeController purgeController;
     
     private final Map<String, FlowPurgeJob> flowPurgeJobs;
 
@@ -118,6 +127,110 @@ public class FlowPurgerMBean implements InitializingBean, DisposableBean {
         flowManager.mergeApplicationConfig(applicationConfig);
     }
 
+    @ManagedAttribute(description="Number of threads purging flows of all applications")
+    public int getPurgeThreads() {
+        return purgeExecutor.getPoolSize();
+    }
+
+    @ManagedAttribute(description="Number of threads purging flows of all applications")
+    public void setPurgeThreads(int purgeThreads) {
+        purgeExecutor.setPoolSize(purgeThreads);
+    }
+
+    @ManagedAttribute(description="Number of flow id ranges purged in parallel per application")
+    public int getPurgeRanges() {
+        return purgeExecutor.getRanges();
+    }
+
+    @ManagedAttribute(description="Number of flow id ranges purged in parallel per application")
+    public void setPurgeRanges(int purgeRanges) {
+        purgeExecutor.setRanges(purgeRanges);
+    }
+
+    @ManagedAttribute(description="Purge job running for current application")
+    public boolean isPurgeRunning() {
+        FlowPurgeProgress progress = purgeExecutor.getProgress(application);
+        return progress != null && progress.isRunning();
+    }
+
+    @ManagedAttribute(description="Flows purged by the running or latest purge job of current application")
+    public long getPurgedFlows() {
+        FlowPurgeProgress progress = purgeExecutor.getProgress(application);
+        return progress == null ? 0L : progress.getPurgedFlows();
+    }
+
+    @ManagedAttribute(description="Flows per second purged by the running or latest purge job "
+            + "of current application")
+    public double getPurgeRate() {
+        FlowPurgeProgress progress = purgeExecutor.getProgress(application);
+        return progress == null ? 0.0 : progress.getRate();
+    }
+
+    @ManagedAttribute(description="Flows remaining to be purged by the running or latest purge job "
+            + "of current application")
+    public long getPurgeBacklog() {
+        FlowPurgeProgress progress = purgeExecutor.getProgress(application);
+        return progress == null ? 0L : progress.getRemainingFlows();
+    }
+
+    @ManagedAttribute(description="Current number of flows purged per transaction")
+    public int getPurgeBatchSize() {
+        return purgeExecutor.getController().getBatchSize();
+    }
+
+    @ManagedAttribute(description="True if the latest purge batch was reduced or paused")
+    public boolean isPurgeThrottled() {
+        return purgeExecutor.getController().isThrottled();
+    }
+
+    @ManagedAttribute(description="Average delete latency of purge batches in milliseconds")
+    public double getPurgeDeleteLatency() {
+        return purgeExecutor.getController().getDeleteLatency();
+    }
+
+    @ManagedAttribute(description="Average latency of live beginFlow and acknowledgeFlow operations "
+            + "in milliseconds")
+    public double getLiveFlowLatency() {
+        return purgeExecutor.getController().getLiveLatency();
+    }
+
+    @ManagedAttribute(description="Total time in milliseconds purge threads paused for the rows per second budget")
+    public long getPurgePauseTime() {
+        return purgeExecutor.getController().getPauseTime();
+    }
+
+    @ManagedAttribute(description="Maximum flows purged per second by each purge thread (0 = unlimited)")
+    public double getPurgeRowsPerSecond() {
+        return purgeExecutor.getController().getRowsPerSecond();
+    }
+
+    @ManagedAttribute(description="Maximum flows purged per second by each purge thread (0 = unlimited)")
+    public void setPurgeRowsPerSecond(double rowsPerSecond) {
+        purgeExecutor.getController().setRowsPerSecond(rowsPerSecond);
+    }
+
+    @ManagedAttribute(description="Purge transaction time budget in milliseconds")
+    public long getPurgeTxTimeBudget() {
+        return purgeExecutor.getController().getTxTimeBudget();
+    }
+
+    @ManagedAttribute(description="Purge transaction time budget in milliseconds")
+    public void setPurgeTxTimeBudget(long txTimeBudget) {
+        purgeExecutor.getController().setTxTimeBudget(txTimeBudget);
+    }
+
+    @ManagedAttribute(description="Live flow latency in milliseconds above which purge batches "
+            + "are reduced (0 = disabled)")
+    public long getPurgeLiveLatencyThreshold() {
+        return purgeExecutor.getController().getLiveLatencyThreshold();
+    }
+
+    @ManagedAttribute(description="Live flow latency in milliseconds above which purge batches "
+            + "are reduced (0 = disabled)")
+    public void setPurgeLiveLatencyThreshold(long liveLatencyThreshold) {
+        purgeExecutor.getController().setLiveLatencyThreshold(liveLatencyThreshold);
+    }
+
     @ManagedOperation(description = "Executes a purge job once for current application")
     public void execute() {
         executeJob(flowManager.getApplicationConfig(application));
@@ -133,8 +246,20 @@ public class FlowPurgerMBean implements InitializingBean, DisposableBean {
         unscheduleJob(flowManager.getApplicationConfig(application));
     }
 
+    @ManagedOperation(description = "Drops time buckets (of all applications) with flows older than "
+            + "given duration (e.g. \"30d\"). Requires flow partitioning")
+    public int dropFlowBuckets(String olderThan) {
+        return flowManager.dropFlowBuckets(Duration.parse(olderThan).since());
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
+        if (purgeExecutor == null) {
+            purgeExecutor = new FlowPurgeExecutor();
+            if (purgeController != null) {
+                purgeExecutor.setController(purgeController);
+            }
+        }
         if (scheduler == null){
     	    scheduler = StdSchedulerFactory.getDefaultScheduler();
         }
@@ -148,6 +273,7 @@ public class FlowPurgerMBean implements InitializingBean, DisposableBean {
     @Override
     public void destroy() throws Exception {
         scheduler.shutdown();
+        purgeExecutor.destroy();
     }
 
     private void executeJob(ApplicationConfig config) {
@@ -193,7 +319,7 @@ public class FlowPurgerMBean implements InitializingBean, DisposableBean {
     private FlowPurgeJob getFlowPurgeJob(ApplicationConfig config) {
         FlowPurgeJob flowPurgeJob = flowPurgeJobs.get(config.getApplication());
         if (flowPurgeJob == null) {
-            flowPurgeJob = new FlowPurgeJob(flowManager, scheduler, application);
+            flowPurgeJob = new FlowPurgeJob(flowManager, scheduler, application, purgeExecutor);
             flowPurgeJob.setFlowPurgeSchedule(config.getFlowPurgeSchedule());
             flowPurgeJob.setPurgeFlowsOlderThan(config.getPurgeFlowsOlderThan());
             flowPurgeJob.setDoNotPurgeErrorFlows(config.isDoNotPurgeErrorFlows());
@@ -210,6 +336,14 @@ public class FlowPurgerMBean implements InitializingBean, DisposableBean {
         this.scheduler = scheduler;
     }
 
+    public FlowPurgeExecutor getPurgeExecutor() {
+        return purgeExecutor;
+    }
+
+    public void setPurgeExecutor(FlowPurgeExecutor purgeExecutor) {
+        this.purgeExecutor = purgeExecutor;
+    }
+
     @ManagedAttribute(description="Schedulers metadata")
     public Map<String, String> getSchedulerMetaData() {
         Map<String, String> map = new HashMap<>();
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.jmx;
+
+import org.openehealth.ipf.commons.flow.journal.FlowWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * MBean for monitoring the background {@link FlowWriter} used by
+ * asynchronous flow creation.
+ */
+@ManagedResource(
+        objectName="org.openehealth.ipf:type=service,name=FlowWriter",
+        description="Background flow writer")
+public class FlowWriterMBean {
+
+    @Autowired
+    private FlowWriter flowWriter;
+
+    @ManagedAttribute(description="Number of flows waiting in the queue")
+    public int getQueueSize() {
+        return flowWriter.getQueueSize();
+    }
+
+    @ManagedAttribute(description="Maximum number of flows in the queue")
+    public int getQueueCapacity() {
+        return flowWriter.getQueueCapacity();
+    }
+
+    @ManagedAttribute(description="Number of flows not yet written to the database")
+    public int getPendingCount() {
+        return flowWriter.getPendingCount();
+    }
+
+    @ManagedAttribute(description="Maximum number of flows written per transaction")
+    public int getBatchSize() {
+        return flowWriter.getBatchSize();
+    }
+
+    @ManagedAttribute(description="Maximum number of flows written per transaction")
+    public void setBatchSize(int batchSize) {
+        flowWriter.setBatchSize(batchSize);
+    }
+
+    @ManagedAttribute(description="Size of the last written batch")
+    public int getLastBatchSize() {
+        return flowWriter.getLastBatchSize();
+    }
+
+    @ManagedAttribute(description="Duration of the last batch transaction in milliseconds")
+    public long getLastBatchDuration() {
+        return flowWriter.getLastBatchDuration();
+    }
+
+    @ManagedAttribute(description="Average time between queuing and commit in milliseconds")
+    public double getAverageWriteLatency() {
+        return flowWriter.getAverageWriteLatency();
+    }
+
+    @ManagedAttribute(description="Number of flows written")
+    public long getWrittenCount() {
+        return flowWriter.getWrittenCount();
+    }
+
+    @ManagedAttribute(description="Number of flows that could not be written")
+    public long getFailedCount() {
+        return flowWriter.getFailedCount();
+    }
+
+    @ManagedAttribute(description="Number of batch transactions")
+    public long getBatchCount() {
+        return flowWriter.getBatchCount();
+    }
+
+}
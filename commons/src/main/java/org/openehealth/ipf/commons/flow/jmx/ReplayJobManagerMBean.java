@@ -0,0 +1,152 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.jmx;
+
+import java.util.List;
+
+import org.openehealth.ipf.commons.flow.core.Duration;
+import org.openehealth.ipf.commons.flow.replay.ReplayJob;
+import org.openehealth.ipf.commons.flow.replay.ReplayJobManager;
+import org.openehealth.ipf.commons.flow.replay.ReplayJobType;
+import org.openehealth.ipf.commons.flow.transfer.FlowInfoFinderCriteria;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedOperationParameters;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * MBean for starting and controlling persistent replay jobs of the selected
+ * application. Operations return immediately; use
+ * {@link #findReplayJob(long)} to monitor a job.
+ */
+@ManagedResource(
+        objectName="org.openehealth.ipf:type=service,name=ReplayJobManager",
+        description="Persistent replay jobs")
+public class ReplayJobManagerMBean {
+
+    @Autowired
+    private ReplayJobManager replayJobManager;
+
+    private String application;
+
+    @ManagedAttribute(description="Application name")
+    public String getApplication() {
+        return application;
+    }
+
+    @ManagedAttribute(description="Application name")
+    public void setApplication(String application) {
+        this.application = application;
+    }
+
+    @ManagedAttribute(description="Number of flows replayed per transaction")
+    public int getChunkSize() {
+        return replayJobManager.getChunkSize();
+    }
+
+    @ManagedAttribute(description="Number of flows replayed per transaction")
+    public void setChunkSize(int chunkSize) {
+        replayJobManager.setChunkSize(chunkSize);
+    }
+
+    @ManagedOperation(description="Start replay job for flows within given timespan")
+    @ManagedOperationParameters(
+            @ManagedOperationParameter(name="timespan", 
+                    description="Last n milliseconds (e.g. 2000), " +
+                            "seconds (e.g. 2s), " +
+                            "minutes (e.g. 2m) or " +
+                            "hours (e.g. 2h)")
+    )
+    public long startReplayJob(String last) {
+        return start(ReplayJobType.ALL, last);
+    }
+
+    @ManagedOperation(description="Start replay job for flows with an ERROR acknowledgement within given timespan")
+    @ManagedOperationParameters(
+            @ManagedOperationParameter(name="timespan", 
+                    description="Last n milliseconds (e.g. 2000), " +
+                            "seconds (e.g. 2s), " +
+                            "minutes (e.g. 2m) or " +
+                            "hours (e.g. 2h)")
+    )
+    public long startErrorReplayJob(String last) {
+        return start(ReplayJobType.ERROR, last);
+    }
+
+    @ManagedOperation(description="Start replay job for flows without any acknowledgement within given timespan")
+    @ManagedOperationParameters(
+            @ManagedOperationParameter(name="timespan", 
+                    description="Last n milliseconds (e.g. 2000), " +
+                            "seconds (e.g. 2s), " +
+                            "minutes (e.g. 2m) or " +
+                            "hours (e.g. 2h)")
+    )
+    public long startUnackReplayJob(String last) {
+        return start(ReplayJobType.UNACK, last);
+    }
+
+    @ManagedOperation(description="Pause replay job after its current chunk")
+    @ManagedOperationParameters(
+            @ManagedOperationParameter(name="identifier", description="Replay job identifier")
+    )
+    public void pauseReplayJob(long jobId) {
+        replayJobManager.pause(jobId);
+    }
+
+    @ManagedOperation(description="Resume replay job from its last checkpoint")
+    @ManagedOperationParameters(
+            @ManagedOperationParameter(name="identifier", description="Replay job identifier")
+    )
+    public void resumeReplayJob(long jobId) {
+        replayJobManager.resume(jobId);
+    }
+
+    @ManagedOperation(description="Cancel replay job after its current chunk")
+    @ManagedOperationParameters(
+            @ManagedOperationParameter(name="identifier", description="Replay job identifier")
+    )
+    public void cancelReplayJob(long jobId) {
+        replayJobManager.cancel(jobId);
+    }
+
+    @ManagedOperation(description="Find replay job with given identifier")
+    @ManagedOperationParameters(
+            @ManagedOperationParameter(name="identifier", description="Replay job identifier")
+    )
+    public String findReplayJob(long jobId) {
+        ReplayJob job = replayJobManager.findJob(jobId);
+        return job == null ? null : job.toString();
+    }
+
+    @ManagedOperation(description="Find all replay jobs")
+    public String[] findReplayJobs() {
+        List<ReplayJob> jobs = replayJobManager.findJobs();
+        String[] result = new String[jobs.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = jobs.get(i).toString();
+        }
+        return result;
+    }
+
+    private long start(ReplayJobType type, String last) {
+        FlowInfoFinderCriteria finderCriteria = new FlowInfoFinderCriteria(
+                Duration.parse(last).since(), null, application);
+        return replayJobManager.start(type, finderCriteria);
+    }
+
+}
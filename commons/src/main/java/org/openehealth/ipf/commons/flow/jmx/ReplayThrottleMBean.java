@@ -0,0 +1,128 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.jmx;
+
+import org.openehealth.ipf.commons.flow.replay.ReplayThrottle;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * MBean for adjusting the {@link ReplayThrottle} of bulk replay operations.
+ * Rates and statistics refer to the selected application.
+ */
+@ManagedResource(
+        objectName="org.openehealth.ipf:type=service,name=ReplayThrottle",
+        description="Bulk replay throttle")
+public class ReplayThrottleMBean {
+
+    @Autowired
+    private ReplayThrottle replayThrottle;
+
+    private String application;
+
+    @ManagedAttribute(description="Application name")
+    public String getApplication() {
+        return application;
+    }
+
+    @ManagedAttribute(description="Application name")
+    public void setApplication(String application) {
+        this.application = application;
+    }
+
+    @ManagedAttribute(description="Replay rate of the application in flows per second (0 = unlimited)")
+    public double getRate() {
+        return replayThrottle.getRate(application);
+    }
+
+    @ManagedAttribute(description="Replay rate of the application in flows per second (0 = unlimited)")
+    public void setRate(double rate) {
+        replayThrottle.setRate(application, rate);
+    }
+
+    @ManagedAttribute(description="Replay rate of applications without specific rate (0 = unlimited)")
+    public double getDefaultRate() {
+        return replayThrottle.getDefaultRate();
+    }
+
+    @ManagedAttribute(description="Replay rate of applications without specific rate (0 = unlimited)")
+    public void setDefaultRate(double defaultRate) {
+        replayThrottle.setDefaultRate(defaultRate);
+    }
+
+    @ManagedAttribute(description="Replay rate of the application after adaptive reduction")
+    public double getEffectiveRate() {
+        return replayThrottle.getEffectiveRate(application);
+    }
+
+    @ManagedAttribute(description="Moving average of the replay failure rate of the application")
+    public double getErrorRate() {
+        return replayThrottle.getErrorRate(application);
+    }
+
+    @ManagedAttribute(description="Moving average of the replay latency of the application in milliseconds")
+    public double getLatency() {
+        return replayThrottle.getLatency(application);
+    }
+
+    @ManagedAttribute(description="Failure rate above which the replay rate is reduced")
+    public double getErrorRateThreshold() {
+        return replayThrottle.getErrorRateThreshold();
+    }
+
+    @ManagedAttribute(description="Failure rate above which the replay rate is reduced")
+    public void setErrorRateThreshold(double errorRateThreshold) {
+        replayThrottle.setErrorRateThreshold(errorRateThreshold);
+    }
+
+    @ManagedAttribute(description="Latency in milliseconds above which the replay rate is reduced (0 = disabled)")
+    public long getLatencyThreshold() {
+        return replayThrottle.getLatencyThreshold();
+    }
+
+    @ManagedAttribute(description="Latency in milliseconds above which the replay rate is reduced (0 = disabled)")
+    public void setLatencyThreshold(long latencyThreshold) {
+        replayThrottle.setLatencyThreshold(latencyThreshold);
+    }
+
+    @ManagedAttribute(description="Lower limit of adaptive rate reduction (fraction of the rate)")
+    public double getMinRateFactor() {
+        return replayThrottle.getMinRateFactor();
+    }
+
+    @ManagedAttribute(description="Lower limit of adaptive rate reduction (fraction of the rate)")
+    public void setMinRateFactor(double minRateFactor) {
+        replayThrottle.setMinRateFactor(minRateFactor);
+    }
+
+    @ManagedAttribute(description="Number of replays that waited for the throttle")
+    public long getThrottledCount() {
+        return replayThrottle.getThrottledCount();
+    }
+
+    @ManagedAttribute(description="Total time replays waited for the throttle in milliseconds")
+    public long getWaitTime() {
+        return replayThrottle.getWaitTime();
+    }
+
+    @ManagedOperation(description="Reset the adaptive rate reduction of the application")
+    public void reset() {
+        replayThrottle.reset(application);
+    }
+
+}
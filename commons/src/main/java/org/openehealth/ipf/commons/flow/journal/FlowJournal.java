@@ -0,0 +1,388 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.journal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.openehealth.ipf.commons.flow.domain.Flow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only file journal for flows that have not been written to the
+ * database yet. Flows are appended to segment files in a journal
+ * {@link #setDirectory(File) directory}. A segment is deleted after all flows
+ * appended to it have been {@link #release(Segment) released}, i.e. written to
+ * the database. Flows of segments that still exist on startup are returned by
+ * {@link #open()} for recovery.
+ * <p>
+ * Each record is prefixed with its length and a CRC32 checksum. An incomplete
+ * record at the end of a segment (e.g. after a crash during append) is
+ * ignored.
+ */
+public class FlowJournal {
+
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024L * 1024L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowJournal.class);
+
+    private static final String SEGMENT_PREFIX = "flow-journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final int HEADER_SIZE = 8;
+
+    private final TreeMap<Long, Segment> segments;
+
+    private final List<File> recovered;
+
+    private File directory;
+
+    private long maxSegmentSize;
+
+    private boolean sync;
+
+    private Segment current;
+
+    private long nextSequence;
+
+    public FlowJournal() {
+        segments = new TreeMap<>();
+        recovered = new ArrayList<>();
+        maxSegmentSize = DEFAULT_MAX_SEGMENT_SIZE;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Sets the directory where segment files are stored.
+     *
+     * @param directory
+     *            journal directory.
+     */
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    public long getMaxSegmentSize() {
+        return maxSegmentSize;
+    }
+
+    /**
+     * Sets the size in bytes after which a new segment file is started.
+     * Default is {@link #DEFAULT_MAX_SEGMENT_SIZE}.
+     *
+     * @param maxSegmentSize
+     *            maximum segment size in bytes.
+     */
+    public void setMaxSegmentSize(long maxSegmentSize) {
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    public boolean isSync() {
+        return sync;
+    }
+
+    /**
+     * Set to <code>true</code> to force appended records to disk before
+     * {@link #append(Flow)} returns. Otherwise records survive an application
+     * crash but not necessarily an operating system crash. Default is
+     * <code>false</code>.
+     *
+     * @param sync
+     *            whether to force records to disk.
+     */
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+    /**
+     * Opens the journal and reads the flows of existing segments. These
+     * segments are deleted by {@link #commitRecovery()}.
+     *
+     * @return flows that have been appended but not released before.
+     */
+    public synchronized List<Flow> open() {
+        if (directory == null) {
+            throw new FlowJournalException("journal directory not set");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new FlowJournalException("cannot create journal directory " + directory);
+        }
+        TreeMap<Long, File> files = new TreeMap<>();
+        File[] list = directory.listFiles((dir, name) ->
+                name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        for (File file : list) {
+            files.put(sequence(file), file);
+        }
+        List<Flow> result = new ArrayList<>();
+        for (File file : files.values()) {
+            read(file, result);
+            recovered.add(file);
+        }
+        nextSequence = files.isEmpty() ? 0L : files.lastKey() + 1L;
+        if (!result.isEmpty()) {
+            LOG.info("recovered {} flows from journal {}", result.size(), directory);
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the segments read by {@link #open()}. Must be called after the
+     * recovered flows have been written to the database (or
+     * {@link #append(Flow) appended} again if writing failed).
+     */
+    public synchronized void commitRecovery() {
+        for (File file : recovered) {
+            delete(file);
+        }
+        recovered.clear();
+    }
+
+    /**
+     * Appends the given flow to the current segment.
+     *
+     * @param flow
+     *            flow with assigned identifier.
+     * @return the segment the flow has been appended to.
+     */
+    public synchronized Segment append(Flow flow) {
+        ByteBuffer record = encode(flow);
+        try {
+            if (current == null || current.size + record.remaining() > maxSegmentSize) {
+                rotate();
+            }
+            while (record.hasRemaining()) {
+                current.size += current.channel.write(record);
+            }
+            if (sync) {
+                current.channel.force(false);
+            }
+        } catch (IOException e) {
+            throw new FlowJournalException("cannot append flow " + flow.getIdentifier() + " to journal", e);
+        }
+        current.outstanding++;
+        return current;
+    }
+
+    /**
+     * Releases a flow previously appended to the given segment. The segment is
+     * deleted if it is no longer current and all of its flows have been
+     * released.
+     *
+     * @param segment
+     *            segment returned by {@link #append(Flow)}.
+     */
+    public synchronized void release(Segment segment) {
+        segment.outstanding--;
+        if (segment != current && segment.outstanding == 0) {
+            segments.remove(segment.sequence);
+            delete(segment.file);
+        }
+    }
+
+    /**
+     * Closes the current segment. Segments with unreleased flows are kept for
+     * recovery.
+     */
+    public synchronized void close() {
+        if (current == null) {
+            return;
+        }
+        closeChannel(current);
+        if (current.outstanding == 0) {
+            segments.remove(current.sequence);
+            delete(current.file);
+        }
+        current = null;
+    }
+
+    /**
+     * Returns the number of segment files currently in use.
+     *
+     * @return number of segments.
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    private void rotate() throws IOException {
+        Segment previous = current;
+        File file = new File(directory, SEGMENT_PREFIX + nextSequence + SEGMENT_SUFFIX);
+        current = new Segment(nextSequence++, file, FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+        segments.put(current.sequence, current);
+        if (previous != null) {
+            closeChannel(previous);
+            if (previous.outstanding == 0) {
+                segments.remove(previous.sequence);
+                delete(previous.file);
+            }
+        }
+    }
+
+    private static ByteBuffer encode(Flow flow) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0); // length placeholder
+            out.writeInt(0); // checksum placeholder
+            out.writeLong(flow.getIdentifier());
+            out.writeBoolean(flow.getApplication() != null);
+            if (flow.getApplication() != null) {
+                out.writeUTF(flow.getApplication());
+            }
+            out.writeLong(flow.getCreationTime().getTime());
+            out.writeInt(flow.getAckCountExpected());
+            writeBytes(out, flow.getPacket());
+            String text = flow.getFlowMessageText();
+            writeBytes(out, text == null ? null : text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new FlowJournalException(e);
+        }
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, record.limit() - HEADER_SIZE);
+        record.putInt(0, record.limit() - HEADER_SIZE);
+        record.putInt(4, (int)crc.getValue());
+        return record;
+    }
+
+    private static Flow decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        Flow flow = new Flow();
+        flow.setIdentifier(in.readLong());
+        if (in.readBoolean()) {
+            flow.setApplication(in.readUTF());
+        }
+        flow.setCreationTime(new Date(in.readLong()));
+        flow.setAckCountExpected(in.readInt());
+        flow.setPacket(readBytes(in));
+        byte[] text = readBytes(in);
+        flow.setFlowMessageText(text == null ? null : new String(text, StandardCharsets.UTF_8));
+        return flow;
+    }
+
+    private static void read(File file, List<Flow> result) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (length < 0) {
+                    LOG.warn("invalid record length in journal segment {}, ignoring remaining records", file);
+                    return;
+                }
+                int checksum = in.readInt();
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int)crc.getValue() != checksum) {
+                    LOG.warn("checksum mismatch in journal segment {}, ignoring remaining records", file);
+                    return;
+                }
+                result.add(decode(payload));
+            }
+        } catch (EOFException e) {
+            LOG.warn("incomplete record at end of journal segment {} ignored", file);
+        } catch (IOException e) {
+            throw new FlowJournalException("cannot read journal segment " + file, e);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static long sequence(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void closeChannel(Segment segment) {
+        try {
+            segment.channel.close();
+        } catch (IOException e) {
+            LOG.warn("cannot close journal segment {}", segment.file, e);
+        }
+    }
+
+    private static void delete(File file) {
+        if (!file.delete() && file.exists()) {
+            LOG.warn("cannot delete journal segment {}", file);
+        }
+    }
+
+    /**
+     * A journal segment file.
+     */
+    public static class Segment {
+
+        private final long sequence;
+
+        private final File file;
+
+        private final FileChannel channel;
+
+        private long size;
+
+        private int outstanding;
+
+        Segment(long sequence, File file, FileChannel channel) {
+            this.sequence = sequence;
+            this.file = file;
+            this.channel = channel;
+        }
+
+    }
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2009 the original author or authors.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.journal;
+
+/**
+ * Thrown if the {@link FlowJournal} cannot be read or written.
+ */
+@SuppressWarnings("serial")
+public class FlowJournalException extends RuntimeException {
+
+    public FlowJournalException() {
+        super();
+    }
+
+    public FlowJournalException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public FlowJournalException(String message) {
+        super(message);
+    }
+
+    public FlowJournalException(Throwable cause) {
+        super(cause);
+    }
+
+}
@@ -0,0 +1,443 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.journal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openehealth.ipf.commons.flow.FlowException;
+import org.openehealth.ipf.commons.flow.domain.Flow;
+import org.openehealth.ipf.commons.flow.repository.FlowRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Writes new flows to the database in the background. Flows passed to
+ * {@link #write(Flow)} are queued in a bounded in-memory queue and inserted by
+ * a writer thread in batches of up to {@link #getBatchSize()} flows per
+ * transaction. Configure <code>hibernate.jdbc.batch_size</code> and
+ * <code>hibernate.order_inserts</code> on the session factory so that the
+ * inserts of a batch are sent to the database as JDBC batches.
+ * <p>
+ * If a {@link FlowJournal} is configured, flows are appended to the journal
+ * before they are queued and flows left in the journal by a previous run are
+ * written on startup. Without a journal, queued flows are lost if the
+ * application terminates abnormally.
+ * <p>
+ * Operations on a flow that has not been written yet must call
+ * {@link #await(Long)} before accessing the flow in the database.
+ */
+public class FlowWriter implements InitializingBean, DisposableBean {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    public static final long DEFAULT_AWAIT_TIMEOUT = 30000L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowWriter.class);
+
+    @Autowired
+    private FlowRepository flowRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private FlowJournal journal;
+
+    private int queueCapacity;
+
+    private volatile int batchSize;
+
+    private long awaitTimeout;
+
+    private final Map<Long, PendingFlow> pending;
+
+    private final AtomicLong writtenCount;
+
+    private final AtomicLong failedCount;
+
+    private final AtomicLong batchCount;
+
+    private final AtomicLong writeLatency;
+
+    private volatile int lastBatchSize;
+
+    private volatile long lastBatchDuration;
+
+    private BlockingQueue<PendingFlow> queue;
+
+    private TransactionTemplate transactionTemplate;
+
+    private Thread writerThread;
+
+    private volatile boolean running;
+
+    public FlowWriter() {
+        queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        batchSize = DEFAULT_BATCH_SIZE;
+        awaitTimeout = DEFAULT_AWAIT_TIMEOUT;
+        pending = new ConcurrentHashMap<>();
+        writtenCount = new AtomicLong();
+        failedCount = new AtomicLong();
+        batchCount = new AtomicLong();
+        writeLatency = new AtomicLong();
+    }
+
+    public void setFlowRepository(FlowRepository flowRepository) {
+        this.flowRepository = flowRepository;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    public FlowJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Sets the journal for queued flows. Default is no journal.
+     *
+     * @param journal
+     *            a flow journal or <code>null</code>.
+     */
+    public void setJournal(FlowJournal journal) {
+        this.journal = journal;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Sets the maximum number of queued flows. {@link #write(Flow)} blocks if
+     * the queue is full. Default is {@link #DEFAULT_QUEUE_CAPACITY}.
+     *
+     * @param queueCapacity
+     *            queue capacity.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queue capacity must be positive");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the maximum number of flows written in a single transaction. May
+     * be changed at runtime. Default is {@link #DEFAULT_BATCH_SIZE}.
+     *
+     * @param batchSize
+     *            batch size.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public long getAwaitTimeout() {
+        return awaitTimeout;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds {@link #await(Long)} waits for a
+     * flow to be written. Default is {@link #DEFAULT_AWAIT_TIMEOUT}.
+     *
+     * @param awaitTimeout
+     *            timeout in milliseconds.
+     */
+    public void setAwaitTimeout(long awaitTimeout) {
+        this.awaitTimeout = awaitTimeout;
+    }
+
+    public int getQueueSize() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    /**
+     * Returns the duration of the last batch transaction in milliseconds.
+     *
+     * @return batch duration in milliseconds.
+     */
+    public long getLastBatchDuration() {
+        return lastBatchDuration;
+    }
+
+    /**
+     * Returns the average time in milliseconds between queuing a flow and
+     * committing it to the database.
+     *
+     * @return average write latency in milliseconds.
+     */
+    public double getAverageWriteLatency() {
+        long written = writtenCount.get();
+        return written == 0 ? 0.0 : writeLatency.get() / 1e6 / written;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (flowRepository == null || transactionManager == null) {
+            throw new IllegalArgumentException("flow repository and transaction manager required");
+        }
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        if (journal != null) {
+            List<Flow> failed = recover(journal.open());
+            // failed flows are journaled again and retried on next startup
+            failed.forEach(journal::append);
+            journal.commitRecovery();
+        }
+        running = true;
+        writerThread = new Thread(this::run, "FlowWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        running = false;
+        if (writerThread != null) {
+            writerThread.join();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Queues the given flow for writing. The flow must have an identifier.
+     * Blocks while the queue is full.
+     *
+     * @param flow
+     *            a new flow.
+     */
+    public void write(Flow flow) {
+        if (!running) {
+            throw new FlowException("flow writer not running");
+        }
+        PendingFlow pendingFlow = new PendingFlow(flow);
+        if (journal != null) {
+            pendingFlow.segment = journal.append(flow);
+        }
+        pending.put(flow.getIdentifier(), pendingFlow);
+        try {
+            queue.put(pendingFlow);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            discard(pendingFlow);
+            throw new FlowException("interrupted while queuing flow " + flow.getIdentifier(), e);
+        }
+        if (!running && queue.remove(pendingFlow)) {
+            // stopped concurrently and the queue may already have been drained
+            discard(pendingFlow);
+            throw new FlowException("flow writer not running");
+        }
+    }
+
+    /**
+     * Waits until the flow with given identifier has been written. Returns
+     * immediately if the flow is not queued.
+     *
+     * @param flowId
+     *            flow identifier.
+     * @throws FlowException
+     *             if the flow could not be written within the
+     *             {@link #getAwaitTimeout() timeout}.
+     */
+    public void await(Long flowId) {
+        PendingFlow pendingFlow = pending.get(flowId);
+        if (pendingFlow == null) {
+            return;
+        }
+        try {
+            pendingFlow.written.get(awaitTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FlowException("interrupted while waiting for flow " + flowId, e);
+        } catch (ExecutionException e) {
+            throw new FlowException("flow " + flowId + " could not be written", e.getCause());
+        } catch (TimeoutException e) {
+            throw new FlowException("timeout while waiting for flow " + flowId, e);
+        }
+    }
+
+    private void run() {
+        List<PendingFlow> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingFlow first = queue.poll(100L, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (RuntimeException e) {
+                LOG.error("flow writer error", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<PendingFlow> batch) {
+        long start = System.nanoTime();
+        try {
+            transactionTemplate.execute(status -> {
+                for (PendingFlow pendingFlow : batch) {
+                    flowRepository.persist(pendingFlow.flow);
+                }
+                return null;
+            });
+            long end = System.nanoTime();
+            for (PendingFlow pendingFlow : batch) {
+                completed(pendingFlow, end);
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("writing batch of {} flows failed, writing flows individually", batch.size(), e);
+            for (PendingFlow pendingFlow : batch) {
+                writeSingle(pendingFlow);
+            }
+        }
+        lastBatchSize = batch.size();
+        lastBatchDuration = (System.nanoTime() - start) / 1000000L;
+        batchCount.incrementAndGet();
+    }
+
+    private void writeSingle(PendingFlow pendingFlow) {
+        try {
+            transactionTemplate.execute(status -> {
+                flowRepository.persist(pendingFlow.flow);
+                return null;
+            });
+            completed(pendingFlow, System.nanoTime());
+        } catch (RuntimeException e) {
+            // flow remains in the journal (if any) and is retried on next startup
+            LOG.error("writing flow {} failed", pendingFlow.flow.getIdentifier(), e);
+            failedCount.incrementAndGet();
+            pending.remove(pendingFlow.flow.getIdentifier());
+            pendingFlow.written.completeExceptionally(e);
+        }
+    }
+
+    private void completed(PendingFlow pendingFlow, long time) {
+        writeLatency.addAndGet(time - pendingFlow.queued);
+        writtenCount.incrementAndGet();
+        pending.remove(pendingFlow.flow.getIdentifier());
+        if (pendingFlow.segment != null) {
+            journal.release(pendingFlow.segment);
+        }
+        pendingFlow.written.complete(null);
+    }
+
+    private void discard(PendingFlow pendingFlow) {
+        pending.remove(pendingFlow.flow.getIdentifier());
+        if (pendingFlow.segment != null) {
+            journal.release(pendingFlow.segment);
+        }
+    }
+
+    private List<Flow> recover(List<Flow> flows) {
+        List<Flow> failed = new ArrayList<>();
+        for (Flow flow : flows) {
+            try {
+                transactionTemplate.execute(status -> {
+                    if (!exists(flow.getIdentifier())) {
+                        flowRepository.persist(flow);
+                    }
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                LOG.error("recovery of flow {} failed", flow.getIdentifier(), e);
+                failed.add(flow);
+            }
+        }
+        return failed;
+    }
+
+    private boolean exists(Long flowId) {
+        try {
+            flowRepository.find(flowId);
+            return true;
+        } catch (FlowException e) {
+            return false;
+        }
+    }
+
+    private static class PendingFlow {
+
+        final Flow flow;
+
+        final long queued;
+
+        final CompletableFuture<Void> written;
+
+        FlowJournal.Segment segment;
+
+        PendingFlow(Flow flow) {
+            this.flow = flow;
+            this.queued = System.nanoTime();
+            this.written = new CompletableFuture<>();
+        }
+
+    }
+
+}
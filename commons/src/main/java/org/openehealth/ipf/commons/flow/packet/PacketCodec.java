@@ -0,0 +1,180 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.packet;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes and decodes stored flow packets. Compressed packets start with a
+ * header consisting of the {@link #MAGIC} bytes, a codec byte and the
+ * uncompressed packet length (4 bytes, big endian) followed by a zlib
+ * stream. Packets without a valid header (e.g. Java serialized or raw
+ * packets written by earlier versions, even if they happen to start with
+ * the magic bytes) are returned unchanged by {@link #decode(byte[])}.
+ */
+public class PacketCodec {
+
+    /**
+     * Magic bytes of a compressed packet. Cannot collide with the stream
+     * header of Java serialization (<code>0xACED</code>).
+     */
+    static final byte[] MAGIC = { 'I', 'P', 'F' };
+
+    static final byte CODEC_DEFLATE = 1;
+
+    static final int HEADER_LENGTH = MAGIC.length + 5;
+
+    /**
+     * Maximum compression ratio of deflate, bounds the uncompressed length
+     * given in a header.
+     */
+    static final int MAX_RATIO = 1032;
+
+    private PacketCodec() {
+    }
+
+    /**
+     * Compresses <code>packet</code> if it is at least <code>threshold</code>
+     * bytes long. The packet is returned unchanged if compression is
+     * {@link PacketCompression#NONE} or if compression doesn't reduce its
+     * size.
+     * 
+     * @param packet
+     *            packet to encode (may be <code>null</code>).
+     * @param compression
+     *            compression codec.
+     * @param threshold
+     *            minimum size of packets to compress.
+     * @return the encoded packet.
+     */
+    public static byte[] encode(byte[] packet, PacketCompression compression, int threshold) {
+        if (packet == null || compression == PacketCompression.NONE || packet.length < threshold) {
+            return packet;
+        }
+        Deflater deflater = new Deflater(compression.getLevel());
+        try {
+            deflater.setInput(packet);
+            deflater.finish();
+            byte[] result = new byte[packet.length];
+            int length = HEADER_LENGTH;
+            while (!deflater.finished()) {
+                if (length == result.length) {
+                    // no gain
+                    return packet;
+                }
+                length += deflater.deflate(result, length, result.length - length);
+            }
+            writeHeader(result, CODEC_DEFLATE, packet.length);
+            return Arrays.copyOf(result, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses <code>packet</code> if it has been compressed by
+     * {@link #encode(byte[], PacketCompression, int)}. Other packets are
+     * returned unchanged.
+     * 
+     * @param packet
+     *            packet to decode (may be <code>null</code>).
+     * @return the decoded packet.
+     * @throws PacketFormatException
+     *             if the packet has a valid header but is corrupt.
+     */
+    public static byte[] decode(byte[] packet) {
+        if (!isEncoded(packet)) {
+            return packet;
+        }
+        int length = readLength(packet);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(packet, HEADER_LENGTH, packet.length - HEADER_LENGTH);
+            byte[] result = new byte[length];
+            int count = 0;
+            while (count < length) {
+                int n = inflater.inflate(result, count, length - count);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                count += n;
+            }
+            if (count != length || !inflater.finished()) {
+                throw new PacketFormatException("packet length mismatch");
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new PacketFormatException("corrupt packet", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if <code>packet</code> starts with a valid
+     * compression header: the magic bytes, a known codec, an uncompressed
+     * length that exceeds the packet length (packets are only compressed if
+     * that reduces their size) within the bounds of the deflate compression
+     * ratio, and a zlib stream header.
+     * 
+     * @param packet
+     *            a packet.
+     * @return whether the packet is compressed.
+     */
+    public static boolean isEncoded(byte[] packet) {
+        if (packet == null || packet.length < HEADER_LENGTH + 2) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (packet[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        if (packet[MAGIC.length] != CODEC_DEFLATE) {
+            return false;
+        }
+        long length = readLength(packet);
+        if (length <= packet.length || length > (long)(packet.length - HEADER_LENGTH) * MAX_RATIO) {
+            return false;
+        }
+        // zlib header: deflate method and check bits
+        int cmf = packet[HEADER_LENGTH] & 0xff;
+        int flg = packet[HEADER_LENGTH + 1] & 0xff;
+        return (cmf & 0x0f) == 8 && (cmf << 8 | flg) % 31 == 0;
+    }
+
+    private static void writeHeader(byte[] packet, byte codec, int length) {
+        System.arraycopy(MAGIC, 0, packet, 0, MAGIC.length);
+        int i = MAGIC.length;
+        packet[i++] = codec;
+        packet[i++] = (byte)(length >>> 24);
+        packet[i++] = (byte)(length >>> 16);
+        packet[i++] = (byte)(length >>> 8);
+        packet[i] = (byte)length;
+    }
+
+    private static int readLength(byte[] packet) {
+        int i = MAGIC.length + 1;
+        return (packet[i] & 0xff) << 24
+                | (packet[i + 1] & 0xff) << 16
+                | (packet[i + 2] & 0xff) << 8
+                | (packet[i + 3] & 0xff);
+    }
+
+}
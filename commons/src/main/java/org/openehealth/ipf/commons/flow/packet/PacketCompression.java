@@ -0,0 +1,53 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.packet;
+
+import java.util.zip.Deflater;
+
+/**
+ * Compression codecs for stored flow packets.
+ * 
+ * @see PacketCodec
+ */
+public enum PacketCompression {
+
+    /**
+     * Packets are stored uncompressed.
+     */
+    NONE(Deflater.NO_COMPRESSION),
+
+    /**
+     * Packets are compressed with deflate using the default compression level.
+     */
+    DEFLATE(Deflater.DEFAULT_COMPRESSION),
+
+    /**
+     * Packets are compressed with deflate optimized for speed. Trades
+     * compression ratio for a lower serialization cost.
+     */
+    DEFLATE_FAST(Deflater.BEST_SPEED);
+
+    private final int level;
+
+    private PacketCompression(int level) {
+        this.level = level;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+}
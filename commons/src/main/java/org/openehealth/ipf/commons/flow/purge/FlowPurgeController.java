@@ -0,0 +1,307 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.purge;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openehealth.ipf.commons.flow.FlowManager;
+import org.openehealth.ipf.commons.flow.ManagedMessage;
+
+/**
+ * Adapts the batch size of purge operations to the database load. After each
+ * purged batch the controller compares the batch's delete latency with the
+ * {@link #setTxTimeBudget(long) transaction time budget} and the average
+ * latency of live {@link FlowManager#beginFlow(ManagedMessage, String)
+ * beginFlow} and {@link FlowManager#acknowledgeFlow(ManagedMessage)
+ * acknowledgeFlow} operations since the previous batch with the
+ * {@link #setLiveLatencyThreshold(long) live latency threshold} (without
+ * live operations the average decays towards zero). If either
+ * is exceeded the batch size is halved (down to
+ * {@link #setMinBatchSize(int) minBatchSize}), if the delete latency is
+ * below half the budget it grows by half (up to
+ * {@link #setMaxBatchSize(int) maxBatchSize}).
+ * <p>
+ * Additionally, purge threads are paused after each batch so that the number
+ * of flows purged per second by all threads using this controller doesn't
+ * exceed the {@link #setRowsPerSecond(double) rows per second} budget.
+ */
+public class FlowPurgeController {
+
+    public static final int DEFAULT_INITIAL_BATCH_SIZE = 100;
+
+    public static final int DEFAULT_MIN_BATCH_SIZE = 10;
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 10000;
+
+    public static final long DEFAULT_TX_TIME_BUDGET = 1000L;
+
+    public static final long DEFAULT_LIVE_LATENCY_THRESHOLD = 0L;
+
+    public static final double DEFAULT_ROWS_PER_SECOND = 0.0;
+
+    // weight of the latest sample in moving averages
+    private static final double ALPHA = 0.3;
+
+    private volatile int minBatchSize;
+
+    private volatile int maxBatchSize;
+
+    private volatile long txTimeBudget;
+
+    private volatile long liveLatencyThreshold;
+
+    private volatile double rowsPerSecond;
+
+    private int batchSize;
+
+    private double deleteLatency;
+
+    private double liveLatency;
+
+    private boolean throttled;
+
+    // time (System.nanoTime) until which the flows purged so far use up
+    // the rows per second budget (shared by all purge threads)
+    private long budgetTime;
+
+    // live latencies since the last purged batch (lock-free for live traffic)
+    private final LongAdder liveNanos;
+
+    private final LongAdder liveCount;
+
+    private final AtomicLong pauseTime;
+
+    public FlowPurgeController() {
+        minBatchSize = DEFAULT_MIN_BATCH_SIZE;
+        maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+        txTimeBudget = DEFAULT_TX_TIME_BUDGET;
+        liveLatencyThreshold = DEFAULT_LIVE_LATENCY_THRESHOLD;
+        rowsPerSecond = DEFAULT_ROWS_PER_SECOND;
+        batchSize = DEFAULT_INITIAL_BATCH_SIZE;
+        liveNanos = new LongAdder();
+        liveCount = new LongAdder();
+        pauseTime = new AtomicLong();
+        budgetTime = Long.MIN_VALUE;
+    }
+
+    public synchronized int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the current batch size (e.g. the initial one). Default is
+     * {@link #DEFAULT_INITIAL_BATCH_SIZE}.
+     * 
+     * @param batchSize
+     *            number of flows purged per transaction.
+     */
+    public synchronized void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public int getMinBatchSize() {
+        return minBatchSize;
+    }
+
+    /**
+     * Sets the lower limit of the batch size. Default is
+     * {@link #DEFAULT_MIN_BATCH_SIZE}.
+     * 
+     * @param minBatchSize
+     *            minimum batch size.
+     */
+    public void setMinBatchSize(int minBatchSize) {
+        if (minBatchSize < 1) {
+            throw new IllegalArgumentException("min batch size must be positive");
+        }
+        this.minBatchSize = minBatchSize;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Sets the upper limit of the batch size. Default is
+     * {@link #DEFAULT_MAX_BATCH_SIZE}.
+     * 
+     * @param maxBatchSize
+     *            maximum batch size.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("max batch size must be positive");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public long getTxTimeBudget() {
+        return txTimeBudget;
+    }
+
+    /**
+     * Sets the time in milliseconds a purge transaction should take at most.
+     * Default is {@link #DEFAULT_TX_TIME_BUDGET}.
+     * 
+     * @param txTimeBudget
+     *            transaction time budget in milliseconds.
+     */
+    public void setTxTimeBudget(long txTimeBudget) {
+        if (txTimeBudget < 1L) {
+            throw new IllegalArgumentException("tx time budget must be positive");
+        }
+        this.txTimeBudget = txTimeBudget;
+    }
+
+    public long getLiveLatencyThreshold() {
+        return liveLatencyThreshold;
+    }
+
+    /**
+     * Sets the average latency in milliseconds of live flow operations above
+     * which the batch size is reduced. <code>0</code> disables the live
+     * latency check. Default is {@link #DEFAULT_LIVE_LATENCY_THRESHOLD}.
+     * 
+     * @param liveLatencyThreshold
+     *            live latency threshold in milliseconds.
+     */
+    public void setLiveLatencyThreshold(long liveLatencyThreshold) {
+        if (liveLatencyThreshold < 0L) {
+            throw new IllegalArgumentException("live latency threshold must not be negative");
+        }
+        this.liveLatencyThreshold = liveLatencyThreshold;
+    }
+
+    public double getRowsPerSecond() {
+        return rowsPerSecond;
+    }
+
+    /**
+     * Sets the maximum number of flows purged per second by all purge
+     * threads together. <code>0</code> means unlimited. Default is
+     * {@link #DEFAULT_ROWS_PER_SECOND}.
+     * 
+     * @param rowsPerSecond
+     *            purged flows per second or <code>0</code>.
+     */
+    public void setRowsPerSecond(double rowsPerSecond) {
+        if (rowsPerSecond < 0.0) {
+            throw new IllegalArgumentException("rows per second must not be negative");
+        }
+        this.rowsPerSecond = rowsPerSecond;
+    }
+
+    /**
+     * @return moving average of the delete latency of purged batches in
+     *         milliseconds.
+     */
+    public synchronized double getDeleteLatency() {
+        return deleteLatency;
+    }
+
+    /**
+     * @return moving average of the live flow operation latency in
+     *         milliseconds.
+     */
+    public synchronized double getLiveLatency() {
+        return liveLatency;
+    }
+
+    /**
+     * @return <code>true</code> if the latest adjustment reduced the batch
+     *         size or the latest batch was paused for the rows per second
+     *         budget.
+     */
+    public synchronized boolean isThrottled() {
+        return throttled;
+    }
+
+    /**
+     * @return total time in milliseconds purge threads paused for the rows
+     *         per second budget.
+     */
+    public long getPauseTime() {
+        return pauseTime.get();
+    }
+
+    /**
+     * Records the latency of a live flow operation.
+     * 
+     * @param nanos
+     *            latency in nanoseconds.
+     */
+    public void liveOperation(long nanos) {
+        liveNanos.add(nanos);
+        liveCount.increment();
+    }
+
+    /**
+     * Records a purged batch, adjusts the batch size and pauses the calling
+     * thread if needed to stay within the rows per second budget.
+     * 
+     * @param flows
+     *            number of purged flows.
+     * @param latency
+     *            delete latency in milliseconds.
+     * @throws InterruptedException
+     *             if interrupted while pausing.
+     */
+    public void purged(int flows, long latency) throws InterruptedException {
+        long pause = adjust(flows, latency);
+        if (pause > 0L) {
+            pauseTime.addAndGet(pause);
+            TimeUnit.MILLISECONDS.sleep(pause);
+        }
+    }
+
+    private synchronized long adjust(int flows, long latency) {
+        deleteLatency += ALPHA * (latency - deleteLatency);
+        long count = liveCount.sumThenReset();
+        long nanos = liveNanos.sumThenReset();
+        // no live operations since the last batch count as zero latency
+        long sample = count > 0L ? TimeUnit.NANOSECONDS.toMillis(nanos / count) : 0L;
+        liveLatency += ALPHA * (sample - liveLatency);
+        long threshold = liveLatencyThreshold;
+        throttled = false;
+        if (latency > txTimeBudget || threshold > 0L && liveLatency > threshold) {
+            batchSize = Math.max(minBatchSize, batchSize / 2);
+            throttled = true;
+        } else if (latency < txTimeBudget / 2 && flows >= batchSize) {
+            // only grow if the batch was full
+            batchSize = Math.min(maxBatchSize, batchSize + Math.max(1, batchSize / 2));
+        }
+        double rate = rowsPerSecond;
+        if (rate <= 0.0) {
+            return 0L;
+        }
+        // the batch is scheduled after the flows purged before by any
+        // thread, but not before it started
+        long now = System.nanoTime();
+        long start = now - TimeUnit.MILLISECONDS.toNanos(latency);
+        budgetTime = Math.max(budgetTime, start) + (long) (flows * 1.0E9 / rate);
+        long pause = TimeUnit.NANOSECONDS.toMillis(budgetTime - now);
+        if (pause > 0L) {
+            throttled = true;
+        }
+        return pause;
+    }
+
+}
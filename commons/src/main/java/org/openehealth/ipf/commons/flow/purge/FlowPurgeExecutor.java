@@ -0,0 +1,236 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.purge;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openehealth.ipf.commons.flow.FlowManager;
+import org.openehealth.ipf.commons.flow.repository.FlowPurgeBacklog;
+import org.openehealth.ipf.commons.flow.repository.FlowPurgeCriteria;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Executes the purge operations of different applications concurrently on a
+ * shared thread pool. An application's purge operation holds a lease for that
+ * application so that only one purge operation per application is running. Its
+ * flows are split into {@link #setRanges(int) non-overlapping identifier
+ * ranges} that are purged in parallel. Batch sizes are determined by a
+ * {@link FlowPurgeController}.
+ */
+public class FlowPurgeExecutor implements DisposableBean {
+
+    public static final int DEFAULT_POOL_SIZE = 4;
+
+    public static final int DEFAULT_RANGES = 1;
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowPurgeExecutor.class);
+
+    private final AtomicInteger threadNumber = new AtomicInteger();
+
+    private final ThreadPoolExecutor executor;
+
+    // running purge operations by application
+    private final ConcurrentHashMap<String, FlowPurgeProgress> leases;
+
+    // latest purge operations by application
+    private final ConcurrentHashMap<String, FlowPurgeProgress> progresses;
+
+    private volatile int ranges;
+
+    private volatile FlowPurgeController controller;
+
+    public FlowPurgeExecutor() {
+        executor = new ThreadPoolExecutor(DEFAULT_POOL_SIZE, DEFAULT_POOL_SIZE, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "FlowPurgeExecutor-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        leases = new ConcurrentHashMap<>();
+        progresses = new ConcurrentHashMap<>();
+        ranges = DEFAULT_RANGES;
+        controller = new FlowPurgeController();
+    }
+
+    public int getPoolSize() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Sets the number of threads purging flows of all applications.
+     * 
+     * @param poolSize
+     *            number of purge threads.
+     */
+    public void setPoolSize(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be positive: " + poolSize);
+        }
+        if (poolSize > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(poolSize);
+            executor.setCorePoolSize(poolSize);
+        } else {
+            executor.setCorePoolSize(poolSize);
+            executor.setMaximumPoolSize(poolSize);
+        }
+    }
+
+    public int getRanges() {
+        return ranges;
+    }
+
+    /**
+     * Sets the number of identifier ranges an application's purge operation
+     * is split into (and the number of threads it may use concurrently).
+     * 
+     * @param ranges
+     *            number of ranges per application.
+     */
+    public void setRanges(int ranges) {
+        if (ranges < 1) {
+            throw new IllegalArgumentException("ranges must be positive: " + ranges);
+        }
+        this.ranges = ranges;
+    }
+
+    public FlowPurgeController getController() {
+        return controller;
+    }
+
+    /**
+     * Sets the controller that adapts the purge batch size. Should be the
+     * controller the flow manager reports live latencies to.
+     * 
+     * @param controller
+     *            purge controller.
+     */
+    public void setController(FlowPurgeController controller) {
+        this.controller = controller;
+    }
+
+    /**
+     * Returns the progress of the running or latest purge operation of the
+     * given application.
+     * 
+     * @param application
+     *            application name.
+     * @return purge progress or <code>null</code> if no purge operation has
+     *         been executed for the application.
+     */
+    public FlowPurgeProgress getProgress(String application) {
+        return progresses.get(String.valueOf(application));
+    }
+
+    /**
+     * Purges all flows matching <code>criteria</code> in batches sized by the
+     * {@link #setController(FlowPurgeController) controller} and waits for
+     * completion. If a purge operation for the criteria's application is
+     * already running this method returns immediately.
+     * 
+     * @param manager
+     *            flow manager.
+     * @param criteria
+     *            purge criteria (the maximum purge count is ignored).
+     * @return progress of the executed or already running purge operation.
+     */
+    public FlowPurgeProgress purge(FlowManager manager, FlowPurgeCriteria criteria) {
+        String key = String.valueOf(criteria.getApplication());
+        FlowPurgeProgress progress = new FlowPurgeProgress(criteria.getApplication());
+        FlowPurgeProgress running = leases.putIfAbsent(key, progress);
+        if (running != null) {
+            LOG.info("Purge of application {} already running, skip", criteria.getApplication());
+            return running;
+        }
+        try {
+            progresses.put(key, progress);
+            FlowPurgeBacklog backlog = manager.findPurgeBacklog(criteria);
+            progress.started(backlog.getCount());
+            if (backlog.getCount() > 0L) {
+                purge(manager, criteria, backlog, progress);
+            }
+            return progress;
+        } finally {
+            progress.finished();
+            leases.remove(key, progress);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        executor.shutdownNow();
+    }
+
+    private void purge(FlowManager manager, FlowPurgeCriteria criteria, FlowPurgeBacklog backlog,
+            FlowPurgeProgress progress) {
+        // ranges cover the flows matching at start, newer flows are purged next time
+        long minId = backlog.getMinId();
+        long span = backlog.getMaxId() - minId + 1L;
+        int count = (int) Math.min(ranges, span);
+        List<Future<?>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long rangeMinId = minId + span * i / count;
+            long rangeMaxId = minId + span * (i + 1) / count - 1L;
+            futures.add(executor.submit(() -> {
+                purgeRange(manager, criteria, rangeMinId, rangeMaxId, progress);
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new FlowPurgeJobException("Purge of application " + criteria.getApplication() + " interrupted");
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw new FlowPurgeJobException("Purge of application " + criteria.getApplication() + " failed",
+                    e.getCause());
+        }
+    }
+
+    private void purgeRange(FlowManager manager, FlowPurgeCriteria criteria, long minId, long maxId,
+            FlowPurgeProgress progress) throws InterruptedException {
+        FlowPurgeController controller = this.controller;
+        int batchSize;
+        int purgeCount;
+        do {
+            batchSize = controller.getBatchSize();
+            FlowPurgeCriteria batch = new FlowPurgeCriteria(criteria.getPurgeMode(), criteria.getTimeLimit(),
+                    criteria.getApplication(), batchSize, minId, maxId);
+            long start = System.currentTimeMillis();
+            purgeCount = manager.purgeFlows(batch);
+            long latency = System.currentTimeMillis() - start;
+            progress.purged(purgeCount);
+            LOG.info("Purged {} flows in {} ms (application={}, range={}-{})", purgeCount, latency,
+                    criteria.getApplication(), minId, maxId);
+            controller.purged(purgeCount, latency);
+        } while (purgeCount >= batchSize && !Thread.currentThread().isInterrupted());
+    }
+
+}
@@ -49,11 +49,13 @@ public class FlowPurgeJob implements Job {
     
     private static final String FLOW_MANAGER_KEY = "flowManager";
     private static final String APP_CONFIG_KEY = "appConfig";
+    private static final String PURGE_EXECUTOR_KEY = "purgeExecutor";
     private static final Logger LOG = LoggerFactory.getLogger(FlowPurgeJob.class);
     
     private final FlowManager flowManager;
     private final Scheduler scheduler;
     private final String application;
+    private final FlowPurgeExecutor purgeExecutor;
 
     private String flowPurgeSchedule;
     private String purgeFlowsOlderThan;
@@ -63,7 +65,7 @@ public class FlowPurgeJob implements Job {
      * Constructor used by Quartz.
      */
     public FlowPurgeJob() {
-        this(null, null, null);
+        this(null, null, null, null);
     }
 
     /**
@@ -77,9 +79,27 @@ public class FlowPurgeJob implements Job {
      *            application name.
      */
     public FlowPurgeJob(FlowManager flowManager, Scheduler scheduler, String application) {
+        this(flowManager, scheduler, application, new FlowPurgeExecutor());
+    }
+
+    /**
+     * Constructor used by {@link FlowPurgerMBean}.
+     * 
+     * @param flowManager
+     *            flow manager.
+     * @param scheduler
+     *            Quartz scheduler.
+     * @param application
+     *            application name.
+     * @param purgeExecutor
+     *            executor shared by the purge jobs of all applications.
+     */
+    public FlowPurgeJob(FlowManager flowManager, Scheduler scheduler, String application,
+            FlowPurgeExecutor purgeExecutor) {
         this.flowManager = flowManager;
         this.scheduler = scheduler;
         this.application = application;
+        this.purgeExecutor = purgeExecutor;
         flowPurgeSchedule = FLOW_PURGE_SCHEDULE_DEFAULT;
         purgeFlowsOlderThan = PURGE_FLOWS_OLDER_THAN_DEFAULT;
         doNotPurgeErrorFlows = DO_NOT_PURGE_ERROR_FLOWS_DEFAULT;
@@ -125,35 +145,33 @@ public class FlowPurgeJob implements Job {
     public void execute(JobExecutionContext context) throws JobExecutionException {
         FlowManager manager = (FlowManager)context.getJobDetail().getJobDataMap().get(FLOW_MANAGER_KEY);
         ApplicationConfig config = (ApplicationConfig)context.getJobDetail().getJobDataMap().get(APP_CONFIG_KEY);
-        synchronized (manager) {
-            execute(manager, config);
-        }
+        FlowPurgeExecutor executor = (FlowPurgeExecutor)context.getJobDetail().getJobDataMap().get(PURGE_EXECUTOR_KEY);
+        execute(manager, executor, config);
     }
 
     /**
      * Runs repeated {@link FlowManager#purgeFlows(FlowPurgeCriteria)}
      * operations based on criteria given in <code>config</code> until all flows
-     * matching the criteria have been purged from the database. .
+     * matching the criteria have been purged from the database. Jobs of
+     * different applications run concurrently, a job is skipped if a job of
+     * the same application is still running.
      * 
      * @param manager
      *            flow manager
+     * @param executor
+     *            purge executor
      * @param config
      *            application-specific purge configuration
      */
-    private void execute(FlowManager manager, ApplicationConfig config) {
+    private static void execute(FlowManager manager, FlowPurgeExecutor executor, ApplicationConfig config) {
         PurgeMode mode = config.isDoNotPurgeErrorFlows() ? CLEAN : ALL;
         Date olderThan = Duration.parse(config.getPurgeFlowsOlderThan()).since();
-        FlowPurgeCriteria criteria = new FlowPurgeCriteria(mode, olderThan, config.getApplication(), 100);
+        // batch sizes are adapted by the executor's purge controller
+        FlowPurgeCriteria criteria = new FlowPurgeCriteria(mode, olderThan, config.getApplication());
     
-        int purgeCountTotal = 0;
-        int purgeCount;
         LOG.info("Start purging flows for application {}", config.getApplication());
-        do {
-            purgeCount = manager.purgeFlows(criteria);
-            purgeCountTotal += purgeCount;
-            LOG.info("Purged {} flows (application={})", purgeCountTotal, config.getApplication());
-        } while (purgeCount >= criteria.getMaxPurgeCount()); 
-        LOG.info("Finished purging flows for application {}", config.getApplication());
+        FlowPurgeProgress progress = executor.purge(manager, criteria);
+        LOG.info("Finished purging flows for application {}: {}", config.getApplication(), progress);
     }
 
     /**
@@ -190,6 +208,7 @@ public class FlowPurgeJob implements Job {
         JobDataMap jobDataMap = new JobDataMap();
         jobDataMap.put(FlowPurgeJob.FLOW_MANAGER_KEY, flowManager);
         jobDataMap.put(FlowPurgeJob.APP_CONFIG_KEY, config);
+        jobDataMap.put(FlowPurgeJob.PURGE_EXECUTOR_KEY, purgeExecutor);
 
         JobDetail jobDetail = newJob()
                                   .withIdentity(jobName, null)
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.purge;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of the purge operation of an application executed by a
+ * {@link FlowPurgeExecutor}.
+ */
+public class FlowPurgeProgress {
+
+    private final String application;
+
+    private final long startTime;
+
+    private final AtomicLong purgedFlows;
+
+    private volatile long backlog;
+
+    private volatile long finishTime;
+
+    FlowPurgeProgress(String application) {
+        this.application = application;
+        startTime = System.currentTimeMillis();
+        purgedFlows = new AtomicLong();
+    }
+
+    public String getApplication() {
+        return application;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return finish time or 0 if the purge operation is still running.
+     */
+    public long getFinishTime() {
+        return finishTime;
+    }
+
+    public boolean isRunning() {
+        return finishTime == 0L;
+    }
+
+    public long getPurgedFlows() {
+        return purgedFlows.get();
+    }
+
+    /**
+     * Returns the number of flows still to purge, based on the number of
+     * matching flows at the start of the purge operation.
+     * 
+     * @return remaining flows.
+     */
+    public long getRemainingFlows() {
+        return Math.max(0L, backlog - purgedFlows.get());
+    }
+
+    /**
+     * @return purged flows per second.
+     */
+    public double getRate() {
+        long end = isRunning() ? System.currentTimeMillis() : finishTime;
+        long elapsed = Math.max(1L, end - startTime);
+        return purgedFlows.get() * 1000.0 / elapsed;
+    }
+
+    void started(long backlog) {
+        this.backlog = backlog;
+    }
+
+    void purged(int flows) {
+        purgedFlows.addAndGet(flows);
+    }
+
+    void finished() {
+        finishTime = System.currentTimeMillis();
+    }
+
+    @Override
+    public String toString() {
+        return "purged " + purgedFlows.get() + " of " + backlog + " flows (application=" + application
+                + ", " + String.format("%.1f", getRate()) + " flows/s)";
+    }
+
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.replay;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.openehealth.ipf.commons.flow.FlowException;
+import org.openehealth.ipf.commons.flow.FlowManager;
+import org.openehealth.ipf.commons.flow.repository.FlowRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Replays lists of flows in chunks of {@link #getChunkSize() chunkSize}
+ * flows. Each chunk is replayed in its own transaction on a pool of
+ * {@link #getConcurrency() concurrency} worker threads. If a chunk fails to
+ * commit only that chunk is rolled back. Used by the
+ * {@link FlowManager#replayFlows(org.openehealth.ipf.commons.flow.transfer.FlowInfoFinderCriteria)
+ * replayFlows}, <code>replayErrorFlows</code> and
+ * <code>replayUnackFlows</code> operations of the flow manager if defined;
+ * the transaction of these operations then only covers the flow id query.
+ * <p>
+ * If {@link #isOrdered() ordered} is set, the flows of an application are
+ * replayed in the order of their identifiers, one chunk after another, and
+ * only flows of different applications are replayed concurrently.
+ */
+public class FlowReplayer implements InitializingBean, DisposableBean {
+
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowReplayer.class);
+
+    @Autowired
+    private FlowRepository flowRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private volatile int chunkSize;
+
+    private int concurrency;
+
+    private volatile boolean ordered;
+
+    private final List<ReplayListener> listeners;
+
+    private final AtomicLong replayedCount;
+
+    private final AtomicLong failedCount;
+
+    private final AtomicLong failedChunkCount;
+
+    private TransactionTemplate transactionTemplate;
+
+    private ExecutorService executor;
+
+    public FlowReplayer() {
+        chunkSize = DEFAULT_CHUNK_SIZE;
+        concurrency = DEFAULT_CONCURRENCY;
+        listeners = new ArrayList<>();
+        replayedCount = new AtomicLong();
+        failedCount = new AtomicLong();
+        failedChunkCount = new AtomicLong();
+    }
+
+    public void setFlowRepository(FlowRepository flowRepository) {
+        this.flowRepository = flowRepository;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Sets the number of flows replayed in a single transaction. Default is
+     * {@link #DEFAULT_CHUNK_SIZE}.
+     *
+     * @param chunkSize
+     *            number of flows per chunk.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Sets the number of worker threads. Must be set before the replayer is
+     * initialized. Default is {@link #DEFAULT_CONCURRENCY}.
+     *
+     * @param concurrency
+     *            number of chunks replayed concurrently.
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+        this.concurrency = concurrency;
+    }
+
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Set to <code>true</code> to replay the flows of an application in the
+     * order of their identifiers. Default is <code>false</code>.
+     *
+     * @param ordered
+     *            whether flows are replayed in order per application.
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    /**
+     * Sets the listeners notified about the progress of replay operations.
+     *
+     * @param listeners
+     *            replay listeners.
+     */
+    public void setListeners(List<ReplayListener> listeners) {
+        synchronized (this.listeners) {
+            this.listeners.clear();
+            this.listeners.addAll(listeners);
+        }
+    }
+
+    public void addListener(ReplayListener listener) {
+        synchronized (listeners) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(ReplayListener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+
+    public long getReplayedCount() {
+        return replayedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Returns the number of chunks that have been rolled back.
+     *
+     * @return number of failed chunks.
+     */
+    public long getFailedChunkCount() {
+        return failedChunkCount.get();
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (flowRepository == null || transactionManager == null) {
+            throw new IllegalArgumentException("flow repository and transaction manager required");
+        }
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "FlowReplayer-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor.awaitTermination(10L, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Replays the given flows and waits until all chunks have completed.
+     *
+     * @param flowIds
+     *            identifiers of the flows to replay.
+     * @param replay
+     *            replays a single flow within the transaction of its chunk
+     *            and returns <code>true</code> if the flow has been replayed
+     *            or <code>false</code> if it has been skipped.
+     * @return the number of replayed flows in committed chunks.
+     */
+    public int replay(List<Long> flowIds, Predicate<Long> replay) {
+        List<List<List<Long>>> sequences = sequences(flowIds);
+        int numChunks = sequences.stream().mapToInt(List::size).sum();
+        ReplayProgress progress = new ReplayProgress(flowIds.size(), numChunks);
+        List<CompletableFuture<Void>> futures = new ArrayList<>(sequences.size());
+        for (List<List<Long>> sequence : sequences) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                for (List<Long> chunk : sequence) {
+                    replayChunk(chunk, replay, progress);
+                }
+            }, executor));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FlowException("interrupted while waiting for replay", e);
+        } catch (ExecutionException e) {
+            throw new FlowException("replay failed", e.getCause());
+        }
+        LOG.info("replay completed: {}", progress);
+        return progress.getReplayedFlows();
+    }
+
+    private void replayChunk(List<Long> chunk, Predicate<Long> replay, ReplayProgress progress) {
+        int replayed;
+        try {
+            replayed = transactionTemplate.execute(status -> {
+                int counter = 0;
+                for (Long flowId : chunk) {
+                    if (replay.test(flowId)) {
+                        counter++;
+                    }
+                }
+                return counter;
+            });
+        } catch (RuntimeException e) {
+            LOG.error("replay of {} flows starting with flow {} rolled back", chunk.size(), chunk.get(0), e);
+            failedCount.addAndGet(chunk.size());
+            failedChunkCount.incrementAndGet();
+            completed(progress, p -> p.chunkFailed(chunk.size()));
+            return;
+        }
+        replayedCount.addAndGet(replayed);
+        failedCount.addAndGet(chunk.size() - replayed);
+        completed(progress, p -> p.chunkCommitted(chunk.size(), replayed));
+    }
+
+    private void completed(ReplayProgress progress, Consumer<ReplayProgress> update) {
+        List<ReplayListener> current;
+        synchronized (listeners) {
+            current = new ArrayList<>(listeners);
+        }
+        synchronized (progress) {
+            update.accept(progress);
+            ReplayProgress snapshot = new ReplayProgress(progress);
+            for (ReplayListener listener : current) {
+                try {
+                    listener.chunkCompleted(snapshot);
+                } catch (RuntimeException e) {
+                    LOG.warn("replay listener failed", e);
+                }
+            }
+        }
+    }
+
+    private List<List<List<Long>>> sequences(List<Long> flowIds) {
+        int size = chunkSize;
+        List<List<List<Long>>> sequences = new ArrayList<>();
+        if (!ordered) {
+            // every chunk may be replayed concurrently
+            for (List<Long> chunk : chunks(flowIds, size)) {
+                sequences.add(Collections.singletonList(chunk));
+            }
+            return sequences;
+        }
+        Map<Long, String> applications = transactionTemplate.execute(status ->
+                flowRepository.findFlowApplications(flowIds));
+        Map<String, List<Long>> flowIdsByApplication = new LinkedHashMap<>();
+        for (Long flowId : flowIds) {
+            flowIdsByApplication.computeIfAbsent(applications.get(flowId), a -> new ArrayList<>()).add(flowId);
+        }
+        for (List<Long> ids : flowIdsByApplication.values()) {
+            Collections.sort(ids);
+            sequences.add(chunks(ids, size));
+        }
+        return sequences;
+    }
+
+    private static List<List<Long>> chunks(List<Long> flowIds, int size) {
+        List<List<Long>> chunks = new ArrayList<>();
+        for (int i = 0; i < flowIds.size(); i += size) {
+            chunks.add(flowIds.subList(i, Math.min(i + size, flowIds.size())));
+        }
+        return chunks;
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.replay;
+
+import org.openehealth.ipf.commons.flow.FlowReplayException;
+
+/**
+ * Flow manager operations used by the stages of a {@link PipelinedReplayer}.
+ */
+public interface PacketReplay {
+
+    /**
+     * Deserializes a (decompressed) packet. Called by the decode stage
+     * outside of any transaction.
+     *
+     * @param packet
+     *            serialized packet.
+     * @return the deserialized packet.
+     * @throws Exception
+     *             if the packet cannot be deserialized.
+     */
+    Object deserialize(byte[] packet) throws Exception;
+
+    /**
+     * Prepares the flow for replay and replays the deserialized packet
+     * within the current transaction. Called by the replay stage.
+     *
+     * @param flowId
+     *            flow identifier.
+     * @param packet
+     *            deserialized packet.
+     * @return the (optionally updated) packet.
+     * @throws FlowReplayException
+     *             if the flow cannot be replayed. The transaction is
+     *             committed nevertheless.
+     */
+    Object replay(Long flowId, Object packet);
+
+    /**
+     * Serializes a packet. Called by the write stage outside of any
+     * transaction.
+     *
+     * @param packet
+     *            deserialized packet.
+     * @return the serialized packet.
+     * @throws Exception
+     *             if the packet cannot be serialized.
+     */
+    byte[] serialize(Object packet) throws Exception;
+
+    /**
+     * Stores a changed packet within the current transaction. Called by the
+     * write stage.
+     *
+     * @param flowId
+     *            flow identifier.
+     * @param application
+     *            application of the flow.
+     * @param packet
+     *            serialized packet.
+     */
+    void update(Long flowId, String application, byte[] packet);
+
+}
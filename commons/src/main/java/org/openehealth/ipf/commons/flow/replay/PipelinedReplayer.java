@@ -0,0 +1,460 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.replay;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openehealth.ipf.commons.flow.FlowException;
+import org.openehealth.ipf.commons.flow.FlowReplayException;
+import org.openehealth.ipf.commons.flow.domain.Flow;
+import org.openehealth.ipf.commons.flow.packet.PacketCodec;
+import org.openehealth.ipf.commons.flow.repository.FlowRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Replays lists of flows in a pipeline of four stages connected by bounded
+ * queues of {@link #getQueueCapacity() queueCapacity} flows:
+ * <ol>
+ * <li>prefetch: reads {@link #getBatchSize() batchSize} flows and their
+ * packets with a single query per batch</li>
+ * <li>decode: decompresses and deserializes packets on
+ * {@link #getDecoders() decoders} threads</li>
+ * <li>replay: replays each flow in its own transaction without reading the
+ * packet again</li>
+ * <li>write: serializes the replayed packets and writes changed packets in
+ * batches of up to <code>batchSize</code> packets</li>
+ * </ol>
+ * Database reads and writes therefore overlap with route processing. Used by
+ * the bulk replay operations of the flow manager if defined (takes
+ * precedence over a {@link FlowReplayer}). Flows are replayed one after
+ * another in the order of the given identifiers if there's a single decoder.
+ */
+public class PipelinedReplayer implements InitializingBean, DisposableBean {
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 200;
+
+    public static final int DEFAULT_DECODERS = 1;
+
+    private static final Logger LOG = LoggerFactory.getLogger(PipelinedReplayer.class);
+
+    private static final Item END = new Item(null, null, null);
+
+    @Autowired
+    private FlowRepository flowRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private volatile int batchSize;
+
+    private volatile int queueCapacity;
+
+    private volatile int decoders;
+
+    private final AtomicLong replayedCount;
+
+    private final AtomicLong failedCount;
+
+    private final AtomicLong updatedPacketCount;
+
+    private TransactionTemplate transactionTemplate;
+
+    private ExecutorService executor;
+
+    public PipelinedReplayer() {
+        batchSize = DEFAULT_BATCH_SIZE;
+        queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        decoders = DEFAULT_DECODERS;
+        replayedCount = new AtomicLong();
+        failedCount = new AtomicLong();
+        updatedPacketCount = new AtomicLong();
+    }
+
+    public void setFlowRepository(FlowRepository flowRepository) {
+        this.flowRepository = flowRepository;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the number of flows prefetched per query and the maximum number
+     * of packets written per transaction. Default is
+     * {@link #DEFAULT_BATCH_SIZE}.
+     *
+     * @param batchSize
+     *            prefetch and write batch size.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Sets the capacity of the queues between the stages. Limits the number
+     * of packets held in memory. Default is {@link #DEFAULT_QUEUE_CAPACITY}.
+     *
+     * @param queueCapacity
+     *            number of flows per queue.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queue capacity must be positive");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getDecoders() {
+        return decoders;
+    }
+
+    /**
+     * Sets the number of threads of the decode stage. Default is
+     * {@link #DEFAULT_DECODERS}.
+     *
+     * @param decoders
+     *            number of decoder threads.
+     */
+    public void setDecoders(int decoders) {
+        if (decoders < 1) {
+            throw new IllegalArgumentException("decoders must be positive");
+        }
+        this.decoders = decoders;
+    }
+
+    public long getReplayedCount() {
+        return replayedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Returns the number of packets that have been changed by a replay and
+     * written back.
+     *
+     * @return number of updated packets.
+     */
+    public long getUpdatedPacketCount() {
+        return updatedPacketCount.get();
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (flowRepository == null || transactionManager == null) {
+            throw new IllegalArgumentException("flow repository and transaction manager required");
+        }
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "PipelinedReplayer-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor.awaitTermination(10L, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Replays the given flows and waits until all stages have completed.
+     *
+     * @param flowIds
+     *            identifiers of the flows to replay.
+     * @param replay
+     *            flow manager operations used by the stages.
+     * @return the number of replayed flows.
+     */
+    public int replay(List<Long> flowIds, PacketReplay replay) {
+        Pipeline pipeline = new Pipeline(flowIds, replay);
+        List<Future<?>> stages = new ArrayList<>();
+        stages.add(executor.submit(pipeline::prefetch));
+        for (int i = 0; i < pipeline.decoders; i++) {
+            stages.add(executor.submit(pipeline::decode));
+        }
+        stages.add(executor.submit(pipeline::replay));
+        stages.add(executor.submit(pipeline::write));
+        try {
+            for (Future<?> stage : stages) {
+                stage.get();
+            }
+        } catch (InterruptedException e) {
+            stages.forEach(stage -> stage.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new FlowException("interrupted while waiting for replay", e);
+        } catch (ExecutionException e) {
+            stages.forEach(stage -> stage.cancel(true));
+            throw new FlowException("replay failed", e.getCause());
+        }
+        LOG.info("pipelined replay completed: {} flows replayed, {} failed, {} packets updated",
+                pipeline.replayed.get(), pipeline.failed.get(), pipeline.updated.get());
+        return pipeline.replayed.get();
+    }
+
+    private class Pipeline {
+
+        final List<Long> flowIds;
+
+        final PacketReplay replay;
+
+        final int batchSize;
+
+        final int decoders;
+
+        final BlockingQueue<Item> fetched;
+
+        final BlockingQueue<Item> decoded;
+
+        final BlockingQueue<Item> replayedItems;
+
+        final AtomicInteger activeDecoders;
+
+        final AtomicInteger replayed;
+
+        final AtomicInteger failed;
+
+        final AtomicInteger updated;
+
+        Pipeline(List<Long> flowIds, PacketReplay replay) {
+            this.flowIds = flowIds;
+            this.replay = replay;
+            this.batchSize = PipelinedReplayer.this.batchSize;
+            this.decoders = PipelinedReplayer.this.decoders;
+            int capacity = queueCapacity;
+            fetched = new ArrayBlockingQueue<>(capacity);
+            decoded = new ArrayBlockingQueue<>(capacity);
+            replayedItems = new ArrayBlockingQueue<>(capacity);
+            activeDecoders = new AtomicInteger(decoders);
+            replayed = new AtomicInteger();
+            failed = new AtomicInteger();
+            updated = new AtomicInteger();
+        }
+
+        void prefetch() {
+            try {
+                for (int i = 0; i < flowIds.size(); i += batchSize) {
+                    List<Long> batch = flowIds.subList(i, Math.min(i + batchSize, flowIds.size()));
+                    for (Item item : fetch(batch)) {
+                        fetched.put(item);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                end(fetched, decoders);
+            }
+        }
+
+        void decode() {
+            try {
+                for (Item item = fetched.take(); item != END; item = fetched.take()) {
+                    try {
+                        item.decoded = PacketCodec.decode(item.packet);
+                        item.value = replay.deserialize(item.decoded);
+                    } catch (Exception e) {
+                        LOG.warn("cannot decode packet of flow {}", item.flowId, e);
+                        fail(1);
+                        continue;
+                    }
+                    decoded.put(item);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (activeDecoders.decrementAndGet() == 0) {
+                    end(decoded, 1);
+                }
+            }
+        }
+
+        void replay() {
+            try {
+                for (Item item = decoded.take(); item != END; item = decoded.take()) {
+                    if (replayItem(item)) {
+                        replayed.incrementAndGet();
+                        replayedCount.incrementAndGet();
+                        replayedItems.put(item);
+                    } else {
+                        fail(1);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                end(replayedItems, 1);
+            }
+        }
+
+        void write() {
+            List<Item> batch = new ArrayList<>();
+            try {
+                for (Item item = replayedItems.take(); item != END; item = replayedItems.take()) {
+                    try {
+                        byte[] packet = replay.serialize(item.value);
+                        if (!Arrays.equals(packet, item.decoded)) {
+                            item.decoded = packet;
+                            batch.add(item);
+                        }
+                    } catch (Exception e) {
+                        LOG.warn("cannot serialize replayed packet of flow {}", item.flowId, e);
+                    }
+                    // write batches grow while the replay stage is ahead
+                    if (batch.size() >= batchSize || (!batch.isEmpty() && replayedItems.isEmpty())) {
+                        update(batch);
+                    }
+                }
+                update(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private List<Item> fetch(List<Long> batch) {
+            List<Flow> flows;
+            try {
+                flows = transactionTemplate.execute(status -> flowRepository.findFlowsWithPackets(batch));
+            } catch (RuntimeException e) {
+                LOG.error("prefetch of {} flows starting with flow {} failed", batch.size(), batch.get(0), e);
+                fail(batch.size());
+                return new ArrayList<>();
+            }
+            Map<Long, Flow> flowsById = new HashMap<>();
+            flows.forEach(flow -> flowsById.put(flow.getIdentifier(), flow));
+            List<Item> items = new ArrayList<>(batch.size());
+            for (Long flowId : batch) {
+                Flow flow = flowsById.get(flowId);
+                if (flow == null || !flow.isReplayable()) {
+                    fail(1);
+                } else {
+                    items.add(new Item(flowId, flow.getApplication(), flow.getPacket()));
+                }
+            }
+            return items;
+        }
+
+        private boolean replayItem(Item item) {
+            try {
+                return transactionTemplate.execute(status -> {
+                    try {
+                        item.value = replay.replay(item.flowId, item.value);
+                        return true;
+                    } catch (FlowReplayException e) {
+                        // flow state is updated nevertheless
+                        return false;
+                    }
+                });
+            } catch (RuntimeException e) {
+                LOG.warn("replay of flow {} rolled back", item.flowId, e);
+                return false;
+            }
+        }
+
+        private void update(List<Item> batch) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                transactionTemplate.execute(status -> {
+                    batch.forEach(item -> replay.update(item.flowId, item.application, item.decoded));
+                    return null;
+                });
+                updated.addAndGet(batch.size());
+                updatedPacketCount.addAndGet(batch.size());
+            } catch (RuntimeException e) {
+                LOG.error("update of {} replayed packets rolled back", batch.size(), e);
+            }
+            batch.clear();
+        }
+
+        private void fail(int count) {
+            failed.addAndGet(count);
+            failedCount.addAndGet(count);
+        }
+
+        private void end(BlockingQueue<Item> queue, int count) {
+            try {
+                for (int i = 0; i < count; i++) {
+                    queue.put(END);
+                }
+            } catch (InterruptedException e) {
+                // consumers are interrupted as well
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+    private static class Item {
+
+        final Long flowId;
+
+        final String application;
+
+        final byte[] packet;
+
+        byte[] decoded;
+
+        Object value;
+
+        Item(Long flowId, String application, byte[] packet) {
+            this.flowId = flowId;
+            this.application = application;
+            this.packet = packet;
+        }
+
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.replay;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
+/**
+ * Persistent state of a bulk replay. Stores a snapshot of the replay
+ * criteria, the identifier of the last flow processed (cursor), counters and
+ * the job status. Flows are replayed in ascending order of their
+ * identifiers so that the cursor is sufficient to continue a job after a
+ * restart.
+ */
+@Entity
+@Table(name = "T_REPLAY_JOB")
+public class ReplayJob {
+
+    @Id
+    @GeneratedValue(strategy=GenerationType.SEQUENCE, generator="T_REPLAY_JOB_SEQ")
+    @SequenceGenerator(name="T_REPLAY_JOB_SEQ", sequenceName="T_REPLAY_JOB_SEQ", allocationSize=1)
+    @Column(name="C_ID")
+    private Long identifier;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name="C_TYPE", nullable=false)
+    private ReplayJobType type;
+
+    @Column(name="C_APPLICATION")
+    private String application;
+
+    @Column(name="C_FROM", nullable=false)
+    private Date from;
+
+    @Column(name="C_TO", nullable=false)
+    private Date to;
+
+    @Column(name="C_CURSOR")
+    private Long cursor;
+
+    @Column(name="C_REPLAY_COUNT")
+    private long replayCount;
+
+    @Column(name="C_FAIL_COUNT")
+    private long failCount;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name="C_STATUS", nullable=false)
+    private ReplayJobStatus status;
+
+    @Column(name="C_CREATION_TIME")
+    private Date creationTime;
+
+    @Column(name="C_UPDATE_TIME")
+    private Date updateTime;
+
+    protected ReplayJob() {
+    }
+
+    /**
+     * Creates a new running {@link ReplayJob}.
+     *
+     * @param type
+     *            flows to replay.
+     * @param application
+     *            application name or <code>null</code> for all
+     *            applications.
+     * @param from
+     *            lower limit of the flow creation time.
+     * @param to
+     *            upper limit of the flow creation time.
+     */
+    public ReplayJob(ReplayJobType type, String application, Date from, Date to) {
+        this.type = type;
+        this.application = application;
+        this.from = from;
+        this.to = to;
+        this.status = ReplayJobStatus.RUNNING;
+        this.creationTime = new Date();
+        this.updateTime = creationTime;
+    }
+
+    public Long getIdentifier() {
+        return identifier;
+    }
+
+    public ReplayJobType getType() {
+        return type;
+    }
+
+    public String getApplication() {
+        return application;
+    }
+
+    public Date getFrom() {
+        return from;
+    }
+
+    public Date getTo() {
+        return to;
+    }
+
+    /**
+     * Returns the identifier of the last processed flow.
+     *
+     * @return flow identifier or <code>null</code> if no flow has been
+     *         processed yet.
+     */
+    public Long getCursor() {
+        return cursor;
+    }
+
+    public long getReplayCount() {
+        return replayCount;
+    }
+
+    public long getFailCount() {
+        return failCount;
+    }
+
+    public ReplayJobStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(ReplayJobStatus status) {
+        this.status = status;
+        this.updateTime = new Date();
+    }
+
+    public Date getCreationTime() {
+        return creationTime;
+    }
+
+    public Date getUpdateTime() {
+        return updateTime;
+    }
+
+    /**
+     * Returns <code>true</code> if the job is cancelled or completed.
+     *
+     * @return whether the job can't be resumed.
+     */
+    public boolean isTerminated() {
+        return status == ReplayJobStatus.CANCELLED || status == ReplayJobStatus.COMPLETED;
+    }
+
+    /**
+     * Records the processing of flows up to (and including) the flow with
+     * identifier <code>cursor</code>.
+     *
+     * @param cursor
+     *            identifier of the last processed flow.
+     * @param replayed
+     *            number of replayed flows.
+     * @param failed
+     *            number of flows that couldn't be replayed.
+     */
+    public void checkpoint(Long cursor, int replayed, int failed) {
+        this.cursor = cursor;
+        this.replayCount += replayed;
+        this.failCount += failed;
+        this.updateTime = new Date();
+    }
+
+    @Override
+    public String toString() {
+        return "Replay job " + identifier + " (" + type + ")"
+            + "\n- application = " + application
+            + "\n- from = " + from
+            + "\n- to = " + to
+            + "\n- status = " + status
+            + "\n- cursor = " + cursor
+            + "\n- replayed = " + replayCount
+            + "\n- failed = " + failCount
+            + "\n- created = " + creationTime
+            + "\n- updated = " + updateTime;
+    }
+
+}
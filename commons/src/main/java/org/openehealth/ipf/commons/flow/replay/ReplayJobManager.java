@@ -0,0 +1,464 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.replay;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openehealth.ipf.commons.flow.FlowException;
+import org.openehealth.ipf.commons.flow.FlowManager;
+import org.openehealth.ipf.commons.flow.repository.FlowFinderCriteria;
+import org.openehealth.ipf.commons.flow.repository.FlowRepository;
+import org.openehealth.ipf.commons.flow.repository.ReplayJobRepository;
+import org.openehealth.ipf.commons.flow.transfer.FlowInfoFinderCriteria;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Runs bulk replays as persistent {@link ReplayJob}s. A job replays the
+ * flows matching its criteria in ascending order of their identifiers,
+ * {@link #getChunkSize() chunkSize} flows per transaction. The job's cursor
+ * and counters are updated in the same transaction as the replayed flows,
+ * so that a job interrupted by a shutdown or crash continues after the last
+ * committed chunk without replaying flows twice. Jobs that were running
+ * when the application stopped are resumed on startup.
+ * <p>
+ * If a chunk is rolled back the flows replayed before the failure are not
+ * replayed again (they have already been sent, but their replay time and
+ * count are not updated). The remaining flows are replayed one by one; a
+ * flow that still fails is counted as failed and skipped. The job row is
+ * locked while
+ * a chunk is replayed, so a job can safely be resumed by several nodes
+ * sharing a database. Message queries are not supported.
+ */
+public class ReplayJobManager implements InitializingBean, DisposableBean {
+
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+
+    public static final int DEFAULT_CONCURRENCY = 2;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplayJobManager.class);
+
+    @Autowired
+    private FlowManager flowManager;
+
+    @Autowired
+    private FlowRepository flowRepository;
+
+    @Autowired
+    private ReplayJobRepository replayJobRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private volatile int chunkSize;
+
+    private int concurrency;
+
+    // guarded by workers
+    private final Map<Long, Future<?>> workers;
+
+    // guarded by workers
+    private final Set<Long> resumed;
+
+    private TransactionTemplate transactionTemplate;
+
+    private ExecutorService executor;
+
+    private volatile boolean running;
+
+    public ReplayJobManager() {
+        chunkSize = DEFAULT_CHUNK_SIZE;
+        concurrency = DEFAULT_CONCURRENCY;
+        workers = new HashMap<>();
+        resumed = new HashSet<>();
+    }
+
+    public void setFlowManager(FlowManager flowManager) {
+        this.flowManager = flowManager;
+    }
+
+    public void setFlowRepository(FlowRepository flowRepository) {
+        this.flowRepository = flowRepository;
+    }
+
+    public void setReplayJobRepository(ReplayJobRepository replayJobRepository) {
+        this.replayJobRepository = replayJobRepository;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Sets the number of flows replayed per transaction (checkpoint).
+     * Default is {@link #DEFAULT_CHUNK_SIZE}.
+     *
+     * @param chunkSize
+     *            number of flows per chunk.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Sets the maximum number of jobs running concurrently on this node.
+     * Further jobs wait until a running job has finished. Must be set before
+     * the manager is initialized. Default is {@link #DEFAULT_CONCURRENCY}.
+     *
+     * @param concurrency
+     *            number of worker threads.
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+        this.concurrency = concurrency;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (flowManager == null || flowRepository == null || replayJobRepository == null
+                || transactionManager == null) {
+            throw new IllegalArgumentException(
+                    "flow manager, flow repository, replay job repository and transaction manager required");
+        }
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "ReplayJobManager-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        running = true;
+        List<ReplayJob> jobs = transactionTemplate.execute(status ->
+                replayJobRepository.find(ReplayJobStatus.RUNNING));
+        for (ReplayJob job : jobs) {
+            LOG.info("resuming replay job {} after flow {}", job.getIdentifier(), job.getCursor());
+            submit(job.getIdentifier());
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        // running jobs stop after their current chunk
+        running = false;
+        if (executor != null) {
+            executor.shutdown();
+            if (!executor.awaitTermination(30L, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Creates and starts a new replay job. If the upper time limit of the
+     * criteria is not set, the current time is used so that flows created
+     * after the job has been started are not replayed. The maximum number of
+     * results of the criteria is ignored.
+     *
+     * @param type
+     *            flows to replay.
+     * @param finderCriteria
+     *            replay criteria.
+     * @return the job identifier.
+     */
+    public Long start(ReplayJobType type, FlowInfoFinderCriteria finderCriteria) {
+        if (finderCriteria.getInboundMessageQuery() != null || finderCriteria.getOutboundMessageQuery() != null) {
+            throw new IllegalArgumentException("message queries not supported by replay jobs");
+        }
+        Date from = finderCriteria.getFrom() == null ? new Date(0L) : finderCriteria.getFrom();
+        Date to = finderCriteria.getTo() == null ? new Date() : finderCriteria.getTo();
+        ReplayJob job = new ReplayJob(type, finderCriteria.getApplication(), from, to);
+        transactionTemplate.execute(status -> {
+            replayJobRepository.persist(job);
+            return null;
+        });
+        LOG.info("started replay job {}", job.getIdentifier());
+        submit(job.getIdentifier());
+        return job.getIdentifier();
+    }
+
+    /**
+     * Pauses a job after its current chunk.
+     *
+     * @param jobId
+     *            job identifier.
+     */
+    public void pause(Long jobId) {
+        transactionTemplate.execute(status -> {
+            ReplayJob job = lockActiveJob(jobId);
+            job.setStatus(ReplayJobStatus.PAUSED);
+            return null;
+        });
+    }
+
+    /**
+     * Continues a paused job from its last checkpoint. Also restarts a
+     * running job whose worker has stopped because of a database error.
+     *
+     * @param jobId
+     *            job identifier.
+     */
+    public void resume(Long jobId) {
+        transactionTemplate.execute(status -> {
+            ReplayJob job = lockActiveJob(jobId);
+            job.setStatus(ReplayJobStatus.RUNNING);
+            return null;
+        });
+        submit(jobId);
+    }
+
+    /**
+     * Cancels a job after its current chunk. Cancelled jobs cannot be
+     * resumed.
+     *
+     * @param jobId
+     *            job identifier.
+     */
+    public void cancel(Long jobId) {
+        transactionTemplate.execute(status -> {
+            ReplayJob job = lockActiveJob(jobId);
+            job.setStatus(ReplayJobStatus.CANCELLED);
+            return null;
+        });
+    }
+
+    public ReplayJob findJob(Long jobId) {
+        return transactionTemplate.execute(status -> replayJobRepository.find(jobId));
+    }
+
+    public List<ReplayJob> findJobs() {
+        return transactionTemplate.execute(status -> replayJobRepository.find());
+    }
+
+    /**
+     * Returns <code>true</code> if a job is currently executed by this
+     * manager.
+     *
+     * @param jobId
+     *            job identifier.
+     * @return whether a worker runs the job.
+     */
+    public boolean isActive(Long jobId) {
+        synchronized (workers) {
+            return workers.containsKey(jobId);
+        }
+    }
+
+    /**
+     * Waits until this manager stops executing a job, i.e. until the job is
+     * completed, paused or cancelled.
+     *
+     * @param jobId
+     *            job identifier.
+     * @param timeout
+     *            maximum time to wait in milliseconds.
+     * @return <code>false</code> if the timeout elapsed.
+     * @throws InterruptedException
+     *             if interrupted while waiting.
+     */
+    public boolean await(Long jobId, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        Future<?> worker;
+        // a worker unregisters before it completes
+        while ((worker = worker(jobId)) != null) {
+            try {
+                worker.get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException | CancellationException e) {
+                // logged by worker or cancelled on shutdown
+            } catch (TimeoutException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Future<?> worker(Long jobId) {
+        synchronized (workers) {
+            return workers.get(jobId);
+        }
+    }
+
+    private void submit(Long jobId) {
+        synchronized (workers) {
+            if (workers.containsKey(jobId)) {
+                // worker checks this before it stops
+                resumed.add(jobId);
+            } else {
+                workers.put(jobId, executor.submit(() -> run(jobId)));
+            }
+        }
+    }
+
+    private void run(Long jobId) {
+        boolean again;
+        do {
+            try {
+                while (running && replayNextChunk(jobId)) {
+                    // next chunk
+                }
+            } catch (RuntimeException e) {
+                // job remains running and is resumed on restart
+                LOG.error("replay job {} stopped", jobId, e);
+            }
+            synchronized (workers) {
+                again = running && resumed.remove(jobId);
+                if (!again) {
+                    workers.remove(jobId);
+                }
+            }
+        } while (again);
+    }
+
+    private boolean replayNextChunk(Long jobId) {
+        // replay results of the chunk's flows in replay order
+        Map<Long, Boolean> results = new LinkedHashMap<>();
+        try {
+            return transactionTemplate.execute(status -> replay(jobId, chunkSize, results));
+        } catch (RuntimeException e) {
+            LOG.warn("replay chunk of job {} rolled back after {} flows, replaying remaining flows one by one",
+                    jobId, results.size(), e);
+        }
+        if (!results.isEmpty() && !transactionTemplate.execute(status -> checkpointSent(jobId, results))) {
+            return false;
+        }
+        for (int i = results.size(); i < chunkSize; i++) {
+            if (!replayNextFlow(jobId)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean replayNextFlow(Long jobId) {
+        try {
+            return transactionTemplate.execute(status -> replay(jobId, 1, new LinkedHashMap<>()));
+        } catch (RuntimeException e) {
+            LOG.warn("replay of next flow of job {} rolled back, skipping flow", jobId, e);
+        }
+        return transactionTemplate.execute(status -> skip(jobId));
+    }
+
+    private boolean replay(Long jobId, int maxFlows, Map<Long, Boolean> results) {
+        ReplayJob job = replayJobRepository.lock(jobId);
+        if (job.getStatus() != ReplayJobStatus.RUNNING) {
+            return false;
+        }
+        List<Long> flowIds = nextFlowIds(job, maxFlows);
+        if (flowIds.isEmpty()) {
+            job.setStatus(ReplayJobStatus.COMPLETED);
+            LOG.info("completed replay job {}: {} flows replayed, {} failed",
+                    jobId, job.getReplayCount(), job.getFailCount());
+            return false;
+        }
+        for (Long flowId : flowIds) {
+            // one flow per call (in this transaction) to know the flows
+            // already sent if the transaction is rolled back
+            results.put(flowId, flowManager.replayFlows(Collections.singletonList(flowId)) > 0);
+        }
+        checkpoint(job, results);
+        return true;
+    }
+
+    private boolean checkpointSent(Long jobId, Map<Long, Boolean> results) {
+        ReplayJob job = replayJobRepository.lock(jobId);
+        // also if paused or cancelled meanwhile, these flows have been sent
+        checkpoint(job, results);
+        return job.getStatus() == ReplayJobStatus.RUNNING;
+    }
+
+    private static void checkpoint(ReplayJob job, Map<Long, Boolean> results) {
+        Long cursor = null;
+        int replayed = 0;
+        for (Map.Entry<Long, Boolean> result : results.entrySet()) {
+            cursor = result.getKey();
+            if (result.getValue()) {
+                replayed++;
+            }
+        }
+        job.checkpoint(cursor, replayed, results.size() - replayed);
+    }
+
+    private boolean skip(Long jobId) {
+        ReplayJob job = replayJobRepository.lock(jobId);
+        if (job.getStatus() != ReplayJobStatus.RUNNING) {
+            return false;
+        }
+        List<Long> flowIds = nextFlowIds(job, 1);
+        if (flowIds.isEmpty()) {
+            return true; // completed with next chunk
+        }
+        job.checkpoint(flowIds.get(0), 0, 1);
+        return true;
+    }
+
+    private List<Long> nextFlowIds(ReplayJob job, int maxFlows) {
+        FlowFinderCriteria finderCriteria = new FlowFinderCriteria(
+                job.getFrom(), job.getTo(), job.getApplication(), maxFlows);
+        switch (job.getType()) {
+        case ERROR:
+            return flowRepository.findErrorFlowIds(finderCriteria, job.getCursor());
+        case UNACK:
+            return flowRepository.findUnackFlowIds(finderCriteria, job.getCursor());
+        default:
+            return flowRepository.findFlowIds(finderCriteria, job.getCursor());
+        }
+    }
+
+    private ReplayJob lockActiveJob(Long jobId) {
+        ReplayJob job = replayJobRepository.lock(jobId);
+        if (job.isTerminated()) {
+            throw new FlowException("replay job " + jobId + " is " + job.getStatus().toString().toLowerCase());
+        }
+        return job;
+    }
+
+}
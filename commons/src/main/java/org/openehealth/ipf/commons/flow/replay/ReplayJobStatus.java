@@ -0,0 +1,43 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.replay;
+
+/**
+ * Status of a {@link ReplayJob}.
+ */
+public enum ReplayJobStatus {
+
+    /**
+     * Job is replaying flows (or will continue after a restart).
+     */
+    RUNNING,
+
+    /**
+     * Job has been paused and can be resumed.
+     */
+    PAUSED,
+
+    /**
+     * Job has been cancelled and cannot be resumed.
+     */
+    CANCELLED,
+
+    /**
+     * All flows of the job have been processed.
+     */
+    COMPLETED
+
+}
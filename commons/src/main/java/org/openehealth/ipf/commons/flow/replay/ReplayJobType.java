@@ -0,0 +1,38 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.replay;
+
+/**
+ * Selects the flows replayed by a {@link ReplayJob}.
+ */
+public enum ReplayJobType {
+
+    /**
+     * All flows matching the job criteria.
+     */
+    ALL,
+
+    /**
+     * Flows with at least one part in error state.
+     */
+    ERROR,
+
+    /**
+     * Flows that haven't been acknowledged yet.
+     */
+    UNACK
+
+}
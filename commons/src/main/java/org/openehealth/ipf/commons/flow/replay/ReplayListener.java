@@ -0,0 +1,32 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.replay;
+
+/**
+ * Receives progress notifications from a {@link FlowReplayer}. Listeners
+ * are called by replay worker threads after each chunk, one call at a time.
+ */
+public interface ReplayListener {
+
+    /**
+     * Called after a chunk has been committed or rolled back.
+     *
+     * @param progress
+     *            progress of the replay operation.
+     */
+    void chunkCompleted(ReplayProgress progress);
+
+}
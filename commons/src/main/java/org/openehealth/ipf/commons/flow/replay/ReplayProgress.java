@@ -0,0 +1,106 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.replay;
+
+/**
+ * Progress of a replay operation executed by a {@link FlowReplayer}.
+ */
+public class ReplayProgress {
+
+    private final int totalFlows;
+
+    private final int totalChunks;
+
+    private int replayedFlows;
+
+    private int failedFlows;
+
+    private int completedChunks;
+
+    private int failedChunks;
+
+    ReplayProgress(int totalFlows, int totalChunks) {
+        this.totalFlows = totalFlows;
+        this.totalChunks = totalChunks;
+    }
+
+    ReplayProgress(ReplayProgress progress) {
+        this(progress.totalFlows, progress.totalChunks);
+        replayedFlows = progress.replayedFlows;
+        failedFlows = progress.failedFlows;
+        completedChunks = progress.completedChunks;
+        failedChunks = progress.failedChunks;
+    }
+
+    public int getTotalFlows() {
+        return totalFlows;
+    }
+
+    public int getTotalChunks() {
+        return totalChunks;
+    }
+
+    /**
+     * Returns the number of flows replayed in committed chunks.
+     *
+     * @return number of replayed flows.
+     */
+    public int getReplayedFlows() {
+        return replayedFlows;
+    }
+
+    /**
+     * Returns the number of flows that could not be replayed, including all
+     * flows of rolled back chunks.
+     *
+     * @return number of failed flows.
+     */
+    public int getFailedFlows() {
+        return failedFlows;
+    }
+
+    public int getCompletedChunks() {
+        return completedChunks;
+    }
+
+    public int getFailedChunks() {
+        return failedChunks;
+    }
+
+    public boolean isDone() {
+        return completedChunks == totalChunks;
+    }
+
+    void chunkCommitted(int flows, int replayed) {
+        replayedFlows += replayed;
+        failedFlows += flows - replayed;
+        completedChunks++;
+    }
+
+    void chunkFailed(int flows) {
+        failedFlows += flows;
+        failedChunks++;
+        completedChunks++;
+    }
+
+    @Override
+    public String toString() {
+        return "replayed " + replayedFlows + ", failed " + failedFlows + " of " + totalFlows
+                + " flows (" + completedChunks + "/" + totalChunks + " chunks, "
+                + failedChunks + " rolled back)";
+    }
+
+}
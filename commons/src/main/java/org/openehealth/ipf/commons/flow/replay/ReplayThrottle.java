@@ -0,0 +1,413 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.replay;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openehealth.ipf.commons.flow.FlowException;
+import org.openehealth.ipf.commons.flow.FlowManager;
+import org.openehealth.ipf.commons.flow.transfer.FlowInfoFinderCriteria;
+
+/**
+ * Limits the rate at which flows are replayed by bulk replay operations
+ * (e.g.
+ * {@link FlowManager#replayErrorFlows(FlowInfoFinderCriteria) replayErrorFlows}).
+ * Each application has a token bucket of {@link #getRate(String) rate}
+ * flows per second (<code>0</code> means unlimited) shared by all replaying
+ * threads.
+ * <p>
+ * The rate is reduced adaptively if replays of an application fail or slow
+ * down: replay strategies report the outcome and latency of each replayed
+ * message via {@link #replayed(String, long, boolean)}. If the moving
+ * average of the failure rate exceeds {@link #getErrorRateThreshold()
+ * errorRateThreshold}, or the moving average of the latency exceeds
+ * {@link #getLatencyThreshold() latencyThreshold} milliseconds, the
+ * effective rate is halved (down to {@link #getMinRateFactor()
+ * minRateFactor} times the configured rate). Otherwise it recovers by a
+ * tenth of the configured rate. Adjustments are made at most once per
+ * {@link #getAdjustmentInterval() adjustmentInterval} milliseconds.
+ * <p>
+ * Tokens are acquired per flow inside the replay transaction, before the
+ * flow is updated. Flows replayed earlier in the same transaction (within a
+ * {@link FlowReplayer} or {@link ReplayJobManager} chunk, or a single
+ * {@link FlowManager#replayFlows(java.util.List) replayFlows} call) remain
+ * locked while a replaying thread waits for a token, so low rates should be
+ * combined with small chunk sizes.
+ */
+public class ReplayThrottle {
+
+    public static final double DEFAULT_RATE = 0.0;
+
+    public static final double DEFAULT_ERROR_RATE_THRESHOLD = 0.1;
+
+    public static final long DEFAULT_LATENCY_THRESHOLD = 0L;
+
+    public static final double DEFAULT_MIN_RATE_FACTOR = 0.1;
+
+    public static final long DEFAULT_ADJUSTMENT_INTERVAL = 1000L;
+
+    // weight of the latest sample in moving averages
+    private static final double ALPHA = 0.1;
+
+    private static final double RATE_INCREASE = 0.1;
+
+    private volatile double defaultRate;
+
+    private volatile double errorRateThreshold;
+
+    private volatile long latencyThreshold;
+
+    private volatile double minRateFactor;
+
+    private volatile long adjustmentInterval;
+
+    private final ConcurrentMap<String, Double> rates;
+
+    private final ConcurrentMap<String, Bucket> buckets;
+
+    private final AtomicLong throttledCount;
+
+    private final AtomicLong waitTime;
+
+    public ReplayThrottle() {
+        defaultRate = DEFAULT_RATE;
+        errorRateThreshold = DEFAULT_ERROR_RATE_THRESHOLD;
+        latencyThreshold = DEFAULT_LATENCY_THRESHOLD;
+        minRateFactor = DEFAULT_MIN_RATE_FACTOR;
+        adjustmentInterval = DEFAULT_ADJUSTMENT_INTERVAL;
+        rates = new ConcurrentHashMap<>();
+        buckets = new ConcurrentHashMap<>();
+        throttledCount = new AtomicLong();
+        waitTime = new AtomicLong();
+    }
+
+    public double getDefaultRate() {
+        return defaultRate;
+    }
+
+    /**
+     * Sets the replay rate in flows per second of applications without a
+     * specific rate. Default is {@link #DEFAULT_RATE} (unlimited).
+     *
+     * @param defaultRate
+     *            flows per second or <code>0</code>.
+     */
+    public void setDefaultRate(double defaultRate) {
+        checkRate(defaultRate);
+        this.defaultRate = defaultRate;
+    }
+
+    /**
+     * Sets application-specific replay rates in flows per second.
+     *
+     * @param rates
+     *            map of application names to rates.
+     */
+    public void setRates(Map<String, Double> rates) {
+        rates.values().forEach(ReplayThrottle::checkRate);
+        this.rates.clear();
+        rates.forEach((application, rate) -> this.rates.put(key(application), rate));
+    }
+
+    public double getRate(String application) {
+        return rates.getOrDefault(key(application), defaultRate);
+    }
+
+    /**
+     * Sets the replay rate of an application in flows per second.
+     *
+     * @param application
+     *            application name.
+     * @param rate
+     *            flows per second or <code>0</code> for unlimited.
+     */
+    public void setRate(String application, double rate) {
+        checkRate(rate);
+        rates.put(key(application), rate);
+    }
+
+    public double getErrorRateThreshold() {
+        return errorRateThreshold;
+    }
+
+    /**
+     * Sets the failure rate (between 0 and 1) above which the replay rate is
+     * reduced. Default is {@link #DEFAULT_ERROR_RATE_THRESHOLD}.
+     *
+     * @param errorRateThreshold
+     *            failure rate threshold.
+     */
+    public void setErrorRateThreshold(double errorRateThreshold) {
+        if (errorRateThreshold < 0.0 || errorRateThreshold > 1.0) {
+            throw new IllegalArgumentException("error rate threshold must be between 0 and 1");
+        }
+        this.errorRateThreshold = errorRateThreshold;
+    }
+
+    public long getLatencyThreshold() {
+        return latencyThreshold;
+    }
+
+    /**
+     * Sets the replay latency in milliseconds above which the replay rate
+     * is reduced. <code>0</code> disables latency-based adjustment. Default
+     * is {@link #DEFAULT_LATENCY_THRESHOLD}.
+     *
+     * @param latencyThreshold
+     *            latency threshold in milliseconds.
+     */
+    public void setLatencyThreshold(long latencyThreshold) {
+        if (latencyThreshold < 0L) {
+            throw new IllegalArgumentException("latency threshold must not be negative");
+        }
+        this.latencyThreshold = latencyThreshold;
+    }
+
+    public double getMinRateFactor() {
+        return minRateFactor;
+    }
+
+    /**
+     * Sets the lower limit of adaptive rate reduction as a fraction of the
+     * configured rate. Default is {@link #DEFAULT_MIN_RATE_FACTOR}.
+     *
+     * @param minRateFactor
+     *            minimum rate factor.
+     */
+    public void setMinRateFactor(double minRateFactor) {
+        if (minRateFactor <= 0.0 || minRateFactor > 1.0) {
+            throw new IllegalArgumentException("min rate factor must be between 0 (exclusive) and 1");
+        }
+        this.minRateFactor = minRateFactor;
+    }
+
+    public long getAdjustmentInterval() {
+        return adjustmentInterval;
+    }
+
+    /**
+     * Sets the minimum time in milliseconds between two adjustments of the
+     * effective rate. Default is {@link #DEFAULT_ADJUSTMENT_INTERVAL}.
+     *
+     * @param adjustmentInterval
+     *            adjustment interval in milliseconds.
+     */
+    public void setAdjustmentInterval(long adjustmentInterval) {
+        if (adjustmentInterval < 0L) {
+            throw new IllegalArgumentException("adjustment interval must not be negative");
+        }
+        this.adjustmentInterval = adjustmentInterval;
+    }
+
+    /**
+     * Returns the current replay rate of an application after adaptive
+     * reduction.
+     *
+     * @param application
+     *            application name.
+     * @return flows per second or <code>0</code> if unlimited.
+     */
+    public double getEffectiveRate(String application) {
+        Bucket bucket = buckets.get(key(application));
+        double rate = getRate(application);
+        if (bucket == null) {
+            return rate;
+        }
+        synchronized (bucket) {
+            return rate * bucket.factor;
+        }
+    }
+
+    /**
+     * Returns the moving average of the replay failure rate of an
+     * application.
+     *
+     * @param application
+     *            application name.
+     * @return failure rate between 0 and 1.
+     */
+    public double getErrorRate(String application) {
+        Bucket bucket = buckets.get(key(application));
+        if (bucket == null) {
+            return 0.0;
+        }
+        synchronized (bucket) {
+            return bucket.errorRate;
+        }
+    }
+
+    /**
+     * Returns the moving average of the replay latency of an application.
+     *
+     * @param application
+     *            application name.
+     * @return latency in milliseconds.
+     */
+    public double getLatency(String application) {
+        Bucket bucket = buckets.get(key(application));
+        if (bucket == null) {
+            return 0.0;
+        }
+        synchronized (bucket) {
+            return bucket.latency;
+        }
+    }
+
+    /**
+     * Returns the number of replays that had to wait for a token.
+     *
+     * @return number of throttled replays.
+     */
+    public long getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    /**
+     * Returns the total time replays waited for tokens.
+     *
+     * @return wait time in milliseconds.
+     */
+    public long getWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+    }
+
+    /**
+     * Resets the adaptive rate reduction and the moving averages of an
+     * application.
+     *
+     * @param application
+     *            application name.
+     */
+    public void reset(String application) {
+        buckets.remove(key(application));
+    }
+
+    /**
+     * Waits until a flow of the given application may be replayed.
+     *
+     * @param application
+     *            application name.
+     * @throws FlowException
+     *             if the current thread is interrupted while waiting.
+     */
+    public void acquire(String application) {
+        Bucket bucket = bucket(application);
+        double rate = getRate(application);
+        long waitNanos = bucket.reserve(rate);
+        if (waitNanos == 0L) {
+            return;
+        }
+        throttledCount.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            do {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+                waitNanos = bucket.reserve(getRate(application));
+            } while (waitNanos > 0L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FlowException("interrupted while waiting for replay", e);
+        } finally {
+            waitTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records the outcome of a replayed message.
+     *
+     * @param application
+     *            application name.
+     * @param latency
+     *            processing time of the replayed message in milliseconds.
+     * @param failed
+     *            whether replay processing failed.
+     */
+    public void replayed(String application, long latency, boolean failed) {
+        bucket(application).replayed(latency, failed);
+    }
+
+    private Bucket bucket(String application) {
+        return buckets.computeIfAbsent(key(application), k -> new Bucket());
+    }
+
+    private static String key(String application) {
+        return application == null ? "" : application;
+    }
+
+    private static void checkRate(double rate) {
+        if (rate < 0.0) {
+            throw new IllegalArgumentException("rate must not be negative");
+        }
+    }
+
+    private class Bucket {
+
+        double tokens = 1.0;
+
+        long refillTime = System.nanoTime();
+
+        double factor = 1.0;
+
+        double errorRate;
+
+        double latency;
+
+        long adjustmentTime = System.nanoTime();
+
+        /**
+         * Takes a token and returns 0 or returns the time to wait for the
+         * next token.
+         */
+        synchronized long reserve(double rate) {
+            long now = System.nanoTime();
+            double effectiveRate = rate * factor;
+            if (effectiveRate <= 0.0) {
+                refillTime = now;
+                return 0L;
+            }
+            // allow bursts of up to one second
+            tokens = Math.min(Math.max(1.0, effectiveRate), tokens + (now - refillTime) / 1e9 * effectiveRate);
+            refillTime = now;
+            if (tokens >= 1.0) {
+                tokens -= 1.0;
+                return 0L;
+            }
+            return Math.max(1L, (long)((1.0 - tokens) / effectiveRate * 1e9));
+        }
+
+        synchronized void replayed(long latencyMillis, boolean failed) {
+            errorRate += ALPHA * ((failed ? 1.0 : 0.0) - errorRate);
+            latency += ALPHA * (latencyMillis - latency);
+            long now = System.nanoTime();
+            if (now - adjustmentTime < TimeUnit.MILLISECONDS.toNanos(adjustmentInterval)) {
+                return;
+            }
+            adjustmentTime = now;
+            long maxLatency = latencyThreshold;
+            if (errorRate > errorRateThreshold || maxLatency > 0L && latency > maxLatency) {
+                factor = Math.max(minRateFactor, factor / 2.0);
+            } else {
+                factor = Math.min(1.0, factor + RATE_INCREASE);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.repository;
+
+import static org.openehealth.ipf.commons.flow.domain.FlowNumber.DEFAULT_SEQUENCE;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * A {@link SequenceRepository} that reserves a block of numbers per lock
+ * acquisition on the <code>T_FLOW_NUMBER</code> row and hands them out from
+ * memory. The reservation runs in a separate, short transaction so that the
+ * row lock is released before the caller's transaction continues.
+ * <p>
+ * Numbers are unique across all nodes sharing the database (including nodes
+ * using {@link SequenceRepositoryImpl}) but only monotonic per node. Numbers
+ * left in a block when the node stops are never used.
+ *
+ * @see SequenceRepositoryImpl
+ */
+public class BlockSequenceRepositoryImpl extends SequenceRepositoryImpl {
+
+    public static final int DEFAULT_BLOCK_SIZE = 100;
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlockSequenceRepositoryImpl.class);
+
+    @Autowired(required = false)
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    private volatile Block block;
+
+    private int blockSize;
+
+    public BlockSequenceRepositoryImpl() {
+        block = new Block(1L, 0L); // empty
+        blockSize = DEFAULT_BLOCK_SIZE;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Sets the number of flow numbers reserved per database access. Default
+     * is {@value #DEFAULT_BLOCK_SIZE}.
+     *
+     * @param blockSize
+     *            number of flow numbers to reserve at once.
+     */
+    public void setBlockSize(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("block size must be positive");
+        }
+        this.blockSize = blockSize;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    @Override
+    protected void initDao() throws Exception {
+        super.initDao();
+        if (transactionManager == null) {
+            throw new IllegalArgumentException("transactionManager is required");
+        }
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Returns the next number from the current block. A new block is reserved
+     * in a separate transaction if the current block is exhausted.
+     */
+    @Override
+    @Transactional(propagation=Propagation.SUPPORTS)
+    public Long nextNumber() {
+        while (true) {
+            Block current = block;
+            long number = current.next();
+            if (number != Block.EXHAUSTED) {
+                return number;
+            }
+            synchronized (this) {
+                if (block == current) {
+                    block = reserveBlock();
+                }
+            }
+        }
+    }
+
+    private Block reserveBlock() {
+        final int size = blockSize;
+        long last = transactionTemplate.execute(status -> lockNumber().addAndGet(size));
+        LOG.debug("reserved numbers {} to {} from sequence {}", last - size + 1, last, DEFAULT_SEQUENCE);
+        return new Block(last - size + 1, last);
+    }
+
+    private static class Block {
+
+        static final long EXHAUSTED = -1L;
+
+        private final AtomicLong next;
+
+        private final long last;
+
+        Block(long first, long last) {
+            this.next = new AtomicLong(first);
+            this.last = last;
+        }
+
+        long next() {
+            long number = next.getAndIncrement();
+            return number > last ? EXHAUSTED : number;
+        }
+
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.repository;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openehealth.ipf.commons.flow.config.ApplicationConfig;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * A {@link ConfigRepository} that caches application configurations read
+ * with {@link #find(String)} in memory. This avoids a database read per
+ * message for the configuration lookups of acknowledge and filter
+ * operations. Missing configurations are cached as well.
+ * <p>
+ * The cache entry of an application is invalidated by {@link #persist},
+ * {@link #merge} and {@link #remove} (and again after completion of the
+ * current transaction). Configurations changed by other nodes sharing the
+ * database are read again after the {@link #getRefreshInterval() refresh
+ * interval}.
+ * <p>
+ * {@link #find(String)} returns detached copies of the cached
+ * configurations. Changes must be written with {@link #merge}. Define this
+ * bean as primary bean if the delegate repository is defined in the same
+ * application context.
+ */
+public class CachingConfigRepository implements ConfigRepository {
+
+    public static final long DEFAULT_REFRESH_INTERVAL = 10000L;
+
+    private final ConfigRepository delegate;
+
+    private final ConcurrentMap<String, CacheEntry> cache;
+
+    // incremented on invalidation to discard concurrently loaded entries
+    private final AtomicLong generation;
+
+    private final AtomicLong hitCount;
+
+    private final AtomicLong missCount;
+
+    private volatile long refreshInterval;
+
+    /**
+     * Creates a new {@link CachingConfigRepository}.
+     *
+     * @param delegate
+     *            the repository reading and writing configurations.
+     */
+    public CachingConfigRepository(ConfigRepository delegate) {
+        this.delegate = delegate;
+        this.cache = new ConcurrentHashMap<>();
+        this.generation = new AtomicLong();
+        this.hitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+        this.refreshInterval = DEFAULT_REFRESH_INTERVAL;
+    }
+
+    public long getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    /**
+     * Sets the time in milliseconds after which a cached configuration is
+     * read again from the database. A value of 0 disables refresh (for
+     * single-node setups). Default is {@link #DEFAULT_REFRESH_INTERVAL}.
+     *
+     * @param refreshInterval
+     *            refresh interval in milliseconds.
+     */
+    public void setRefreshInterval(long refreshInterval) {
+        if (refreshInterval < 0L) {
+            throw new IllegalArgumentException("refresh interval must not be negative");
+        }
+        this.refreshInterval = refreshInterval;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0.0 : (double)hits / total;
+    }
+
+    public int getSize() {
+        return cache.size();
+    }
+
+    /**
+     * Removes all cached configurations.
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        cache.clear();
+    }
+
+    @Override
+    public List<ApplicationConfig> find() {
+        return delegate.find();
+    }
+
+    @Override
+    public ApplicationConfig find(String application) {
+        long now = System.currentTimeMillis();
+        CacheEntry entry = cache.get(application);
+        if (entry != null && !entry.isExpired(now, refreshInterval)) {
+            hitCount.incrementAndGet();
+            return entry.copy();
+        }
+        missCount.incrementAndGet();
+        long current = generation.get();
+        ApplicationConfig config = delegate.find(application);
+        entry = new CacheEntry(config == null ? null : new ApplicationConfig(config), now);
+        if (generation.get() == current) {
+            cache.put(application, entry);
+        }
+        return entry.copy();
+    }
+
+    @Override
+    public void persist(ApplicationConfig applicationConfig) {
+        delegate.persist(applicationConfig);
+        invalidate(applicationConfig.getApplication());
+    }
+
+    @Override
+    public void merge(ApplicationConfig applicationConfig) {
+        delegate.merge(applicationConfig);
+        invalidate(applicationConfig.getApplication());
+    }
+
+    @Override
+    public void remove(ApplicationConfig applicationConfig) {
+        delegate.remove(applicationConfig);
+        invalidate(applicationConfig.getApplication());
+    }
+
+    private void invalidate(String application) {
+        generation.incrementAndGet();
+        cache.remove(application);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // discard entries read before the change has been committed
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    generation.incrementAndGet();
+                    cache.remove(application);
+                }
+            });
+        }
+    }
+
+    private static class CacheEntry {
+
+        final ApplicationConfig config;
+
+        final long loadTime;
+
+        CacheEntry(ApplicationConfig config, long loadTime) {
+            this.config = config;
+            this.loadTime = loadTime;
+        }
+
+        boolean isExpired(long now, long refreshInterval) {
+            return refreshInterval > 0L && now - loadTime >= refreshInterval;
+        }
+
+        ApplicationConfig copy() {
+            return config == null ? null : new ApplicationConfig(config);
+        }
+
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.repository;
+import java.util.Date;
+
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.orm.hibernate5.support.HibernateDaoSupport;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Assigns flows stored before {@link FlowPartitioning partitioning} was
+ * enabled (<code>C_BUCKET</code> is <code>null</code>) to the bucket of their
+ * creation time. The migration runs on initialization (and can be repeated
+ * with {@link #migrate()}). Each bucket is migrated with a bulk update in a
+ * separate transaction, so that an interrupted migration continues where it
+ * stopped.
+ * <p>
+ * Flows without bucket are neither found by flow finders nor removed by
+ * {@link FlowRepository#dropBuckets(Date)}. The migration must use the same
+ * partitioning as the flow repository.
+ */
+public class FlowBucketMigration extends HibernateDaoSupport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowBucketMigration.class);
+
+    @Autowired(required = false)
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    private FlowPartitioning partitioning;
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    public FlowPartitioning getPartitioning() {
+        return partitioning;
+    }
+
+    /**
+     * Sets the partitioning of the flow repository.
+     *
+     * @param partitioning
+     *            flow partitioning.
+     */
+    public void setPartitioning(FlowPartitioning partitioning) {
+        this.partitioning = partitioning;
+    }
+
+    @Override
+    protected void initDao() throws Exception {
+        super.initDao();
+        if (transactionManager == null) {
+            throw new IllegalArgumentException("transactionManager is required");
+        }
+        if (partitioning == null) {
+            throw new IllegalArgumentException("partitioning is required");
+        }
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        migrate();
+    }
+
+    /**
+     * Assigns all flows without bucket to their bucket.
+     *
+     * @return number of migrated flows.
+     */
+    public int migrate() {
+        int total = 0;
+        int count;
+        do {
+            count = transactionTemplate.execute(status -> getHibernateTemplate().execute(this::migrateBucket));
+            total += count;
+        } while (count > 0);
+        if (total > 0) {
+            LOG.info("assigned {} flows to buckets", total);
+        }
+        return total;
+    }
+
+    private int migrateBucket(Session session) {
+        // oldest flow without bucket determines the next bucket to migrate
+        Date oldest = (Date)session
+                .createQuery("select min(f.creationTime) from Flow f where f.bucket is null")
+                .uniqueResult();
+        if (oldest == null) {
+            return 0;
+        }
+        long bucket = partitioning.bucketOf(oldest);
+        long bucketSize = partitioning.getBucketSize();
+        int count = session
+                .createQuery("update Flow f set f.bucket = :bucket where f.bucket is null"
+                        + " and f.creationTime >= :start and f.creationTime < :end")
+                .setParameter("bucket", bucket)
+                .setParameter("start", new Date(bucket * bucketSize))
+                .setParameter("end", new Date((bucket + 1L) * bucketSize))
+                .executeUpdate();
+        LOG.debug("assigned {} flows to bucket {}", count, bucket);
+        return count;
+    }
+
+}
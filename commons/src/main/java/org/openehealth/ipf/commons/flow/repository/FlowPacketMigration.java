@@ -0,0 +1,224 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.repository;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hibernate.Session;
+import org.hibernate.type.StandardBasicTypes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.orm.hibernate5.support.HibernateDaoSupport;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Moves flow packets of existing databases from the legacy
+ * <code>T_FLOW.C_PACKET</code> column to the <code>T_FLOW_PACKET</code>
+ * table. The migration is started in a background thread on initialization
+ * (unless {@link #setAsync(boolean) async} is <code>false</code>) and can be
+ * repeated with {@link #migrate()}. Flows are walked in ascending identifier
+ * order and migrated in ranges of {@link #getBatchSize() batchSize} flows,
+ * each range with set-based statements in a separate transaction. An
+ * interrupted migration continues on the next run. Nothing is done if the
+ * legacy column doesn't exist.
+ * <p>
+ * Flows are not replayable before their packet has been migrated. The
+ * (then empty) legacy column can be dropped after migration.
+ */
+public class FlowPacketMigration extends HibernateDaoSupport implements DisposableBean {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowPacketMigration.class);
+
+    private static final String LEGACY_TABLE = "T_FLOW";
+
+    private static final String LEGACY_COLUMN = "C_PACKET";
+
+    private static final String RANGE = "C_ID > :from AND C_ID <= :to AND C_PACKET IS NOT NULL";
+
+    @Autowired(required = false)
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    private int batchSize;
+
+    private boolean async;
+
+    private Thread migrationThread;
+
+    private volatile boolean stopped;
+
+    public FlowPacketMigration() {
+        batchSize = DEFAULT_BATCH_SIZE;
+        async = true;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the number of flows migrated per transaction. Default is
+     * {@value #DEFAULT_BATCH_SIZE}.
+     *
+     * @param batchSize
+     *            number of flows per transaction.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Sets whether the migration on initialization runs in a background
+     * thread (default) or blocks initialization until it is finished.
+     *
+     * @param async
+     *            <code>true</code> to migrate in the background.
+     */
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    @Override
+    protected void initDao() throws Exception {
+        super.initDao();
+        if (transactionManager == null) {
+            throw new IllegalArgumentException("transactionManager is required");
+        }
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        if (!async) {
+            migrate();
+            return;
+        }
+        migrationThread = new Thread(() -> {
+            try {
+                migrate();
+            } catch (RuntimeException e) {
+                LOG.error("flow packet migration error", e);
+            }
+        }, "FlowPacketMigration");
+        migrationThread.setDaemon(true);
+        migrationThread.start();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        // stops after the current range
+        stopped = true;
+        if (migrationThread != null) {
+            migrationThread.join();
+        }
+    }
+
+    /**
+     * Migrates all packets remaining in the legacy column.
+     *
+     * @return number of migrated flows.
+     */
+    public synchronized int migrate() {
+        if (!legacyColumnExists()) {
+            return 0;
+        }
+        AtomicInteger total = new AtomicInteger();
+        Long to = Long.MIN_VALUE;
+        while (to != null && !stopped) {
+            Long from = to;
+            to = transactionTemplate.execute(status -> getHibernateTemplate().execute(session -> {
+                Long end = rangeEnd(session, from);
+                if (end != null) {
+                    total.addAndGet(migrateRange(session, from, end));
+                }
+                return end;
+            }));
+        }
+        if (total.get() > 0) {
+            LOG.info("migrated {} flow packets to table T_FLOW_PACKET", total.get());
+        }
+        return total.get();
+    }
+
+    /**
+     * Returns the largest identifier of the next range of flows after
+     * <code>from</code> (keyset walk along the primary key).
+     */
+    private Long rangeEnd(Session session, Long from) {
+        @SuppressWarnings("unchecked")
+        List<Long> ids = session.createNativeQuery(
+                "SELECT C_ID FROM {h-schema}T_FLOW WHERE C_ID > :from ORDER BY C_ID")
+                .addScalar("C_ID", StandardBasicTypes.LONG)
+                .setParameter("from", from)
+                .setMaxResults(batchSize)
+                .list();
+        return ids.isEmpty() ? null : ids.get(ids.size() - 1);
+    }
+
+    private int migrateRange(Session session, Long from, Long to) {
+        // packets have the identifier of their flow
+        session.createNativeQuery("INSERT INTO {h-schema}T_FLOW_PACKET (C_ID, C_DATA) "
+                + "SELECT C_ID, C_PACKET FROM {h-schema}T_FLOW WHERE " + RANGE + " AND C_PACKET_ID IS NULL")
+                .setParameter("from", from)
+                .setParameter("to", to)
+                .executeUpdate();
+        session.createNativeQuery("UPDATE {h-schema}T_FLOW SET C_PACKET_ID = C_ID "
+                + "WHERE " + RANGE + " AND C_PACKET_ID IS NULL")
+                .setParameter("from", from)
+                .setParameter("to", to)
+                .executeUpdate();
+        // packets written after the upgrade take precedence
+        return session.createNativeQuery("UPDATE {h-schema}T_FLOW SET C_PACKET = NULL WHERE " + RANGE)
+                .setParameter("from", from)
+                .setParameter("to", to)
+                .executeUpdate();
+    }
+
+    private boolean legacyColumnExists() {
+        return transactionTemplate.execute(status -> getHibernateTemplate().execute(session ->
+            session.doReturningWork(connection -> {
+                DatabaseMetaData metaData = connection.getMetaData();
+                return columnExists(metaData, LEGACY_TABLE, LEGACY_COLUMN)
+                        || columnExists(metaData, LEGACY_TABLE.toLowerCase(), LEGACY_COLUMN.toLowerCase());
+            })));
+    }
+
+    private static boolean columnExists(DatabaseMetaData metaData, String table, String column) throws SQLException {
+        try (ResultSet columns = metaData.getColumns(null, null, table, column)) {
+            return columns.next();
+        }
+    }
+
+}
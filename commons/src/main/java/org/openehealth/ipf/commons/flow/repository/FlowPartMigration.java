@@ -0,0 +1,182 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.repository;
+
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.type.StandardBasicTypes;
+import org.openehealth.ipf.commons.flow.domain.FlowPart;
+import org.openehealth.ipf.commons.flow.domain.FlowPartMessage;
+import org.openehealth.ipf.commons.flow.domain.FlowStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.orm.hibernate5.support.HibernateDaoSupport;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Moves flow parts of existing databases from the legacy
+ * <code>T_FLOW_PART</code> table (UUID identifiers) to the
+ * <code>T_FLOW_PART_V2</code> table (sequential identifiers). The migration
+ * runs on initialization (and can be repeated with {@link #migrate()}).
+ * Parts are migrated in batches, each in a separate transaction, so that an
+ * interrupted migration continues where it stopped. Nothing is done if the
+ * legacy table doesn't exist.
+ * <p>
+ * Flows are shown without their legacy parts before migration. The (then
+ * empty) legacy table can be dropped after migration. If full-text search
+ * is enabled, the flow part index must be rebuilt after migration.
+ */
+public class FlowPartMigration extends HibernateDaoSupport {
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowPartMigration.class);
+
+    private static final String LEGACY_TABLE = "T_FLOW_PART";
+
+    @Autowired(required = false)
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    private int batchSize;
+
+    public FlowPartMigration() {
+        batchSize = DEFAULT_BATCH_SIZE;
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the number of flow parts migrated per transaction. Default is
+     * {@value #DEFAULT_BATCH_SIZE}.
+     *
+     * @param batchSize
+     *            number of flow parts per transaction.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    protected void initDao() throws Exception {
+        super.initDao();
+        if (transactionManager == null) {
+            throw new IllegalArgumentException("transactionManager is required");
+        }
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        migrate();
+    }
+
+    /**
+     * Migrates all parts remaining in the legacy table.
+     *
+     * @return number of migrated flow parts.
+     */
+    public int migrate() {
+        if (!legacyTableExists()) {
+            return 0;
+        }
+        int total = 0;
+        int count;
+        do {
+            count = transactionTemplate.execute(status -> getHibernateTemplate().execute(this::migrateBatch));
+            total += count;
+        } while (count > 0);
+        if (total > 0) {
+            LOG.info("migrated {} flow parts to table T_FLOW_PART_V2", total);
+        }
+        return total;
+    }
+
+    private int migrateBatch(Session session) {
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = session.createNativeQuery(
+                "SELECT C_ID, C_FLOW_ID, C_PATH, C_STATUS, C_CONTRIBUTION_TIME, C_CONTRIBUTION_COUNT, "
+                + "C_FILTER_TIME, C_FILTER_COUNT, FLOW_PART_MESSAGE_ID "
+                + "FROM {h-schema}T_FLOW_PART")
+                .addScalar("C_ID", StandardBasicTypes.STRING)
+                .addScalar("C_FLOW_ID", StandardBasicTypes.LONG)
+                .addScalar("C_PATH", StandardBasicTypes.STRING)
+                .addScalar("C_STATUS", StandardBasicTypes.INTEGER)
+                .addScalar("C_CONTRIBUTION_TIME", StandardBasicTypes.TIMESTAMP)
+                .addScalar("C_CONTRIBUTION_COUNT", StandardBasicTypes.INTEGER)
+                .addScalar("C_FILTER_TIME", StandardBasicTypes.TIMESTAMP)
+                .addScalar("C_FILTER_COUNT", StandardBasicTypes.INTEGER)
+                .addScalar("FLOW_PART_MESSAGE_ID", StandardBasicTypes.STRING)
+                .setMaxResults(batchSize)
+                .list();
+        for (Object[] row : rows) {
+            FlowPart part = new FlowPart((Long)row[1], (String)row[2]);
+            part.setStatus(FlowStatus.values()[(Integer)row[3]]);
+            part.setContributionTime((Date)row[4]);
+            part.setContributionCount(row[5] == null ? 0 : (Integer)row[5]);
+            part.setFilterTime((Date)row[6]);
+            part.setFilterCount(row[7] == null ? 0 : (Integer)row[7]);
+            // legacy parts have been folded into their flows
+            part.setDeferred(false);
+            FlowPartMessage message = row[8] == null ? null : session.get(FlowPartMessage.class, (String)row[8]);
+            if (message != null) {
+                // copy the (decrypted) text into a new message
+                part.setFlowPartMessageText(message.getText());
+            }
+            session.persist(part);
+            session.flush();
+            session.createNativeQuery("DELETE FROM {h-schema}T_FLOW_PART WHERE C_ID = :id")
+                    .setParameter("id", row[0])
+                    .executeUpdate();
+            if (message != null) {
+                session.delete(message);
+                session.flush();
+            }
+        }
+        session.clear();
+        return rows.size();
+    }
+
+    private boolean legacyTableExists() {
+        return transactionTemplate.execute(status -> getHibernateTemplate().execute(session ->
+            session.doReturningWork(connection -> {
+                DatabaseMetaData metaData = connection.getMetaData();
+                return tableExists(metaData, LEGACY_TABLE) || tableExists(metaData, LEGACY_TABLE.toLowerCase());
+            })));
+    }
+
+    private static boolean tableExists(DatabaseMetaData metaData, String table) throws SQLException {
+        try (ResultSet tables = metaData.getTables(null, null, table, null)) {
+            return tables.next();
+        }
+    }
+
+}
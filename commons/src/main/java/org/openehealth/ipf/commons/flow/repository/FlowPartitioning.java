@@ -0,0 +1,105 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.repository;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.openehealth.ipf.commons.flow.core.Duration;
+
+/**
+ * Time-based partitioning of flows. Each flow is assigned to a bucket derived
+ * from its creation time (column <code>C_BUCKET</code>). Flow finders only
+ * scan the buckets overlapping the searched time range and retention drops
+ * whole buckets (see {@link FlowRepository#dropBuckets(Date)}).
+ * <p>
+ * On databases with native partitioning, <code>T_FLOW</code> can be
+ * partitioned by <code>C_BUCKET</code> and {@link #setDropStatements(List)
+ * drop statements} configured to drop or truncate a bucket's partition.
+ * Otherwise a bucket is deleted with bulk statements on the bucket key.
+ */
+public class FlowPartitioning {
+
+    public static final String DEFAULT_BUCKET_SIZE = "1d";
+
+    private volatile long bucketSize;
+
+    private volatile List<String> dropStatements;
+
+    public FlowPartitioning() {
+        setBucketSize(DEFAULT_BUCKET_SIZE);
+        dropStatements = Collections.emptyList();
+    }
+
+    public long getBucketSize() {
+        return bucketSize;
+    }
+
+    /**
+     * Sets the time span covered by a bucket (e.g. "1d" or "7d"). Buckets are
+     * aligned to the epoch. Changing the size of an existing store requires a
+     * migration of the bucket column.
+     * 
+     * @param bucketSize
+     *            duration string.
+     * @see Duration#parse(String)
+     */
+    public void setBucketSize(String bucketSize) {
+        long size = Duration.parse(bucketSize).getValue();
+        if (size <= 0L) {
+            throw new IllegalArgumentException("bucketSize must be positive: " + bucketSize);
+        }
+        this.bucketSize = size;
+    }
+
+    public List<String> getDropStatements() {
+        return dropStatements;
+    }
+
+    /**
+     * Sets native SQL statements that remove the flow rows of a bucket, e.g.
+     * <code>ALTER TABLE T_FLOW TRUNCATE PARTITION P{0}</code>. The bucket
+     * number is substituted for <code>{0}</code>. Parts, messages and packets
+     * of the bucket are deleted (and the flow rows detached from messages and
+     * packets) before these statements are executed. If empty
+     * (default) the flow rows are deleted with a bulk delete statement.
+     * 
+     * @param dropStatements
+     *            {@link MessageFormat} patterns.
+     */
+    public void setDropStatements(List<String> dropStatements) {
+        this.dropStatements = new ArrayList<>(dropStatements);
+    }
+
+    /**
+     * Returns the bucket of the given creation time.
+     */
+    public long bucketOf(Date time) {
+        return Math.floorDiv(time.getTime(), bucketSize);
+    }
+
+    List<String> dropStatements(long bucket) {
+        List<String> statements = new ArrayList<>(dropStatements.size());
+        for (String pattern : dropStatements) {
+            statements.add(MessageFormat.format(pattern, Long.toString(bucket)));
+        }
+        return statements;
+    }
+
+}
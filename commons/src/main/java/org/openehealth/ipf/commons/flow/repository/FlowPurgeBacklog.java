@@ -0,0 +1,61 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.repository;
+
+/**
+ * Number and identifier range of the flows matching a
+ * {@link FlowPurgeCriteria}.
+ */
+public class FlowPurgeBacklog {
+
+    private final long count;
+
+    private final Long minId;
+
+    private final Long maxId;
+
+    public FlowPurgeBacklog(long count, Long minId, Long maxId) {
+        this.count = count;
+        this.minId = minId;
+        this.maxId = maxId;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return lowest identifier of the flows to purge or <code>null</code> if
+     *         there are none.
+     */
+    public Long getMinId() {
+        return minId;
+    }
+
+    /**
+     * @return highest identifier of the flows to purge or <code>null</code>
+     *         if there are none.
+     */
+    public Long getMaxId() {
+        return maxId;
+    }
+
+    @Override
+    public String toString() {
+        return "FlowPurgeBacklog[count=" + count + ", minId=" + minId + ", maxId=" + maxId + "]";
+    }
+
+}
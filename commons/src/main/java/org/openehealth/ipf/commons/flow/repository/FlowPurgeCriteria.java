@@ -47,6 +47,10 @@ public class FlowPurgeCriteria {
     private final String application;
 
     private final int maxPurgeCount;
+
+    private final Long minId;
+
+    private final Long maxId;
     
     /**
      * Creeates a new {@link FlowPurgeCriteria} object. Does not limit the
@@ -77,9 +81,35 @@ public class FlowPurgeCriteria {
      *            match the other criteria.
      */
     public FlowPurgeCriteria(PurgeMode purgeMode, Date timeLimit, String application, int purgeCount) {
+        this(purgeMode, timeLimit, application, purgeCount, null, null);
+    }
+
+    /**
+     * Creeates a new {@link FlowPurgeCriteria} object restricted to a range of
+     * flow identifiers. Concurrent purge operations on non-overlapping ranges
+     * don't compete for the same flows.
+     * 
+     * @param purgeMode
+     *            purge mode.
+     * @param timeLimit
+     *            flow older than this time limit will be purged.
+     * @param application
+     *            application name.
+     * @param purgeCount
+     *            maximum number of flows to purge or -1 to purge all flows that
+     *            match the other criteria.
+     * @param minId
+     *            lowest flow identifier (inclusive) or <code>null</code>.
+     * @param maxId
+     *            highest flow identifier (inclusive) or <code>null</code>.
+     */
+    public FlowPurgeCriteria(PurgeMode purgeMode, Date timeLimit, String application, int purgeCount,
+            Long minId, Long maxId) {
         this.purgeMode = purgeMode;
         this.timeLimit = timeLimit;
         this.application = application;
+        this.minId = minId;
+        this.maxId = maxId;
         maxPurgeCount = purgeCount;
     }
     
@@ -99,4 +129,12 @@ public class FlowPurgeCriteria {
         return maxPurgeCount;
     }
     
+    public Long getMinId() {
+        return minId;
+    }
+    
+    public Long getMaxId() {
+        return maxId;
+    }
+    
 }
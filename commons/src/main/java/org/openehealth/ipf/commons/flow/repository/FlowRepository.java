@@ -15,26 +15,40 @@
  */
 package org.openehealth.ipf.commons.flow.repository;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import org.openehealth.ipf.commons.flow.domain.Flow;
+import org.openehealth.ipf.commons.flow.domain.FlowPart;
 
 /**
  * @author Martin Krasser
  */
 public interface FlowRepository {
 
+    void assignIdentifier(Flow flow);
+
     void persist(Flow flow); 
+    
+    void persist(FlowPart part);
  
     void merge(Flow flow);
     
     void remove(Flow flow);
 
+    void removeReleasedPacket(Flow flow);
+
     Flow find(Long id);
     
     Flow lock(Long id);
 
     int purgeFlows(FlowPurgeCriteria purgeCriteria);
+
+    FlowPurgeBacklog findPurgeBacklog(FlowPurgeCriteria purgeCriteria);
+
+    int dropBuckets(Date olderThan);
     
     List<Flow> findFlows(FlowFinderCriteria finderCriteria);
     
@@ -48,4 +62,22 @@ public interface FlowRepository {
     
     List<Long> findUnackFlowIds(FlowFinderCriteria finderCriteria);
     
+    List<Long> findFlowIds(FlowFinderCriteria finderCriteria, Long after);
+    
+    List<Long> findErrorFlowIds(FlowFinderCriteria finderCriteria, Long after);
+    
+    List<Long> findUnackFlowIds(FlowFinderCriteria finderCriteria, Long after);
+    
+    List<Long> findDeferredFlowIds(int maxResults);
+
+    Long findFlowIdByFingerprint(String application, String fingerprint, Date since);
+
+    List<String> findFingerprints(Date since);
+
+    Map<Long, String> findFlowApplications(Collection<Long> ids);
+
+    List<Flow> findFlowsWithPackets(Collection<Long> ids);
+
+    void updatePacket(Long id, byte[] packet);
+    
 }
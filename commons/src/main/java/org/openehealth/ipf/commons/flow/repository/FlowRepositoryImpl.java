@@ -23,8 +23,14 @@ import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.query.Query;
+import org.hibernate.search.FullTextSession;
+import org.hibernate.search.Search;
 import org.openehealth.ipf.commons.flow.FlowException;
+import org.openehealth.ipf.commons.flow.archive.FlowArchive;
 import org.openehealth.ipf.commons.flow.domain.Flow;
+import org.openehealth.ipf.commons.flow.domain.FlowPacket;
+import org.openehealth.ipf.commons.flow.domain.FlowPart;
 import org.openehealth.ipf.commons.flow.domain.FlowStatus;
 import org.openehealth.ipf.commons.flow.repository.FlowPurgeCriteria.PurgeMode;
 import org.openehealth.ipf.commons.flow.repository.search.DefaultSearchCallback;
@@ -36,12 +42,22 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.orm.hibernate5.HibernateCallback;
 import org.springframework.orm.hibernate5.HibernateObjectRetrievalFailureException;
 import org.springframework.orm.hibernate5.support.HibernateDaoSupport;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.hibernate.criterion.Restrictions.eq;
 import static org.hibernate.criterion.Restrictions.ge;
+import static org.hibernate.criterion.Restrictions.gt;
 import static org.hibernate.criterion.Restrictions.isEmpty;
 import static org.hibernate.criterion.Restrictions.isNull;
 import static org.hibernate.criterion.Restrictions.lt;
@@ -55,14 +71,117 @@ public class FlowRepositoryImpl extends HibernateDaoSupport implements FlowRepos
 
     private static final Logger LOG = LoggerFactory.getLogger(FlowRepositoryImpl.class);
 
+    private static final int MAX_IN_LIST_SIZE = 1000;
+
+    public static final int DEFAULT_BULK_PURGE_BATCH_SIZE = 10000;
+
     @Autowired(required = false)
     private SequenceRepository sequenceRepository;
 
     @Autowired(required = false)
     private final FlowSearchCallback flowSearchCallback;
+
+    @Autowired(required = false)
+    private PlatformTransactionManager transactionManager;
     
+    private volatile boolean bulkPurge;
+
+    private volatile int bulkPurgeBatchSize;
+
+    private volatile FlowPartitioning partitioning;
+
+    private volatile FlowArchive archive;
+
     public FlowRepositoryImpl() {
         flowSearchCallback = new DefaultSearchCallback();
+        bulkPurgeBatchSize = DEFAULT_BULK_PURGE_BATCH_SIZE;
+    }
+
+    public boolean isBulkPurge() {
+        return bulkPurge;
+    }
+
+    /**
+     * Set to <code>true</code> to purge flows with bulk delete statements
+     * instead of loading and deleting each flow. Flows are then purged in
+     * ascending order of their identifiers (instead of creation time) and
+     * their full-text index entries are purged by identifier. A single
+     * {@link #purgeFlows(FlowPurgeCriteria)} call purges at most
+     * {@link #getBulkPurgeBatchSize() bulkPurgeBatchSize} flows if no maximum
+     * purge count is given; callers repeat the call until fewer flows are
+     * purged. Default is <code>false</code>.
+     * 
+     * @param bulkPurge
+     *            whether to use set-based purge.
+     */
+    public void setBulkPurge(boolean bulkPurge) {
+        this.bulkPurge = bulkPurge;
+    }
+
+    public int getBulkPurgeBatchSize() {
+        return bulkPurgeBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of flows purged by a bulk purge call without
+     * maximum purge count. Default is {@value #DEFAULT_BULK_PURGE_BATCH_SIZE}.
+     * 
+     * @param bulkPurgeBatchSize
+     *            number of flows per bulk purge call.
+     */
+    public void setBulkPurgeBatchSize(int bulkPurgeBatchSize) {
+        if (bulkPurgeBatchSize < 1) {
+            throw new IllegalArgumentException("bulk purge batch size must be positive");
+        }
+        this.bulkPurgeBatchSize = bulkPurgeBatchSize;
+    }
+
+    /**
+     * Sets the transaction manager used by {@link #dropBuckets(Date)} to drop
+     * each bucket in a separate transaction.
+     * 
+     * @param transactionManager
+     *            a transaction manager.
+     */
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    public FlowPartitioning getPartitioning() {
+        return partitioning;
+    }
+
+    /**
+     * Sets the time-based partitioning of flows. If set, new flows are
+     * assigned to a time bucket, finders are restricted to the buckets
+     * overlapping their time range and {@link #dropBuckets(Date)} is
+     * supported. Flows persisted without partitioning have no bucket and are
+     * not found by finders until they are assigned to a bucket by a
+     * {@link FlowBucketMigration}. Default is <code>null</code> (no
+     * partitioning).
+     * 
+     * @param partitioning
+     *            flow partitioning or <code>null</code>.
+     */
+    public void setPartitioning(FlowPartitioning partitioning) {
+        this.partitioning = partitioning;
+    }
+
+    public FlowArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * Sets the archive where purged flows (including packets and message
+     * texts) are written before they are deleted. Applies to all purge
+     * operations including {@link #dropBuckets(Date)}. Default is
+     * <code>null</code> (no archiving).
+     * 
+     * @param archive
+     *            flow archive or <code>null</code>.
+     */
+    public void setArchive(FlowArchive archive) {
+        this.archive = archive;
     }
     
     @Override
@@ -76,13 +195,30 @@ public class FlowRepositoryImpl extends HibernateDaoSupport implements FlowRepos
     }
 
     @Override
-    public void persist(Flow flow) {
+    public void assignIdentifier(Flow flow) {
         // Generate a sequence number for flow
         flow.setIdentifier(sequenceRepository.nextNumber());
+    }
+
+    @Override
+    public void persist(Flow flow) {
+        if (flow.getIdentifier() == null) {
+            assignIdentifier(flow);
+        }
+        FlowPartitioning partitioning = this.partitioning;
+        if (partitioning != null && flow.getBucket() == null) {
+            flow.setBucket(partitioning.bucketOf(flow.getCreationTime()));
+        }
         // Persist flow using the assigned number
         getHibernateTemplate().persist(flow);
     }
 
+    @Override
+    public void persist(FlowPart part) {
+        // inserted without loading or locking the flow
+        getHibernateTemplate().persist(part);
+    }
+
     @Override
     public void merge(Flow flow) {
         getHibernateTemplate().merge(flow);
@@ -93,6 +229,22 @@ public class FlowRepositoryImpl extends HibernateDaoSupport implements FlowRepos
         getHibernateTemplate().delete(flow);
     }
 
+    @Override
+    public void removeReleasedPacket(Flow flow) {
+        FlowPacket packet = flow.takeReleasedPacket();
+        if (packet == null) {
+            return;
+        }
+        // delete by identifier to avoid reading the packet data
+        getHibernateTemplate().executeWithNativeSession((HibernateCallback<?>) session -> {
+            // remove foreign key reference first
+            session.flush();
+            return session.createQuery("delete from FlowPacket p where p.identifier = :identifier")
+                    .setParameter("identifier", session.getIdentifier(packet))
+                    .executeUpdate();
+        });
+    }
+
     void removeAll(Collection<Flow> flows) {
         getHibernateTemplate().deleteAll(flows);
     }
@@ -115,10 +267,105 @@ public class FlowRepositoryImpl extends HibernateDaoSupport implements FlowRepos
         }
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Long> findDeferredFlowIds(int maxResults) {
+        return getHibernateTemplate().<List<Long>>executeWithNativeSession((HibernateCallback) session -> session
+                .createQuery("select distinct p.flowId from FlowPart p where p.deferred = true")
+                .setMaxResults(maxResults)
+                .list());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Long findFlowIdByFingerprint(String application, String fingerprint, Date since) {
+        // the oldest matching flow is the original (duplicates may be linked)
+        List<Long> ids = getHibernateTemplate().<List<Long>>executeWithNativeSession((HibernateCallback) session -> {
+            Query query;
+            if (application == null) {
+                query = session.createQuery("select f.identifier from Flow f where f.fingerprint = :fingerprint"
+                        + " and f.application is null and f.creationTime >= :since order by f.identifier");
+            } else {
+                query = session.createQuery("select f.identifier from Flow f where f.fingerprint = :fingerprint"
+                        + " and f.application = :application and f.creationTime >= :since order by f.identifier")
+                        .setParameter("application", application);
+            }
+            return query
+                    .setParameter("fingerprint", fingerprint)
+                    .setParameter("since", since)
+                    .setMaxResults(1)
+                    .list();
+        });
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> findFingerprints(Date since) {
+        return getHibernateTemplate().<List<String>>executeWithNativeSession((HibernateCallback) session -> session
+                .createQuery("select f.fingerprint from Flow f where f.fingerprint is not null"
+                        + " and f.creationTime >= :since")
+                .setParameter("since", since)
+                .list());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<Long, String> findFlowApplications(Collection<Long> ids) {
+        Map<Long, String> applications = new HashMap<>();
+        List<Long> remaining = new ArrayList<>(ids);
+        for (int i = 0; i < remaining.size(); i += MAX_IN_LIST_SIZE) {
+            List<Long> batch = remaining.subList(i, Math.min(i + MAX_IN_LIST_SIZE, remaining.size()));
+            List<Object[]> rows = getHibernateTemplate().<List<Object[]>>executeWithNativeSession((HibernateCallback) session -> session
+                    .createQuery("select f.identifier, f.application from Flow f where f.identifier in (:ids)")
+                    .setParameterList("ids", batch)
+                    .list());
+            rows.forEach(row -> applications.put((Long)row[0], (String)row[1]));
+        }
+        return applications;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Flow> findFlowsWithPackets(Collection<Long> ids) {
+        List<Flow> flows = new ArrayList<>(ids.size());
+        List<Long> remaining = new ArrayList<>(ids);
+        for (int i = 0; i < remaining.size(); i += MAX_IN_LIST_SIZE) {
+            List<Long> batch = remaining.subList(i, Math.min(i + MAX_IN_LIST_SIZE, remaining.size()));
+            // single query instead of a lazy packet load per flow
+            flows.addAll(getHibernateTemplate().<List<Flow>>executeWithNativeSession((HibernateCallback) session -> session
+                    .createQuery("select f from Flow f left join fetch f.flowPacket where f.identifier in (:ids)")
+                    .setParameterList("ids", batch)
+                    .list()));
+        }
+        return flows;
+    }
+
+    @Override
+    public void updatePacket(Long id, byte[] packet) {
+        // bulk update doesn't read the previous packet
+        int count = getHibernateTemplate().executeWithNativeSession(session -> session
+                .createQuery("update FlowPacket p set p.data = :data where p.identifier = "
+                        + "(select f.flowPacket.identifier from Flow f where f.identifier = :id)")
+                .setParameter("data", packet)
+                .setParameter("id", id)
+                .executeUpdate());
+        if (count == 0) {
+            throw new FlowException("no packet for flow with id " + id);
+        }
+    }
+
     @Override
     public int purgeFlows(FlowPurgeCriteria purgeCriteria) {
+        if (bulkPurge) {
+            return getHibernateTemplate().executeWithNativeSession(session -> bulkPurgeFlows(purgeCriteria, session));
+        }
         final List<Flow> purgeCandidates = findPurgeCandidates(purgeCriteria);
         getHibernateTemplate().executeWithNativeSession((HibernateCallback<?>) session -> {
+            FlowArchive archive = this.archive;
+            if (archive != null && !purgeCandidates.isEmpty()) {
+                archive.append(purgeCandidates);
+            }
             purgeCandidates.forEach(session::delete);
             session.flush();
             return null;
@@ -168,6 +415,224 @@ public class FlowRepositoryImpl extends HibernateDaoSupport implements FlowRepos
                 execute(finderCriteria, createUnackFlowsCriteria(finderCriteria),session, true));
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Long> findFlowIds(final FlowFinderCriteria finderCriteria, final Long after) {
+        return getHibernateTemplate().<List<Long>>executeWithNativeSession((HibernateCallback) session ->
+                execute(finderCriteria, createFlowIdsCriteria(finderCriteria, after), session));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Long> findErrorFlowIds(final FlowFinderCriteria finderCriteria, final Long after) {
+        return getHibernateTemplate().<List<Long>>executeWithNativeSession((HibernateCallback) session ->
+                execute(finderCriteria, createErrorFlowIdsCriteria(finderCriteria, after), session));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Long> findUnackFlowIds(final FlowFinderCriteria finderCriteria, final Long after) {
+        return getHibernateTemplate().<List<Long>>executeWithNativeSession((HibernateCallback) session ->
+                execute(finderCriteria, createUnackFlowIdsCriteria(finderCriteria, after), session));
+    }
+
+    @Override
+    public FlowPurgeBacklog findPurgeBacklog(FlowPurgeCriteria purgeCriteria) {
+        return getHibernateTemplate().executeWithNativeSession(session -> {
+            Map<String, Object> params = new HashMap<>();
+            Object[] result = (Object[]) query(session,
+                    "select count(f), min(f.identifier), max(f.identifier) from Flow f where "
+                            + purgePredicate(purgeCriteria, params), params).uniqueResult();
+            return new FlowPurgeBacklog(((Number) result[0]).longValue(), (Long) result[1], (Long) result[2]);
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int dropBuckets(Date olderThan) {
+        FlowPartitioning partitioning = this.partitioning;
+        if (partitioning == null) {
+            throw new FlowException("flow partitioning not configured");
+        }
+        if (transactionManager == null) {
+            throw new FlowException("transaction manager required for dropping buckets");
+        }
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        // buckets that end before the time limit
+        long limit = partitioning.bucketOf(olderThan);
+        List<Long> buckets = getHibernateTemplate().<List<Long>>executeWithNativeSession((HibernateCallback) session -> session
+                .createQuery("select distinct f.bucket from Flow f where f.bucket < :limit order by f.bucket")
+                .setParameter("limit", limit)
+                .list());
+        int count = 0;
+        for (Long bucket : buckets) {
+            // a transaction per bucket
+            count += transactionTemplate.execute(status -> getHibernateTemplate().<Integer>executeWithNativeSession(session -> {
+                Map<String, Object> params = new HashMap<>();
+                params.put("bucket", bucket);
+                List<String> statements = partitioning.dropStatements(bucket);
+                int dropped = bulkDelete(session, "f.bucket = :bucket", params, !statements.isEmpty());
+                statements.forEach(statement -> session.createNativeQuery(statement).executeUpdate());
+                return dropped;
+            }));
+            LOG.info("Dropped flow bucket {}", bucket);
+        }
+        return count;
+    }
+
+    private int bulkPurgeFlows(FlowPurgeCriteria purgeCriteria, Session session) {
+        // a single batch per call (and transaction), callers repeat the call
+        int maxPurgeCount = purgeCriteria.getMaxPurgeCount();
+        int batchSize = maxPurgeCount == FlowPurgeCriteria.DEFAULT_MAX_PURGE_COUNT
+                ? bulkPurgeBatchSize : maxPurgeCount;
+        return bulkPurgeBatch(purgeCriteria, batchSize, session);
+    }
+
+    @SuppressWarnings("unchecked")
+    private int bulkPurgeBatch(FlowPurgeCriteria purgeCriteria, int batchSize, Session session) {
+        Map<String, Object> params = new HashMap<>();
+        String predicate = purgePredicate(purgeCriteria, params);
+        // the oldest purge candidates define the upper limit of an id range
+        List<Long> flowIds = query(session, "select f.identifier from Flow f where " + predicate
+                + " order by f.identifier", params)
+                .setMaxResults(batchSize)
+                .list();
+        if (flowIds.isEmpty()) {
+            return 0;
+        }
+        Long maxId = flowIds.get(flowIds.size() - 1);
+        params.put("maxId", maxId);
+        int count = bulkDelete(session, predicate + " and f.identifier <= :maxId", params, false);
+        LOG.debug("Bulk purged {} flows up to flow {}", count, maxId);
+        return count;
+    }
+
+    private static String purgePredicate(FlowPurgeCriteria purgeCriteria, Map<String, Object> params) {
+        StringBuilder predicate = new StringBuilder("f.creationTime < :timeLimit");
+        params.put("timeLimit", purgeCriteria.getTimeLimit());
+        if (purgeCriteria.getApplication() != null) {
+            predicate.append(" and f.application = :application");
+            params.put("application", purgeCriteria.getApplication());
+        }
+        if (purgeCriteria.getPurgeMode() == PurgeMode.CLEAN) {
+            // old flows without derived status (both CLEAN and ERROR) are purged as well
+            predicate.append(" and (f.derivedStatus = :clean or f.derivedStatus is null)");
+            params.put("clean", FlowStatus.CLEAN);
+        }
+        if (purgeCriteria.getMinId() != null) {
+            predicate.append(" and f.identifier >= :minId");
+            params.put("minId", purgeCriteria.getMinId());
+        }
+        if (purgeCriteria.getMaxId() != null) {
+            predicate.append(" and f.identifier <= :rangeMaxId");
+            params.put("rangeMaxId", purgeCriteria.getMaxId());
+        }
+        return predicate.toString();
+    }
+
+    /**
+     * Deletes flows matching the given HQL <code>predicate</code> on alias
+     * <code>f</code> together with their parts, messages and packets. Flows
+     * are deleted in chunks of ascending identifiers so that the identifiers
+     * held in memory are bounded by the chunk size. If
+     * <code>keepFlowRows</code> is <code>true</code> the flow rows are only
+     * detached from their messages and packets (and dropped by the caller).
+     * Flows are archived before they are deleted if an archive is set.
+     */
+    @SuppressWarnings("unchecked")
+    private int bulkDelete(Session session, String predicate, Map<String, Object> params, boolean keepFlowRows) {
+        Map<String, Object> chunkParams = new HashMap<>(params);
+        String chunk = "select f.identifier from Flow f where " + predicate
+                + " and f.identifier > :after order by f.identifier";
+        Long after = Long.MIN_VALUE;
+        int count = 0;
+        List<Long> flowIds;
+        do {
+            chunkParams.put("after", after);
+            flowIds = query(session, chunk, chunkParams).setMaxResults(MAX_IN_LIST_SIZE).list();
+            if (!flowIds.isEmpty()) {
+                deleteChunk(session, flowIds, keepFlowRows);
+                count += flowIds.size();
+                after = flowIds.get(flowIds.size() - 1);
+            }
+        } while (flowIds.size() == MAX_IN_LIST_SIZE);
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void deleteChunk(Session session, List<Long> flowIds, boolean keepFlowRows) {
+        FlowArchive archive = this.archive;
+        if (archive != null) {
+            archive(session, flowIds, archive);
+        }
+        List<Long> partIds = session.createQuery("select p.identifier from FlowPart p where p.flowId in (:ids)")
+                .setParameterList("ids", flowIds).list();
+        List<String> partMessageIds = session.createQuery(
+                "select p.flowPartMessage.identifier from FlowPart p where p.flowId in (:ids)")
+                .setParameterList("ids", flowIds).list();
+        List<String> flowMessageIds = session.createQuery(
+                "select f.flowMessage.identifier from Flow f where f.identifier in (:ids)")
+                .setParameterList("ids", flowIds).list();
+
+        // children before parents (foreign keys)
+        session.createQuery("delete from FlowPart p where p.flowId in (:ids)")
+                .setParameterList("ids", flowIds).executeUpdate();
+        deleteByIds(session, "FlowPartMessage", partMessageIds);
+        if (keepFlowRows) {
+            session.createQuery("update Flow f set f.flowMessage = null, f.flowPacket = null"
+                    + " where f.identifier in (:ids)")
+                    .setParameterList("ids", flowIds).executeUpdate();
+        } else {
+            session.createQuery("delete from Flow f where f.identifier in (:ids)")
+                    .setParameterList("ids", flowIds).executeUpdate();
+        }
+        deleteByIds(session, "FlowMessage", flowMessageIds);
+        // packets have the identifier of their flow
+        session.createQuery("delete from FlowPacket p where p.identifier in (:ids)")
+                .setParameterList("ids", flowIds).executeUpdate();
+
+        // bulk statements bypass the full-text index listeners, index work
+        // is applied per chunk instead of being queued until commit
+        FullTextSession fullTextSession = Search.getFullTextSession(session);
+        flowIds.forEach(id -> fullTextSession.purge(Flow.class, id));
+        partIds.forEach(id -> fullTextSession.purge(FlowPart.class, id));
+        fullTextSession.flushToIndexes();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void archive(Session session, List<Long> flowIds, FlowArchive archive) {
+        // flush before evicting so that no pending changes are lost
+        session.flush();
+        for (int i = 0; i < flowIds.size(); i += MAX_IN_LIST_SIZE) {
+            // fetch joins return a row per part (no distinct on packet columns)
+            List<Flow> rows = session
+                    .createQuery("select f from Flow f left join fetch f.flowPacket"
+                            + " left join fetch f.parts where f.identifier in (:ids)")
+                    .setParameterList("ids", flowIds.subList(i, Math.min(i + MAX_IN_LIST_SIZE, flowIds.size())))
+                    .list();
+            Set<Flow> flows = new LinkedHashSet<>(rows);
+            archive.append(flows);
+            // bulk deletes don't synchronize the session
+            flows.forEach(session::evict);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Query query(Session session, String hql, Map<String, Object> params) {
+        Query query = session.createQuery(hql);
+        params.forEach(query::setParameter);
+        return query;
+    }
+
+    private static void deleteByIds(Session session, String entityName, List<String> ids) {
+        for (int i = 0; i < ids.size(); i += MAX_IN_LIST_SIZE) {
+            session.createQuery("delete from " + entityName + " e where e.identifier in (:ids)")
+                    .setParameterList("ids", ids.subList(i, Math.min(i + MAX_IN_LIST_SIZE, ids.size())))
+                    .executeUpdate();
+        }
+    }
+
     @SuppressWarnings("unchecked")
     private List<Flow> findPurgeCandidates(final FlowPurgeCriteria purgeCriteria) {
         return getHibernateTemplate().<List<Flow>>executeWithNativeSession((HibernateCallback) session ->
@@ -178,7 +643,7 @@ public class FlowRepositoryImpl extends HibernateDaoSupport implements FlowRepos
             DetachedCriteria flowStatusCriteria, Session session,
             boolean idProjection) {
 
-        Criteria criteria = flowStatusCriteria.getExecutableCriteria(session);
+        Criteria criteria = partition(flowStatusCriteria, flowFinderCriteria).getExecutableCriteria(session);
 
         if (idProjection) {
             criteria.setProjection(Projections.id());
@@ -200,6 +665,20 @@ public class FlowRepositoryImpl extends HibernateDaoSupport implements FlowRepos
         }
     }
 
+    private Object execute(FlowFinderCriteria flowFinderCriteria,
+            DetachedCriteria flowIdsCriteria, Session session) {
+        if (flowFinderCriteria.hasMessageQuery()) {
+            throw new IllegalArgumentException("message queries not supported for ordered flow id queries");
+        }
+        Criteria criteria = partition(flowIdsCriteria, flowFinderCriteria).getExecutableCriteria(session);
+
+        int maxResults = flowFinderCriteria.getMaxResults();
+        if (maxResults != FlowFinderCriteria.DEFAULT_MAX_RESULTS) {
+            criteria.setMaxResults(maxResults);
+        }
+        return criteria.list();
+    }
+
     private Object execute(FlowPurgeCriteria flowPurgeCriteria,
             DetachedCriteria flowStatusCriteria, Session session) {
         Criteria criteria = flowStatusCriteria.getExecutableCriteria(session);
@@ -217,9 +696,36 @@ public class FlowRepositoryImpl extends HibernateDaoSupport implements FlowRepos
         DetachedCriteria criteria = DetachedCriteria.forClass(Flow.class)
                 .setResultTransformer(Criteria.DISTINCT_ROOT_ENTITY)
                 .setFetchMode("parts", FetchMode.JOIN) // eager
-                .add(ge("creationTime", finderCriteria.getFrom()))
                 .addOrder(Order.desc("identifier"));
 
+        return restrict(criteria, finderCriteria);
+    }
+
+    private static DetachedCriteria createFlowIdsCriteria(FlowFinderCriteria finderCriteria, Long after) {
+        // ascending flow ids after the given one (if any)
+        DetachedCriteria criteria = DetachedCriteria.forClass(Flow.class)
+                .setProjection(Projections.distinct(Projections.id()))
+                .addOrder(Order.asc("identifier"));
+
+        if (after != null) {
+            criteria.add(gt("identifier", after));
+        }
+        return restrict(criteria, finderCriteria);
+    }
+
+    private static DetachedCriteria createErrorFlowIdsCriteria(FlowFinderCriteria finderCriteria, Long after) {
+        return createFlowIdsCriteria(finderCriteria, after).createAlias("parts", "p").add(
+                eq("p.status", FlowStatus.ERROR));
+    }
+
+    private static DetachedCriteria createUnackFlowIdsCriteria(FlowFinderCriteria finderCriteria, Long after) {
+        return createFlowIdsCriteria(finderCriteria, after).add(
+                isEmpty("parts"));
+    }
+
+    private static DetachedCriteria restrict(DetachedCriteria criteria, FlowFinderCriteria finderCriteria) {
+        criteria.add(ge("creationTime", finderCriteria.getFrom()));
+
         if (finderCriteria.getApplication() != null) {
             // constrain query to a certain application name
             criteria.add(eq("application", finderCriteria
@@ -234,6 +740,18 @@ public class FlowRepositoryImpl extends HibernateDaoSupport implements FlowRepos
         return criteria;
     }
 
+    private DetachedCriteria partition(DetachedCriteria criteria, FlowFinderCriteria finderCriteria) {
+        FlowPartitioning partitioning = this.partitioning;
+        if (partitioning != null) {
+            // only scan buckets overlapping the creation time range
+            criteria.add(ge("bucket", partitioning.bucketOf(finderCriteria.getFrom())));
+            if (finderCriteria.getTo() != null) {
+                criteria.add(Restrictions.le("bucket", partitioning.bucketOf(finderCriteria.getTo())));
+            }
+        }
+        return criteria;
+    }
+
     private static DetachedCriteria createErrorFlowsCriteria(FlowFinderCriteria finderCriteria) {
         return createFlowsCriteria(finderCriteria).createAlias("parts", "p").add(
                 eq("p.status", FlowStatus.ERROR));
@@ -266,6 +784,13 @@ public class FlowRepositoryImpl extends HibernateDaoSupport implements FlowRepos
             );
             
         }
+
+        if (purgeCriteria.getMinId() != null) {
+            criteria.add(ge("identifier", purgeCriteria.getMinId()));
+        }
+        if (purgeCriteria.getMaxId() != null) {
+            criteria.add(Restrictions.le("identifier", purgeCriteria.getMaxId()));
+        }
         return criteria;
     }
 
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.repository;
+
+import java.util.List;
+
+import org.openehealth.ipf.commons.flow.replay.ReplayJob;
+import org.openehealth.ipf.commons.flow.replay.ReplayJobStatus;
+
+/**
+ * Repository of persistent {@link ReplayJob}s.
+ */
+public interface ReplayJobRepository {
+
+    List<ReplayJob> find();
+
+    List<ReplayJob> find(ReplayJobStatus status);
+
+    ReplayJob find(Long id);
+
+    ReplayJob lock(Long id);
+
+    void persist(ReplayJob replayJob);
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.repository;
+
+import java.util.List;
+
+import org.hibernate.LockMode;
+import org.openehealth.ipf.commons.flow.FlowException;
+import org.openehealth.ipf.commons.flow.replay.ReplayJob;
+import org.openehealth.ipf.commons.flow.replay.ReplayJobStatus;
+import org.springframework.orm.hibernate5.HibernateCallback;
+import org.springframework.orm.hibernate5.HibernateObjectRetrievalFailureException;
+import org.springframework.orm.hibernate5.support.HibernateDaoSupport;
+
+/**
+ * Hibernate implementation of {@link ReplayJobRepository}.
+ */
+public class ReplayJobRepositoryImpl extends HibernateDaoSupport implements ReplayJobRepository {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<ReplayJob> find() {
+        return getHibernateTemplate().<List<ReplayJob>>executeWithNativeSession((HibernateCallback) session -> session
+                .createQuery("from ReplayJob j order by j.identifier")
+                .list());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<ReplayJob> find(ReplayJobStatus status) {
+        return getHibernateTemplate().<List<ReplayJob>>executeWithNativeSession((HibernateCallback) session -> session
+                .createQuery("from ReplayJob j where j.status = :status order by j.identifier")
+                .setParameter("status", status)
+                .list());
+    }
+
+    @Override
+    public ReplayJob find(Long id) {
+        return getHibernateTemplate().get(ReplayJob.class, id);
+    }
+
+    @Override
+    public ReplayJob lock(Long id) {
+        try {
+            return getHibernateTemplate().load(ReplayJob.class, id, LockMode.UPGRADE);
+        } catch (HibernateObjectRetrievalFailureException e) {
+            throw new FlowException("no replay job with id " + id);
+        }
+    }
+
+    @Override
+    public void persist(ReplayJob replayJob) {
+        getHibernateTemplate().persist(replayJob);
+    }
+
+}
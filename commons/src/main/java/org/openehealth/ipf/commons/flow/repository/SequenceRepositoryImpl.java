@@ -46,7 +46,7 @@ public class SequenceRepositoryImpl extends HibernateDaoSupport implements Seque
         return lockNumber().incrementAndGet();
     }
     
-    private FlowNumber lockNumber() {
+    protected FlowNumber lockNumber() {
         return getHibernateTemplate().get(FlowNumber.class, DEFAULT_SEQUENCE, LockMode.PESSIMISTIC_WRITE);
     }
     
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.repository;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openehealth.ipf.commons.flow.FlowException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.orm.hibernate5.support.HibernateDaoSupport;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * A {@link SequenceRepository} that generates time-ordered 64-bit flow
+ * numbers without accessing the database. A number is composed of
+ * <ul>
+ * <li>41 bits milliseconds since {@link #getEpoch() epoch}</li>
+ * <li>10 bits {@link #getNodeId() node id}</li>
+ * <li>12 bits counter within a millisecond</li>
+ * </ul>
+ * Numbers are strictly increasing per node. If more than 4096 numbers are
+ * requested within a millisecond, or the system clock moves backwards by less
+ * than {@link #getMaxClockRegression()}, the generator continues on a logical
+ * clock that runs ahead of the system clock. Larger clock regressions are
+ * rejected with a {@link FlowException}.
+ * <p>
+ * The database is only accessed by {@link #initSequence()}: numbers are
+ * generated above the largest flow identifier stored so far. This allows
+ * switching from {@link SequenceRepositoryImpl} to this repository on an
+ * existing database. Each node sharing a database must use a distinct node
+ * id.
+ */
+public class TimeSequenceRepositoryImpl extends HibernateDaoSupport implements SequenceRepository {
+
+    /**
+     * Default epoch (2017-01-01T00:00:00Z).
+     */
+    public static final long DEFAULT_EPOCH = 1483228800000L;
+
+    public static final long DEFAULT_MAX_CLOCK_REGRESSION = 5000L;
+
+    public static final int MAX_NODE_ID = (1 << 10) - 1;
+
+    private static final int SEQUENCE_BITS = 12;
+    private static final int NODE_BITS = 10;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimeSequenceRepositoryImpl.class);
+
+    // logical time and counter of the last generated number
+    // (time << SEQUENCE_BITS | counter)
+    private final AtomicLong state;
+
+    // latest observed system time
+    private final AtomicLong clock;
+
+    private long epoch;
+
+    private int nodeId;
+
+    private long maxClockRegression;
+
+    public TimeSequenceRepositoryImpl() {
+        state = new AtomicLong(0L);
+        clock = new AtomicLong(0L);
+        epoch = DEFAULT_EPOCH;
+        maxClockRegression = DEFAULT_MAX_CLOCK_REGRESSION;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Sets the start of the time component in milliseconds since 1970. All
+     * nodes sharing a database must use the same epoch. Default is
+     * {@link #DEFAULT_EPOCH}.
+     *
+     * @param epoch
+     *            epoch in milliseconds.
+     */
+    public void setEpoch(long epoch) {
+        this.epoch = epoch;
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Sets the id of this node. Must be unique among all nodes sharing a
+     * database and between 0 and {@link #MAX_NODE_ID}. Default is 0.
+     *
+     * @param nodeId
+     *            node id.
+     */
+    public void setNodeId(int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("node id must be between 0 and " + MAX_NODE_ID);
+        }
+        this.nodeId = nodeId;
+    }
+
+    public long getMaxClockRegression() {
+        return maxClockRegression;
+    }
+
+    /**
+     * Sets the maximum number of milliseconds the system clock may move
+     * backwards before number generation fails. Default is
+     * {@link #DEFAULT_MAX_CLOCK_REGRESSION}.
+     *
+     * @param maxClockRegression
+     *            tolerated clock regression in milliseconds.
+     */
+    public void setMaxClockRegression(long maxClockRegression) {
+        this.maxClockRegression = maxClockRegression;
+    }
+
+    /**
+     * Continues number generation above the largest flow identifier stored in
+     * the database.
+     */
+    @Override
+    public void initSequence() {
+        List<?> result = getHibernateTemplate().find("select max(f.identifier) from Flow f");
+        Long max = result.isEmpty() ? null : (Long)result.get(0);
+        if (max == null) {
+            LOG.info("using time-based sequence (node {})", nodeId);
+            return;
+        }
+        // start with the millisecond after the stored maximum
+        long floor = ((max >>> (SEQUENCE_BITS + NODE_BITS)) + 1) << SEQUENCE_BITS;
+        state.accumulateAndGet(floor, Math::max);
+        long lead = (floor >>> SEQUENCE_BITS) - (currentTimeMillis() - epoch);
+        if (lead > 0) {
+            LOG.warn("stored flow identifier {} is ahead of clock, "
+                    + "using time-based sequence {} ms ahead (node {})", max, lead, nodeId);
+        } else {
+            LOG.info("using time-based sequence above stored flow identifier {} (node {})", max, nodeId);
+        }
+    }
+
+    @Override
+    @Transactional(propagation=Propagation.SUPPORTS)
+    public Long nextNumber() {
+        long now = observeClock();
+        long prev;
+        long next;
+        do {
+            prev = state.get();
+            // new millisecond resets the counter, otherwise the counter
+            // is incremented (overflowing into the time component)
+            next = now > (prev >>> SEQUENCE_BITS) ? now << SEQUENCE_BITS : prev + 1;
+        } while (!state.compareAndSet(prev, next));
+        return ((next >>> SEQUENCE_BITS) << (SEQUENCE_BITS + NODE_BITS))
+                | ((long)nodeId << SEQUENCE_BITS)
+                | (next & SEQUENCE_MASK);
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private long observeClock() {
+        long now = currentTimeMillis() - epoch;
+        if (now < 0) {
+            throw new FlowException("system clock is before epoch " + epoch);
+        }
+        long latest = clock.accumulateAndGet(now, Math::max);
+        if (latest - now > maxClockRegression) {
+            throw new FlowException("system clock moved backwards by " + (latest - now) + " ms");
+        }
+        return now;
+    }
+
+}
@@ -75,6 +75,12 @@ public class FlowInfo implements Serializable {
     @XmlElement(type=Integer.class)
     private int nakCount;
 
+    @XmlElement
+    private Date updateTime;
+
+    @XmlElement
+    private Long originalFlowId;
+
     @XmlElement
     private String text;
     
@@ -142,6 +148,14 @@ public class FlowInfo implements Serializable {
         this.nakCount = nakCount;
     }
 
+    public Date getUpdateTime() {
+        return updateTime;
+    }
+
+    public void setUpdateTime(Date updateTime) {
+        this.updateTime = updateTime;
+    }
+
     public boolean isReplayable() {
         return replayable;
     }
@@ -166,6 +180,19 @@ public class FlowInfo implements Serializable {
         this.replayTime = replayTime;
     }
 
+    /**
+     * Returns the identifier of the flow this flow is a duplicate of.
+     * 
+     * @return original flow identifier or <code>null</code>.
+     */
+    public Long getOriginalFlowId() {
+        return originalFlowId;
+    }
+
+    public void setOriginalFlowId(Long originalFlowId) {
+        this.originalFlowId = originalFlowId;
+    }
+
     public Set<FlowPartInfo> getPartInfos() {
         return partInfos;
     }
@@ -191,6 +218,10 @@ public class FlowInfo implements Serializable {
         buf.append("- ACK count (expected) = ").append(ackCountExpected).append(NEWLINE);
         buf.append("- ACK count (actual)   = ").append(ackCount).append(NEWLINE);
         buf.append("- NAK count            = ").append(nakCount).append(NEWLINE);
+        buf.append("- update time          = ").append(dateString(updateTime)).append(NEWLINE);
+        if (originalFlowId != null) {
+            buf.append("- original flow        = ").append(originalFlowId).append(NEWLINE);
+        }
         buf.append("- text                 = ").append(textString(text)).append(NEWLINE);
         for (FlowPartInfo partInfo : getPartInfos()) {
             buf.append(partInfo.toString());
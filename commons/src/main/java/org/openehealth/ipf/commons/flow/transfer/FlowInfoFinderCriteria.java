@@ -32,6 +32,8 @@ public class FlowInfoFinderCriteria {
     
     private String inboundMessageQuery;
     private String outboundMessageQuery;
+    
+    private boolean includeParts = true;
 
     public FlowInfoFinderCriteria(Date from, Date to, String application) {
         this(from, to, application, DEFAULT_MAX_RESULTS);
@@ -105,4 +107,20 @@ public class FlowInfoFinderCriteria {
         this.outboundMessageQuery = outboundMessageQuery;
     }
     
+    public boolean isIncludeParts() {
+        return includeParts;
+    }
+
+    /**
+     * Set to <code>false</code> to return flow summaries without flow part
+     * details. Flow parts are not loaded from the database in this case.
+     * Default is <code>true</code>.
+     * 
+     * @param includeParts
+     *            whether to include flow part details.
+     */
+    public void setIncludeParts(boolean includeParts) {
+        this.includeParts = includeParts;
+    }
+    
 }
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.tx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openehealth.ipf.commons.flow.FlowException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Executes operations submitted by concurrent threads in shared transactions
+ * (group commit). Operations arriving within a {@link #getWindow() window}
+ * after the first operation of a group, up to
+ * {@link #getMaxOperations() maxOperations}, are executed one after another
+ * in a single transaction by a dedicated thread. {@link #execute(Callable)}
+ * returns after the shared transaction has been committed.
+ * <p>
+ * If an operation fails or the commit fails, the group is rolled back and
+ * each of its operations is executed again in its own transaction. The
+ * exception of an operation is therefore only seen by its own caller.
+ * Operations must be repeatable in this case, i.e. they must not depend on
+ * side effects of a previous, rolled back execution.
+ */
+public class GroupCommitExecutor implements InitializingBean, DisposableBean {
+
+    public static final long DEFAULT_WINDOW = 2L;
+
+    public static final int DEFAULT_MAX_OPERATIONS = 100;
+
+    private static final long AWAIT_INTERVAL = 1000L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(GroupCommitExecutor.class);
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private volatile long window;
+
+    private volatile int maxOperations;
+
+    private final BlockingQueue<Operation<?>> queue;
+
+    private final AtomicLong groupCount;
+
+    private final AtomicLong operationCount;
+
+    private final AtomicLong retryCount;
+
+    private TransactionTemplate transactionTemplate;
+
+    private Thread executorThread;
+
+    private volatile boolean running;
+
+    public GroupCommitExecutor() {
+        window = DEFAULT_WINDOW;
+        maxOperations = DEFAULT_MAX_OPERATIONS;
+        queue = new LinkedBlockingQueue<>();
+        groupCount = new AtomicLong();
+        operationCount = new AtomicLong();
+        retryCount = new AtomicLong();
+    }
+
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * Sets the time in milliseconds to wait for further operations after the
+     * first operation of a group arrived. Default is {@link #DEFAULT_WINDOW}.
+     *
+     * @param window
+     *            group window in milliseconds.
+     */
+    public void setWindow(long window) {
+        if (window < 0L) {
+            throw new IllegalArgumentException("window must not be negative");
+        }
+        this.window = window;
+    }
+
+    public int getMaxOperations() {
+        return maxOperations;
+    }
+
+    /**
+     * Sets the maximum number of operations executed in a shared
+     * transaction. Default is {@link #DEFAULT_MAX_OPERATIONS}.
+     *
+     * @param maxOperations
+     *            maximum group size.
+     */
+    public void setMaxOperations(int maxOperations) {
+        if (maxOperations < 1) {
+            throw new IllegalArgumentException("max operations must be positive");
+        }
+        this.maxOperations = maxOperations;
+    }
+
+    public long getGroupCount() {
+        return groupCount.get();
+    }
+
+    public long getOperationCount() {
+        return operationCount.get();
+    }
+
+    /**
+     * Returns the number of operations that have been executed again in a
+     * separate transaction because their group was rolled back.
+     *
+     * @return number of retried operations.
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    public double getAverageGroupSize() {
+        long groups = groupCount.get();
+        return groups == 0 ? 0.0 : (double)operationCount.get() / groups;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (transactionManager == null) {
+            throw new IllegalArgumentException("transaction manager required");
+        }
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        running = true;
+        executorThread = new Thread(this::run, "GroupCommitExecutor");
+        executorThread.setDaemon(true);
+        executorThread.start();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        running = false;
+        if (executorThread != null) {
+            executorThread.join();
+        }
+    }
+
+    /**
+     * Executes the given operation in a shared transaction and waits for the
+     * commit. Operations submitted by the executor thread itself (i.e. from
+     * within another operation) are executed directly.
+     *
+     * @param callable
+     *            the operation.
+     * @return the result of the operation.
+     * @throws RuntimeException
+     *             the exception thrown by the operation.
+     */
+    public <T> T execute(Callable<T> callable) {
+        if (Thread.currentThread() == executorThread) {
+            return call(callable);
+        }
+        if (!running) {
+            throw new FlowException("group commit executor not running");
+        }
+        Operation<T> operation = new Operation<>(callable);
+        queue.add(operation);
+        if (!running && queue.remove(operation)) {
+            // stopped concurrently and the queue may already have been drained
+            throw new FlowException("group commit executor not running");
+        }
+        try {
+            return await(operation);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FlowException("interrupted while waiting for commit", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new FlowException(cause);
+        }
+    }
+
+    private <T> T await(Operation<T> operation) throws InterruptedException, ExecutionException {
+        while (true) {
+            try {
+                return operation.result.get(AWAIT_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (!executorThread.isAlive() && !operation.result.isDone()) {
+                    throw new FlowException("group commit executor stopped");
+                }
+            }
+        }
+    }
+
+    private void run() {
+        List<Operation<?>> group = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Operation<?> first = queue.poll(100L, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                collect(group);
+                executeGroup(group);
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (RuntimeException e) {
+                LOG.error("group commit error", e);
+            } finally {
+                group.clear();
+            }
+        }
+        // operations that are still queued (e.g. after an interrupt)
+        Operation<?> operation;
+        while ((operation = queue.poll()) != null) {
+            operation.result.completeExceptionally(new FlowException("group commit executor not running"));
+        }
+    }
+
+    private void collect(List<Operation<?>> group) throws InterruptedException {
+        int max = maxOperations;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(window);
+        queue.drainTo(group, max - group.size());
+        while (group.size() < max) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0L) {
+                break;
+            }
+            Operation<?> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            group.add(next);
+            queue.drainTo(group, max - group.size());
+        }
+    }
+
+    private void executeGroup(List<Operation<?>> group) {
+        groupCount.incrementAndGet();
+        operationCount.addAndGet(group.size());
+        boolean committed;
+        try {
+            committed = transactionTemplate.execute(status -> {
+                for (Operation<?> operation : group) {
+                    if (!operation.tryExecute()) {
+                        status.setRollbackOnly();
+                        return false;
+                    }
+                }
+                return true;
+            });
+        } catch (RuntimeException | Error e) {
+            LOG.debug("commit of {} operations failed", group.size(), e);
+            committed = false;
+        }
+        if (committed) {
+            for (Operation<?> operation : group) {
+                operation.complete();
+            }
+        } else {
+            retryCount.addAndGet(group.size());
+            for (Operation<?> operation : group) {
+                executeSingle(operation);
+            }
+        }
+    }
+
+    private void executeSingle(Operation<?> operation) {
+        try {
+            transactionTemplate.execute(status -> {
+                operation.execute();
+                return null;
+            });
+            operation.complete();
+        } catch (Throwable t) {
+            operation.result.completeExceptionally(t);
+        }
+    }
+
+    private static <T> T call(Callable<T> callable) {
+        try {
+            return callable.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new FlowException(e);
+        }
+    }
+
+    private static class Operation<T> {
+
+        final Callable<T> callable;
+
+        final CompletableFuture<T> result;
+
+        T value;
+
+        Operation(Callable<T> callable) {
+            this.callable = callable;
+            this.result = new CompletableFuture<>();
+        }
+
+        void execute() {
+            value = call(callable);
+        }
+
+        boolean tryExecute() {
+            try {
+                execute();
+                return true;
+            } catch (RuntimeException e) {
+                return false;
+            }
+        }
+
+        void complete() {
+            result.complete(value);
+        }
+
+    }
+
+}
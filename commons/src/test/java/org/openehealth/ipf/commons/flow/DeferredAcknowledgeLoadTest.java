@@ -0,0 +1,115 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.compact.FlowCompactor;
+import org.openehealth.ipf.commons.flow.history.SplitHistory;
+import org.openehealth.ipf.commons.flow.impl.TestMessage;
+import org.openehealth.ipf.commons.flow.repository.ConfigRepository;
+import org.openehealth.ipf.commons.flow.repository.FlowRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Compares the throughput of acknowledging the branches of a 500-way split
+ * with {@link FlowManager#acknowledgeFlow(ManagedMessage)} and
+ * {@link FlowManager#acknowledgeFlowDeferred(ManagedMessage)}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners({DependencyInjectionTestExecutionListener.class})
+public class DeferredAcknowledgeLoadTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeferredAcknowledgeLoadTest.class);
+
+    private static final int NUM_BRANCHES = 500;
+
+    private static final String APPLICATION = "test";
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private FlowManager flowManager;
+
+    @Autowired
+    private FlowRepository flowRepository;
+
+    @Autowired
+    private ConfigRepository configRepository;
+
+    @Test
+    public void testThroughput() throws Exception {
+        FlowCompactor flowCompactor = new FlowCompactor();
+        flowCompactor.setFlowRepository(flowRepository);
+        flowCompactor.setConfigRepository(configRepository);
+        flowCompactor.setTransactionManager(transactionManager);
+        flowCompactor.setInterval(0L);
+        flowCompactor.afterPropertiesSet();
+        // warm up
+        run(flowManager::acknowledgeFlow, 10);
+        run(flowManager::acknowledgeFlowDeferred, 10);
+        for (int numThreads : new int[] {1, 10, 50}) {
+            double locking = run(flowManager::acknowledgeFlow, numThreads);
+            double deferred = run(flowManager::acknowledgeFlowDeferred, numThreads);
+            long start = System.nanoTime();
+            flowCompactor.compact();
+            long compaction = (System.nanoTime() - start) / 1000000L;
+            LOG.info("{} threads: {} acks/s (locking), {} acks/s (deferred), speedup {}, compaction {} ms",
+                    numThreads, (long)locking, (long)deferred,
+                    String.format("%.1f", deferred / locking), compaction);
+        }
+        flowCompactor.destroy();
+    }
+
+    private double run(Consumer<ManagedMessage> acknowledge, int numThreads) throws InterruptedException {
+        Long flowId = flowManager.beginFlow(new TestMessage("load"), APPLICATION, NUM_BRANCHES);
+        SplitHistory[] histories = new SplitHistory().split(NUM_BRANCHES);
+        List<Thread> threads = new ArrayList<>(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            final int offset = i;
+            threads.add(new Thread(() -> {
+                for (int j = offset; j < NUM_BRANCHES; j += numThreads) {
+                    TestMessage message = new TestMessage("branch");
+                    message.setFlowId(flowId);
+                    message.setSplitHistory(histories[j]);
+                    acknowledge.accept(message);
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return NUM_BRANCHES * 1e9 / (System.nanoTime() - start);
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow;
+
+import java.util.Arrays;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.domain.Flow;
+import org.openehealth.ipf.commons.flow.impl.TestMessage;
+import org.openehealth.ipf.commons.flow.repository.FlowRepository;
+import org.openehealth.ipf.commons.flow.transfer.FlowInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Compares statements and latency of {@link FlowManager#beginFlow} with the
+ * former persist-then-update sequence.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners({DependencyInjectionTestExecutionListener.class})
+public class FlowBeginLoadTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowBeginLoadTest.class);
+
+    private static final int NUM_FLOWS = 2000;
+
+    private static final String APPLICATION = "test";
+
+    @Autowired
+    private PlatformTransactionManager platformTransactionManager;
+
+    @Autowired
+    private SessionFactory sessionFactory;
+
+    @Autowired
+    private FlowManager flowManager;
+
+    @Autowired
+    private FlowRepository flowRepository;
+
+    private TransactionTemplate transactionTemplate;
+
+    private String content;
+
+    @Before
+    public void setUp() throws Exception {
+        transactionTemplate = new TransactionTemplate(platformTransactionManager);
+        char[] chars = new char[4096];
+        Arrays.fill(chars, 'x');
+        content = new String(chars);
+        sessionFactory.getStatistics().setStatisticsEnabled(true);
+    }
+
+    @Test
+    public void testBeginFlow() throws Exception {
+        // warm up both paths
+        run(false, 200);
+        run(true, 200);
+        run(false, NUM_FLOWS);
+        run(true, NUM_FLOWS);
+    }
+
+    private void run(boolean singleInsert, int numFlows) {
+        Statistics statistics = sessionFactory.getStatistics();
+        statistics.clear();
+        long[] latencies = new long[numFlows];
+        for (int i = 0; i < numFlows; i++) {
+            ManagedMessage message = new TestMessage(content);
+            long start = System.nanoTime();
+            if (singleInsert) {
+                flowManager.beginFlow(message, APPLICATION);
+            } else {
+                transactionTemplate.execute(status -> persistThenUpdate(message));
+            }
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        LOG.info("{}: {} statements/flow ({} inserts, {} updates), p50 = {} us, p99 = {} us",
+                singleInsert ? "single insert" : "persist then update",
+                (double)statistics.getPrepareStatementCount() / numFlows,
+                statistics.getEntityInsertCount(),
+                statistics.getEntityUpdateCount(),
+                latencies[numFlows / 2] / 1000,
+                latencies[numFlows * 99 / 100] / 1000);
+    }
+
+    private Long persistThenUpdate(ManagedMessage message) {
+        Flow flow = new Flow(APPLICATION);
+        flow.setAckCountExpected(FlowInfo.ACK_COUNT_EXPECTED_UNDEFINED);
+        flowRepository.persist(flow);
+        message.setFlowId(flow.getIdentifier());
+        flow.setPacket(message.createPacket());
+        flow.setFlowMessageText(message.render());
+        return flow.getIdentifier();
+    }
+
+}
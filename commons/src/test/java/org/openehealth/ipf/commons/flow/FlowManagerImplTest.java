@@ -22,14 +22,23 @@ import static org.junit.Assert.fail;
 import static org.openehealth.ipf.commons.flow.domain.FlowStatus.CLEAN;
 import static org.openehealth.ipf.commons.flow.domain.FlowStatus.ERROR;
 
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.archive.FlowArchive;
+import org.openehealth.ipf.commons.flow.config.ApplicationConfig;
 import org.openehealth.ipf.commons.flow.domain.Flow;
 import org.openehealth.ipf.commons.flow.domain.FlowPart;
 import org.openehealth.ipf.commons.flow.history.SplitHistory;
 import org.openehealth.ipf.commons.flow.impl.TestMessage;
+import org.openehealth.ipf.commons.flow.packet.PacketCodec;
+import org.openehealth.ipf.commons.flow.packet.PacketCompression;
+import org.openehealth.ipf.commons.flow.purge.FlowPurgeController;
 import org.openehealth.ipf.commons.flow.repository.FlowRepository;
 import org.openehealth.ipf.commons.flow.tx.TestTransactionManager;
 import org.openehealth.ipf.commons.flow.util.Flows;
@@ -38,6 +47,7 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.TestExecutionListeners;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.util.AopTestUtils;
 
 
 /**
@@ -205,6 +215,87 @@ public class FlowManagerImplTest {
         assertEquals(1, flow.getReplayCount());
     }
 
+    @Test
+    public void testReplayArchived() throws Exception {
+        FlowArchive archive = new FlowArchive();
+        archive.setDirectory(new File("target/flow-archive-replay"));
+        archive.afterPropertiesSet();
+        FlowManagerBase flowManagerBase = AopTestUtils.getTargetObject(flowManager);
+        flowManagerBase.setFlowArchive(archive);
+        try {
+            Flow flow = Flows.createFlow("blah", 1);
+            flowRepository.assignIdentifier(flow);
+            archive.append(Arrays.asList(flow));
+            flowManager.replayFlow(flow.getIdentifier());
+            testTransactionManager.endTransaction();
+            testTransactionManager.beginTransaction();
+            flow = flowRepository.find(flow.getIdentifier());
+            assertEquals("blah", new String(flow.getPacket()));
+            assertEquals(1, flow.getReplayCount());
+            flowRepository.remove(flow);
+        } finally {
+            flowManagerBase.setFlowArchive(null);
+            archive.destroy();
+        }
+    }
+
+    @Test
+    public void testLiveOperationLatency() throws Exception {
+        AtomicInteger operations = new AtomicInteger();
+        FlowManagerBase flowManagerBase = AopTestUtils.getTargetObject(flowManager);
+        flowManagerBase.setPurgeController(new FlowPurgeController() {
+            @Override
+            public void liveOperation(long nanos) {
+                operations.incrementAndGet();
+            }
+        });
+        try {
+            flowManager.beginFlow(message, APPLICATION);
+            // recorded on completion
+            assertEquals(0, operations.get());
+            testTransactionManager.commitTransaction();
+            assertEquals(1, operations.get());
+            testTransactionManager.beginTransaction();
+            flowManager.acknowledgeFlow(message);
+            flowManager.acknowledgeFlowDeferred(message);
+            testTransactionManager.commitTransaction();
+            assertEquals(3, operations.get());
+            testTransactionManager.beginTransaction();
+        } finally {
+            flowManagerBase.setPurgeController(null);
+        }
+    }
+
+    @Test
+    public void testCompressedPacket() throws Exception {
+        ApplicationConfig config = flowManager.getApplicationConfig("compressed");
+        config.setPacketCompression(PacketCompression.DEFLATE);
+        config.setPacketCompressionThreshold(10);
+        flowManager.mergeApplicationConfig(config);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            text.append("compressible");
+        }
+        TestMessage small = new TestMessage("small");
+        TestMessage large = new TestMessage(text.toString());
+        Long smallId = flowManager.beginFlow(small, "compressed");
+        Long largeId = flowManager.beginFlow(large, "compressed");
+        testTransactionManager.commitTransaction();
+        testTransactionManager.beginTransaction();
+        Flow flow = flowRepository.find(smallId);
+        assertFalse(PacketCodec.isEncoded(flow.getPacket()));
+        flow = flowRepository.find(largeId);
+        assertTrue(PacketCodec.isEncoded(flow.getPacket()));
+        assertTrue(flow.getPacket().length < large.createPacket().length);
+        assertEquals(text.toString(), new String(PacketCodec.decode(flow.getPacket())));
+        flowManager.replayFlow(largeId);
+        testTransactionManager.commitTransaction();
+        testTransactionManager.beginTransaction();
+        flow = flowRepository.find(largeId);
+        assertTrue(PacketCodec.isEncoded(flow.getPacket()));
+        assertEquals(1, flow.getReplayCount());
+    }
+
     @Test
     public void testFlowCompleted() throws Exception {
         Flow flow = Flows.createFlow("blah");
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.domain.FlowPacket;
+import org.openehealth.ipf.commons.flow.impl.TestMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+
+/**
+ * Measures the packet bytes read from the database and the time per
+ * acknowledgement for different packet sizes.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners({DependencyInjectionTestExecutionListener.class})
+public class FlowPacketLoadTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowPacketLoadTest.class);
+
+    private static final int NUM_FLOWS = 100;
+
+    private static final String APPLICATION = "test";
+
+    @Autowired
+    private FlowManager flowManager;
+
+    @Autowired
+    private SessionFactory sessionFactory;
+
+    @Test
+    public void testAcknowledge() throws Exception {
+        Statistics statistics = sessionFactory.getStatistics();
+        statistics.setStatisticsEnabled(true);
+        try {
+            // warm up
+            run(statistics, 100);
+            for (int packetSize : new int[] {100, 100 * 1024, 1024 * 1024}) {
+                run(statistics, packetSize);
+            }
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+    }
+
+    private void run(Statistics statistics, int packetSize) {
+        char[] content = new char[packetSize];
+        Arrays.fill(content, 'x');
+        List<TestMessage> messages = new ArrayList<>(NUM_FLOWS);
+        for (int i = 0; i < NUM_FLOWS; i++) {
+            TestMessage message = new TestMessage(new String(content)) {
+                @Override
+                public String render() {
+                    return "load";
+                }
+            };
+            flowManager.beginFlow(message, APPLICATION);
+            messages.add(message);
+        }
+        statistics.clear();
+        long start = System.nanoTime();
+        for (TestMessage message : messages) {
+            flowManager.acknowledgeFlow(message);
+        }
+        long time = System.nanoTime() - start;
+        long packetLoads = statistics.getEntityStatistics(FlowPacket.class.getName()).getLoadCount();
+        LOG.info("packet size {} bytes: {} packet bytes read per ack, {} us per ack",
+                packetSize, packetLoads * packetSize / NUM_FLOWS, time / 1000L / NUM_FLOWS);
+        assertEquals(0L, packetLoads);
+    }
+
+}
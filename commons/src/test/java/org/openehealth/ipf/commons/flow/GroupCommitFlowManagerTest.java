@@ -0,0 +1,163 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.openehealth.ipf.commons.flow.domain.FlowStatus.CLEAN;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.impl.TestMessage;
+import org.openehealth.ipf.commons.flow.transfer.FlowInfo;
+import org.openehealth.ipf.commons.flow.tx.GroupCommitExecutor;
+import org.openehealth.ipf.commons.flow.tx.TestTransactionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Tests for {@link GroupCommitFlowManager}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners( { DependencyInjectionTestExecutionListener.class })
+public class GroupCommitFlowManagerTest {
+
+    private static final String APPLICATION = "test";
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private TestTransactionManager testTransactionManager;
+
+    @Autowired
+    private FlowManager flowManager;
+
+    private GroupCommitExecutor executor;
+
+    private GroupCommitFlowManager groupCommitFlowManager;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new GroupCommitExecutor();
+        executor.setTransactionManager(transactionManager);
+        executor.setWindow(5L);
+        executor.afterPropertiesSet();
+        groupCommitFlowManager = new GroupCommitFlowManager(flowManager, executor);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.destroy();
+    }
+
+    @Test
+    public void testConcurrentBeginAndAcknowledge() throws Exception {
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        run(10, () -> {
+            for (int i = 0; i < 10; i++) {
+                TestMessage message = new TestMessage("group");
+                ids.add(groupCommitFlowManager.beginFlow(message, APPLICATION));
+                groupCommitFlowManager.acknowledgeFlow(message);
+            }
+        });
+        assertEquals(100, ids.size());
+        for (Long id : ids) {
+            FlowInfo info = flowManager.findFlow(id);
+            assertEquals(CLEAN.toString(), info.getStatus());
+            assertEquals(1, info.getPartInfos().size());
+        }
+        assertEquals(200, executor.getOperationCount());
+        assertTrue(executor.getGroupCount() < 200);
+    }
+
+    @Test
+    public void testFailureIsolated() throws Exception {
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        Set<Exception> exceptions = ConcurrentHashMap.newKeySet();
+        run(10, () -> {
+            for (int i = 0; i < 10; i++) {
+                ids.add(groupCommitFlowManager.beginFlow(new TestMessage("group"), APPLICATION));
+                TestMessage unknown = new TestMessage("unknown");
+                unknown.setFlowId(-1L);
+                try {
+                    groupCommitFlowManager.acknowledgeFlow(unknown);
+                } catch (FlowException e) {
+                    exceptions.add(e);
+                }
+            }
+        });
+        assertEquals(100, ids.size());
+        assertEquals(100, exceptions.size());
+        for (Long id : ids) {
+            flowManager.findFlow(id);
+        }
+    }
+
+    @Test
+    public void testExistingTransaction() throws Exception {
+        testTransactionManager.beginTransaction();
+        try {
+            TestMessage message = new TestMessage("tx");
+            Long id = groupCommitFlowManager.beginFlow(message, APPLICATION);
+            groupCommitFlowManager.acknowledgeFlow(message);
+            assertEquals(CLEAN.toString(), flowManager.findFlow(id).getStatus());
+            assertEquals(0, executor.getOperationCount());
+        } finally {
+            testTransactionManager.rollbackTransaction();
+        }
+    }
+
+    @Test(expected = FlowException.class)
+    public void testExecuteAfterDestroy() throws Exception {
+        executor.destroy();
+        executor.execute(() -> null);
+    }
+
+    private static void run(int numThreads, Runnable task) throws InterruptedException {
+        List<Thread> threads = new ArrayList<>(numThreads);
+        List<Throwable> errors = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            Thread thread = new Thread(task);
+            thread.setUncaughtExceptionHandler((t, e) -> {
+                synchronized (errors) {
+                    errors.add(e);
+                }
+            });
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+}
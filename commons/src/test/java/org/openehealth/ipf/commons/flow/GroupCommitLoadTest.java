@@ -0,0 +1,115 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.impl.TestMessage;
+import org.openehealth.ipf.commons.flow.tx.GroupCommitExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Compares the throughput of concurrent begin/acknowledge operations with
+ * and without {@link GroupCommitFlowManager}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners({DependencyInjectionTestExecutionListener.class})
+public class GroupCommitLoadTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GroupCommitLoadTest.class);
+
+    private static final int NUM_FLOWS = 2000;
+
+    private static final String APPLICATION = "test";
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private FlowManager flowManager;
+
+    private GroupCommitExecutor executor;
+
+    private FlowManager groupCommitFlowManager;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = new GroupCommitExecutor();
+        executor.setTransactionManager(transactionManager);
+        executor.afterPropertiesSet();
+        groupCommitFlowManager = new GroupCommitFlowManager(flowManager, executor);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.destroy();
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        // warm up
+        run(flowManager, 10, 200);
+        run(groupCommitFlowManager, 10, 200);
+        for (int numThreads : new int[] {10, 50, 100}) {
+            double single = run(flowManager, numThreads, NUM_FLOWS);
+            long groups = executor.getGroupCount();
+            long operations = executor.getOperationCount();
+            double group = run(groupCommitFlowManager, numThreads, NUM_FLOWS);
+            LOG.info("{} threads: {} flows/s (transaction per operation), {} flows/s (group commit, "
+                    + "{} operations/group), speedup {}",
+                    numThreads, (long)single, (long)group,
+                    String.format("%.1f", (double)(executor.getOperationCount() - operations)
+                            / (executor.getGroupCount() - groups)),
+                    String.format("%.1f", group / single));
+        }
+    }
+
+    private static double run(FlowManager flowManager, int numThreads, int numFlows) throws InterruptedException {
+        final int numLoops = numFlows / numThreads;
+        List<Thread> threads = new ArrayList<>(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < numLoops; j++) {
+                    TestMessage message = new TestMessage("load");
+                    flowManager.beginFlow(message, APPLICATION);
+                    flowManager.acknowledgeFlow(message);
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return numLoops * numThreads * 1e9 / (System.nanoTime() - start);
+    }
+
+}
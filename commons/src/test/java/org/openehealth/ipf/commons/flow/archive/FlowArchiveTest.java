@@ -0,0 +1,175 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.archive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.openehealth.ipf.commons.flow.util.Flows.createFlowWithText;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openehealth.ipf.commons.flow.domain.Flow;
+import org.openehealth.ipf.commons.flow.domain.FlowStatus;
+import org.openehealth.ipf.commons.flow.repository.FlowFinderCriteria;
+
+/**
+ * Tests for {@link FlowArchive} and {@link ArchiveFlowRepository}.
+ */
+public class FlowArchiveTest {
+
+    private static final File DIRECTORY = new File("target/flow-archive");
+
+    private FlowArchive archive;
+
+    @Before
+    public void setUp() throws Exception {
+        delete();
+        archive = new FlowArchive();
+        archive.setDirectory(DIRECTORY);
+        archive.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        archive.destroy();
+        delete();
+    }
+
+    @Test
+    public void testAppendFind() throws Exception {
+        archive.append(createFlows(1L, 3L));
+        Flow flow = archive.find(2L);
+        assertEquals("test", flow.getApplication());
+        assertEquals(new Date(2L), flow.getCreationTime());
+        assertEquals("f2", new String(flow.getPacket()));
+        assertTrue(flow.getFlowMessageText().contains("Content: f2"));
+        assertEquals(2, flow.getParts().size());
+        assertEquals(FlowStatus.ERROR, flow.getStatus());
+        assertEquals(FlowStatus.ERROR, flow.getPart("0.1").getStatus());
+        assertTrue(flow.getPart("0.0").getFlowPartMessageText().contains("Content: f2"));
+        assertNull(archive.find(4L));
+    }
+
+    @Test
+    public void testLatestVersion() throws Exception {
+        archive.append(createFlows(1L, 2L));
+        Flow flow = archive.find(1L);
+        flow.setReplayCount(7);
+        archive.append(Arrays.asList(flow));
+        assertEquals(7, archive.find(1L).getReplayCount());
+        assertEquals(2, archive.find(new Date(0L), null, f -> true).size());
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        archive.setMaxSegmentSize(1L);
+        archive.append(createFlows(1L, 3L));
+        assertEquals(3, archive.getSegmentCount());
+        archive.close();
+        archive.open();
+        assertEquals(3, archive.getSegmentCount());
+        assertEquals(new Date(3L), archive.find(3L).getCreationTime());
+        archive.append(createFlows(4L, 4L));
+        assertEquals(4, archive.getSegmentCount());
+    }
+
+    @Test
+    public void testRebuildIndex() throws Exception {
+        archive.append(createFlows(1L, 3L));
+        archive.close();
+        assertTrue(new File(DIRECTORY, "flow-archive-0.idx").delete());
+        archive.open();
+        assertEquals(new Date(2L), archive.find(2L).getCreationTime());
+        assertTrue(new File(DIRECTORY, "flow-archive-0.idx").exists());
+    }
+
+    @Test
+    public void testFindMaxResults() throws Exception {
+        archive.setMaxSegmentSize(1L);
+        archive.append(createFlows(1L, 5L));
+        archive.close();
+        archive.open();
+        // records after the last result are not read
+        assertTrue(new File(DIRECTORY, "flow-archive-0.dat").delete());
+        List<Flow> flows = archive.find(new Date(0L), null, f -> true, 2);
+        assertEquals(Arrays.asList(5L, 4L), ids(flows));
+        flows = archive.findAfter(2L, new Date(0L), null, f -> true, 2);
+        assertEquals(Arrays.asList(3L, 4L), ids(flows));
+        // sealed segment indexes are cached
+        assertTrue(new File(DIRECTORY, "flow-archive-4.idx").delete());
+        assertEquals(Long.valueOf(5L), archive.find(5L).getIdentifier());
+    }
+
+    @Test
+    public void testArchiveFlowRepository() throws Exception {
+        archive.setMaxSegmentSize(1L);
+        archive.append(createFlows(1L, 5L));
+        ArchiveFlowRepository repository = new ArchiveFlowRepository(archive);
+        FlowFinderCriteria criteria = new FlowFinderCriteria(new Date(2L), new Date(4L), "test");
+        assertEquals(Arrays.asList(4L, 3L, 2L), repository.findFlowIds(criteria));
+        assertEquals(Arrays.asList(3L, 4L), repository.findFlowIds(criteria, 2L));
+        assertEquals(Arrays.asList(4L, 2L), repository.findErrorFlowIds(criteria));
+        assertEquals(0, repository.findFlows(new FlowFinderCriteria(new Date(2L), null, "blah")).size());
+        criteria.setMaxResults(1);
+        assertEquals(Arrays.asList(4L), repository.findFlowIds(criteria));
+        assertEquals(Long.valueOf(5L), repository.find(5L).getIdentifier());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testArchiveFlowRepositoryReadOnly() throws Exception {
+        new ArchiveFlowRepository(archive).persist(createFlows(1L, 1L).get(0));
+    }
+
+    private static List<Long> ids(List<Flow> flows) {
+        List<Long> ids = new ArrayList<>();
+        for (Flow flow : flows) {
+            ids.add(flow.getIdentifier());
+        }
+        return ids;
+    }
+
+    private static List<Flow> createFlows(long fromId, long toId) throws Exception {
+        List<Flow> flows = new ArrayList<>();
+        for (long id = fromId; id <= toId; id++) {
+            // flows with even identifiers have an error part
+            Flow flow = createFlowWithText("f" + id, FlowStatus.CLEAN,
+                    id % 2 == 0 ? FlowStatus.ERROR : FlowStatus.CLEAN);
+            flow.setIdentifier(id);
+            flow.setCreationTime(new Date(id));
+            flow.setPacket(("f" + id).getBytes());
+            flows.add(flow);
+        }
+        return flows;
+    }
+
+    private static void delete() {
+        File[] files = DIRECTORY.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+}
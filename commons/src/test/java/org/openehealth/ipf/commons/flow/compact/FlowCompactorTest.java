@@ -0,0 +1,143 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.compact;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.openehealth.ipf.commons.flow.domain.FlowStatus.CLEAN;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.FlowException;
+import org.openehealth.ipf.commons.flow.FlowManager;
+import org.openehealth.ipf.commons.flow.history.SplitHistory;
+import org.openehealth.ipf.commons.flow.impl.TestMessage;
+import org.openehealth.ipf.commons.flow.repository.ConfigRepository;
+import org.openehealth.ipf.commons.flow.repository.FlowRepository;
+import org.openehealth.ipf.commons.flow.transfer.FlowInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Tests for {@link FlowCompactor} and deferred acknowledgements.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners( { DependencyInjectionTestExecutionListener.class })
+public class FlowCompactorTest {
+
+    private static final String APPLICATION = "compact";
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private FlowManager flowManager;
+
+    @Autowired
+    private FlowRepository flowRepository;
+
+    @Autowired
+    private ConfigRepository configRepository;
+
+    private FlowCompactor flowCompactor;
+
+    @Before
+    public void setUp() throws Exception {
+        flowCompactor = new FlowCompactor();
+        flowCompactor.setFlowRepository(flowRepository);
+        flowCompactor.setConfigRepository(configRepository);
+        flowCompactor.setTransactionManager(transactionManager);
+        flowCompactor.setInterval(0L);
+        flowCompactor.setBatchSize(2);
+        flowCompactor.afterPropertiesSet();
+        flowManager.setFlowCleanupEnabled(APPLICATION, true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        flowCompactor.destroy();
+        flowManager.setFlowCleanupEnabled(APPLICATION, false);
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        Long id1 = flowManager.beginFlow(new TestMessage("flow1"), APPLICATION, 3);
+        Long id2 = flowManager.beginFlow(new TestMessage("flow2"), APPLICATION, 3);
+        Long id3 = flowManager.beginFlow(new TestMessage("flow3"), APPLICATION, 3);
+        for (Long id : new Long[] {id1, id2, id3}) {
+            acknowledgeDeferred(id, 3);
+        }
+        // duplicate acknowledgement
+        acknowledgeDeferred(id1, 1);
+        FlowInfo info = flowManager.findFlow(id1);
+        assertEquals(0, info.getAckCount());
+        assertEquals(4, info.getPartInfos().size());
+        assertFalse(flowManager.flowCompleted(id1));
+
+        assertEquals(3, flowCompactor.compact());
+        assertEquals(10, flowCompactor.getCompactedPartCount());
+        assertEquals(0, flowCompactor.compact());
+        for (Long id : new Long[] {id1, id2, id3}) {
+            info = flowManager.findFlow(id);
+            assertEquals(CLEAN.toString(), info.getStatus());
+            assertEquals(3, info.getAckCount());
+            assertEquals(3, info.getPartInfos().size());
+            assertFalse(info.isReplayable());
+            assertTrue(flowManager.flowCompleted(id));
+        }
+        assertEquals(2, flowManager.findFlow(id1).getPartInfos().stream()
+                .filter(partInfo -> partInfo.getPath().equals("0.0"))
+                .findFirst().get().getContributionCount());
+    }
+
+    @Test
+    public void testAcknowledgeFoldsDeferred() throws Exception {
+        Long id = flowManager.beginFlow(new TestMessage("flow"), APPLICATION, 3);
+        acknowledgeDeferred(id, 2);
+        TestMessage message = new TestMessage("flow");
+        message.setFlowId(id);
+        message.setSplitHistory(new SplitHistory().split(3)[2]);
+        flowManager.acknowledgeFlow(message);
+        FlowInfo info = flowManager.findFlow(id);
+        assertEquals(3, info.getAckCount());
+        assertFalse(info.isReplayable());
+        assertEquals(0, flowCompactor.compact());
+    }
+
+    @Test(expected = FlowException.class)
+    public void testAcknowledgeDeferredUnknownFlow() throws Exception {
+        acknowledgeDeferred(-1L, 1);
+    }
+
+    private void acknowledgeDeferred(Long flowId, int branches) {
+        SplitHistory[] histories = new SplitHistory().split(3);
+        for (int i = 0; i < branches; i++) {
+            TestMessage message = new TestMessage("branch");
+            message.setFlowId(flowId);
+            message.setSplitHistory(histories[i]);
+            flowManager.acknowledgeFlowDeferred(message);
+        }
+    }
+
+}
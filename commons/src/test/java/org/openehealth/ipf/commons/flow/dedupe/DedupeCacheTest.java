@@ -0,0 +1,138 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.dedupe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.FlowManager;
+import org.openehealth.ipf.commons.flow.FlowManagerBase;
+import org.openehealth.ipf.commons.flow.impl.TestMessage;
+import org.openehealth.ipf.commons.flow.repository.ConfigRepository;
+import org.openehealth.ipf.commons.flow.repository.FlowRepository;
+import org.openehealth.ipf.commons.flow.transfer.FlowPartInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Tests for {@link DedupeCache}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners( { DependencyInjectionTestExecutionListener.class })
+public class DedupeCacheTest {
+
+    private static final String APPLICATION = "dedupe";
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private FlowManager flowManager;
+
+    @Autowired
+    private FlowRepository flowRepository;
+
+    @Autowired
+    private ConfigRepository configRepository;
+
+    private DedupeCache dedupeCache;
+
+    @Before
+    public void setUp() throws Exception {
+        dedupeCache = new DedupeCache();
+        dedupeCache.setFlowRepository(flowRepository);
+        dedupeCache.setConfigRepository(configRepository);
+        dedupeCache.setTransactionManager(transactionManager);
+        dedupeCache.setFlushInterval(0L);
+        dedupeCache.afterPropertiesSet();
+        flowManagerBase().setDedupeCache(dedupeCache);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        flowManagerBase().setDedupeCache(null);
+        dedupeCache.destroy();
+        flowManager.setFlowFilterEnabled(APPLICATION, true);
+    }
+
+    @Test
+    public void testFilter() throws Exception {
+        TestMessage message = new TestMessage("dedupe");
+        Long flowId = flowManager.beginFlow(message, APPLICATION);
+        assertFalse(dedupeCache.filter(flowId, "0"));
+        flowManager.acknowledgeFlow(message);
+        assertTrue(dedupeCache.filter(flowId, "0"));
+        assertTrue(dedupeCache.filter(flowId, "0"));
+        assertFalse(dedupeCache.filter(flowId, "1"));
+        assertEquals(2L, dedupeCache.getHitCount());
+        assertEquals(2L, dedupeCache.getMissCount());
+        assertEquals(1, dedupeCache.getPendingCount());
+        assertEquals(0, filterCount(flowId));
+        assertEquals(1, dedupeCache.flush());
+        assertEquals(0, dedupeCache.getPendingCount());
+        assertEquals(2L, dedupeCache.getFlushedCount());
+        assertEquals(2, filterCount(flowId));
+        // filtering disabled
+        flowManager.setFlowFilterEnabled(APPLICATION, false);
+        assertFalse(dedupeCache.filter(flowId, "0"));
+    }
+
+    @Test
+    public void testFilterFlowUpdatesCache() throws Exception {
+        TestMessage message = new TestMessage("dedupe");
+        Long flowId = flowManager.beginFlow(message, APPLICATION);
+        flowManager.acknowledgeFlow(message);
+        dedupeCache.setExpiry(1L);
+        Thread.sleep(10L);
+        assertFalse(dedupeCache.filter(flowId, "0"));
+        dedupeCache.setExpiry(DedupeCache.DEFAULT_EXPIRY);
+        assertTrue(flowManager.filterFlow(message));
+        assertTrue(dedupeCache.filter(flowId, "0"));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        dedupeCache.setMaxSize(2);
+        dedupeCache.acknowledged(1L, "0.0", APPLICATION);
+        dedupeCache.acknowledged(1L, "0.1", APPLICATION);
+        dedupeCache.acknowledged(1L, "0.2", APPLICATION);
+        assertEquals(2, dedupeCache.getSize());
+        assertEquals(1L, dedupeCache.getEvictionCount());
+        assertFalse(dedupeCache.filter(1L, "0.0"));
+        assertTrue(dedupeCache.filter(1L, "0.2"));
+    }
+
+    private int filterCount(Long flowId) {
+        FlowPartInfo info = flowManager.findFlow(flowId).getPartInfos().iterator().next();
+        return info.getFilterCount();
+    }
+
+    private FlowManagerBase flowManagerBase() {
+        return AopTestUtils.getTargetObject(flowManager);
+    }
+
+}
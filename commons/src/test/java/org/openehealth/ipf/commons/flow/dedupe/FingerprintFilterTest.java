@@ -0,0 +1,138 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.dedupe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.FlowManager;
+import org.openehealth.ipf.commons.flow.FlowManagerBase;
+import org.openehealth.ipf.commons.flow.impl.TestMessage;
+import org.openehealth.ipf.commons.flow.repository.FlowRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Tests for {@link FingerprintFilter} and duplicate flow lookup.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners( { DependencyInjectionTestExecutionListener.class })
+public class FingerprintFilterTest {
+
+    private static final String APPLICATION = "fingerprint";
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private FlowManager flowManager;
+
+    @Autowired
+    private FlowRepository flowRepository;
+
+    private FingerprintFilter fingerprintFilter;
+
+    @Before
+    public void setUp() throws Exception {
+        fingerprintFilter = createFilter();
+        flowManagerBase().setFingerprintFilter(fingerprintFilter);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        flowManagerBase().setFingerprintFilter(null);
+    }
+
+    @Test
+    public void testFindDuplicate() throws Exception {
+        String fingerprint = fingerprint();
+        assertNull(flowManager.findDuplicateFlowId(APPLICATION, fingerprint, 60000L));
+        assertEquals(1L, fingerprintFilter.getNegativeCount());
+        Long flowId1 = flowManager.beginFlow(new TestMessage("a"), APPLICATION, -1, fingerprint, null);
+        assertEquals(flowId1, flowManager.findDuplicateFlowId(APPLICATION, fingerprint, 60000L));
+        assertNull(flowManager.findDuplicateFlowId("other", fingerprint, 60000L));
+        assertEquals(1L, fingerprintFilter.getMissCount());
+        Long flowId2 = flowManager.beginFlow(new TestMessage("a"), APPLICATION, -1, fingerprint, flowId1);
+        // oldest flow is the original
+        assertEquals(flowId1, flowManager.findDuplicateFlowId(APPLICATION, fingerprint, 60000L));
+        assertNull(flowManager.findFlow(flowId1).getOriginalFlowId());
+        assertEquals(flowId1, flowManager.findFlow(flowId2).getOriginalFlowId());
+        // outside retention window
+        Thread.sleep(10L);
+        assertNull(flowManager.findDuplicateFlowId(APPLICATION, fingerprint, 5L));
+    }
+
+    @Test
+    public void testLoadAndRotate() throws Exception {
+        String fingerprint = fingerprint();
+        flowManager.beginFlow(new TestMessage("b"), APPLICATION, -1, fingerprint, null);
+        FingerprintFilter loaded = createFilter();
+        assertTrue(loaded.mightContain(fingerprint));
+        assertFalse(loaded.mightContain(fingerprint()));
+        loaded.setRetention(10L);
+        Thread.sleep(20L);
+        // kept in previous filter
+        assertTrue(loaded.mightContain(fingerprint));
+        Thread.sleep(20L);
+        assertFalse(loaded.mightContain(fingerprint));
+    }
+
+    @Test
+    public void testFalsePositiveProbability() throws Exception {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.add("in-" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain("in-" + i));
+            if (filter.mightContain("out-" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 200);
+    }
+
+    private FingerprintFilter createFilter() throws Exception {
+        FingerprintFilter filter = new FingerprintFilter();
+        filter.setFlowRepository(flowRepository);
+        filter.setTransactionManager(transactionManager);
+        filter.setExpectedInsertions(1000);
+        filter.afterPropertiesSet();
+        return filter;
+    }
+
+    private FlowManagerBase flowManagerBase() {
+        return AopTestUtils.getTargetObject(flowManager);
+    }
+
+    private static String fingerprint() {
+        return Long.toHexString(System.nanoTime()) + Long.toHexString(Double.doubleToLongBits(Math.random()));
+    }
+
+}
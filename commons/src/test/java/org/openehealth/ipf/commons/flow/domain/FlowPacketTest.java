@@ -0,0 +1,126 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.hibernate.Hibernate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.repository.FlowRepository;
+import org.openehealth.ipf.commons.flow.tx.TestTransactionManager;
+import org.openehealth.ipf.commons.flow.util.Flows;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+
+/**
+ * Tests for storing the {@link Flow} packet in a separate table.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners( { DependencyInjectionTestExecutionListener.class })
+public class FlowPacketTest {
+
+    private static final String COUNT_QUERY = "SELECT COUNT(*) FROM PLATFORM.T_FLOW_PACKET WHERE C_ID = ?";
+
+    @Autowired
+    private TestTransactionManager testTransactionManager;
+
+    @Autowired
+    private FlowRepository flowRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private Long id;
+
+    @Before
+    public void setUp() throws Exception {
+        testTransactionManager.beginTransaction();
+        Flow flow = Flows.createFlow("packet", 0);
+        flow.setAckCountExpected(1);
+        flowRepository.persist(flow);
+        id = flow.getIdentifier();
+        testTransactionManager.commitTransaction();
+        testTransactionManager.beginTransaction();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        testTransactionManager.endTransaction();
+    }
+
+    @Test
+    public void testLockDoesNotReadPacket() throws Exception {
+        Flow flow = flowRepository.lock(id);
+        flow.acknowledge("0", false);
+        assertTrue(flow.isReplayable());
+        assertFalse(Hibernate.isInitialized(flow.getFlowPacket()));
+        testTransactionManager.commitTransaction();
+        testTransactionManager.beginTransaction();
+        flow = flowRepository.find(id);
+        assertEquals("packet", new String(flow.prepareReplay()));
+    }
+
+    @Test
+    public void testCleanupRemovesPacket() throws Exception {
+        Flow flow = flowRepository.lock(id);
+        Long packetId = flow.getFlowPacket().getIdentifier();
+        assertEquals(id, packetId);
+        flow.acknowledge("0", true);
+        flowRepository.removeReleasedPacket(flow);
+        testTransactionManager.commitTransaction();
+        testTransactionManager.beginTransaction();
+        flow = flowRepository.find(id);
+        assertFalse(flow.isReplayable());
+        assertNull(flow.getPacket());
+        assertEquals(0, (int)jdbcTemplate.queryForObject(COUNT_QUERY, new Object[] {packetId}, Integer.class));
+    }
+
+    @Test
+    public void testUpdatePacket() throws Exception {
+        Flow flow = flowRepository.find(id);
+        Long packetId = flow.getFlowPacket().getIdentifier();
+        flow.setPacket("updated".getBytes());
+        testTransactionManager.commitTransaction();
+        testTransactionManager.beginTransaction();
+        flow = flowRepository.find(id);
+        assertEquals(packetId, flow.getFlowPacket().getIdentifier());
+        assertEquals("updated", new String(flow.getPacket()));
+    }
+
+    @Test
+    public void testReplacePacket() throws Exception {
+        Flow flow = flowRepository.lock(id);
+        flow.setPacket(null);
+        flow.setPacket("replaced".getBytes());
+        flowRepository.removeReleasedPacket(flow);
+        testTransactionManager.commitTransaction();
+        testTransactionManager.beginTransaction();
+        flow = flowRepository.find(id);
+        assertEquals("replaced", new String(flow.getPacket()));
+    }
+
+}
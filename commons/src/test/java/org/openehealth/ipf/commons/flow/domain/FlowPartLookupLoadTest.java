@@ -0,0 +1,110 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.openehealth.ipf.commons.flow.domain.FlowStatus.CLEAN;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the in-memory cost of part lookups and acknowledgements of flows
+ * with 10, 100 and 10,000 parts against a linear scan of the parts.
+ */
+public class FlowPartLookupLoadTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowPartLookupLoadTest.class);
+
+    private static final int NUM_LOOKUPS = 1000000;
+
+    private static final int[] NUM_PARTS = new int[] {10, 100, 10000};
+
+    @Test
+    public void testLookup() throws Exception {
+        // warm up
+        for (int numParts : NUM_PARTS) {
+            lookup(createFlow(numParts), numParts, NUM_LOOKUPS / 10, false);
+            lookup(createFlow(numParts), numParts, NUM_LOOKUPS / 10, true);
+        }
+        for (int numParts : NUM_PARTS) {
+            Flow flow = createFlow(numParts);
+            int numLookups = NUM_LOOKUPS / Math.max(1, numParts / 100);
+            double scan = lookup(flow, numParts, numLookups, true);
+            double indexed = lookup(flow, numParts, NUM_LOOKUPS, false);
+            LOG.info("{} parts: {} ns/lookup (scan), {} ns/lookup (index)",
+                    numParts, String.format("%.1f", scan), String.format("%.1f", indexed));
+        }
+    }
+
+    @Test
+    public void testAcknowledge() throws Exception {
+        for (int numParts : NUM_PARTS) {
+            createFlow(numParts);
+        }
+        for (int numParts : NUM_PARTS) {
+            long start = System.nanoTime();
+            Flow flow = createFlow(numParts);
+            double build = (System.nanoTime() - start) / (double)numParts;
+            start = System.nanoTime();
+            for (int i = 0; i < NUM_LOOKUPS; i++) {
+                flow.acknowledge(path(i % numParts), false);
+            }
+            double update = (System.nanoTime() - start) / (double)NUM_LOOKUPS;
+            LOG.info("{} parts: {} ns/ack (new part), {} ns/ack (existing part)",
+                    numParts, String.format("%.1f", build), String.format("%.1f", update));
+        }
+    }
+
+    private static Flow createFlow(int numParts) {
+        Flow flow = new Flow("load");
+        for (int i = 0; i < numParts; i++) {
+            flow.acknowledge(path(i), false);
+        }
+        assertEquals(numParts, flow.getParts().size());
+        return flow;
+    }
+
+    private static double lookup(Flow flow, int numParts, int numLookups, boolean scan) {
+        long hits = 0L;
+        long start = System.nanoTime();
+        for (int i = 0; i < numLookups; i++) {
+            String path = path((int)((i * 7919L) % numParts));
+            FlowPart part = scan ? scan(flow, path) : flow.getPart(path, CLEAN);
+            if (part != null) {
+                hits++;
+            }
+        }
+        double result = (System.nanoTime() - start) / (double)numLookups;
+        assertEquals(numLookups, hits);
+        return result;
+    }
+
+    private static FlowPart scan(Flow flow, String path) {
+        for (FlowPart part : flow.getParts()) {
+            if (path.equals(part.getPath()) && part.getStatus() == CLEAN) {
+                return part;
+            }
+        }
+        return null;
+    }
+
+    private static String path(int i) {
+        return "0." + i;
+    }
+
+}
@@ -167,6 +167,77 @@ public class FlowTest {
         assertEquals(date2, flow.getLatestUpdate());
 	}
 	
+	@Test
+	public void testStatusCounters() throws Exception {
+	    Flow flow = new Flow("test");
+	    assertNull(flow.getUpdateTime());
+	    flow.acknowledge("0.0", false);
+	    flow.acknowledge("0.0", false);
+	    flow.invalidate("0.1");
+	    assertEquals(1, flow.getStatusCount(CLEAN));
+	    assertEquals(1, flow.getStatusCount(ERROR));
+	    assertEquals(ERROR, flow.getStatus());
+	    assertEquals(flow.getPart("0.1").getContributionTime(), flow.getUpdateTime());
+	    flow.clearErrorStatus();
+	    assertEquals(1, flow.getStatusCount(CLEAN));
+	    assertEquals(0, flow.getStatusCount(ERROR));
+	    assertEquals(CLEAN, flow.getStatus());
+	}
+
+	@Test
+	public void testCompact() throws Exception {
+	    Flow flow = new Flow("test");
+	    flow.setPacket("blah".getBytes());
+	    flow.setAckCountExpected(2);
+	    flow.acknowledge("0.0", true);
+	    flow.getParts().add(new FlowPart(1L, "0.0"));
+	    flow.getParts().add(new FlowPart(1L, "0.1"));
+	    assertEquals(1, flow.getStatusCount(CLEAN));
+	    assertEquals(2, flow.compact(true));
+	    assertEquals(2, flow.getStatusCount(CLEAN));
+	    assertEquals(2, flow.getParts().size());
+	    assertEquals(2, flow.getPart("0.0", CLEAN).getContributionCount());
+	    assertFalse(flow.isReplayable());
+	    assertEquals(0, flow.compact(true));
+	}
+
+	@Test
+	public void testFlowInfoWithoutParts() throws Exception {
+	    Flow flow = createFlow("blah", 2);
+	    FlowInfo info = flow.getInfo(false, false);
+	    assertEquals(2, info.getAckCount());
+	    assertTrue(info.getPartInfos().isEmpty());
+	    assertEquals(2, flow.getInfo(false, true).getPartInfos().size());
+	}
+
+	@Test
+	public void testPartLookup() throws Exception {
+	    Flow flow = new Flow("test");
+	    for (int i = 0; i < 100; i++) {
+	        flow.acknowledge("0." + i, false);
+	    }
+	    flow.invalidate("0.5");
+	    assertEquals(101, flow.getParts().size());
+	    assertEquals(CLEAN, flow.getPart("0.42").getStatus());
+	    assertEquals(ERROR, flow.getPart("0.5", ERROR).getStatus());
+	    assertEquals(CLEAN, flow.getPart("0.5").getStatus());
+	    assertNull(flow.getPart("0.100", CLEAN));
+	    // direct changes of the parts collection and its parts
+	    FlowPart part = flow.getPart("0.42");
+	    part.setStatus(ERROR);
+	    assertNull(flow.getPart("0.42", CLEAN));
+	    flow.getParts().remove(part);
+	    assertNull(flow.getPart("0.42"));
+	    flow.getParts().add(new FlowPart(1L, "0.42"));
+	    assertEquals(1, flow.getPart("0.42", CLEAN).getContributionCount());
+	    assertEquals(1, flow.compact(false));
+	    flow.acknowledge("0.42", false);
+	    assertEquals(2, flow.getPart("0.42", CLEAN).getContributionCount());
+	    flow.clearErrorStatus();
+	    assertNull(flow.getPart("0.5", ERROR));
+	    assertEquals(100, flow.getParts().size());
+	}
+
 	@Test
     public void testGetNullPart() throws IOException {
         Flow flow = createFlow("blah");
@@ -16,6 +16,8 @@
 package org.openehealth.ipf.commons.flow.jmx;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.openehealth.ipf.commons.flow.util.Flows.createFlow;
 
 import java.io.IOException;
@@ -39,6 +41,7 @@ import org.quartz.JobExecutionException;
 import org.quartz.JobListener;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.ContextHierarchy;
 import org.springframework.test.context.TestExecutionListeners;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
@@ -49,7 +52,11 @@ import org.springframework.test.context.support.DependencyInjectionTestExecution
  */
 @RunWith(SpringJUnit4ClassRunner.class)
 @TestExecutionListeners( { DependencyInjectionTestExecutionListener.class })
-@ContextConfiguration(locations = { "/test-tx-explicit.xml", "/test-purger.xml" })
+// share the session factory (and database schema) of the other tests
+@ContextHierarchy({
+    @ContextConfiguration(locations = { "/test-tx-explicit.xml" }),
+    @ContextConfiguration(locations = { "/test-purger.xml" })
+})
 public class FlowPurgerMBeanTest {
 
     @Autowired
@@ -74,6 +81,10 @@ public class FlowPurgerMBeanTest {
     @Before
     public void setUp() throws Exception {
         testTransactionManager.beginTransaction();
+        // remove flows of other tests
+        removeAll();
+        testTransactionManager.commitTransaction();
+        testTransactionManager.beginTransaction();
     }
 
     @After
@@ -131,6 +142,27 @@ public class FlowPurgerMBeanTest {
         flowPurgerMBean.unschedule();
     }
     
+    @Test
+    public void testExecuteRanges() throws Exception {
+        persistFlowHistory();
+        flowPurgerMBean.getScheduler().getListenerManager().addJobListener(new PurgeJobListener(latch));
+        flowPurgerMBean.setDoNotPurgeErrorFlows(false);
+        flowPurgerMBean.setPurgeFlowsOlderThan("9d");
+        flowPurgerMBean.setPurgeRanges(2);
+        try {
+            flowPurgerMBean.execute();
+            latch.await(WAIT_TIMEOUT, TimeUnit.SECONDS);
+        } finally {
+            flowPurgerMBean.setPurgeRanges(1);
+        }
+        assertEquals(1, flowRepository.findFlows(allFlows).size());
+        assertFalse(flowPurgerMBean.isPurgeRunning());
+        assertEquals(5L, flowPurgerMBean.getPurgedFlows());
+        assertEquals(0L, flowPurgerMBean.getPurgeBacklog());
+        assertTrue(flowPurgerMBean.getPurgeRate() > 0.0);
+        flowPurgerMBean.unschedule();
+    }
+    
     private void removeAll(){
         List<Flow> flows = flowRepository.findFlows(allFlows);
         for (Flow flow: flows){
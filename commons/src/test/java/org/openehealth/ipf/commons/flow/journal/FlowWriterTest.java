@@ -0,0 +1,239 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.openehealth.ipf.commons.flow.domain.FlowStatus.CLEAN;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.FlowManager;
+import org.openehealth.ipf.commons.flow.FlowManagerBase;
+import org.openehealth.ipf.commons.flow.ManagedMessage;
+import org.openehealth.ipf.commons.flow.config.ApplicationConfig;
+import org.openehealth.ipf.commons.flow.domain.Flow;
+import org.openehealth.ipf.commons.flow.impl.TestMessage;
+import org.openehealth.ipf.commons.flow.packet.PacketCodec;
+import org.openehealth.ipf.commons.flow.packet.PacketCompression;
+import org.openehealth.ipf.commons.flow.repository.FlowRepository;
+import org.openehealth.ipf.commons.flow.transfer.FlowInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Tests for {@link FlowWriter} and {@link FlowJournal}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners( { DependencyInjectionTestExecutionListener.class })
+public class FlowWriterTest {
+
+    private static final String APPLICATION = "test";
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private FlowManager flowManager;
+
+    @Autowired
+    private FlowRepository flowRepository;
+
+    private FlowWriter flowWriter;
+
+    private TransactionTemplate transactionTemplate;
+
+    @Before
+    public void setUp() throws Exception {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        FlowJournal journal = new FlowJournal();
+        journal.setDirectory(new File("target/flow-journal"));
+        flowWriter = new FlowWriter();
+        flowWriter.setFlowRepository(flowRepository);
+        flowWriter.setTransactionManager(transactionManager);
+        flowWriter.setJournal(journal);
+        flowWriter.setBatchSize(50);
+        flowWriter.afterPropertiesSet();
+        flowManagerBase().setFlowWriter(flowWriter);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        flowManagerBase().setFlowWriter(null);
+        flowWriter.destroy();
+    }
+
+    @Test
+    public void testBeginAsyncAndAcknowledge() throws Exception {
+        ManagedMessage message = new TestMessage("async");
+        Long id = flowManager.beginFlowAsync(message, APPLICATION, FlowInfo.ACK_COUNT_EXPECTED_UNDEFINED);
+        assertEquals(id, message.getFlowId());
+        // waits for the flow to be written
+        flowManager.acknowledgeFlow(message);
+        FlowInfo info = flowManager.findFlow(id, true);
+        assertEquals(APPLICATION, info.getApplication());
+        assertEquals(CLEAN.toString(), info.getStatus());
+        assertEquals("Rendered: async", info.getText());
+    }
+
+    @Test
+    public void testBatches() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            ids.add(flowManager.beginFlowAsync(new TestMessage("batch" + i), APPLICATION, 1));
+        }
+        for (Long id : ids) {
+            flowWriter.await(id);
+        }
+        assertEquals(200, flowWriter.getWrittenCount());
+        assertTrue(flowWriter.getBatchCount() < 200);
+        assertEquals(0, flowWriter.getPendingCount());
+        assertEquals(1, flowWriter.getJournal().getSegmentCount());
+        transactionTemplate.execute(status -> {
+            for (Long id : ids) {
+                assertEquals(1, flowRepository.find(id).getAckCountExpected());
+            }
+            return null;
+        });
+    }
+
+    @Test
+    public void testBeginAsyncCompressed() throws Exception {
+        transactionTemplate.execute(status -> {
+            ApplicationConfig config = flowManager.getApplicationConfig("compressed-async");
+            config.setPacketCompression(PacketCompression.DEFLATE);
+            config.setPacketCompressionThreshold(10);
+            flowManager.mergeApplicationConfig(config);
+            return null;
+        });
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            text.append("compressible");
+        }
+        Long id = flowManager.beginFlowAsync(new TestMessage(text.toString()), "compressed-async", 1);
+        flowWriter.await(id);
+        transactionTemplate.execute(status -> {
+            byte[] packet = flowRepository.find(id).getPacket();
+            assertTrue(PacketCodec.isEncoded(packet));
+            assertEquals(text.toString(), new String(PacketCodec.decode(packet)));
+            return null;
+        });
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        File directory = new File("target/flow-journal-recovery");
+        FlowJournal journal = new FlowJournal();
+        journal.setDirectory(directory);
+        journal.open();
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Flow flow = new Flow(APPLICATION);
+            flowRepository.assignIdentifier(flow);
+            flow.setPacket(("packet" + i).getBytes());
+            flow.setFlowMessageText("text" + i);
+            journal.append(flow);
+            ids.add(flow.getIdentifier());
+        }
+        // simulate crash (flows appended but not released)
+        journal.close();
+
+        FlowJournal recoveryJournal = new FlowJournal();
+        recoveryJournal.setDirectory(directory);
+        FlowWriter recoveryWriter = new FlowWriter();
+        recoveryWriter.setFlowRepository(flowRepository);
+        recoveryWriter.setTransactionManager(transactionManager);
+        recoveryWriter.setJournal(recoveryJournal);
+        recoveryWriter.afterPropertiesSet();
+        recoveryWriter.destroy();
+
+        transactionTemplate.execute(status -> {
+            for (int i = 0; i < ids.size(); i++) {
+                Flow flow = flowRepository.find(ids.get(i));
+                assertEquals("packet" + i, new String(flow.getPacket()));
+                assertEquals("text" + i, flow.getFlowMessageText());
+            }
+            return null;
+        });
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testRecoveryFailure() throws Exception {
+        File directory = new File("target/flow-journal-recovery-failure");
+        FlowJournal journal = new FlowJournal();
+        journal.setDirectory(directory);
+        journal.open();
+        Flow flow = new Flow(APPLICATION);
+        flowRepository.assignIdentifier(flow);
+        flow.setPacket("packet".getBytes());
+        journal.append(flow);
+        journal.close();
+
+        // database unavailable during recovery
+        FlowRepository failingRepository = (FlowRepository) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { FlowRepository.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("persist")) {
+                        throw new IllegalStateException("database unavailable");
+                    }
+                    try {
+                        return method.invoke(flowRepository, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        recover(directory, failingRepository);
+        assertEquals(1, directory.listFiles().length);
+
+        recover(directory, flowRepository);
+        transactionTemplate.execute(status -> {
+            assertEquals("packet", new String(flowRepository.find(flow.getIdentifier()).getPacket()));
+            return null;
+        });
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    private void recover(File directory, FlowRepository repository) throws Exception {
+        FlowJournal recoveryJournal = new FlowJournal();
+        recoveryJournal.setDirectory(directory);
+        FlowWriter recoveryWriter = new FlowWriter();
+        recoveryWriter.setFlowRepository(repository);
+        recoveryWriter.setTransactionManager(transactionManager);
+        recoveryWriter.setJournal(recoveryJournal);
+        recoveryWriter.afterPropertiesSet();
+        recoveryWriter.destroy();
+    }
+
+    private FlowManagerBase flowManagerBase() {
+        return AopTestUtils.getTargetObject(flowManager);
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.packet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link PacketCodec}.
+ */
+public class PacketCodecTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] packet = serializedPacket(100);
+        for (PacketCompression compression : PacketCompression.values()) {
+            byte[] encoded = PacketCodec.encode(packet, compression, 0);
+            assertArrayEquals(packet, PacketCodec.decode(encoded));
+        }
+        byte[] encoded = PacketCodec.encode(packet, PacketCompression.DEFLATE, 0);
+        assertTrue(PacketCodec.isEncoded(encoded));
+        assertTrue(encoded.length < packet.length);
+    }
+
+    @Test
+    public void testLegacyPacket() throws Exception {
+        byte[] packet = serializedPacket(1);
+        assertFalse(PacketCodec.isEncoded(packet));
+        assertSame(packet, PacketCodec.decode(packet));
+        assertNull(PacketCodec.decode(null));
+        byte[] small = "IPF".getBytes();
+        assertSame(small, PacketCodec.decode(small));
+    }
+
+    @Test
+    public void testLegacyPacketWithMagic() throws Exception {
+        // raw packets written by earlier versions may start with the magic bytes
+        byte[] raw = "IPF\u0001 raw packet with an IPF prefix".getBytes("UTF-8");
+        assertFalse(PacketCodec.isEncoded(raw));
+        assertSame(raw, PacketCodec.decode(raw));
+        // uncompressed length beyond the deflate compression ratio
+        byte[] encoded = PacketCodec.encode(serializedPacket(100), PacketCompression.DEFLATE, 0);
+        encoded[PacketCodec.MAGIC.length + 1] = 0x7f;
+        assertFalse(PacketCodec.isEncoded(encoded));
+        assertSame(encoded, PacketCodec.decode(encoded));
+    }
+
+    @Test
+    public void testNotCompressed() throws Exception {
+        byte[] packet = serializedPacket(100);
+        assertSame(packet, PacketCodec.encode(packet, PacketCompression.NONE, 0));
+        assertSame(packet, PacketCodec.encode(packet, PacketCompression.DEFLATE, packet.length + 1));
+        // incompressible data is stored unchanged
+        byte[] random = new byte[2048];
+        new Random(0L).nextBytes(random);
+        assertSame(random, PacketCodec.encode(random, PacketCompression.DEFLATE, 0));
+    }
+
+    @Test(expected = PacketFormatException.class)
+    public void testCorruptPacket() throws Exception {
+        byte[] encoded = PacketCodec.encode(serializedPacket(100), PacketCompression.DEFLATE, 0);
+        PacketCodec.decode(Arrays.copyOf(encoded, encoded.length / 2));
+    }
+
+    static byte[] serializedPacket(int segments) throws Exception {
+        StringBuilder message = new StringBuilder("MSH|^~\\&|SAP-ISH|HZL|||20040805152637||ADT^A01|123456|P|2.2|||AL|NE\r");
+        for (int i = 0; i < segments; i++) {
+            message.append("OBX|").append(i).append("|ST|8625-6^P-R interval^LN||").append(i * 7)
+                    .append("|ms|||||F|||20040805152637\r");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message.toString().getBytes("UTF-8"));
+        }
+        return bytes.toByteArray();
+    }
+
+}
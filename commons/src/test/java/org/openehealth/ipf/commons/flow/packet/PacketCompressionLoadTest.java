@@ -0,0 +1,69 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.packet;
+
+import static org.openehealth.ipf.commons.flow.packet.PacketCodecTest.serializedPacket;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the encoding cost and the resulting packet sizes of the
+ * available {@link PacketCompression} codecs.
+ */
+public class PacketCompressionLoadTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PacketCompressionLoadTest.class);
+
+    private static final int ITERATIONS = 20000;
+
+    @Test
+    public void testCompression() throws Exception {
+        for (int segments : new int[] {10, 50, 200}) {
+            byte[] packet = serializedPacket(segments);
+            for (PacketCompression compression : PacketCompression.values()) {
+                // warm up
+                run(packet, compression, ITERATIONS / 4);
+                long nanos = run(packet, compression, ITERATIONS);
+                int length = PacketCodec.encode(packet, compression, 0).length;
+                LOG.info("{} bytes, {}: {} bytes written ({}%), {} us/encode, {} us/decode",
+                        packet.length, compression, length, 
+                        100L * length / packet.length,
+                        String.format("%.1f", nanos / 1000.0 / ITERATIONS),
+                        String.format("%.1f", decode(packet, compression) / 1000.0 / ITERATIONS));
+            }
+        }
+    }
+
+    private static long run(byte[] packet, PacketCompression compression, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            PacketCodec.encode(packet, compression, 0);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long decode(byte[] packet, PacketCompression compression) {
+        byte[] encoded = PacketCodec.encode(packet, compression, 0);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            PacketCodec.decode(encoded);
+        }
+        return System.nanoTime() - start;
+    }
+
+}
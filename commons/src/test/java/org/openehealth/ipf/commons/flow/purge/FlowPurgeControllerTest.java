@@ -0,0 +1,129 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.purge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link FlowPurgeController}.
+ */
+public class FlowPurgeControllerTest {
+
+    private FlowPurgeController controller;
+
+    @Before
+    public void setUp() {
+        controller = new FlowPurgeController();
+        controller.setTxTimeBudget(100L);
+    }
+
+    @Test
+    public void testGrowAndShrink() throws Exception {
+        assertEquals(100, controller.getBatchSize());
+        controller.purged(100, 10L);
+        assertEquals(150, controller.getBatchSize());
+        // partial batches don't grow
+        controller.purged(20, 10L);
+        assertEquals(150, controller.getBatchSize());
+        controller.purged(150, 500L);
+        assertEquals(75, controller.getBatchSize());
+        assertTrue(controller.isThrottled());
+        for (int i = 0; i < 10; i++) {
+            controller.purged(controller.getBatchSize(), 500L);
+        }
+        assertEquals(FlowPurgeController.DEFAULT_MIN_BATCH_SIZE, controller.getBatchSize());
+        controller.setMaxBatchSize(12);
+        controller.purged(10, 10L);
+        controller.purged(15, 10L);
+        assertEquals(12, controller.getBatchSize());
+        assertFalse(controller.isThrottled());
+    }
+
+    @Test
+    public void testLiveLatency() throws Exception {
+        controller.setLiveLatencyThreshold(50L);
+        controller.liveOperation(TimeUnit.MILLISECONDS.toNanos(10L));
+        controller.purged(100, 10L);
+        assertEquals(150, controller.getBatchSize());
+        for (int i = 0; i < 10; i++) {
+            controller.liveOperation(TimeUnit.MILLISECONDS.toNanos(500L));
+        }
+        controller.purged(150, 10L);
+        assertTrue(controller.getLiveLatency() > 50.0);
+        assertEquals(75, controller.getBatchSize());
+        assertTrue(controller.isThrottled());
+    }
+
+    @Test
+    public void testLiveLatencyDecay() throws Exception {
+        controller.setLiveLatencyThreshold(50L);
+        controller.liveOperation(TimeUnit.MILLISECONDS.toNanos(500L));
+        controller.purged(100, 10L);
+        assertEquals(50, controller.getBatchSize());
+        // no live operations
+        for (int i = 0; i < 10; i++) {
+            controller.purged(controller.getBatchSize(), 10L);
+        }
+        assertTrue(controller.getLiveLatency() < 50.0);
+        assertTrue(controller.getBatchSize() > 50);
+        assertFalse(controller.isThrottled());
+    }
+
+    @Test
+    public void testRowsPerSecond() throws Exception {
+        controller.setRowsPerSecond(1000.0);
+        long start = System.currentTimeMillis();
+        controller.purged(200, 0L);
+        assertTrue(System.currentTimeMillis() - start >= 150L);
+        assertTrue(controller.getPauseTime() >= 150L);
+        assertTrue(controller.isThrottled());
+    }
+
+    @Test
+    public void testRowsPerSecondShared() throws Exception {
+        controller.setRowsPerSecond(1000.0);
+        Thread[] threads = new Thread[2];
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    controller.purged(100, 0L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // 200 flows at 1000 flows per second (not 100 per thread)
+        assertTrue(System.currentTimeMillis() - start >= 180L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBatchSize() {
+        controller.setBatchSize(0);
+    }
+
+}
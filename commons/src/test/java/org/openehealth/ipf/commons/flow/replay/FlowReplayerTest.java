@@ -0,0 +1,181 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.FlowManager;
+import org.openehealth.ipf.commons.flow.FlowManagerBase;
+import org.openehealth.ipf.commons.flow.impl.TestMessage;
+import org.openehealth.ipf.commons.flow.repository.FlowRepository;
+import org.openehealth.ipf.commons.flow.transfer.FlowInfoFinderCriteria;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Tests for {@link FlowReplayer}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners( { DependencyInjectionTestExecutionListener.class })
+public class FlowReplayerTest {
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private FlowManager flowManager;
+
+    @Autowired
+    private FlowRepository flowRepository;
+
+    private FlowReplayer flowReplayer;
+
+    @Before
+    public void setUp() throws Exception {
+        flowReplayer = new FlowReplayer();
+        flowReplayer.setFlowRepository(flowRepository);
+        flowReplayer.setTransactionManager(transactionManager);
+        flowReplayer.setChunkSize(10);
+        flowReplayer.setConcurrency(3);
+        flowReplayer.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        flowManagerBase().setFlowReplayer(null);
+        flowManagerBase().setReplayThrottle(null);
+        flowReplayer.destroy();
+    }
+
+    @Test
+    public void testReplayFlows() throws Exception {
+        String application = application();
+        List<Long> flowIds = beginFlows(application, 25);
+        List<ReplayProgress> progress = Collections.synchronizedList(new ArrayList<>());
+        flowReplayer.addListener(progress::add);
+        flowManagerBase().setFlowReplayer(flowReplayer);
+        assertEquals(25, flowManager.replayFlows(new FlowInfoFinderCriteria(new Date(0L), null, application)));
+        for (Long flowId : flowIds) {
+            assertEquals(1, flowManager.findFlow(flowId).getReplayCount());
+        }
+        assertEquals(3, progress.size());
+        ReplayProgress last = progress.get(2);
+        assertTrue(last.isDone());
+        assertEquals(25, last.getReplayedFlows());
+        assertEquals(0, last.getFailedFlows());
+    }
+
+    @Test
+    public void testFailedChunkIsolated() throws Exception {
+        List<Long> flowIds = beginFlows(application(), 30);
+        Long failing = flowIds.get(15);
+        int replayed = flowReplayer.replay(flowIds, flowId -> {
+            flowManager.replayFlow(flowId);
+            if (flowId.equals(failing)) {
+                throw new IllegalStateException("test");
+            }
+            return true;
+        });
+        assertEquals(20, replayed);
+        assertEquals(1L, flowReplayer.getFailedChunkCount());
+        assertEquals(10L, flowReplayer.getFailedCount());
+        for (int i = 0; i < flowIds.size(); i++) {
+            int expected = i / 10 == 1 ? 0 : 1;
+            assertEquals(expected, flowManager.findFlow(flowIds.get(i)).getReplayCount());
+        }
+    }
+
+    @Test
+    public void testOrdered() throws Exception {
+        String application1 = application();
+        String application2 = application();
+        List<Long> flowIds1 = beginFlows(application1, 25);
+        List<Long> flowIds2 = beginFlows(application2, 25);
+        List<Long> flowIds = new ArrayList<>(flowIds1);
+        flowIds.addAll(flowIds2);
+        Collections.shuffle(flowIds);
+        Map<Long, Long> order = new ConcurrentHashMap<>();
+        List<Long> replayed = Collections.synchronizedList(new ArrayList<>());
+        flowReplayer.setOrdered(true);
+        flowReplayer.replay(flowIds, flowId -> {
+            order.put(flowId, (long)replayed.size());
+            replayed.add(flowId);
+            return true;
+        });
+        assertEquals(50, replayed.size());
+        assertAscending(flowIds1, order);
+        assertAscending(flowIds2, order);
+    }
+
+    @Test
+    public void testThrottledReplay() throws Exception {
+        String application = application();
+        List<Long> flowIds = beginFlows(application, 11);
+        ReplayThrottle throttle = new ReplayThrottle();
+        throttle.setRate(application, 20.0);
+        flowManagerBase().setFlowReplayer(flowReplayer);
+        flowManagerBase().setReplayThrottle(throttle);
+        long start = System.currentTimeMillis();
+        assertEquals(11, flowManager.replayFlows(new FlowInfoFinderCriteria(new Date(0L), null, application)));
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("elapsed " + elapsed, elapsed >= 450L);
+        // single replays aren't throttled
+        long throttled = throttle.getThrottledCount();
+        flowManager.replayFlow(flowIds.get(0));
+        assertEquals(throttled, throttle.getThrottledCount());
+    }
+
+    private List<Long> beginFlows(String application, int count) {
+        List<Long> flowIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            flowIds.add(flowManager.beginFlow(new TestMessage("replay"), application));
+        }
+        return flowIds;
+    }
+
+    private FlowManagerBase flowManagerBase() {
+        return AopTestUtils.getTargetObject(flowManager);
+    }
+
+    private static void assertAscending(List<Long> flowIds, Map<Long, Long> order) {
+        for (int i = 1; i < flowIds.size(); i++) {
+            assertTrue(order.get(flowIds.get(i - 1)) < order.get(flowIds.get(i)));
+        }
+    }
+
+    private static String application() {
+        return "replay-" + System.nanoTime();
+    }
+
+}
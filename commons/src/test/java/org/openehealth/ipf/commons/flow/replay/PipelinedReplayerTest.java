@@ -0,0 +1,155 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.replay;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.FlowManager;
+import org.openehealth.ipf.commons.flow.FlowManagerBase;
+import org.openehealth.ipf.commons.flow.impl.TestMessage;
+import org.openehealth.ipf.commons.flow.packet.PacketCodec;
+import org.openehealth.ipf.commons.flow.repository.FlowRepository;
+import org.openehealth.ipf.commons.flow.transfer.FlowInfoFinderCriteria;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Tests for {@link PipelinedReplayer}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners( { DependencyInjectionTestExecutionListener.class })
+public class PipelinedReplayerTest {
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private FlowManager flowManager;
+
+    @Autowired
+    private FlowRepository flowRepository;
+
+    private PipelinedReplayer pipelinedReplayer;
+
+    @Before
+    public void setUp() throws Exception {
+        pipelinedReplayer = new PipelinedReplayer();
+        pipelinedReplayer.setFlowRepository(flowRepository);
+        pipelinedReplayer.setTransactionManager(transactionManager);
+        pipelinedReplayer.setBatchSize(10);
+        pipelinedReplayer.setQueueCapacity(5);
+        pipelinedReplayer.setDecoders(2);
+        pipelinedReplayer.afterPropertiesSet();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        flowManagerBase().setPipelinedReplayer(null);
+        pipelinedReplayer.destroy();
+    }
+
+    @Test
+    public void testReplayFlows() throws Exception {
+        String application = application();
+        List<Long> flowIds = beginFlows(application, 25);
+        flowManagerBase().setPipelinedReplayer(pipelinedReplayer);
+        assertEquals(25, flowManager.replayFlows(new FlowInfoFinderCriteria(new Date(0L), null, application)));
+        for (Long flowId : flowIds) {
+            assertEquals(1, flowManager.findFlow(flowId).getReplayCount());
+        }
+        // unchanged packets aren't written
+        assertEquals(0L, pipelinedReplayer.getUpdatedPacketCount());
+    }
+
+    @Test
+    public void testChangedPacketsWritten() throws Exception {
+        List<Long> flowIds = beginFlows(application(), 15);
+        flowIds.add(-1L);
+        List<Long> replayed = new ArrayList<>();
+        int count = pipelinedReplayer.replay(flowIds, new PacketReplay() {
+            @Override
+            public Object deserialize(byte[] packet) {
+                return packet;
+            }
+
+            @Override
+            public Object replay(Long flowId, Object packet) {
+                replayed.add(flowId);
+                return changed(flowId);
+            }
+
+            @Override
+            public byte[] serialize(Object packet) {
+                return (byte[])packet;
+            }
+
+            @Override
+            public void update(Long flowId, String application, byte[] packet) {
+                flowRepository.updatePacket(flowId, packet);
+            }
+        });
+        assertEquals(15, count);
+        // order is only preserved with a single decoder
+        Collections.sort(replayed);
+        assertEquals(flowIds.subList(0, 15), replayed);
+        assertEquals(1L, pipelinedReplayer.getFailedCount());
+        assertEquals(15L, pipelinedReplayer.getUpdatedPacketCount());
+        new TransactionTemplate(transactionManager).execute(status -> {
+            for (Long flowId : replayed) {
+                assertArrayEquals(changed(flowId), PacketCodec.decode(flowRepository.find(flowId).getPacket()));
+            }
+            return null;
+        });
+    }
+
+    private List<Long> beginFlows(String application, int count) {
+        List<Long> flowIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            flowIds.add(flowManager.beginFlow(new TestMessage("replay"), application));
+        }
+        return flowIds;
+    }
+
+    private FlowManagerBase flowManagerBase() {
+        return AopTestUtils.getTargetObject(flowManager);
+    }
+
+    private static byte[] changed(Long flowId) {
+        return ("changed-" + flowId).getBytes();
+    }
+
+    private static String application() {
+        return "replay-" + System.nanoTime();
+    }
+
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.FlowException;
+import org.openehealth.ipf.commons.flow.FlowManager;
+import org.openehealth.ipf.commons.flow.impl.TestMessage;
+import org.openehealth.ipf.commons.flow.repository.FlowRepository;
+import org.openehealth.ipf.commons.flow.repository.ReplayJobRepositoryImpl;
+import org.openehealth.ipf.commons.flow.transfer.FlowInfoFinderCriteria;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.orm.hibernate5.HibernateTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Tests for {@link ReplayJobManager}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners( { DependencyInjectionTestExecutionListener.class })
+public class ReplayJobManagerTest {
+
+    private static final long TIMEOUT = 30000L;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private HibernateTemplate hibernateTemplate;
+
+    @Autowired
+    private FlowManager flowManager;
+
+    @Autowired
+    private FlowRepository flowRepository;
+
+    private ReplayJobRepositoryImpl replayJobRepository;
+
+    private ReplayJobManager replayJobManager;
+
+    @Before
+    public void setUp() throws Exception {
+        replayJobRepository = new ReplayJobRepositoryImpl();
+        replayJobRepository.setHibernateTemplate(hibernateTemplate);
+        replayJobManager = replayJobManager();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        replayJobManager.destroy();
+    }
+
+    @Test
+    public void testReplayJob() throws Exception {
+        String application = application();
+        List<Long> flowIds = beginFlows(application, 25);
+        Long jobId = replayJobManager.start(ReplayJobType.ALL, new FlowInfoFinderCriteria(null, null, application));
+        assertTrue(replayJobManager.await(jobId, TIMEOUT));
+        ReplayJob job = replayJobManager.findJob(jobId);
+        assertEquals(ReplayJobStatus.COMPLETED, job.getStatus());
+        assertEquals(25L, job.getReplayCount());
+        assertEquals(0L, job.getFailCount());
+        assertEquals(flowIds.get(24), job.getCursor());
+        assertReplayCount(1, flowIds);
+    }
+
+    @Test
+    public void testErrorReplayJob() throws Exception {
+        String application = application();
+        List<Long> errorFlowIds = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            TestMessage message = new TestMessage("replay");
+            Long flowId = flowManager.beginFlow(message, application);
+            if (i % 2 == 0) {
+                flowManager.invalidateFlow(message);
+                errorFlowIds.add(flowId);
+            } else {
+                flowManager.acknowledgeFlow(message);
+            }
+        }
+        Long jobId = replayJobManager.start(ReplayJobType.ERROR, new FlowInfoFinderCriteria(null, null, application));
+        assertTrue(replayJobManager.await(jobId, TIMEOUT));
+        assertEquals(3L, replayJobManager.findJob(jobId).getReplayCount());
+        assertReplayCount(1, errorFlowIds);
+    }
+
+    @Test
+    public void testChunkRollback() throws Exception {
+        String application = application();
+        List<Long> flowIds = beginFlows(application, 8);
+        Long failing = flowIds.get(2);
+        Map<Long, Integer> sent = new ConcurrentHashMap<>();
+        Set<Long> failed = ConcurrentHashMap.newKeySet();
+        replayJobManager.destroy();
+        replayJobManager = replayJobManager((FlowManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { FlowManager.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("replayFlows") && args[0] instanceof List) {
+                        for (Object id : (List<?>) args[0]) {
+                            // rolls back the first chunk once
+                            if (id.equals(failing) && failed.add(failing)) {
+                                throw new IllegalStateException("test");
+                            }
+                            sent.merge((Long) id, 1, Integer::sum);
+                        }
+                    }
+                    try {
+                        return method.invoke(flowManager, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }));
+        Long jobId = replayJobManager.start(ReplayJobType.ALL, new FlowInfoFinderCriteria(null, null, application));
+        assertTrue(replayJobManager.await(jobId, TIMEOUT));
+        ReplayJob job = replayJobManager.findJob(jobId);
+        assertEquals(ReplayJobStatus.COMPLETED, job.getStatus());
+        assertEquals(8L, job.getReplayCount());
+        assertEquals(0L, job.getFailCount());
+        // flows sent before the rollback are not sent again
+        for (Long flowId : flowIds) {
+            assertEquals(Integer.valueOf(1), sent.get(flowId));
+        }
+        assertReplayCount(0, flowIds.subList(0, 2));
+        assertReplayCount(1, flowIds.subList(2, 8));
+    }
+
+    @Test
+    public void testResumeAfterRestart() throws Exception {
+        String application = application();
+        List<Long> flowIds = beginFlows(application, 20);
+        replayJobManager.destroy();
+        // job interrupted after the first 10 flows
+        ReplayJob job = new ReplayJob(ReplayJobType.ALL, application, new Date(0L), new Date());
+        job.checkpoint(flowIds.get(9), 10, 0);
+        persist(job);
+        replayJobManager = replayJobManager();
+        assertTrue(replayJobManager.await(job.getIdentifier(), TIMEOUT));
+        job = replayJobManager.findJob(job.getIdentifier());
+        assertEquals(ReplayJobStatus.COMPLETED, job.getStatus());
+        assertEquals(20L, job.getReplayCount());
+        assertReplayCount(0, flowIds.subList(0, 10));
+        assertReplayCount(1, flowIds.subList(10, 20));
+    }
+
+    @Test
+    public void testPauseResumeCancel() throws Exception {
+        String application = application();
+        List<Long> flowIds = beginFlows(application, 5);
+        ReplayJob job = new ReplayJob(ReplayJobType.ALL, application, new Date(0L), new Date());
+        job.setStatus(ReplayJobStatus.PAUSED);
+        persist(job);
+        Long jobId = job.getIdentifier();
+        assertTrue(replayJobManager.await(jobId, TIMEOUT));
+        assertReplayCount(0, flowIds);
+        replayJobManager.resume(jobId);
+        assertTrue(replayJobManager.await(jobId, TIMEOUT));
+        assertEquals(ReplayJobStatus.COMPLETED, replayJobManager.findJob(jobId).getStatus());
+        assertReplayCount(1, flowIds);
+        try {
+            replayJobManager.cancel(jobId);
+            fail("completed job cancelled");
+        } catch (FlowException e) {
+            // expected
+        }
+        ReplayJob cancelled = new ReplayJob(ReplayJobType.ALL, application, new Date(0L), new Date());
+        cancelled.setStatus(ReplayJobStatus.PAUSED);
+        persist(cancelled);
+        replayJobManager.cancel(cancelled.getIdentifier());
+        try {
+            replayJobManager.resume(cancelled.getIdentifier());
+            fail("cancelled job resumed");
+        } catch (FlowException e) {
+            // expected
+        }
+    }
+
+    private ReplayJobManager replayJobManager() throws Exception {
+        return replayJobManager(flowManager);
+    }
+
+    private ReplayJobManager replayJobManager(FlowManager flowManager) throws Exception {
+        ReplayJobManager manager = new ReplayJobManager();
+        manager.setFlowManager(flowManager);
+        manager.setFlowRepository(flowRepository);
+        manager.setReplayJobRepository(replayJobRepository);
+        manager.setTransactionManager(transactionManager);
+        manager.setChunkSize(4);
+        manager.afterPropertiesSet();
+        return manager;
+    }
+
+    private void persist(ReplayJob job) {
+        new TransactionTemplate(transactionManager).execute(status -> {
+            replayJobRepository.persist(job);
+            return null;
+        });
+    }
+
+    private List<Long> beginFlows(String application, int count) {
+        List<Long> flowIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            flowIds.add(flowManager.beginFlow(new TestMessage("replay"), application));
+        }
+        return flowIds;
+    }
+
+    private void assertReplayCount(int expected, List<Long> flowIds) {
+        for (Long flowId : flowIds) {
+            assertEquals(expected, flowManager.findFlow(flowId).getReplayCount());
+        }
+    }
+
+    private static String application() {
+        return "replay-" + System.nanoTime();
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ReplayThrottle}.
+ */
+public class ReplayThrottleTest {
+
+    private static final String APPLICATION = "throttle";
+
+    private ReplayThrottle throttle;
+
+    @Before
+    public void setUp() {
+        throttle = new ReplayThrottle();
+        throttle.setAdjustmentInterval(0L);
+    }
+
+    @Test
+    public void testUnlimited() {
+        for (int i = 0; i < 1000; i++) {
+            throttle.acquire(APPLICATION);
+        }
+        assertEquals(0L, throttle.getThrottledCount());
+    }
+
+    @Test
+    public void testRate() {
+        throttle.setRate(APPLICATION, 50.0);
+        long start = System.currentTimeMillis();
+        // first token is available immediately
+        for (int i = 0; i < 26; i++) {
+            throttle.acquire(APPLICATION);
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("elapsed " + elapsed, elapsed >= 450L);
+        assertTrue(throttle.getThrottledCount() > 0L);
+        // other applications use the default rate
+        throttle.acquire("other");
+        throttle.acquire("other");
+        assertEquals(50.0, throttle.getRate(APPLICATION), 0.0);
+        assertEquals(0.0, throttle.getRate("other"), 0.0);
+    }
+
+    @Test
+    public void testAdaptiveSlowdown() {
+        throttle.setRate(APPLICATION, 100.0);
+        for (int i = 0; i < 20; i++) {
+            throttle.replayed(APPLICATION, 10L, true);
+        }
+        assertTrue(throttle.getErrorRate(APPLICATION) > 0.5);
+        assertEquals(10.0, throttle.getEffectiveRate(APPLICATION), 0.001);
+        for (int i = 0; i < 100; i++) {
+            throttle.replayed(APPLICATION, 10L, false);
+        }
+        assertEquals(100.0, throttle.getEffectiveRate(APPLICATION), 0.001);
+        // latency
+        throttle.setLatencyThreshold(100L);
+        for (int i = 0; i < 50; i++) {
+            throttle.replayed(APPLICATION, 1000L, false);
+        }
+        assertTrue(throttle.getLatency(APPLICATION) > 100.0);
+        assertEquals(10.0, throttle.getEffectiveRate(APPLICATION), 0.001);
+        throttle.reset(APPLICATION);
+        assertEquals(100.0, throttle.getEffectiveRate(APPLICATION), 0.0);
+    }
+
+}
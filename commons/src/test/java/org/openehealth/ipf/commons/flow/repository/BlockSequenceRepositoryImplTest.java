@@ -0,0 +1,113 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.tx.TestTransactionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.orm.hibernate5.HibernateTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Tests for {@link BlockSequenceRepositoryImpl}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners( { DependencyInjectionTestExecutionListener.class })
+public class BlockSequenceRepositoryImplTest {
+
+    private static final int BLOCK_SIZE = 10;
+
+    @Autowired
+    private TestTransactionManager testTransactionManager;
+
+    @Autowired
+    private PlatformTransactionManager platformTransactionManager;
+
+    @Autowired
+    private HibernateTemplate hibernateTemplate;
+
+    private SequenceRepositoryImpl referenceRepository;
+
+    private BlockSequenceRepositoryImpl sequenceRepository;
+
+    @Before
+    public void setUp() throws Exception {
+        referenceRepository = new SequenceRepositoryImpl();
+        referenceRepository.setHibernateTemplate(hibernateTemplate);
+        sequenceRepository = new BlockSequenceRepositoryImpl();
+        sequenceRepository.setHibernateTemplate(hibernateTemplate);
+        sequenceRepository.setTransactionManager(platformTransactionManager);
+        sequenceRepository.setBlockSize(BLOCK_SIZE);
+        sequenceRepository.afterPropertiesSet();
+        testTransactionManager.beginTransaction();
+        sequenceRepository.initSequence();
+        testTransactionManager.commitTransaction();
+    }
+
+    @Test
+    public void testNextNumberWithinBlock() throws Exception {
+        long first = sequenceRepository.nextNumber();
+        for (long i = 1; i < BLOCK_SIZE * 3; i++) {
+            assertEquals(first + i, sequenceRepository.nextNumber().longValue());
+        }
+    }
+
+    @Test
+    public void testNextNumberSurvivesRollback() throws Exception {
+        Long number1 = sequenceRepository.nextNumber();
+        testTransactionManager.beginTransaction();
+        // reservation was committed separately
+        Long number2 = referenceRepository.nextNumber();
+        testTransactionManager.rollbackTransaction();
+        assertTrue(number2 > number1 + BLOCK_SIZE - 1);
+    }
+
+    @Test
+    public void testNextNumberConcurrent() throws Exception {
+        final Set<Long> numbers = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 100; j++) {
+                    numbers.add(sequenceRepository.nextNumber());
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1000, numbers.size());
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.config.ApplicationConfig;
+import org.openehealth.ipf.commons.flow.tx.TestTransactionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+
+/**
+ * Tests for {@link CachingConfigRepository}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners({DependencyInjectionTestExecutionListener.class})
+public class CachingConfigRepositoryTest {
+
+    @Autowired
+    private TestTransactionManager testTransactionManager;
+
+    @Autowired
+    private ConfigRepository configRepository;
+
+    private CachingConfigRepository cachingConfigRepository;
+
+    @Before
+    public void setUp() throws Exception {
+        cachingConfigRepository = new CachingConfigRepository(configRepository);
+        cachingConfigRepository.setRefreshInterval(0L);
+        testTransactionManager.beginTransaction();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        testTransactionManager.endTransaction();
+    }
+
+    @Test
+    public void testFindAndMerge() {
+        assertNull(cachingConfigRepository.find("cache1"));
+        assertNull(cachingConfigRepository.find("cache1"));
+        assertEquals(1L, cachingConfigRepository.getMissCount());
+        assertEquals(1L, cachingConfigRepository.getHitCount());
+        ApplicationConfig config = new ApplicationConfig("cache1");
+        config.setFlowFilterEnabled(false);
+        cachingConfigRepository.merge(config);
+        testTransactionManager.commitTransaction();
+        testTransactionManager.beginTransaction();
+        assertFalse(cachingConfigRepository.find("cache1").isFlowFilterEnabled());
+        assertFalse(cachingConfigRepository.find("cache1").isFlowFilterEnabled());
+        assertEquals(2L, cachingConfigRepository.getMissCount());
+        assertEquals(2L, cachingConfigRepository.getHitCount());
+        assertEquals(0.5, cachingConfigRepository.getHitRate(), 0.0);
+        // changes of returned configurations must be merged
+        config = cachingConfigRepository.find("cache1");
+        config.setFlowCleanupEnabled(true);
+        assertFalse(cachingConfigRepository.find("cache1").isFlowCleanupEnabled());
+        cachingConfigRepository.merge(config);
+        testTransactionManager.commitTransaction();
+        testTransactionManager.beginTransaction();
+        assertTrue(cachingConfigRepository.find("cache1").isFlowCleanupEnabled());
+        assertTrue(configRepository.find("cache1").isFlowCleanupEnabled());
+    }
+
+    @Test
+    public void testRollback() {
+        ApplicationConfig config = new ApplicationConfig("cache2");
+        cachingConfigRepository.merge(config);
+        assertTrue(cachingConfigRepository.find("cache2").isFlowFilterEnabled());
+        testTransactionManager.rollbackTransaction();
+        testTransactionManager.beginTransaction();
+        assertNull(cachingConfigRepository.find("cache2"));
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        assertNull(cachingConfigRepository.find("cache3"));
+        // change by another node
+        configRepository.merge(new ApplicationConfig("cache3"));
+        testTransactionManager.commitTransaction();
+        testTransactionManager.beginTransaction();
+        assertNull(cachingConfigRepository.find("cache3"));
+        cachingConfigRepository.setRefreshInterval(1L);
+        Thread.sleep(10L);
+        assertTrue(cachingConfigRepository.find("cache3").isFlowFilterEnabled());
+        assertEquals(1, cachingConfigRepository.getSize());
+        cachingConfigRepository.clear();
+        assertEquals(0, cachingConfigRepository.getSize());
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.repository;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.domain.Flow;
+import org.openehealth.ipf.commons.flow.tx.TestTransactionManager;
+import org.openehealth.ipf.commons.flow.util.Flows;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.orm.hibernate5.HibernateTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Tests for {@link FlowBucketMigration}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners( { DependencyInjectionTestExecutionListener.class })
+public class FlowBucketMigrationTest {
+
+    private static final String APPLICATION = "bucket-migration";
+
+    @Autowired
+    private TestTransactionManager testTransactionManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private HibernateTemplate hibernateTemplate;
+
+    @Autowired
+    private FlowRepositoryImpl flowRepository;
+
+    private FlowPartitioning partitioning;
+
+    private FlowBucketMigration migration;
+
+    @Before
+    public void setUp() throws Exception {
+        partitioning = new FlowPartitioning();
+        partitioning.setBucketSize("1d");
+        migration = new FlowBucketMigration();
+        migration.setHibernateTemplate(hibernateTemplate);
+        migration.setTransactionManager(transactionManager);
+        migration.setPartitioning(partitioning);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        flowRepository.setPartitioning(null);
+        testTransactionManager.beginTransaction();
+        flowRepository.removeAll(flowRepository.findFlows(new FlowFinderCriteria(new Date(0), null, APPLICATION)));
+        testTransactionManager.commitTransaction();
+    }
+
+    @Test
+    public void testMigrate() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        testTransactionManager.beginTransaction();
+        for (int i = 1; i <= 5; i++) {
+            Flow flow = Flows.createFlow("bucket" + i, 0);
+            flow.setApplication(APPLICATION);
+            flow.setCreationTime(new Date(i));
+            flowRepository.persist(flow);
+            ids.add(flow.getIdentifier());
+        }
+        testTransactionManager.commitTransaction();
+        flowRepository.setPartitioning(partitioning);
+        FlowFinderCriteria criteria = new FlowFinderCriteria(new Date(0), null, APPLICATION);
+        testTransactionManager.beginTransaction();
+        assertEquals(0, flowRepository.findFlowIds(criteria).size());
+        testTransactionManager.commitTransaction();
+
+        migration.afterPropertiesSet();
+        assertEquals(0, migration.migrate());
+        testTransactionManager.beginTransaction();
+        try {
+            assertEquals(ids, flowRepository.findFlowIds(criteria, null));
+            assertEquals(2, flowRepository.findFlowIds(
+                    new FlowFinderCriteria(new Date(2), new Date(3), APPLICATION)).size());
+            for (int i = 0; i < ids.size(); i++) {
+                assertEquals(Long.valueOf(0L), flowRepository.find(ids.get(i)).getBucket());
+            }
+        } finally {
+            testTransactionManager.commitTransaction();
+        }
+    }
+
+}
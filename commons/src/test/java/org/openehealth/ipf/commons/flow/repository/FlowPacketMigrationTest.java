@@ -0,0 +1,119 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.domain.Flow;
+import org.openehealth.ipf.commons.flow.tx.TestTransactionManager;
+import org.openehealth.ipf.commons.flow.util.Flows;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.hibernate5.HibernateTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Tests for {@link FlowPacketMigration}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners( { DependencyInjectionTestExecutionListener.class })
+public class FlowPacketMigrationTest {
+
+    @Autowired
+    private TestTransactionManager testTransactionManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private HibernateTemplate hibernateTemplate;
+
+    @Autowired
+    private FlowRepository flowRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private FlowPacketMigration migration;
+
+    @Before
+    public void setUp() throws Exception {
+        migration = new FlowPacketMigration();
+        migration.setHibernateTemplate(hibernateTemplate);
+        migration.setTransactionManager(transactionManager);
+        migration.setBatchSize(2);
+        migration.setAsync(false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        jdbcTemplate.execute("ALTER TABLE PLATFORM.T_FLOW DROP COLUMN C_PACKET");
+    }
+
+    @Test
+    public void testMigrate() throws Exception {
+        // no legacy column
+        migration.afterPropertiesSet();
+        jdbcTemplate.execute("ALTER TABLE PLATFORM.T_FLOW ADD COLUMN C_PACKET BLOB(2147483647)");
+        List<Long> ids = new ArrayList<>();
+        testTransactionManager.beginTransaction();
+        for (int i = 0; i < 5; i++) {
+            Flow flow = Flows.createFlow((byte[])null, 0);
+            flowRepository.persist(flow);
+            ids.add(flow.getIdentifier());
+        }
+        // packet written after the upgrade
+        Flow current = Flows.createFlow("current", 0);
+        flowRepository.persist(current);
+        testTransactionManager.commitTransaction();
+        jdbcTemplate.update("UPDATE PLATFORM.T_FLOW SET C_PACKET = ? WHERE C_ID = ?",
+                "legacy".getBytes(), current.getIdentifier());
+        for (Long id : ids) {
+            jdbcTemplate.update("UPDATE PLATFORM.T_FLOW SET C_PACKET = ? WHERE C_ID = ?",
+                    ("legacy" + id).getBytes(), id);
+        }
+        assertEquals(6, migration.migrate());
+        assertEquals(0, migration.migrate());
+        testTransactionManager.beginTransaction();
+        try {
+            for (Long id : ids) {
+                Flow flow = flowRepository.find(id);
+                assertTrue(flow.isReplayable());
+                assertEquals("legacy" + id, new String(flow.getPacket()));
+                assertNull(jdbcTemplate.queryForObject(
+                        "SELECT C_PACKET FROM PLATFORM.T_FLOW WHERE C_ID = ?", new Object[] {id}, byte[].class));
+            }
+            assertEquals("current", new String(flowRepository.find(current.getIdentifier()).getPacket()));
+        } finally {
+            testTransactionManager.commitTransaction();
+        }
+    }
+
+}
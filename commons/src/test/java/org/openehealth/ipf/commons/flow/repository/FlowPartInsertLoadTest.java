@@ -0,0 +1,119 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.FlowManager;
+import org.openehealth.ipf.commons.flow.domain.FlowPart;
+import org.openehealth.ipf.commons.flow.impl.TestMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Measures the insert throughput of flow parts and the size of the flow part
+ * table and its indexes.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners({DependencyInjectionTestExecutionListener.class})
+public class FlowPartInsertLoadTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowPartInsertLoadTest.class);
+
+    private static final String TABLE = "T_FLOW_PART_V2";
+
+    private static final int NUM_PARTS = 100000;
+
+    private static final int BATCH_SIZE = 100;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private FlowManager flowManager;
+
+    @Autowired
+    private FlowRepository flowRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void testInsert() throws Exception {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        // warm up
+        run(transactionTemplate, 1, NUM_PARTS / 10);
+        for (int numThreads : new int[] {1, 10}) {
+            double rate = run(transactionTemplate, numThreads, NUM_PARTS);
+            LOG.info("{} threads: {} parts/s", numThreads, (long)rate);
+        }
+        long rows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM PLATFORM." + TABLE, Long.class);
+        List<Map<String, Object>> space = jdbcTemplate.queryForList(
+                "SELECT CONGLOMERATENAME, ISINDEX, NUMALLOCATEDPAGES, PAGESIZE "
+                + "FROM TABLE (SYSCS_DIAG.SPACE_TABLE('PLATFORM', '" + TABLE + "')) T");
+        for (Map<String, Object> conglomerate : space) {
+            long bytes = ((Number)conglomerate.get("NUMALLOCATEDPAGES")).longValue()
+                    * ((Number)conglomerate.get("PAGESIZE")).longValue();
+            LOG.info("{} rows: {} {} {} KB ({} bytes/row)", rows,
+                    ((Number)conglomerate.get("ISINDEX")).intValue() == 1 ? "index" : "table",
+                    conglomerate.get("CONGLOMERATENAME"), bytes / 1024, bytes / rows);
+        }
+    }
+
+    private double run(TransactionTemplate transactionTemplate, int numThreads, int numParts)
+            throws InterruptedException {
+        final int numBatches = numParts / numThreads / BATCH_SIZE;
+        List<Thread> threads = new ArrayList<>(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            final Long flowId = flowManager.beginFlow(new TestMessage("load"), "test");
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < numBatches; j++) {
+                    final int batch = j;
+                    transactionTemplate.execute(status -> {
+                        for (int k = 0; k < BATCH_SIZE; k++) {
+                            flowRepository.persist(new FlowPart(flowId, "0." + batch + "." + k));
+                        }
+                        return null;
+                    });
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return numBatches * numThreads * BATCH_SIZE * 1e9 / (System.nanoTime() - start);
+    }
+
+}
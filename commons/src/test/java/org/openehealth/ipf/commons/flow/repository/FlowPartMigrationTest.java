@@ -0,0 +1,121 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.openehealth.ipf.commons.flow.domain.FlowStatus.CLEAN;
+import static org.openehealth.ipf.commons.flow.domain.FlowStatus.ERROR;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.domain.Flow;
+import org.openehealth.ipf.commons.flow.tx.TestTransactionManager;
+import org.openehealth.ipf.commons.flow.util.Flows;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.hibernate5.HibernateTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Tests for {@link FlowPartMigration}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners( { DependencyInjectionTestExecutionListener.class })
+public class FlowPartMigrationTest {
+
+    private static final String COLUMNS = "C_FLOW_ID, C_PATH, C_STATUS, C_CONTRIBUTION_TIME, "
+            + "C_CONTRIBUTION_COUNT, C_FILTER_TIME, C_FILTER_COUNT, FLOW_PART_MESSAGE_ID";
+
+    @Autowired
+    private TestTransactionManager testTransactionManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private HibernateTemplate hibernateTemplate;
+
+    @Autowired
+    private FlowRepository flowRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private FlowPartMigration migration;
+
+    @Before
+    public void setUp() throws Exception {
+        migration = new FlowPartMigration();
+        migration.setHibernateTemplate(hibernateTemplate);
+        migration.setTransactionManager(transactionManager);
+        migration.setBatchSize(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        jdbcTemplate.execute("DROP TABLE PLATFORM.T_FLOW_PART");
+    }
+
+    @Test
+    public void testMigrate() throws Exception {
+        // no legacy table
+        migration.afterPropertiesSet();
+        testTransactionManager.beginTransaction();
+        Flow flow = Flows.createFlowWithText("migration", CLEAN, ERROR, CLEAN);
+        flowRepository.persist(flow);
+        testTransactionManager.commitTransaction();
+        // move the parts to a legacy table with UUID identifiers (and without C_DEFERRED)
+        jdbcTemplate.execute("CREATE TABLE PLATFORM.T_FLOW_PART (C_ID VARCHAR(128) NOT NULL PRIMARY KEY, "
+                + "C_CONTRIBUTION_COUNT INTEGER NOT NULL, C_CONTRIBUTION_TIME TIMESTAMP, "
+                + "C_FILTER_COUNT INTEGER NOT NULL, C_FILTER_TIME TIMESTAMP, C_FLOW_ID BIGINT, "
+                + "C_PATH VARCHAR(255), C_STATUS INTEGER, FLOW_PART_MESSAGE_ID VARCHAR(128))");
+        jdbcTemplate.update("INSERT INTO PLATFORM.T_FLOW_PART (C_ID, " + COLUMNS + ") "
+                + "SELECT 'legacy' || TRIM(CAST(C_ID AS CHAR(20))), " + COLUMNS
+                + " FROM PLATFORM.T_FLOW_PART_V2 WHERE C_FLOW_ID = ?", flow.getIdentifier());
+        jdbcTemplate.update("DELETE FROM PLATFORM.T_FLOW_PART_V2 WHERE C_FLOW_ID = ?", flow.getIdentifier());
+        long messages = countMessages();
+        assertEquals(3, migration.migrate());
+        assertEquals(0, migration.migrate());
+        assertEquals(0L, (long)jdbcTemplate.queryForObject("SELECT COUNT(*) FROM PLATFORM.T_FLOW_PART", Long.class));
+        assertEquals(messages, countMessages());
+        testTransactionManager.beginTransaction();
+        try {
+            flow = flowRepository.find(flow.getIdentifier());
+            assertEquals(3, flow.getParts().size());
+            assertEquals(2, flow.getStatusCount(CLEAN));
+            assertEquals(ERROR, flow.getStatus());
+            assertEquals(ERROR, flow.getPart("0.1").getStatus());
+            assertTrue(flow.getPart("0.2").getFlowPartMessageText().contains("migration"));
+            assertFalse(flow.getPart("0.2").isDeferred());
+        } finally {
+            testTransactionManager.commitTransaction();
+        }
+    }
+
+    private long countMessages() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM PLATFORM.T_FLOW_PART_MESSAGE", Long.class);
+    }
+
+}
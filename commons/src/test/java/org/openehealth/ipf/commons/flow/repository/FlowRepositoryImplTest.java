@@ -25,19 +25,26 @@ import static org.openehealth.ipf.commons.flow.domain.FlowStatus.ERROR;
 import static org.openehealth.ipf.commons.flow.util.Flows.createFlow;
 import static org.openehealth.ipf.commons.flow.util.Flows.createFlowPart;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
+import org.hibernate.Hibernate;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.openehealth.ipf.commons.flow.FlowException;
+import org.openehealth.ipf.commons.flow.archive.ArchiveFlowRepository;
+import org.openehealth.ipf.commons.flow.archive.FlowArchive;
 import org.openehealth.ipf.commons.flow.domain.Flow;
 import org.openehealth.ipf.commons.flow.domain.FlowPart;
 import org.openehealth.ipf.commons.flow.domain.FlowStatus;
 import org.openehealth.ipf.commons.flow.repository.FlowPurgeCriteria.PurgeMode;
+import org.openehealth.ipf.commons.flow.transfer.FlowInfo;
 import org.openehealth.ipf.commons.flow.tx.TestTransactionManager;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ContextConfiguration;
@@ -72,6 +79,10 @@ public class FlowRepositoryImplTest {
 
     @After
     public void tearDown() throws Exception {
+        flowRepository.setBulkPurge(false);
+        flowRepository.setBulkPurgeBatchSize(FlowRepositoryImpl.DEFAULT_BULK_PURGE_BATCH_SIZE);
+        flowRepository.setPartitioning(null);
+        flowRepository.setArchive(null);
         flowRepository.removeAll(flowRepository.findFlows(allFlows));
         testTransactionManager.endTransaction();
     }
@@ -117,6 +128,29 @@ public class FlowRepositoryImplTest {
         assertEquals(111, flow.getAckCountExpected());
     }
     
+    @Test
+    public void testStatusCounters() throws Exception {
+        Flow flow = createFlow("blah", 0);
+        flowRepository.persist(flow);
+        Long id = flow.getIdentifier();
+        testTransactionManager.commitTransaction();
+        testTransactionManager.beginTransaction();
+        flow = flowRepository.lock(id);
+        flow.setAckCountExpected(2);
+        flow.acknowledge("0.0", false);
+        flow.invalidate("0.1");
+        testTransactionManager.commitTransaction();
+        testTransactionManager.beginTransaction();
+        flow = flowRepository.find(id);
+        FlowInfo info = flow.getInfo(false, false);
+        assertEquals(ERROR.toString(), info.getStatus());
+        assertEquals(1, info.getAckCount());
+        assertEquals(1, info.getNakCount());
+        assertNotNull(info.getUpdateTime());
+        assertFalse(flow.isAckCountExpectedReached());
+        assertFalse(Hibernate.isInitialized(flow.getParts()));
+    }
+    
     @Test
     public void testMerge() throws Exception {
         Flow flow = createFlow("blah");
@@ -391,6 +425,166 @@ public class FlowRepositoryImplTest {
         assertEquals(5, flowRepository.findFlows(finderCriteria).size());
     }
     
+    @Test
+    public void testPurgeFlowsIdRange() throws IOException {
+        FlowFinderCriteria finderCriteria = new FlowFinderCriteria(new Date(0), new Date(5), "test"); 
+        persistFlowHistory();
+        List<Long> ids = flowRepository.findFlowIds(finderCriteria, null);
+        FlowPurgeCriteria purgeCriteria = new FlowPurgeCriteria(PurgeMode.ALL, new Date(5), "test", 5,
+                ids.get(1), ids.get(2));
+        FlowPurgeBacklog backlog = flowRepository.findPurgeBacklog(purgeCriteria);
+        assertEquals(2, backlog.getCount());
+        assertEquals(ids.get(1), backlog.getMinId());
+        assertEquals(ids.get(2), backlog.getMaxId());
+        assertEquals(2, flowRepository.purgeFlows(purgeCriteria));
+        assertEquals(0, flowRepository.findPurgeBacklog(purgeCriteria).getCount());
+        assertEquals(2, flowRepository.findPurgeBacklog(
+                new FlowPurgeCriteria(PurgeMode.ALL, new Date(5), "test")).getCount());
+        assertEquals(3, flowRepository.findFlows(finderCriteria).size());
+    }
+    
+    @Test
+    public void testBulkPurgeFlowsIdRange() throws IOException {
+        flowRepository.setBulkPurge(true);
+        testPurgeFlowsIdRange();
+    }
+    
+    @Test
+    public void testBulkPurgeAllFlows() throws IOException {
+        flowRepository.setBulkPurge(true);
+        testPurgeAllFlows();
+    }
+    
+    @Test
+    public void testBulkPurgeCleanFlows() throws IOException {
+        flowRepository.setBulkPurge(true);
+        testPurgeCleanFlows();
+    }
+    
+    @Test
+    public void testBulkPurgeFlowsWrongApp() throws IOException {
+        flowRepository.setBulkPurge(true);
+        testPurgeFlowsWrongApp();
+    }
+    
+    @Test
+    public void testBulkPurgeFlowsUnlimited() throws IOException {
+        FlowFinderCriteria finderCriteria = new FlowFinderCriteria(new Date(0), new Date(5), "test"); 
+        FlowPurgeCriteria purgeCriteria = new FlowPurgeCriteria(PurgeMode.CLEAN, new Date(6), "test");
+        flowRepository.setBulkPurge(true);
+        persistFlowHistory();
+        assertEquals(4, flowRepository.purgeFlows(purgeCriteria));
+        testTransactionManager.commitTransaction();
+        testTransactionManager.beginTransaction();
+        List<Flow> flows = flowRepository.findFlows(finderCriteria);
+        assertEquals(1, flows.size());
+        assertEquals(FlowStatus.ERROR, flows.get(0).getStatus());
+        assertEquals("f3", new String(flows.get(0).getPacket()));
+        assertEquals(2, flows.get(0).getParts().size());
+    }
+    
+    @Test
+    public void testFindFlowsPartitioned() throws IOException {
+        FlowPartitioning partitioning = new FlowPartitioning();
+        partitioning.setBucketSize("2");
+        flowRepository.setPartitioning(partitioning);
+        persistFlowHistory();
+        List<Flow> flows = flowRepository.findFlows(new FlowFinderCriteria(new Date(2), new Date(3), "test"));
+        assertEquals(2, flows.size());
+        assertEquals(Long.valueOf(1L), flows.get(0).getBucket());
+        assertEquals(Long.valueOf(1L), flows.get(1).getBucket());
+        assertEquals(5, flowRepository.findFlowIds(new FlowFinderCriteria(new Date(0), null, "test")).size());
+    }
+    
+    @Test
+    public void testBulkPurgeFlowsSingleBatch() throws IOException {
+        FlowPurgeCriteria purgeCriteria = new FlowPurgeCriteria(PurgeMode.CLEAN, new Date(6), "test");
+        flowRepository.setBulkPurge(true);
+        flowRepository.setBulkPurgeBatchSize(3);
+        persistFlowHistory();
+        assertEquals(3, flowRepository.purgeFlows(purgeCriteria));
+        assertEquals(1, flowRepository.purgeFlows(purgeCriteria));
+        assertEquals(0, flowRepository.purgeFlows(purgeCriteria));
+    }
+    
+    @Test
+    public void testDropBuckets() throws IOException {
+        FlowFinderCriteria finderCriteria = new FlowFinderCriteria(new Date(0), new Date(5), "test"); 
+        FlowPartitioning partitioning = new FlowPartitioning();
+        partitioning.setBucketSize("2");
+        flowRepository.setPartitioning(partitioning);
+        persistFlowHistory();
+        // buckets 0 (f1) and 1 (f2, f3) end before bucket 2 (f4, f5)
+        assertEquals(3, flowRepository.dropBuckets(new Date(5)));
+        assertEquals(0, flowRepository.dropBuckets(new Date(5)));
+        testTransactionManager.commitTransaction();
+        testTransactionManager.beginTransaction();
+        List<Flow> flows = flowRepository.findFlows(finderCriteria);
+        assertEquals(2, flows.size());
+        assertEquals("f5", new String(flows.get(0).getPacket()));
+        assertEquals("f4", new String(flows.get(1).getPacket()));
+    }
+    
+    @Test
+    public void testDropBucketsWithStatements() throws IOException {
+        FlowFinderCriteria finderCriteria = new FlowFinderCriteria(new Date(0), new Date(5), "test"); 
+        FlowPartitioning partitioning = new FlowPartitioning();
+        partitioning.setBucketSize("2");
+        partitioning.setDropStatements(Collections.singletonList("DELETE FROM PLATFORM.T_FLOW WHERE C_BUCKET = {0}"));
+        flowRepository.setPartitioning(partitioning);
+        persistFlowHistory();
+        assertEquals(3, flowRepository.dropBuckets(new Date(5)));
+        testTransactionManager.commitTransaction();
+        testTransactionManager.beginTransaction();
+        List<Flow> flows = flowRepository.findFlows(finderCriteria);
+        assertEquals(2, flows.size());
+        assertEquals("f4", new String(flows.get(1).getPacket()));
+    }
+    
+    @Test(expected = FlowException.class)
+    public void testDropBucketsNotPartitioned() {
+        flowRepository.dropBuckets(new Date());
+    }
+    
+    @Test
+    public void testPurgeFlowsArchived() throws Exception {
+        testPurgeFlowsArchived(false);
+    }
+    
+    @Test
+    public void testBulkPurgeFlowsArchived() throws Exception {
+        testPurgeFlowsArchived(true);
+    }
+    
+    private void testPurgeFlowsArchived(boolean bulkPurge) throws Exception {
+        File directory = new File("target/flow-archive-purge");
+        File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.stream(files).forEach(File::delete);
+        }
+        FlowArchive archive = new FlowArchive();
+        archive.setDirectory(directory);
+        archive.afterPropertiesSet();
+        flowRepository.setArchive(archive);
+        flowRepository.setBulkPurge(bulkPurge);
+        persistFlowHistory();
+        List<Long> ids = flowRepository.findFlowIds(new FlowFinderCriteria(new Date(0), new Date(5), "test"), null);
+        assertEquals(4, flowRepository.purgeFlows(new FlowPurgeCriteria(PurgeMode.CLEAN, new Date(6), "test")));
+        testTransactionManager.commitTransaction();
+        testTransactionManager.beginTransaction();
+        archive.destroy();
+        archive.afterPropertiesSet();
+        ArchiveFlowRepository archiveRepository = new ArchiveFlowRepository(archive);
+        FlowFinderCriteria finderCriteria = new FlowFinderCriteria(new Date(0), new Date(5), "test");
+        assertEquals(Arrays.asList(ids.get(4), ids.get(3), ids.get(1), ids.get(0)),
+                archiveRepository.findFlowIds(finderCriteria));
+        Flow flow = archiveRepository.find(ids.get(1));
+        assertEquals("f2", new String(flow.getPacket()));
+        assertEquals(new Date(2), flow.getCreationTime());
+        assertEquals(2, flow.getParts().size());
+        archive.destroy();
+    }
+    
     private void persistFlowHistory() throws IOException {
         Flow flow1 = createFlow("f1");
         Flow flow2 = createFlow("f2");
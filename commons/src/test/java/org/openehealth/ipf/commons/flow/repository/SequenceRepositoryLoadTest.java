@@ -0,0 +1,118 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.repository;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.orm.hibernate5.HibernateTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Compares the throughput of {@link SequenceRepositoryImpl} and
+ * {@link BlockSequenceRepositoryImpl} under concurrent access. Each
+ * {@link SequenceRepositoryImpl#nextNumber()} call runs in its own
+ * transaction, as declared on {@link SequenceRepository}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners({DependencyInjectionTestExecutionListener.class})
+public class SequenceRepositoryLoadTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SequenceRepositoryLoadTest.class);
+
+    private static final int NUM_NUMBERS = 5000;
+
+    @Autowired
+    private PlatformTransactionManager platformTransactionManager;
+
+    @Autowired
+    private HibernateTemplate hibernateTemplate;
+
+    private TransactionTemplate transactionTemplate;
+
+    private SequenceRepositoryImpl sequenceRepository;
+
+    private BlockSequenceRepositoryImpl blockSequenceRepository;
+
+    @Before
+    public void setUp() throws Exception {
+        transactionTemplate = new TransactionTemplate(platformTransactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        sequenceRepository = new SequenceRepositoryImpl();
+        sequenceRepository.setHibernateTemplate(hibernateTemplate);
+        blockSequenceRepository = new BlockSequenceRepositoryImpl();
+        blockSequenceRepository.setHibernateTemplate(hibernateTemplate);
+        blockSequenceRepository.setTransactionManager(platformTransactionManager);
+        blockSequenceRepository.afterPropertiesSet();
+        transactionTemplate.execute(status -> {
+            sequenceRepository.initSequence();
+            return null;
+        });
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        for (int numThreads : new int[] {10, 50, 100}) {
+            double single = run(numThreads, () -> transactionTemplate.execute(status -> sequenceRepository.nextNumber()));
+            double block = run(numThreads, blockSequenceRepository::nextNumber);
+            LOG.info("{} threads: {} numbers/s (row lock per number), {} numbers/s (block size {}), speedup {}",
+                    numThreads, (long)single, (long)block, blockSequenceRepository.getBlockSize(),
+                    String.format("%.1f", block / single));
+        }
+    }
+
+    private static double run(int numThreads, Supplier<Long> generator) throws InterruptedException {
+        final Set<Long> numbers = ConcurrentHashMap.newKeySet();
+        final int numLoops = NUM_NUMBERS / numThreads;
+        List<Thread> threads = new ArrayList<>(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < numLoops; j++) {
+                    numbers.add(generator.get());
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(numLoops * numThreads, numbers.size());
+        return numbers.size() * 1e9 / elapsed;
+    }
+
+}
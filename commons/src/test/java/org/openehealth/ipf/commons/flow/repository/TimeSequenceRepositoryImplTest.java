@@ -0,0 +1,123 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.openehealth.ipf.commons.flow.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openehealth.ipf.commons.flow.FlowException;
+import org.openehealth.ipf.commons.flow.domain.Flow;
+import org.openehealth.ipf.commons.flow.tx.TestTransactionManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.orm.hibernate5.HibernateTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+
+/**
+ * Tests for {@link TimeSequenceRepositoryImpl}.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "/test-tx-explicit.xml" })
+@TestExecutionListeners( { DependencyInjectionTestExecutionListener.class })
+public class TimeSequenceRepositoryImplTest {
+
+    @Autowired
+    private TestTransactionManager testTransactionManager;
+
+    @Autowired
+    private HibernateTemplate hibernateTemplate;
+
+    private TestClockSequenceRepository sequenceRepository;
+
+    @Before
+    public void setUp() throws Exception {
+        sequenceRepository = new TestClockSequenceRepository();
+        sequenceRepository.setHibernateTemplate(hibernateTemplate);
+        sequenceRepository.setNodeId(5);
+        testTransactionManager.beginTransaction();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        testTransactionManager.endTransaction();
+    }
+
+    @Test
+    public void testNextNumberMonotonic() throws Exception {
+        long previous = sequenceRepository.nextNumber();
+        for (int i = 0; i < 10000; i++) {
+            if (i % 1000 == 0) {
+                sequenceRepository.time++;
+            }
+            long number = sequenceRepository.nextNumber();
+            assertTrue(number > previous);
+            assertEquals(5, (number >>> 12) & TimeSequenceRepositoryImpl.MAX_NODE_ID);
+            previous = number;
+        }
+    }
+
+    @Test
+    public void testNextNumberTimeOrdered() throws Exception {
+        long number = sequenceRepository.nextNumber();
+        assertEquals(sequenceRepository.time - TimeSequenceRepositoryImpl.DEFAULT_EPOCH, number >>> 22);
+    }
+
+    @Test
+    public void testClockRegression() throws Exception {
+        long number1 = sequenceRepository.nextNumber();
+        sequenceRepository.time -= 1000L; // tolerated
+        long number2 = sequenceRepository.nextNumber();
+        assertTrue(number2 > number1);
+        sequenceRepository.time -= TimeSequenceRepositoryImpl.DEFAULT_MAX_CLOCK_REGRESSION;
+        try {
+            sequenceRepository.nextNumber();
+            fail("clock regression not detected");
+        } catch (FlowException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testInitSequenceAboveStoredIdentifier() throws Exception {
+        long stored = sequenceRepository.nextNumber() + (1000L << 22);
+        Flow flow = new Flow("test");
+        flow.setIdentifier(stored);
+        hibernateTemplate.persist(flow);
+        hibernateTemplate.flush();
+        sequenceRepository.initSequence();
+        assertTrue(sequenceRepository.nextNumber() > stored);
+        testTransactionManager.rollbackTransaction();
+    }
+
+    private static class TestClockSequenceRepository extends TimeSequenceRepositoryImpl {
+
+        long time = System.currentTimeMillis();
+
+        @Override
+        protected long currentTimeMillis() {
+            return time;
+        }
+
+    }
+
+}